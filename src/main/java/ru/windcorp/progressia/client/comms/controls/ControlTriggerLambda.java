@@ -25,7 +25,6 @@ import ru.windcorp.progressia.client.graphics.input.InputEvent;
 import ru.windcorp.progressia.common.comms.controls.ControlData;
 import ru.windcorp.progressia.common.comms.controls.ControlDataRegistry;
 import ru.windcorp.progressia.common.comms.controls.PacketControl;
-import ru.windcorp.progressia.common.util.namespaces.NamespacedUtil;
 
 public class ControlTriggerLambda extends ControlTriggerInputBased {
 
@@ -40,10 +39,7 @@ public class ControlTriggerLambda extends ControlTriggerInputBased {
 	) {
 		super(id);
 
-		this.packetId = NamespacedUtil.getId(
-			NamespacedUtil.getNamespace(id),
-			"ControlKeyPress" + NamespacedUtil.getName(id)
-		);
+		this.packetId = PacketControl.getPacketId(id);
 
 		this.predicate = predicate;
 		this.dataWriter = dataWriter;
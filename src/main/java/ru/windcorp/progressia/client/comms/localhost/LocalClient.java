@@ -42,8 +42,9 @@ public class LocalClient extends ClientPlayer {
 		return this.login;
 	}
 
+	// Synchronized so that client-side listeners never run concurrently
 	@Override
-	protected void doSendPacket(Packet packet) throws IOException {
+	protected synchronized void doSendPacket(Packet packet) throws IOException {
 		this.serverComms.relayPacketToClient(packet);
 	}
 
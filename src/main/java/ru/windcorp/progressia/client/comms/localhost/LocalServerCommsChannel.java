@@ -44,7 +44,7 @@ public class LocalServerCommsChannel extends ServerCommsChannel {
 	}
 
 	@Override
-	protected void doSendPacket(Packet packet) {
+	protected synchronized void doSendPacket(Packet packet) {
 		localClient.relayPacketToServer(packet);
 	}
 
@@ -0,0 +1,99 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.client.comms.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+import ru.windcorp.progressia.client.comms.ServerCommsChannel;
+import ru.windcorp.progressia.common.comms.net.NetConnection;
+import ru.windcorp.progressia.common.comms.net.NetEventLoop;
+import ru.windcorp.progressia.common.comms.net.PacketHandshake;
+import ru.windcorp.progressia.common.comms.packets.Packet;
+import ru.windcorp.progressia.common.comms.packets.PacketRegistry;
+
+/**
+ * A connection to a remote server. Received packets are relayed to the
+ * listeners in the network thread.
+ */
+public class NetServerCommsChannel extends ServerCommsChannel {
+
+	private NetEventLoop loop = null;
+	private NetConnection connection = null;
+
+	private final NetConnection.Handler handler = new NetConnection.Handler() {
+		@Override
+		public void onPacketReceived(Packet packet) {
+			NetServerCommsChannel.this.onPacketReceived(packet);
+			packet.release();
+		}
+
+		@Override
+		public void onClosed(IOException reason) {
+			setState(State.DISCONNECTED);
+			if (reason != null) {
+				onIOError(reason, "Connection lost");
+			}
+		}
+	};
+
+	/**
+	 * Connects to the server at the provided address. This method blocks
+	 * until the connection is established.
+	 * 
+	 * @param address the address of the server
+	 * @param login   the login of the local player
+	 * @throws IOException if the connection could not be established
+	 */
+	public synchronized void connect(SocketAddress address, String login) throws IOException {
+		if (connection != null)
+			throw new IllegalStateException("Already connected");
+
+		loop = new NetEventLoop("Client network loop");
+		loop.start();
+
+		SocketChannel channel = SocketChannel.open(address);
+		connection = new NetConnection(channel, loop, PacketRegistry.getInstance(), handler);
+		connection.start();
+
+		PacketHandshake handshake = new PacketHandshake();
+		handshake.set(login, PacketRegistry.getInstance());
+		sendConnectingPacket(handshake);
+
+		setState(State.CONNECTED);
+	}
+
+	@Override
+	protected void doSendPacket(Packet packet) throws IOException {
+		connection.send(packet);
+	}
+
+	@Override
+	public synchronized void disconnect() {
+		if (connection == null)
+			return;
+
+		setState(State.DISCONNECTING);
+		connection.close();
+		loop.close();
+		setState(State.DISCONNECTED);
+	}
+
+}
@@ -58,9 +58,7 @@ public class ChunkRender
 
 	@Override
 	public BlockRender getBlock(Vec3i posInChunk) {
-		return BlockRenderRegistry.getInstance().get(
-			getData().getBlock(posInChunk).getId()
-		);
+		return BlockRenderRegistry.getInstance().get(getData().getBlock(posInChunk));
 	}
 
 	@Override
@@ -125,7 +123,7 @@ public class ChunkRender
 
 		@Override
 		public TileRender get(int index) {
-			return TileRenderRegistry.getInstance().get(parent.get(index).getId());
+			return TileRenderRegistry.getInstance().get(parent.get(index));
 		}
 
 		@Override
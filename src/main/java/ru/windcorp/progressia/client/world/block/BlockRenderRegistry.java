@@ -23,18 +23,37 @@ import ru.windcorp.progressia.client.graphics.texture.Atlases.AtlasGroup;
 import ru.windcorp.progressia.client.graphics.texture.SimpleTexture;
 import ru.windcorp.progressia.client.graphics.texture.Texture;
 import ru.windcorp.progressia.common.resource.ResourceManager;
+import ru.windcorp.progressia.common.util.namespaces.NamespacedCounterparts;
 import ru.windcorp.progressia.common.util.namespaces.NamespacedInstanceRegistry;
+import ru.windcorp.progressia.common.world.block.BlockData;
+import ru.windcorp.progressia.common.world.block.BlockDataRegistry;
 
 public class BlockRenderRegistry extends NamespacedInstanceRegistry<BlockRender> {
 
 	private static final BlockRenderRegistry INSTANCE = new BlockRenderRegistry();
 
+	private final NamespacedCounterparts<BlockRender> byData = new NamespacedCounterparts<>(
+		BlockDataRegistry.getInstance(),
+		this
+	);
+
 	private static final AtlasGroup BLOCKS_ATLAS_GROUP = new AtlasGroup("Blocks", 1 << 12);
 
 	public static BlockRenderRegistry getInstance() {
 		return INSTANCE;
 	}
 
+	/**
+	 * Returns the BlockRender with the same ID as the provided block data. This
+	 * does not lock once the registries have been frozen.
+	 * 
+	 * @param data the block data to look up
+	 * @return the corresponding BlockRender or {@code null}
+	 */
+	public BlockRender get(BlockData data) {
+		return byData.get(data);
+	}
+
 	public static Texture getBlockTexture(String name) {
 		return new SimpleTexture(
 			Atlases.getSprite(
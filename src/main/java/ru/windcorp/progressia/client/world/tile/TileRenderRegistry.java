@@ -23,18 +23,37 @@ import ru.windcorp.progressia.client.graphics.texture.Atlases.AtlasGroup;
 import ru.windcorp.progressia.client.graphics.texture.SimpleTexture;
 import ru.windcorp.progressia.client.graphics.texture.Texture;
 import ru.windcorp.progressia.common.resource.ResourceManager;
+import ru.windcorp.progressia.common.util.namespaces.NamespacedCounterparts;
 import ru.windcorp.progressia.common.util.namespaces.NamespacedInstanceRegistry;
+import ru.windcorp.progressia.common.world.tile.TileData;
+import ru.windcorp.progressia.common.world.tile.TileDataRegistry;
 
 public class TileRenderRegistry extends NamespacedInstanceRegistry<TileRender> {
 
 	private static final TileRenderRegistry INSTANCE = new TileRenderRegistry();
 
+	private final NamespacedCounterparts<TileRender> byData = new NamespacedCounterparts<>(
+		TileDataRegistry.getInstance(),
+		this
+	);
+
 	private static final AtlasGroup TILES_ATLAS_GROUP = new AtlasGroup("Tiles", 1 << 12);
 
 	public static TileRenderRegistry getInstance() {
 		return INSTANCE;
 	}
 
+	/**
+	 * Returns the TileRender with the same ID as the provided tile data. This
+	 * does not lock once the registries have been frozen.
+	 * 
+	 * @param data the tile data to look up
+	 * @return the corresponding TileRender or {@code null}
+	 */
+	public TileRender get(TileData data) {
+		return byData.get(data);
+	}
+
 	public static AtlasGroup getTilesAtlasGroup() {
 		return TILES_ATLAS_GROUP;
 	}
@@ -50,13 +50,21 @@ public abstract class CommsChannel {
 		DISCONNECTED
 	}
 
-	private State state = State.CONNECTING;
+	private volatile State state = State.CONNECTING;
 
 	private final Collection<CommsListener> listeners = Collections.synchronizedCollection(new ArrayList<>());
 
+	/**
+	 * Sends or enqueues the provided packet. This method is not synchronized
+	 * and may be invoked concurrently from several threads; implementations
+	 * must provide their own thread safety.
+	 * 
+	 * @param packet the packet to send
+	 * @throws IOException if the packet could not be sent
+	 */
 	protected abstract void doSendPacket(Packet packet) throws IOException;
 
-	private synchronized void sendPacket(
+	private void sendPacket(
 		Packet packet,
 		State expectedState,
 		String errorMessage
@@ -74,7 +82,7 @@ public abstract class CommsChannel {
 		}
 	}
 
-	public synchronized void sendPacket(Packet packet) {
+	public void sendPacket(Packet packet) {
 		sendPacket(
 			packet,
 			State.CONNECTED,
@@ -82,7 +90,7 @@ public abstract class CommsChannel {
 		);
 	}
 
-	public synchronized void sendConnectingPacket(Packet packet) {
+	public void sendConnectingPacket(Packet packet) {
 		sendPacket(
 			packet,
 			State.CONNECTING,
@@ -90,7 +98,7 @@ public abstract class CommsChannel {
 		);
 	}
 
-	public synchronized void sendDisconnectingPacket(Packet packet) {
+	public void sendDisconnectingPacket(Packet packet) {
 		sendPacket(
 			packet,
 			State.CONNECTING,
@@ -118,7 +126,7 @@ public abstract class CommsChannel {
 		listeners.forEach(l -> l.onIOError(e));
 	}
 
-	public synchronized State getState() {
+	public State getState() {
 		return state;
 	}
 
@@ -126,7 +134,7 @@ public abstract class CommsChannel {
 		return getState() == State.CONNECTED;
 	}
 
-	public synchronized void setState(State state) {
+	public void setState(State state) {
 		this.state = state;
 	}
 
@@ -18,7 +18,12 @@
  
 package ru.windcorp.progressia.common.comms.controls;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import ru.windcorp.progressia.common.util.namespaces.Namespaced;
+import ru.windcorp.progressia.common.world.DecodingException;
 
 public class ControlData extends Namespaced {
 
@@ -26,4 +31,28 @@ public class ControlData extends Namespaced {
 		super(id);
 	}
 
+	/**
+	 * Reads the payload of this control written by
+	 * {@link #write(DataOutput)}. Controls without a payload need not override
+	 * this method.
+	 * 
+	 * @param input the stream to read from
+	 * @throws IOException       if the stream could not be read
+	 * @throws DecodingException if the payload is invalid
+	 */
+	public void read(DataInput input) throws IOException, DecodingException {
+		// No payload
+	}
+
+	/**
+	 * Writes the payload of this control. Controls without a payload need not
+	 * override this method.
+	 * 
+	 * @param output the stream to write to
+	 * @throws IOException if the stream could not be written
+	 */
+	public void write(DataOutput output) throws IOException {
+		// No payload
+	}
+
 }
@@ -23,8 +23,15 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import ru.windcorp.progressia.common.comms.packets.Packet;
+import ru.windcorp.progressia.common.util.namespaces.NamespacedUtil;
 import ru.windcorp.progressia.common.world.DecodingException;
 
+/**
+ * A packet that carries a {@link ControlData} from the client to the server.
+ * The packet ID of a control is derived from the control ID with
+ * {@link #getPacketId(String)}; the control is reconstructed from the
+ * {@link ControlDataRegistry} when the packet is decoded.
+ */
 public class PacketControl extends Packet {
 
 	private final ControlData control;
@@ -38,14 +45,27 @@ public class PacketControl extends Packet {
 		return control;
 	}
 
+	/**
+	 * Returns the ID of the packets that carry the control with the given ID.
+	 * 
+	 * @param controlId the ID of the control
+	 * @return the packet ID
+	 */
+	public static String getPacketId(String controlId) {
+		return NamespacedUtil.getId(
+			NamespacedUtil.getNamespace(controlId),
+			"ControlKeyPress" + NamespacedUtil.getName(controlId)
+		);
+	}
+
 	@Override
 	public void read(DataInput input) throws IOException, DecodingException {
-		// TODO implement controls
+		control.read(input);
 	}
 
 	@Override
 	public void write(DataOutput output) throws IOException {
-		// implement controls
+		control.write(output);
 	}
 
 }
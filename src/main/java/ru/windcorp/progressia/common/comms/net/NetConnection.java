@@ -0,0 +1,691 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.comms.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.windcorp.progressia.common.comms.packets.Packet;
+import ru.windcorp.progressia.common.comms.packets.PacketRegistry;
+import ru.windcorp.progressia.common.util.ByteBufferPool;
+import ru.windcorp.progressia.common.world.DecodingException;
+
+/**
+ * A TCP connection that exchanges {@link Packet}s with a peer through a
+ * {@link NetEventLoop}.
+ * <p>
+ * Each packet is sent as a frame: a 4-byte length, followed by a 2-byte
+ * unsigned {@linkplain PacketRegistry#getNumericId(String) numeric packet ID}
+ * and the data written by {@link Packet#write(java.io.DataOutput)}. The
+ * length covers the ID and the data.
+ * <p>
+ * {@link #send(Packet)} may be called from any thread. Packets are encoded
+ * immediately into direct buffers from the {@link ByteBufferPool} and written to the socket by the
+ * loop thread, so a burst of packets sent during a tick is flushed with a few
+ * gathering writes. Alternatively, frames may be encoded in advance with
+ * {@link #encodeFrame(Packet, PacketRegistry)} and submitted with
+ * {@link #sendFrame(byte[])} and {@link #requestFlush()}. Received packets are
+ * decoded in the loop thread and passed to the {@link Handler} there.
+ */
+public class NetConnection implements Closeable {
+
+	/**
+	 * Numeric ID reserved for {@link PacketHandshake}
+	 */
+	public static final int HANDSHAKE_ID = 0;
+
+	public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	private static final int LENGTH_SIZE = Integer.BYTES;
+	private static final int HEADER_SIZE = LENGTH_SIZE + Short.BYTES;
+
+	private static final int MAX_GATHERED_BUFFERS = 64;
+
+	public static interface Handler {
+
+		/**
+		 * Invoked in the loop thread for each received packet.
+		 * 
+		 * @param packet the packet
+		 */
+		void onPacketReceived(Packet packet);
+
+		/**
+		 * Invoked once when the connection is closed.
+		 * 
+		 * @param reason the error that caused the connection to close, or
+		 *               {@code null} if it was closed normally or by the
+		 *               peer
+		 */
+		void onClosed(IOException reason);
+
+	}
+
+	private final SocketChannel channel;
+	private final NetEventLoop loop;
+	private final PacketRegistry registry;
+	private final int bufferSize;
+
+	private Handler handler;
+
+	private volatile boolean closed = false;
+
+	/*
+	 * Encoding; guarded by this
+	 */
+
+	private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+	private ByteBuffer current = null;
+	private long bytesEncoded = 0;
+
+	private final DataOutputStream encoder = new DataOutputStream(new EncoderStream());
+
+	private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+	private final Runnable flushTask = this::flush;
+
+	/**
+	 * The number of bytes encoded but not yet written to the socket
+	 */
+	private final AtomicLong pendingBytes = new AtomicLong(0);
+
+	private static final ThreadLocal<FrameEncoder> FRAME_ENCODERS = ThreadLocal.withInitial(FrameEncoder::new);
+
+	/*
+	 * Socket I/O; loop thread only
+	 */
+
+	private SelectionKey key = null;
+
+	private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+	private final ByteBuffer[] gatherArray = new ByteBuffer[MAX_GATHERED_BUFFERS];
+
+	private ByteBuffer readBuffer;
+	private ByteBuffer largeFrame = null;
+
+	private final FrameInputStream frameInput = new FrameInputStream();
+	private final DataInputStream decoder = new DataInputStream(frameInput);
+
+	/**
+	 * Creates a new connection. {@link #start()} must be called before any
+	 * packets are sent.
+	 * 
+	 * @param channel  the connected socket
+	 * @param loop     the loop to serve this connection
+	 * @param registry the registry used to encode and decode packets
+	 * @param handler  the handler of incoming packets
+	 */
+	public NetConnection(
+		SocketChannel channel,
+		NetEventLoop loop,
+		PacketRegistry registry,
+		Handler handler
+	) {
+		this.channel = Objects.requireNonNull(channel, "channel");
+		this.loop = Objects.requireNonNull(loop, "loop");
+		this.registry = Objects.requireNonNull(registry, "registry");
+		this.handler = Objects.requireNonNull(handler, "handler");
+		this.bufferSize = loop.getBufferSize();
+	}
+
+	/**
+	 * Registers this connection with its loop.
+	 * 
+	 * @throws IOException if the socket could not be configured
+	 */
+	public void start() throws IOException {
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+
+		loop.execute(() -> {
+			if (closed)
+				return;
+
+			try {
+				readBuffer = acquireBuffer();
+				key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+			} catch (IOException e) {
+				close(e);
+			}
+		});
+	}
+
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	public Handler getHandler() {
+		return handler;
+	}
+
+	public void setHandler(Handler handler) {
+		this.handler = Objects.requireNonNull(handler, "handler");
+	}
+
+	public PacketRegistry getRegistry() {
+		return registry;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Returns the number of bytes that have been submitted for sending but
+	 * have not been written to the socket yet. A value that keeps growing
+	 * indicates that the peer does not keep up with the outbound traffic.
+	 * 
+	 * @return the size of the send backlog in bytes
+	 */
+	public long getPendingBytes() {
+		return pendingBytes.get();
+	}
+
+	/*
+	 * Sending
+	 */
+
+	/**
+	 * Encodes the packet and schedules it to be written to the socket.
+	 * 
+	 * @param packet the packet to send
+	 * @throws IOException if the connection is closed or the packet could not
+	 *                     be encoded; the connection is closed in the latter
+	 *                     case
+	 */
+	public void send(Packet packet) throws IOException {
+		int numericId = getNumericId(packet, registry);
+
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("Connection " + this + " is closed");
+			}
+
+			if (current == null || current.remaining() < HEADER_SIZE) {
+				nextBuffer();
+			}
+
+			ByteBuffer lengthBuffer = current;
+			int lengthPosition = current.position();
+			current.position(lengthPosition + LENGTH_SIZE);
+
+			long start = bytesEncoded;
+
+			try {
+				encoder.writeShort(numericId);
+				packet.write(encoder);
+			} catch (IOException | RuntimeException e) {
+				IOException reason = new IOException("Could not encode packet " + packet, e);
+				close(reason);
+				throw reason;
+			}
+
+			long length = bytesEncoded - start;
+
+			if (length > MAX_FRAME_SIZE) {
+				IOException reason = new IOException(
+					"Packet " + packet + " is too large: " + length + " bytes"
+				);
+				close(reason);
+				throw reason;
+			}
+
+			lengthBuffer.putInt(lengthPosition, (int) length);
+			pendingBytes.addAndGet(LENGTH_SIZE + length);
+		}
+
+		requestFlush();
+	}
+
+	/**
+	 * Encodes the packet into a complete frame that can later be submitted to
+	 * any connection that uses the same registry with
+	 * {@link #sendFrame(byte[])}. This method may be called from any thread
+	 * and does not lock anything.
+	 * 
+	 * @param packet   the packet to encode
+	 * @param registry the registry of the connection
+	 * @return the frame
+	 * @throws IOException if the packet could not be encoded or is too large
+	 */
+	public static byte[] encodeFrame(Packet packet, PacketRegistry registry) throws IOException {
+		int numericId = getNumericId(packet, registry);
+		FrameEncoder encoder = FRAME_ENCODERS.get();
+
+		encoder.reset();
+
+		try {
+			encoder.output.writeInt(0);
+			encoder.output.writeShort(numericId);
+			packet.write(encoder.output);
+		} catch (RuntimeException e) {
+			throw new IOException("Could not encode packet " + packet, e);
+		}
+
+		int length = encoder.size() - LENGTH_SIZE;
+
+		if (length > MAX_FRAME_SIZE) {
+			throw new IOException(
+				"Packet " + packet + " is too large: " + length + " bytes"
+			);
+		}
+
+		return encoder.toFrame(length);
+	}
+
+	/**
+	 * Schedules a frame produced by {@link #encodeFrame(Packet, PacketRegistry)}
+	 * to be written to the socket. The frame is not written until
+	 * {@link #requestFlush()} is called.
+	 * 
+	 * @param frame the frame to send; the array is not retained
+	 * @throws IOException if the connection is closed
+	 */
+	public void sendFrame(byte[] frame) throws IOException {
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("Connection " + this + " is closed");
+			}
+
+			if (current == null) {
+				nextBuffer();
+			}
+
+			encoder.write(frame);
+			pendingBytes.addAndGet(frame.length);
+		}
+	}
+
+	/**
+	 * Schedules all packets and frames sent so far to be written to the
+	 * socket by the loop thread.
+	 */
+	public void requestFlush() {
+		if (flushRequested.compareAndSet(false, true)) {
+			loop.execute(flushTask);
+		}
+	}
+
+	private static int getNumericId(Packet packet, PacketRegistry registry) {
+		return (packet instanceof PacketHandshake) ? HANDSHAKE_ID : registry.getNumericId(packet.getId());
+	}
+
+	// Guarded by this
+	private void nextBuffer() {
+		if (current != null) {
+			current.flip();
+			outbound.add(current);
+		}
+
+		current = acquireBuffer();
+	}
+
+	private ByteBuffer acquireBuffer() {
+		return ByteBufferPool.acquire(bufferSize, true);
+	}
+
+	private class EncoderStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+			if (!current.hasRemaining()) {
+				nextBuffer();
+			}
+
+			current.put((byte) b);
+			bytesEncoded++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int off, int len) {
+			bytesEncoded += len;
+
+			while (len > 0) {
+				if (!current.hasRemaining()) {
+					nextBuffer();
+				}
+
+				int count = Math.min(len, current.remaining());
+				current.put(bytes, off, count);
+				off += count;
+				len -= count;
+			}
+		}
+
+	}
+
+	private static class FrameEncoder extends ByteArrayOutputStream {
+
+		final DataOutputStream output = new DataOutputStream(this);
+
+		private static final int INITIAL_SIZE = 1024;
+		private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+		public FrameEncoder() {
+			super(INITIAL_SIZE);
+		}
+
+		@Override
+		public void reset() {
+			if (buf.length > MAX_RETAINED_SIZE) {
+				buf = new byte[INITIAL_SIZE];
+			}
+			super.reset();
+		}
+
+		public byte[] toFrame(int length) {
+			byte[] frame = toByteArray();
+
+			frame[0] = (byte) (length >>> 24);
+			frame[1] = (byte) (length >>> 16);
+			frame[2] = (byte) (length >>> 8);
+			frame[3] = (byte) length;
+
+			return frame;
+		}
+
+	}
+
+	/*
+	 * Loop thread
+	 */
+
+	private void flush() {
+		flushRequested.set(false);
+
+		if (closed)
+			return;
+
+		synchronized (this) {
+			if (current != null && current.position() > 0) {
+				current.flip();
+				outbound.add(current);
+				current = null;
+			}
+
+			writing.addAll(outbound);
+			outbound.clear();
+		}
+
+		write();
+	}
+
+	void handleReady(SelectionKey key) {
+		if (key.isReadable()) {
+			read();
+		}
+
+		if (key.isValid() && key.isWritable()) {
+			write();
+		}
+	}
+
+	private void write() {
+		if (closed || key == null)
+			return;
+
+		try {
+			while (!writing.isEmpty()) {
+				int count = 0;
+				for (ByteBuffer buffer : writing) {
+					gatherArray[count++] = buffer;
+					if (count == gatherArray.length)
+						break;
+				}
+
+				pendingBytes.addAndGet(-channel.write(gatherArray, 0, count));
+
+				while (!writing.isEmpty() && !writing.peekFirst().hasRemaining()) {
+					ByteBufferPool.release(writing.pollFirst());
+				}
+
+				if (gatherArray[count - 1].hasRemaining()) {
+					// Socket buffer is full
+					break;
+				}
+			}
+
+			int ops = SelectionKey.OP_READ;
+			if (!writing.isEmpty()) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+
+			if (key.interestOps() != ops) {
+				key.interestOps(ops);
+			}
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	private void read() {
+		try {
+			int read = channel.read(readBuffer);
+
+			if (read < 0) {
+				close(largeFrame == null && readBuffer.position() == 0 ? null : new EOFException("Truncated frame"));
+				return;
+			}
+
+			readBuffer.flip();
+			decodeFrames();
+
+			if (!closed) {
+				readBuffer.compact();
+			}
+		} catch (IOException e) {
+			close(e);
+		} catch (DecodingException e) {
+			close(new IOException("Could not decode packet", e));
+		}
+	}
+
+	private void decodeFrames() throws IOException, DecodingException {
+		ByteBuffer input = readBuffer;
+
+		while (!closed) {
+			if (largeFrame != null) {
+				int count = Math.min(largeFrame.remaining(), input.remaining());
+				int limit = input.limit();
+
+				input.limit(input.position() + count);
+				largeFrame.put(input);
+				input.limit(limit);
+
+				if (largeFrame.hasRemaining())
+					return;
+
+				ByteBuffer frame = largeFrame;
+				largeFrame = null;
+				frame.flip();
+				decode(frame);
+				continue;
+			}
+
+			if (input.remaining() < LENGTH_SIZE)
+				return;
+
+			int start = input.position();
+			int length = input.getInt(start);
+
+			if (length < Short.BYTES || length > MAX_FRAME_SIZE) {
+				throw new DecodingException("Invalid frame length " + length);
+			}
+
+			if (input.remaining() >= LENGTH_SIZE + length) {
+				int end = start + LENGTH_SIZE + length;
+				int limit = input.limit();
+
+				input.position(start + LENGTH_SIZE);
+				input.limit(end);
+
+				try {
+					decode(input);
+				} finally {
+					input.limit(limit);
+					input.position(end);
+				}
+
+				continue;
+			}
+
+			if (LENGTH_SIZE + length > input.capacity()) {
+				// The frame will never fit into readBuffer
+				input.position(start + LENGTH_SIZE);
+				largeFrame = ByteBuffer.allocate(length);
+				continue;
+			}
+
+			return;
+		}
+	}
+
+	private void decode(ByteBuffer frame) throws IOException, DecodingException {
+		int numericId = frame.getShort() & 0xFFFF;
+
+		Packet packet = (numericId == HANDSHAKE_ID) ? new PacketHandshake() : registry.create(numericId);
+		if (packet == null) {
+			throw new DecodingException("Unknown packet ID " + numericId);
+		}
+
+		frameInput.buffer = frame;
+
+		try {
+			packet.read(decoder);
+		} catch (RuntimeException e) {
+			throw new DecodingException("Malformed packet " + packet.getId() + ": " + e);
+		} finally {
+			frameInput.buffer = null;
+		}
+
+		if (frame.hasRemaining()) {
+			throw new DecodingException(
+				"Packet " + packet.getId() + " has " + frame.remaining() + " unread bytes"
+			);
+		}
+
+		handler.onPacketReceived(packet);
+	}
+
+	private static class FrameInputStream extends InputStream {
+
+		ByteBuffer buffer;
+
+		@Override
+		public int read() {
+			if (!buffer.hasRemaining())
+				return -1;
+			return buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+
+			len = Math.min(len, buffer.remaining());
+			buffer.get(bytes, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+	}
+
+	/*
+	 * Closing
+	 */
+
+	/**
+	 * Closes this connection. Packets that have not been written yet are
+	 * discarded.
+	 */
+	@Override
+	public void close() {
+		close(null);
+	}
+
+	private void close(IOException reason) {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+
+			if (current != null) {
+				ByteBufferPool.release(current);
+				current = null;
+			}
+
+			outbound.forEach(ByteBufferPool::release);
+			outbound.clear();
+		}
+
+		if (loop.isLoopThread()) {
+			releaseSocket();
+		} else {
+			loop.execute(this::releaseSocket);
+		}
+
+		handler.onClosed(reason);
+	}
+
+	private void releaseSocket() {
+		if (key != null) {
+			key.cancel();
+		}
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+
+		writing.forEach(ByteBufferPool::release);
+		writing.clear();
+		largeFrame = null;
+
+		if (readBuffer != null) {
+			ByteBufferPool.release(readBuffer);
+			readBuffer = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "NetConnection " + channel.socket().getRemoteSocketAddress();
+	}
+
+}
@@ -0,0 +1,285 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.comms.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ru.windcorp.progressia.common.util.ByteBufferPool;
+import ru.windcorp.progressia.common.util.crash.CrashReports;
+
+/**
+ * A single thread that serves any number of {@link NetConnection}s and
+ * listening sockets with one {@link Selector}.
+ * <p>
+ * All socket I/O of the served connections happens in the loop thread. Other
+ * threads interact with the loop by submitting tasks with
+ * {@link #execute(Runnable)}.
+ */
+public class NetEventLoop implements Closeable {
+
+	@FunctionalInterface
+	public static interface Acceptor {
+		/**
+		 * Invoked in the loop thread when a new connection is accepted.
+		 * 
+		 * @param channel the accepted channel in blocking mode
+		 * @throws IOException if the channel could not be set up; the channel
+		 *                     is then closed
+		 */
+		void accept(SocketChannel channel) throws IOException;
+	}
+
+	/**
+	 * The default capacity of the direct buffers that connections read into
+	 * and encode outgoing frames into.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+	private final String name;
+	private final int bufferSize;
+
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	private Thread thread = null;
+	private volatile boolean running = false;
+
+	private final Logger logger;
+
+	public NetEventLoop(String name, int bufferSize) throws IOException {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be positive, got " + bufferSize);
+		}
+
+		this.name = name;
+		this.bufferSize = bufferSize;
+		this.selector = Selector.open();
+		this.logger = LogManager.getLogger(name);
+	}
+
+	public NetEventLoop(String name) throws IOException {
+		this(name, DEFAULT_BUFFER_SIZE);
+	}
+
+	public synchronized void start() {
+		if (thread != null)
+			throw new IllegalStateException("Loop already started in thread " + thread);
+
+		running = true;
+		thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the minimum capacity of the buffers that connections of this
+	 * loop acquire from the {@link ByteBufferPool}.
+	 * 
+	 * @return the buffer size in bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	Selector getSelector() {
+		return selector;
+	}
+
+	public boolean isLoopThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Runs the task in the loop thread as soon as possible. The task is run
+	 * after all previously submitted tasks.
+	 * 
+	 * @param task the task to run
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if (!isLoopThread()) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Starts accepting connections on the provided server socket.
+	 * 
+	 * @param server   the bound server socket
+	 * @param acceptor the callback to invoke for each new connection
+	 * @throws IOException if the socket could not be made non-blocking
+	 */
+	public void listen(ServerSocketChannel server, Acceptor acceptor) throws IOException {
+		server.configureBlocking(false);
+		execute(() -> {
+			try {
+				server.register(selector, SelectionKey.OP_ACCEPT, acceptor);
+			} catch (IOException e) {
+				logger.error("Could not listen on {}", server, e);
+			}
+		});
+	}
+
+	private void run() {
+		try {
+			logger.debug("Started");
+
+			while (running) {
+				if (tasks.isEmpty()) {
+					selector.select();
+				} else {
+					// Tasks submitted by the loop thread itself do not wake it
+					selector.selectNow();
+				}
+
+				runTasks();
+				processKeys();
+			}
+
+			runTasks();
+			closeAll();
+
+			logger.debug("Stopped");
+		} catch (Exception e) {
+			throw CrashReports.crash(e, "Network event loop %s has crashed", name);
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	private void processKeys() {
+		Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+		while (it.hasNext()) {
+			SelectionKey key = it.next();
+			it.remove();
+
+			if (!key.isValid())
+				continue;
+
+			Object attachment = key.attachment();
+
+			if (attachment instanceof NetConnection) {
+				((NetConnection) attachment).handleReady(key);
+			} else if (key.isAcceptable()) {
+				accept((ServerSocketChannel) key.channel(), (Acceptor) attachment);
+			}
+		}
+	}
+
+	private void accept(ServerSocketChannel server, Acceptor acceptor) {
+		while (true) {
+			SocketChannel channel;
+
+			try {
+				channel = server.accept();
+			} catch (IOException e) {
+				logger.warn("Could not accept a connection", e);
+				return;
+			}
+
+			if (channel == null)
+				return;
+
+			try {
+				acceptor.accept(channel);
+			} catch (IOException e) {
+				logger.warn("Could not set up connection {}", channel, e);
+
+				try {
+					channel.close();
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+			}
+		}
+	}
+
+	private void closeAll() {
+		for (SelectionKey key : selector.keys()) {
+			Object attachment = key.attachment();
+
+			if (attachment instanceof NetConnection) {
+				((NetConnection) attachment).close();
+			} else {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					logger.warn("Could not close {}", key.channel(), e);
+				}
+			}
+		}
+
+		runTasks();
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			logger.warn("Could not close selector", e);
+		}
+	}
+
+	/**
+	 * Stops the loop and closes all connections and server sockets it
+	 * serves. This method blocks until the loop thread terminates.
+	 */
+	@Override
+	public void close() {
+		Thread loopThread;
+
+		synchronized (this) {
+			if (!running)
+				return;
+			running = false;
+			loopThread = thread;
+		}
+
+		selector.wakeup();
+
+		if (loopThread == Thread.currentThread())
+			return;
+
+		try {
+			loopThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
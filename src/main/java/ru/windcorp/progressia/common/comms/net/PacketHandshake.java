@@ -0,0 +1,115 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.comms.net;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ru.windcorp.progressia.common.comms.packets.Packet;
+import ru.windcorp.progressia.common.comms.packets.PacketRegistry;
+import ru.windcorp.progressia.common.world.DecodingException;
+import ru.windcorp.progressia.common.world.block.BlockDataRegistry;
+import ru.windcorp.progressia.common.world.tile.TileDataRegistry;
+
+/**
+ * The first packet a client sends over a network connection. It is always
+ * framed with the reserved numeric ID {@link NetConnection#HANDSHAKE_ID} so
+ * that it can be decoded before the peers have agreed on numeric packet IDs.
+ */
+public class PacketHandshake extends Packet {
+
+	public static final int MAGIC = 0x50524F47; // "PROG"
+
+	private String login;
+	private long fingerprint;
+	private long contentFingerprint;
+
+	public PacketHandshake() {
+		super("Core:Handshake");
+	}
+
+	/**
+	 * Sets the contents of this packet.
+	 * 
+	 * @param login    the login of the connecting player
+	 * @param registry the packet registry of the client
+	 */
+	public void set(String login, PacketRegistry registry) {
+		this.login = login;
+		this.fingerprint = registry.getFingerprint();
+		this.contentFingerprint = getLocalContentFingerprint();
+	}
+
+	/**
+	 * Returns a value that identifies the frozen block and tile registries of
+	 * this side. Chunks are sent with numeric block and tile IDs, so peers
+	 * with different content fingerprints cannot communicate.
+	 * 
+	 * @return the content fingerprint
+	 */
+	public static long getLocalContentFingerprint() {
+		return 31 * BlockDataRegistry.getInstance().getFingerprint() + TileDataRegistry.getInstance().getFingerprint();
+	}
+
+	public String getLogin() {
+		return login;
+	}
+
+	/**
+	 * Returns the {@linkplain PacketRegistry#getFingerprint() fingerprint} of
+	 * the client's packet registry.
+	 * 
+	 * @return the registry fingerprint
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the {@linkplain #getLocalContentFingerprint() content
+	 * fingerprint} of the client.
+	 * 
+	 * @return the content fingerprint
+	 */
+	public long getContentFingerprint() {
+		return contentFingerprint;
+	}
+
+	@Override
+	public void read(DataInput input) throws IOException, DecodingException {
+		int magic = input.readInt();
+		if (magic != MAGIC) {
+			throw new DecodingException("Invalid handshake signature " + Integer.toHexString(magic));
+		}
+
+		this.fingerprint = input.readLong();
+		this.contentFingerprint = input.readLong();
+		this.login = input.readUTF();
+	}
+
+	@Override
+	public void write(DataOutput output) throws IOException {
+		output.writeInt(MAGIC);
+		output.writeLong(fingerprint);
+		output.writeLong(contentFingerprint);
+		output.writeUTF(login);
+	}
+
+}
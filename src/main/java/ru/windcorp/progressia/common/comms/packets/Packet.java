@@ -35,4 +35,14 @@ public abstract class Packet extends Namespaced {
 
 	public abstract void write(DataOutput output) throws IOException;
 
+	/**
+	 * Returns pooled resources held by this packet, if any. Invoked by the
+	 * sender once the packet has been sent and by the receiver once the
+	 * packet has been handled. The packet must be set or read again before it
+	 * is used afterwards.
+	 */
+	public void release() {
+		// Do nothing
+	}
+
 }
@@ -0,0 +1,167 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.comms.packets;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import ru.windcorp.progressia.common.util.namespaces.NamespacedFactoryRegistry;
+import ru.windcorp.progressia.common.world.PacketChunkChanges;
+import ru.windcorp.progressia.common.world.PacketRevokeChunk;
+import ru.windcorp.progressia.common.world.PacketSendChunk;
+import ru.windcorp.progressia.common.world.PacketSetLocalPlayer;
+import ru.windcorp.progressia.common.world.block.PacketSetBlock;
+import ru.windcorp.progressia.common.world.entity.PacketChangeEntity;
+import ru.windcorp.progressia.common.world.entity.PacketRevokeEntity;
+import ru.windcorp.progressia.common.world.entity.PacketSendEntity;
+import ru.windcorp.progressia.common.world.tile.PacketAddTile;
+import ru.windcorp.progressia.common.world.tile.PacketRemoveTile;
+
+/**
+ * A registry of packet factories used to decode packets received over the
+ * network.
+ * <p>
+ * On the wire packets are identified by compact numeric IDs. These are
+ * assigned when numeric IDs are first requested by sorting the registered
+ * {@linkplain ru.windcorp.progressia.common.util.namespaces.Namespaced
+ * namespaced IDs}, so both ends of a connection agree on them as long as they
+ * have registered the same packets. The registry is frozen at that point and
+ * no more packets may be registered. Numeric ID {@code 0} is never assigned.
+ */
+public class PacketRegistry extends NamespacedFactoryRegistry<Packet> {
+
+	private static final PacketRegistry INSTANCE = new PacketRegistry();
+
+	static {
+		INSTANCE.register("Core:SendChunk", id -> new PacketSendChunk());
+		INSTANCE.register("Core:RevokeChunk", id -> new PacketRevokeChunk());
+		INSTANCE.register("Core:SetLocalPlayer", id -> new PacketSetLocalPlayer());
+		INSTANCE.register("Core:SetBlock", id -> new PacketSetBlock());
+		INSTANCE.register("Core:AddTile", id -> new PacketAddTile());
+		INSTANCE.register("Core:RemoveTile", id -> new PacketRemoveTile());
+		INSTANCE.register("Core:ChunkChanges", id -> new PacketChunkChanges());
+		INSTANCE.register("Core:SendEntity", id -> new PacketSendEntity());
+		INSTANCE.register("Core:RevokeEntity", id -> new PacketRevokeEntity());
+		INSTANCE.register("Core:EntityChange", id -> new PacketChangeEntity());
+	}
+
+	public static PacketRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	private static class NumericIds {
+		final String[] ids;
+		final TObjectIntMap<String> numericIds;
+		final long fingerprint;
+
+		NumericIds(List<String> sortedIds) {
+			this.ids = new String[sortedIds.size() + 1];
+			this.numericIds = new TObjectIntHashMap<>(sortedIds.size(), 0.5f, -1);
+
+			CRC32 crc = new CRC32();
+
+			for (int i = 0; i < sortedIds.size(); ++i) {
+				String id = sortedIds.get(i);
+				ids[i + 1] = id;
+				numericIds.put(id, i + 1);
+
+				crc.update(id.getBytes(StandardCharsets.UTF_8));
+				crc.update('\n');
+			}
+
+			this.fingerprint = ((long) sortedIds.size() << 32) | crc.getValue();
+		}
+	}
+
+	private volatile NumericIds numericIds = null;
+
+	@Override
+	public synchronized void register(String id, Factory<Packet> element) {
+		if (numericIds != null) {
+			throw new IllegalStateException(
+				"Cannot register packet " + id + ": numeric IDs have already been assigned"
+			);
+		}
+
+		super.register(id, element);
+	}
+
+	private NumericIds getNumericIds() {
+		NumericIds result = numericIds;
+		if (result != null)
+			return result;
+
+		synchronized (this) {
+			if (numericIds == null) {
+				List<String> sortedIds = new ArrayList<>(keySet());
+				Collections.sort(sortedIds);
+				numericIds = new NumericIds(sortedIds);
+			}
+
+			return numericIds;
+		}
+	}
+
+	/**
+	 * Returns the numeric ID of the packet with the provided namespaced ID.
+	 * This freezes the registry.
+	 * 
+	 * @param id the namespaced ID of the packet
+	 * @return the numeric ID, at least 1
+	 * @throws IllegalArgumentException if the packet is not registered
+	 */
+	public int getNumericId(String id) {
+		int result = getNumericIds().numericIds.get(id);
+		if (result < 0) {
+			throw new IllegalArgumentException("Packet " + id + " is not registered in PacketRegistry");
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a new packet with the provided numeric ID. This freezes the
+	 * registry.
+	 * 
+	 * @param numericId the numeric ID of the packet
+	 * @return the new packet or {@code null} if no packet has this ID
+	 */
+	public Packet create(int numericId) {
+		String[] ids = getNumericIds().ids;
+		if (numericId <= 0 || numericId >= ids.length)
+			return null;
+		return create(ids[numericId]);
+	}
+
+	/**
+	 * Returns a value that identifies the set of registered packets. Peers
+	 * with different fingerprints cannot communicate. This freezes the
+	 * registry.
+	 * 
+	 * @return the fingerprint of this registry
+	 */
+	public long getFingerprint() {
+		return getNumericIds().fingerprint;
+	}
+
+}
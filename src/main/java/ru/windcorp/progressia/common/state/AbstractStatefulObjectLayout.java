@@ -21,6 +21,9 @@ package ru.windcorp.progressia.common.state;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.BitSet;
+
+import ru.windcorp.progressia.common.util.VarInts;
 
 public abstract class AbstractStatefulObjectLayout
 	extends StatefulObjectLayout {
@@ -71,6 +74,62 @@ public abstract class AbstractStatefulObjectLayout
 		}
 	}
 
+	@Override
+	public void writeFields(
+		StatefulObject object,
+		BitSet fields,
+		DataOutput output,
+		IOContext context
+	)
+		throws IOException {
+
+		int count = 0;
+		for (int i = fields.nextSetBit(0); i >= 0; i = fields.nextSetBit(i + 1)) {
+			if (shouldWrite(i, context))
+				count++;
+		}
+
+		VarInts.write(output, count);
+
+		for (int i = fields.nextSetBit(0); i >= 0; i = fields.nextSetBit(i + 1)) {
+			if (!shouldWrite(i, context))
+				continue;
+
+			VarInts.write(output, i);
+			getField(i).write(object, output, context);
+		}
+	}
+
+	private boolean shouldWrite(int ordinal, IOContext context) {
+		if (ordinal >= getFieldCount())
+			return false;
+		return context != IOContext.COMMS || !getField(ordinal).isLocal();
+	}
+
+	@Override
+	public void readFields(
+		StatefulObject object,
+		DataInput input,
+		IOContext context
+	)
+		throws IOException {
+
+		int count = VarInts.read(input);
+		int fieldCount = getFieldCount();
+
+		for (int i = 0; i < count; ++i) {
+			int ordinal = VarInts.read(input);
+
+			if (ordinal < 0 || ordinal >= fieldCount) {
+				throw new IOException(
+					"Field ordinal " + ordinal + " is out of bounds for " + getObjectId()
+				);
+			}
+
+			getField(ordinal).read(object, input, context);
+		}
+	}
+
 	@Override
 	public void copy(StatefulObject from, StatefulObject to) {
 		int fieldCount = getFieldCount();
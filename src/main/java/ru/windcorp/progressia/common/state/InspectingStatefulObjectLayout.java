@@ -75,7 +75,8 @@ public class InspectingStatefulObjectLayout
 					new IntStateField(
 						id,
 						isLocal,
-						fieldIndexCounters.getIntsThenIncrement()
+						fieldIndexCounters.getIntsThenIncrement(),
+						fields.size()
 					)
 				);
 			}
@@ -27,9 +27,10 @@ public class IntStateField extends StateField {
 	public IntStateField(
 		String id,
 		boolean isLocal,
-		int index
+		int index,
+		int ordinal
 	) {
-		super(id, isLocal, index);
+		super(id, isLocal, index, ordinal);
 	}
 
 	public int get(StatefulObject object) {
@@ -38,6 +39,7 @@ public class IntStateField extends StateField {
 
 	public void setNow(StatefulObject object, int value) {
 		object.getStorage().setInt(getIndex(), value);
+		object.markFieldChanged(getOrdinal());
 	}
 
 	public void set(StateChanger changer, int value) {
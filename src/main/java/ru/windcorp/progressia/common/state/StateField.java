@@ -28,15 +28,18 @@ public abstract class StateField extends Namespaced {
 
 	private final boolean isLocal;
 	private final int index;
+	private final int ordinal;
 
 	public StateField(
 		String id,
 		boolean isLocal,
-		int index
+		int index,
+		int ordinal
 	) {
 		super(id);
 		this.isLocal = isLocal;
 		this.index = index;
+		this.ordinal = ordinal;
 	}
 
 	public boolean isLocal() {
@@ -47,6 +50,16 @@ public abstract class StateField extends Namespaced {
 		return index;
 	}
 
+	/**
+	 * Returns the position of this field in its layout. Ordinals of the fields
+	 * of one likeness are unique and start at 0.
+	 * 
+	 * @return the ordinal of this field
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
 	public abstract void read(
 		StatefulObject object,
 		DataInput input,
@@ -21,6 +21,7 @@ package ru.windcorp.progressia.common.state;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.Objects;
 
 import ru.windcorp.progressia.common.util.namespaces.Namespaced;
@@ -58,6 +59,12 @@ public abstract class StatefulObject extends Namespaced {
 
 	private final StateStorage storage;
 
+	/**
+	 * Ordinals of the fields that have changed since the last invocation of
+	 * {@link #clearChangedFields()}
+	 */
+	private final BitSet changedFields = new BitSet();
+
 	public StatefulObject(
 		StatefulObjectRegistry<?> type,
 		String id
@@ -119,6 +126,61 @@ public abstract class StatefulObject extends Namespaced {
 		return builder;
 	}
 
+	/*
+	 * Change tracking
+	 */
+
+	/**
+	 * Marks the field with the provided ordinal as changed. Invoked by state
+	 * fields when their value is set.
+	 * 
+	 * @param ordinal the ordinal of the field
+	 */
+	void markFieldChanged(int ordinal) {
+		changedFields.set(ordinal);
+	}
+
+	/**
+	 * Checks whether any state field has been set since the last invocation of
+	 * {@link #clearChangedFields()}.
+	 * 
+	 * @return {@code true} if some fields may have changed
+	 */
+	public boolean hasChangedFields() {
+		return !changedFields.isEmpty();
+	}
+
+	public void clearChangedFields() {
+		changedFields.clear();
+	}
+
+	/**
+	 * Writes the binary representation of the fields that have changed since
+	 * the last invocation of {@link #clearChangedFields()}. The changes can be
+	 * applied to a copy of this object with
+	 * {@link #readChanges(DataInput, IOContext)}.
+	 * 
+	 * @param output  a {@link DataOutput} that the changes can be written to
+	 * @param context the context
+	 * @throws IOException if an error occurs in {@code output}
+	 */
+	public void writeChanges(DataOutput output, IOContext context) throws IOException {
+		getLayout().writeFields(this, changedFields, output, context);
+	}
+
+	/**
+	 * Applies the changes written by
+	 * {@link #writeChanges(DataOutput, IOContext)}.
+	 * 
+	 * @param input   a {@link DataInput} that the changes can be read from
+	 * @param context the context
+	 * @throws IOException if the changes are encoded poorly or an error occurs
+	 *                     in {@code input}
+	 */
+	public void readChanges(DataInput input, IOContext context) throws IOException {
+		getLayout().readFields(this, input, context);
+	}
+
 	/*
 	 * IO
 	 */
@@ -21,6 +21,7 @@ package ru.windcorp.progressia.common.state;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.BitSet;
 
 public abstract class StatefulObjectLayout {
 
@@ -58,6 +59,44 @@ public abstract class StatefulObjectLayout {
 	)
 		throws IOException;
 
+	/**
+	 * Writes the fields of the object whose ordinals are set in
+	 * {@code fields}. Local fields are skipped if
+	 * {@code context == COMMS}.
+	 * 
+	 * @param object  the object to write
+	 * @param fields  the ordinals of the fields to write
+	 * @param output  the output
+	 * @param context the context
+	 * @throws IOException if an error occurs in {@code output}
+	 * @see #readFields(StatefulObject, DataInput, IOContext)
+	 */
+	public abstract void writeFields(
+		StatefulObject object,
+		BitSet fields,
+		DataOutput output,
+		IOContext context
+	)
+		throws IOException;
+
+	/**
+	 * Reads the fields written by
+	 * {@link #writeFields(StatefulObject, BitSet, DataOutput, IOContext)}.
+	 * Other fields are left intact.
+	 * 
+	 * @param object  the object to read into
+	 * @param input   the input
+	 * @param context the context
+	 * @throws IOException if the data is encoded poorly or an error occurs in
+	 *                     {@code input}
+	 */
+	public abstract void readFields(
+		StatefulObject object,
+		DataInput input,
+		IOContext context
+	)
+		throws IOException;
+
 	public abstract void copy(StatefulObject from, StatefulObject to);
 
 	public abstract int computeHashCode(StatefulObject object);
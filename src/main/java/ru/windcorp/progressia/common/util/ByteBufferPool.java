@@ -0,0 +1,143 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of heap and direct {@link ByteBuffer}s.
+ * <p>
+ * Buffers are grouped into size classes of powers of two from
+ * {@link #MIN_CAPACITY} to {@link #MAX_CAPACITY} bytes. Each class keeps
+ * buffers totalling up to {@link #MAX_POOLED_BYTES_PER_CLASS} bytes, but at
+ * least {@link #MAX_POOLED_PER_CLASS} buffers; buffers that do not fit are
+ * left to the garbage collector. This lets small buffers, such as the ones
+ * network connections use, be retained in the hundreds.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ByteBufferPool {
+
+	public static final int MIN_CAPACITY_BITS = 8;
+	public static final int MAX_CAPACITY_BITS = 22;
+
+	public static final int MIN_CAPACITY = 1 << MIN_CAPACITY_BITS;
+	public static final int MAX_CAPACITY = 1 << MAX_CAPACITY_BITS;
+
+	public static final int MAX_POOLED_PER_CLASS = 16;
+	public static final int MAX_POOLED_BYTES_PER_CLASS = 16 * 1024 * 1024;
+
+	private static final int CLASS_COUNT = MAX_CAPACITY_BITS - MIN_CAPACITY_BITS + 1;
+
+	private static final SizeClass[] HEAP = createClasses();
+	private static final SizeClass[] DIRECT = createClasses();
+
+	private static class SizeClass {
+		final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+		final AtomicInteger size = new AtomicInteger();
+		final int maxSize;
+
+		SizeClass(int capacity) {
+			this.maxSize = Math.max(MAX_POOLED_PER_CLASS, MAX_POOLED_BYTES_PER_CLASS / capacity);
+		}
+	}
+
+	private static SizeClass[] createClasses() {
+		SizeClass[] result = new SizeClass[CLASS_COUNT];
+		for (int i = 0; i < CLASS_COUNT; ++i) {
+			result[i] = new SizeClass(MIN_CAPACITY << i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a cleared buffer with a capacity of at least
+	 * {@code minCapacity} bytes. The buffer may contain garbage.
+	 *
+	 * @param minCapacity the minimum capacity
+	 * @param direct      whether the buffer should be direct
+	 * @return a buffer from the pool or a new buffer
+	 */
+	public static ByteBuffer acquire(int minCapacity, boolean direct) {
+		if (minCapacity < 0) {
+			throw new IllegalArgumentException("Negative capacity " + minCapacity);
+		}
+
+		if (minCapacity > MAX_CAPACITY) {
+			return allocate(minCapacity, direct);
+		}
+
+		int sizeClass = getSizeClass(minCapacity);
+		SizeClass pool = (direct ? DIRECT : HEAP)[sizeClass];
+
+		ByteBuffer result = pool.buffers.poll();
+		if (result == null) {
+			return allocate(MIN_CAPACITY << sizeClass, direct);
+		}
+
+		pool.size.decrementAndGet();
+		result.clear();
+		return result;
+	}
+
+	/**
+	 * Returns the buffer to the pool. The buffer must not be used afterwards
+	 * by the caller, including through any views of the buffer.
+	 *
+	 * @param buffer the buffer to release
+	 */
+	public static void release(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+
+		if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY || Integer.bitCount(capacity) != 1) {
+			return;
+		}
+
+		if (!buffer.isDirect() && (!buffer.hasArray() || buffer.arrayOffset() != 0)) {
+			// Read-only or sliced buffers are not safe to hand out again
+			return;
+		}
+
+		SizeClass pool = (buffer.isDirect() ? DIRECT : HEAP)[getSizeClass(capacity)];
+
+		if (pool.size.incrementAndGet() > pool.maxSize) {
+			pool.size.decrementAndGet();
+			return;
+		}
+
+		pool.buffers.add(buffer);
+	}
+
+	private static int getSizeClass(int minCapacity) {
+		if (minCapacity <= MIN_CAPACITY)
+			return 0;
+		return Integer.SIZE - Integer.numberOfLeadingZeros(minCapacity - 1) - MIN_CAPACITY_BITS;
+	}
+
+	private static ByteBuffer allocate(int capacity, boolean direct) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	private ByteBufferPool() {
+	}
+
+}
@@ -21,47 +21,55 @@ package ru.windcorp.progressia.common.util;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
 
-import gnu.trove.list.array.TByteArrayList;
-
+/**
+ * A growable byte buffer with {@link DataInput} and {@link DataOutput} views.
+ * <p>
+ * The contents are stored in a heap or direct {@link ByteBuffer} obtained
+ * from the {@link ByteBufferPool}; buffers outgrown by a {@code DataBuffer}
+ * are returned to the pool. All primitive reads and writes access the
+ * {@code ByteBuffer} directly, and arrays are transferred in bulk.
+ * {@link #getContents()} and {@link #slice(int, int)} expose the contents
+ * without copying.
+ * <p>
+ * The encoding is the same as that of {@link java.io.DataInputStream} and
+ * {@link java.io.DataOutputStream}. Instances are not thread-safe.
+ */
 public class DataBuffer {
 
 	private static final int DEFAULT_CAPACITY = 1024;
-	private static final int TRANSFER_BUFFER_SIZE = 1024;
+	private static final int TRANSFER_BUFFER_SIZE = 8 * 1024;
 
-	private final TByteArrayList buffer;
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
 
-	private final byte[] transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
+	private final boolean direct;
 
-	private int position;
+	/**
+	 * The backing buffer. Its position is the size of the contents.
+	 */
+	private ByteBuffer buffer;
 
-	private final InputStream inputStream = new InputStream() {
-		@Override
-		public int read() throws IOException {
-			if (DataBuffer.this.position >= buffer.size())
-				return -1;
-			int result = buffer.getQuick(DataBuffer.this.position) & 0xFF;
-			++DataBuffer.this.position;
-			return result;
-		}
-	};
+	/**
+	 * A duplicate of {@link #buffer} used for reading
+	 */
+	private ByteBuffer readBuffer;
 
-	private final OutputStream outputStream = new OutputStream() {
-		@Override
-		public void write(int b) throws IOException {
-			DataBuffer.this.buffer.add((byte) b);
-		}
-	};
+	private final BufferInput reader = new BufferInput();
+	private final BufferOutput writer = new BufferOutput();
 
-	private final DataInputStream reader = new DataInputStream(inputStream);
-	private final DataOutputStream writer = new DataOutputStream(outputStream);
+	public DataBuffer(int capacity, boolean direct) {
+		this.direct = direct;
+		setBuffer(capacity == 0 ? EMPTY : ByteBufferPool.acquire(capacity, direct));
+	}
 
 	public DataBuffer(int capacity) {
-		this.buffer = new TByteArrayList(capacity);
+		this(capacity, false);
 	}
 
 	public DataBuffer() {
@@ -69,11 +77,17 @@ public class DataBuffer {
 	}
 
 	public DataBuffer(DataBuffer copyFrom) {
-		this.buffer = new TByteArrayList(copyFrom.buffer);
+		this(copyFrom.getSize(), copyFrom.direct);
+		buffer.put(copyFrom.getContents());
 	}
 
-	public DataInputStream getReader() {
-		position = 0;
+	/**
+	 * Rewinds the buffer and returns a reader of its contents.
+	 *
+	 * @return the reader
+	 */
+	public BufferInput getReader() {
+		readBuffer.limit(buffer.position()).position(0);
 		return reader;
 	}
 
@@ -81,8 +95,13 @@ public class DataBuffer {
 		return getReader();
 	}
 
-	public DataOutputStream getWriter() {
-		buffer.resetQuick();
+	/**
+	 * Clears the buffer and returns a writer that appends to it.
+	 *
+	 * @return the writer
+	 */
+	public BufferOutput getWriter() {
+		buffer.clear();
 		return writer;
 	}
 
@@ -91,43 +110,151 @@ public class DataBuffer {
 	}
 
 	public int getSize() {
-		return buffer.size();
+		return buffer.position();
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Returns a read-only view of the contents of this buffer. The view is
+	 * invalidated by any modification of this buffer.
+	 *
+	 * @return a view with position 0 and limit {@link #getSize()}
+	 */
+	public ByteBuffer getContents() {
+		return slice(0, getSize());
+	}
+
+	/**
+	 * Returns a read-only view of a part of the contents of this buffer. The
+	 * view is invalidated by any modification of this buffer.
+	 *
+	 * @param offset the offset of the first byte
+	 * @param length the length of the view
+	 * @return a view with position 0 and limit {@code length}
+	 */
+	public ByteBuffer slice(int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > getSize()) {
+			throw new IndexOutOfBoundsException(
+				"Slice [" + offset + "; " + (offset + length) + ") is out of bounds [0; " + getSize() + ")"
+			);
+		}
+
+		ByteBuffer view = buffer.asReadOnlyBuffer();
+		view.limit(offset + length).position(offset);
+		return view.slice();
 	}
 
+	/**
+	 * Replaces the contents of this buffer with {@code length} bytes read from
+	 * {@code source}.
+	 */
 	public void fill(DataInput source, int length) throws IOException {
-		buffer.resetQuick();
-		buffer.ensureCapacity(length);
+		if (length < 0) {
+			throw new IOException("Negative length " + length);
+		}
 
-		while (length > 0) {
-			int currentLength = Math.min(transferBuffer.length, length);
+		buffer.clear();
+		ensureCapacity(length);
 
-			source.readFully(transferBuffer, 0, currentLength);
-			buffer.add(transferBuffer, 0, currentLength);
+		if (buffer.hasArray()) {
+			source.readFully(buffer.array(), buffer.arrayOffset(), length);
+			buffer.position(length);
+			return;
+		}
 
+		byte[] transfer = new byte[Math.min(length, TRANSFER_BUFFER_SIZE)];
+
+		while (length > 0) {
+			int currentLength = Math.min(transfer.length, length);
+			source.readFully(transfer, 0, currentLength);
+			buffer.put(transfer, 0, currentLength);
 			length -= currentLength;
 		}
 	}
 
+	/**
+	 * Replaces the contents of this buffer with the remaining bytes of
+	 * {@code source}. The position of {@code source} is advanced.
+	 */
+	public void fill(ByteBuffer source) {
+		buffer.clear();
+		ensureCapacity(source.remaining());
+		buffer.put(source);
+	}
+
+	/**
+	 * Writes the contents of this buffer to {@code sink}.
+	 */
 	public void flush(DataOutput sink) throws IOException {
-		int position = 0;
-		int length = buffer.size();
+		int length = getSize();
 
-		while (position < length) {
-			int currentLength = Math.min(
-				transferBuffer.length,
-				length - position
-			);
+		if (buffer.hasArray()) {
+			sink.write(buffer.array(), buffer.arrayOffset(), length);
+			return;
+		}
 
-			buffer.toArray(transferBuffer, position, 0, currentLength);
-			sink.write(transferBuffer, 0, currentLength);
+		ByteBuffer contents = getContents();
+		byte[] transfer = new byte[Math.min(length, TRANSFER_BUFFER_SIZE)];
 
-			length -= currentLength;
+		while (contents.hasRemaining()) {
+			int currentLength = Math.min(transfer.length, contents.remaining());
+			contents.get(transfer, 0, currentLength);
+			sink.write(transfer, 0, currentLength);
+		}
+	}
+
+	/**
+	 * Empties this buffer and returns its storage to the
+	 * {@link ByteBufferPool}. The buffer remains usable.
+	 */
+	public void release() {
+		ByteBuffer old = buffer;
+		setBuffer(EMPTY);
+
+		if (old != EMPTY) {
+			ByteBufferPool.release(old);
+		}
+	}
+
+	private void ensureCapacity(int additional) {
+		int size = buffer.position();
+		int required = size + additional;
+
+		if (required < 0) {
+			throw new OutOfMemoryError("DataBuffer cannot exceed " + Integer.MAX_VALUE + " bytes");
+		}
+
+		if (required <= buffer.capacity())
+			return;
+
+		int newCapacity = Math.max(required, Math.max(DEFAULT_CAPACITY, buffer.capacity() * 2));
+		if (newCapacity < 0) {
+			newCapacity = required;
 		}
+
+		ByteBuffer old = buffer;
+		setBuffer(ByteBufferPool.acquire(newCapacity, direct));
+
+		old.flip();
+		buffer.put(old);
+
+		if (old != EMPTY) {
+			ByteBufferPool.release(old);
+		}
+	}
+
+	private void setBuffer(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.readBuffer = buffer.duplicate();
+		this.readBuffer.limit(0);
 	}
 
 	@Override
 	public int hashCode() {
-		return buffer.hashCode();
+		return getContents().hashCode();
 	}
 
 	@Override
@@ -139,9 +266,290 @@ public class DataBuffer {
 		if (getClass() != obj.getClass())
 			return false;
 		DataBuffer other = (DataBuffer) obj;
-		if (!buffer.equals(other.buffer))
-			return false;
-		return true;
+		return getContents().equals(other.getContents());
+	}
+
+	/**
+	 * Reads the contents of the buffer from the position set by
+	 * {@link DataBuffer#getReader()}.
+	 */
+	public class BufferInput extends InputStream implements DataInput {
+
+		private BufferInput() {
+		}
+
+		private ByteBuffer require(int bytes) throws EOFException {
+			if (readBuffer.remaining() < bytes) {
+				throw new EOFException("Needed " + bytes + " bytes, " + readBuffer.remaining() + " remaining");
+			}
+			return readBuffer;
+		}
+
+		@Override
+		public int read() {
+			if (!readBuffer.hasRemaining())
+				return -1;
+			return readBuffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!readBuffer.hasRemaining())
+				return -1;
+
+			len = Math.min(len, readBuffer.remaining());
+			readBuffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return readBuffer.remaining();
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, readBuffer.remaining()));
+			readBuffer.position(readBuffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public void readFully(byte[] b) throws IOException {
+			readFully(b, 0, b.length);
+		}
+
+		@Override
+		public void readFully(byte[] b, int off, int len) throws IOException {
+			require(len).get(b, off, len);
+		}
+
+		@Override
+		public int skipBytes(int n) {
+			return (int) skip(n);
+		}
+
+		@Override
+		public boolean readBoolean() throws IOException {
+			return require(Byte.BYTES).get() != 0;
+		}
+
+		@Override
+		public byte readByte() throws IOException {
+			return require(Byte.BYTES).get();
+		}
+
+		@Override
+		public int readUnsignedByte() throws IOException {
+			return readByte() & 0xFF;
+		}
+
+		@Override
+		public short readShort() throws IOException {
+			return require(Short.BYTES).getShort();
+		}
+
+		@Override
+		public int readUnsignedShort() throws IOException {
+			return readShort() & 0xFFFF;
+		}
+
+		@Override
+		public char readChar() throws IOException {
+			return require(Character.BYTES).getChar();
+		}
+
+		@Override
+		public int readInt() throws IOException {
+			return require(Integer.BYTES).getInt();
+		}
+
+		@Override
+		public long readLong() throws IOException {
+			return require(Long.BYTES).getLong();
+		}
+
+		@Override
+		public float readFloat() throws IOException {
+			return require(Float.BYTES).getFloat();
+		}
+
+		@Override
+		public double readDouble() throws IOException {
+			return require(Double.BYTES).getDouble();
+		}
+
+		/**
+		 * @deprecated see {@link DataInputStream#readLine()}
+		 */
+		@Override
+		@Deprecated
+		public String readLine() throws IOException {
+			if (!readBuffer.hasRemaining())
+				return null;
+
+			StringBuilder sb = new StringBuilder();
+
+			while (readBuffer.hasRemaining()) {
+				int c = readBuffer.get() & 0xFF;
+
+				if (c == '\n')
+					break;
+
+				if (c == '\r') {
+					if (readBuffer.hasRemaining() && readBuffer.get(readBuffer.position()) == '\n') {
+						readBuffer.get();
+					}
+					break;
+				}
+
+				sb.append((char) c);
+			}
+
+			return sb.toString();
+		}
+
+		@Override
+		public String readUTF() throws IOException {
+			return DataInputStream.readUTF(this);
+		}
+
+	}
+
+	/**
+	 * Appends to the contents of the buffer, growing it as necessary.
+	 */
+	public class BufferOutput extends OutputStream implements DataOutput {
+
+		private BufferOutput() {
+		}
+
+		private ByteBuffer reserve(int bytes) {
+			ensureCapacity(bytes);
+			return buffer;
+		}
+
+		@Override
+		public void write(int b) {
+			reserve(Byte.BYTES).put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b) {
+			write(b, 0, b.length);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			reserve(len).put(b, off, len);
+		}
+
+		@Override
+		public void writeBoolean(boolean v) {
+			write(v ? 1 : 0);
+		}
+
+		@Override
+		public void writeByte(int v) {
+			write(v);
+		}
+
+		@Override
+		public void writeShort(int v) {
+			reserve(Short.BYTES).putShort((short) v);
+		}
+
+		@Override
+		public void writeChar(int v) {
+			reserve(Character.BYTES).putChar((char) v);
+		}
+
+		@Override
+		public void writeInt(int v) {
+			reserve(Integer.BYTES).putInt(v);
+		}
+
+		@Override
+		public void writeLong(long v) {
+			reserve(Long.BYTES).putLong(v);
+		}
+
+		@Override
+		public void writeFloat(float v) {
+			reserve(Float.BYTES).putFloat(v);
+		}
+
+		@Override
+		public void writeDouble(double v) {
+			reserve(Double.BYTES).putDouble(v);
+		}
+
+		@Override
+		public void writeBytes(String s) {
+			int length = s.length();
+			ByteBuffer target = reserve(length);
+
+			for (int i = 0; i < length; ++i) {
+				target.put((byte) s.charAt(i));
+			}
+		}
+
+		@Override
+		public void writeChars(String s) {
+			int length = s.length();
+			ByteBuffer target = reserve(length * Character.BYTES);
+
+			for (int i = 0; i < length; ++i) {
+				target.putChar(s.charAt(i));
+			}
+		}
+
+		/**
+		 * Writes the string in the modified UTF-8 encoding of
+		 * {@link DataOutput#writeUTF(String)}.
+		 */
+		@Override
+		public void writeUTF(String s) throws UTFDataFormatException {
+			int length = s.length();
+			int encodedLength = 0;
+
+			for (int i = 0; i < length; ++i) {
+				char c = s.charAt(i);
+
+				if (c >= 0x0001 && c <= 0x007F) {
+					encodedLength += 1;
+				} else if (c > 0x07FF) {
+					encodedLength += 3;
+				} else {
+					encodedLength += 2;
+				}
+			}
+
+			if (encodedLength > 0xFFFF) {
+				throw new UTFDataFormatException("Encoded string is too long: " + encodedLength + " bytes");
+			}
+
+			ByteBuffer target = reserve(Short.BYTES + encodedLength);
+			target.putShort((short) encodedLength);
+
+			for (int i = 0; i < length; ++i) {
+				char c = s.charAt(i);
+
+				if (c >= 0x0001 && c <= 0x007F) {
+					target.put((byte) c);
+				} else if (c > 0x07FF) {
+					target.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+					target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+					target.put((byte) (0x80 | (c & 0x3F)));
+				} else {
+					target.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+					target.put((byte) (0x80 | (c & 0x3F)));
+				}
+			}
+		}
+
 	}
 
 }
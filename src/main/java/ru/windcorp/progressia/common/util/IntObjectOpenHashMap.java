@@ -0,0 +1,215 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.util;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * A minimal open-addressed hash map from {@code int} keys to non-null object
+ * values that uses linear probing and backward-shift deletion.
+ * <p>
+ * Unlike {@link gnu.trove.map.hash.TIntObjectHashMap}, this map tolerates
+ * readers that race with a single writer: {@link #get(int)} and
+ * {@link #forEachValue(Consumer)} may miss a concurrent modification, but
+ * never throw or loop forever. Storage is not allocated until the first
+ * mapping is added.
+ *
+ * @param <V> the type of values
+ */
+public class IntObjectOpenHashMap<V> {
+
+	private static final int MIN_CAPACITY = 8;
+
+	private static final class Table {
+		final int[] keys;
+
+		/**
+		 * {@code null} marks a free slot.
+		 */
+		final Object[] values;
+
+		final int shift;
+
+		Table(int capacity) {
+			this.keys = new int[capacity];
+			this.values = new Object[capacity];
+			this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+		}
+
+		int getHome(int key) {
+			return (key * 0x9E3779B9) >>> shift;
+		}
+
+		int getMask() {
+			return values.length - 1;
+		}
+	}
+
+	private volatile Table table = null;
+	private int size = 0;
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		Table t = this.table;
+		if (t == null)
+			return null;
+
+		int mask = t.getMask();
+		for (int i = t.getHome(key);; i = (i + 1) & mask) {
+			Object value = t.values[i];
+			if (value == null)
+				return null;
+			if (t.keys[i] == key)
+				return (V) value;
+		}
+	}
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Associates {@code value} with {@code key}.
+	 *
+	 * @param key   the key
+	 * @param value the value, not {@code null}
+	 * @return the value previously associated with the key, or {@code null}
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		Objects.requireNonNull(value, "value");
+
+		Table t = this.table;
+		if (t == null || (size + 1) * 2 > t.values.length) {
+			t = rehash(t == null ? MIN_CAPACITY : t.values.length * 2);
+		}
+
+		int mask = t.getMask();
+		for (int i = t.getHome(key);; i = (i + 1) & mask) {
+			Object previous = t.values[i];
+
+			if (previous == null) {
+				t.keys[i] = key;
+				t.values[i] = value;
+				size++;
+				return null;
+			}
+
+			if (t.keys[i] == key) {
+				t.values[i] = value;
+				return (V) previous;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		Table t = this.table;
+		if (t == null)
+			return null;
+
+		int mask = t.getMask();
+		int i = t.getHome(key);
+
+		while (true) {
+			Object value = t.values[i];
+			if (value == null)
+				return null;
+			if (t.keys[i] == key)
+				break;
+			i = (i + 1) & mask;
+		}
+
+		V removed = (V) t.values[i];
+
+		// Shift subsequent entries of the cluster back to fill the gap
+		int gap = i;
+		for (int j = (gap + 1) & mask; t.values[j] != null; j = (j + 1) & mask) {
+			int home = t.getHome(t.keys[j]);
+
+			// Move the entry at j into the gap unless its home lies in (gap; j]
+			boolean canMove = (j > gap) ? (home <= gap || home > j) : (home <= gap && home > j);
+
+			if (canMove) {
+				t.keys[gap] = t.keys[j];
+				t.values[gap] = t.values[j];
+				gap = j;
+			}
+		}
+
+		t.values[gap] = null;
+		size--;
+		return removed;
+	}
+
+	public void clear() {
+		this.table = null;
+		this.size = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void forEachValue(Consumer<? super V> action) {
+		Table t = this.table;
+		if (t == null)
+			return;
+
+		for (Object value : t.values) {
+			if (value != null) {
+				action.accept((V) value);
+			}
+		}
+	}
+
+	private Table rehash(int capacity) {
+		Table previous = this.table;
+		Table result = new Table(capacity);
+
+		if (previous != null) {
+			int mask = result.getMask();
+
+			for (int j = 0; j < previous.values.length; ++j) {
+				Object value = previous.values[j];
+				if (value == null)
+					continue;
+
+				int key = previous.keys[j];
+				int i = result.getHome(key);
+				while (result.values[i] != null) {
+					i = (i + 1) & mask;
+				}
+
+				result.keys[i] = key;
+				result.values[i] = value;
+			}
+		}
+
+		this.table = result;
+		return result;
+	}
+
+}
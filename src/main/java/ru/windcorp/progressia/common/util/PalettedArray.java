@@ -0,0 +1,328 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.util;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size array of object references that stores a small palette of
+ * distinct elements and a bit-packed array of palette indices instead of a
+ * reference per slot.
+ * <p>
+ * The width of a palette index is always one of 0, 1, 2, 4, 8 or 16 bits so
+ * that indices never straddle {@code long} boundaries. An array that contains
+ * a single distinct element (a <i>uniform</i> array) uses zero bits per index
+ * and allocates no index storage at all.
+ * <p>
+ * Elements are compared by identity. The palette is never shrunk implicitly
+ * except when it runs out of space; use {@link #compact()} to discard unused
+ * palette entries and narrow the indices.
+ * <p>
+ * This class is not thread-safe. Much like with a plain array, a
+ * {@link #get(int)} racing with a modification may return an outdated value,
+ * but it never throws or corrupts the array.
+ *
+ * @param <E> the type of elements
+ */
+public class PalettedArray<E> {
+
+	private static final int MAX_BITS = 16;
+
+	/**
+	 * An immutable-shape snapshot of the storage. The palette array is
+	 * allocated at full capacity so that new entries can be appended without
+	 * replacing the storage; index storage is only replaced when the width of
+	 * the indices changes.
+	 */
+	private static final class Storage {
+
+		final int bits;
+		final int log2EntriesPerWord;
+		final long mask;
+
+		/**
+		 * Packed palette indices or {@code null} when {@link #bits} is 0.
+		 */
+		final long[] data;
+
+		final Object[] palette;
+		int paletteSize;
+
+		Storage(int size, int bits, Object[] palette, int paletteSize) {
+			this.bits = bits;
+			this.palette = palette;
+			this.paletteSize = paletteSize;
+
+			if (bits == 0) {
+				this.log2EntriesPerWord = 0;
+				this.mask = 0;
+				this.data = null;
+			} else {
+				this.log2EntriesPerWord = 6 - Integer.numberOfTrailingZeros(bits);
+				this.mask = (1L << bits) - 1;
+				this.data = new long[(size + (1 << log2EntriesPerWord) - 1) >>> log2EntriesPerWord];
+			}
+		}
+
+		int getCapacity() {
+			return palette.length;
+		}
+
+		int read(int index) {
+			if (bits == 0)
+				return 0;
+
+			long word = data[index >>> log2EntriesPerWord];
+			int shift = (index & ((1 << log2EntriesPerWord) - 1)) * bits;
+			return (int) ((word >>> shift) & mask);
+		}
+
+		void write(int index, int paletteIndex) {
+			int wordIndex = index >>> log2EntriesPerWord;
+			int shift = (index & ((1 << log2EntriesPerWord) - 1)) * bits;
+
+			data[wordIndex] = (data[wordIndex] & ~(mask << shift)) | ((long) paletteIndex << shift);
+		}
+
+		int find(Object element) {
+			for (int i = 0; i < paletteSize; ++i) {
+				if (palette[i] == element) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
+	}
+
+	private final int size;
+	private Storage storage;
+
+	/**
+	 * Creates a new uniform array.
+	 *
+	 * @param size    the length of the array
+	 * @param initial the element to fill the array with, may be {@code null}
+	 */
+	public PalettedArray(int size, E initial) {
+		if (size <= 0)
+			throw new IllegalArgumentException("size " + size + " is not positive");
+
+		this.size = size;
+		this.storage = createUniform(initial);
+	}
+
+	private Storage createUniform(E element) {
+		return new Storage(size, 0, new Object[] { element }, 1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		checkIndex(index);
+		Storage s = this.storage;
+		return (E) s.palette[s.read(index)];
+	}
+
+	/**
+	 * Stores {@code element} at {@code index}.
+	 *
+	 * @param index   the index to write to
+	 * @param element the element to store, may be {@code null}
+	 * @return the element previously stored at {@code index}
+	 */
+	@SuppressWarnings("unchecked")
+	public E set(int index, E element) {
+		checkIndex(index);
+
+		Storage s = this.storage;
+		int paletteIndex = s.find(element);
+
+		if (paletteIndex < 0) {
+			if (s.paletteSize == s.getCapacity()) {
+				s = makeRoom(s);
+			}
+
+			paletteIndex = s.paletteSize;
+			s.palette[paletteIndex] = element;
+			s.paletteSize++;
+		}
+
+		int previousIndex = s.read(index);
+		if (previousIndex != paletteIndex) {
+			s.write(index, paletteIndex);
+		}
+
+		return (E) s.palette[previousIndex];
+	}
+
+	/**
+	 * Sets all elements of this array to {@code element}. This releases all
+	 * index storage.
+	 *
+	 * @param element the element to fill the array with
+	 */
+	public void fill(E element) {
+		this.storage = createUniform(element);
+	}
+
+	/**
+	 * Checks whether all elements of this array are identical. This method only
+	 * inspects the palette and may therefore return {@code false} for uniform
+	 * arrays that have not been {@linkplain #compact() compacted}.
+	 *
+	 * @return {@code true} if this array is known to be uniform
+	 */
+	public boolean isUniform() {
+		return storage.bits == 0;
+	}
+
+	public int getPaletteSize() {
+		return storage.paletteSize;
+	}
+
+	public int getBitsPerEntry() {
+		return storage.bits;
+	}
+
+	/**
+	 * Removes unused palette entries and reduces the width of the indices to
+	 * the minimum necessary. An array that only contains one distinct element
+	 * becomes uniform.
+	 */
+	public void compact() {
+		Storage s = this.storage;
+		if (s.bits == 0)
+			return;
+
+		int[] remap = computeRemap(s);
+		int used = remap[remap.length - 1];
+
+		int bits = getBitsFor(used);
+		if (bits == s.bits && used == s.paletteSize)
+			return;
+
+		this.storage = repack(s, bits, remap, used);
+	}
+
+	/**
+	 * Ensures that {@code s} has space for one more palette entry, replacing
+	 * the storage if necessary.
+	 */
+	private Storage makeRoom(Storage s) {
+		if (s.bits != 0) {
+			int[] remap = computeRemap(s);
+			int used = remap[remap.length - 1];
+
+			if (used < s.paletteSize) {
+				// Some entries are unused, reuse their slots
+				s = repack(s, s.bits, remap, used);
+				this.storage = s;
+				return s;
+			}
+		}
+
+		if (s.bits == MAX_BITS) {
+			// Cannot happen for arrays no longer than 1 << MAX_BITS
+			throw new IllegalStateException("Palette capacity exceeded");
+		}
+
+		int[] identity = new int[s.paletteSize + 1];
+		for (int i = 0; i < s.paletteSize; ++i) {
+			identity[i] = i;
+		}
+		identity[s.paletteSize] = s.paletteSize;
+
+		s = repack(s, s.bits == 0 ? 1 : s.bits * 2, identity, s.paletteSize);
+		this.storage = s;
+		return s;
+	}
+
+	/**
+	 * Computes the mapping from old palette indices to compacted palette
+	 * indices. Unused entries are mapped to -1. The last element of the
+	 * returned array holds the amount of used entries.
+	 */
+	private int[] computeRemap(Storage s) {
+		int[] remap = new int[s.paletteSize + 1];
+
+		for (int i = 0; i < size; ++i) {
+			remap[s.read(i)] = 1;
+		}
+
+		int used = 0;
+		for (int i = 0; i < s.paletteSize; ++i) {
+			remap[i] = remap[i] == 0 ? -1 : used++;
+		}
+
+		remap[s.paletteSize] = used;
+		return remap;
+	}
+
+	private Storage repack(Storage s, int bits, int[] remap, int used) {
+		Object[] palette = new Object[1 << bits];
+		for (int i = 0; i < s.paletteSize; ++i) {
+			if (remap[i] >= 0) {
+				palette[remap[i]] = s.palette[i];
+			}
+		}
+
+		Storage result = new Storage(size, bits, palette, used);
+
+		if (bits != 0) {
+			for (int i = 0; i < size; ++i) {
+				int paletteIndex = remap[s.read(i)];
+				if (paletteIndex != 0) {
+					result.write(i, paletteIndex);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private static int getBitsFor(int paletteSize) {
+		if (paletteSize <= 1)
+			return 0;
+
+		int bits = 1;
+		while ((1 << bits) < paletteSize) {
+			bits *= 2;
+		}
+		return bits;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " is out of bounds: size is " + size);
+		}
+	}
+
+	@Override
+	public String toString() {
+		Storage s = this.storage;
+		return "PalettedArray [size=" + size + ", bits=" + s.bits + ", palette="
+			+ Arrays.toString(Arrays.copyOf(s.palette, s.paletteSize)) + "]";
+	}
+
+}
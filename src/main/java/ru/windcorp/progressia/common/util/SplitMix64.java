@@ -0,0 +1,102 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.util;
+
+/**
+ * A small, fast and allocation-free pseudorandom number generator based on
+ * the SplitMix64 algorithm.
+ * <p>
+ * Unlike {@link java.util.Random} instances of this class are not
+ * thread-safe, and their state can be replaced at will with
+ * {@link #setSeed(long)}. This makes it possible to derive independent
+ * reproducible streams from a base seed and some coordinates, e.g.
+ * {@code setSeed(mix(mix(seed) + chunk) + tick)}, without allocating a
+ * generator for each stream.
+ */
+public final class SplitMix64 {
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long state;
+
+	public SplitMix64(long seed) {
+		this.state = seed;
+	}
+
+	public void setSeed(long seed) {
+		this.state = seed;
+	}
+
+	/**
+	 * Scrambles the bits of the provided value. This is a bijection that
+	 * thoroughly mixes all bits of the input.
+	 * 
+	 * @param x the value to scramble
+	 * @return the scrambled value
+	 */
+	public static long mix(long x) {
+		x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+		return x ^ (x >>> 31);
+	}
+
+	public long nextLong() {
+		return mix(state += GOLDEN_GAMMA);
+	}
+
+	public int nextInt() {
+		return (int) (nextLong() >>> 32);
+	}
+
+	/**
+	 * Returns a pseudorandom {@code int} in {@code [0; bound)}. The bias of
+	 * the result is at most {@code bound / 2^32}, which is negligible for the
+	 * small bounds this generator is used with.
+	 * 
+	 * @param bound the exclusive upper bound, must be positive
+	 * @return the next value
+	 */
+	public int nextInt(int bound) {
+		if (bound <= 0) {
+			throw new IllegalArgumentException("bound must be positive, got " + bound);
+		}
+
+		return (int) (((nextLong() >>> 32) * bound) >>> 32);
+	}
+
+	/**
+	 * Returns a pseudorandom {@code float} in {@code [0; 1)}.
+	 * 
+	 * @return the next value
+	 */
+	public float nextFloat() {
+		return (nextLong() >>> 40) * 0x1.0p-24f;
+	}
+
+	/**
+	 * Creates a new generator whose stream is independent of the rest of the
+	 * stream of this generator.
+	 * 
+	 * @return the new generator
+	 */
+	public SplitMix64 split() {
+		return new SplitMix64(mix(nextLong()));
+	}
+
+}
@@ -111,17 +111,27 @@ public class TaskQueue {
 		}
 	}
 
-	public void runTasks() {
+	/**
+	 * Runs all tasks queued for invocation, then all scheduled tasks.
+	 * 
+	 * @return the number of tasks run
+	 */
+	public int runTasks() {
+		int count = 0;
 		Iterator<Runnable> tasks = queue.iterator();
 
 		while (tasks.hasNext()) {
 			tasks.next().run();
 			tasks.remove();
+			count++;
 		}
 
 		for (Runnable task : repeating) {
 			task.run();
+			count++;
 		}
+
+		return count;
 	}
 
 }
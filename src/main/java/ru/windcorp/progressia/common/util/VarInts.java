@@ -0,0 +1,99 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable-length encoding of {@code int}s: each byte carries 7 bits of the
+ * value, least significant bits first, and its high bit is set if more bytes
+ * follow. Values in {@code [0; 128)} take one byte; negative values always
+ * take five bytes unless they are {@linkplain #writeSigned(DataOutput, int)
+ * zigzag-encoded} first.
+ */
+public class VarInts {
+
+	public static final int MAX_BYTES = 5;
+
+	public static void write(DataOutput output, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		output.writeByte(value);
+	}
+
+	public static int read(DataInput input) throws IOException {
+		int result = 0;
+
+		for (int shift = 0; shift < 7 * MAX_BYTES; shift += 7) {
+			int b = input.readByte();
+			result |= (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+
+		throw new IOException("VarInt is longer than " + MAX_BYTES + " bytes");
+	}
+
+	public static void writeSigned(DataOutput output, int value) throws IOException {
+		write(output, encodeZigZag(value));
+	}
+
+	public static int readSigned(DataInput input) throws IOException {
+		return decodeZigZag(read(input));
+	}
+
+	/**
+	 * Maps signed values to unsigned values so that numbers with a small
+	 * absolute value have a small encoding: 0, -1, 1, -2, 2 ... become 0, 1,
+	 * 2, 3, 4 ...
+	 * 
+	 * @param value the value to encode
+	 * @return the encoded value
+	 */
+	public static int encodeZigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	public static int decodeZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public static int getSize(int value) {
+		if ((value & (~0 << 7)) == 0)
+			return 1;
+		if ((value & (~0 << 14)) == 0)
+			return 2;
+		if ((value & (~0 << 21)) == 0)
+			return 3;
+		if ((value & (~0 << 28)) == 0)
+			return 4;
+		return 5;
+	}
+
+	private VarInts() {
+	}
+
+}
@@ -22,6 +22,12 @@ public abstract class Namespaced {
 
 	private final String id;
 
+	/**
+	 * The dense numeric ID assigned when the registry containing this object
+	 * was {@linkplain NamespacedInstanceRegistry#freeze() frozen}, or -1
+	 */
+	private int numericId = -1;
+
 	public Namespaced(String id) {
 		NamespacedUtil.checkId(id);
 		this.id = id;
@@ -31,6 +37,26 @@ public abstract class Namespaced {
 		return id;
 	}
 
+	/**
+	 * Returns the numeric ID of this object. Numeric IDs are assigned by
+	 * {@link NamespacedInstanceRegistry#freeze()} and are dense: the elements
+	 * of a frozen registry have numeric IDs {@code 0} to {@code size() - 1}.
+	 * 
+	 * @return the numeric ID of this object or -1 if it has not been assigned
+	 */
+	public final int getNumericId() {
+		return numericId;
+	}
+
+	void setNumericId(int numericId) {
+		if (this.numericId >= 0) {
+			throw new IllegalStateException(
+				"Numeric ID of " + id + " has already been assigned to " + this.numericId
+			);
+		}
+		this.numericId = numericId;
+	}
+
 	public String getNamespace() {
 		return NamespacedUtil.getNamespace(getId());
 	}
@@ -0,0 +1,99 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.util.namespaces;
+
+import java.util.Objects;
+
+/**
+ * Maps elements of one {@link NamespacedInstanceRegistry} to the elements of
+ * another registry that have the same namespaced IDs, such as block data to
+ * block logic.
+ * <p>
+ * Once both registries are {@linkplain NamespacedInstanceRegistry#freeze()
+ * frozen}, lookups are a single array access indexed by the
+ * {@linkplain Namespaced#getNumericId() numeric ID} of the key. Until then, and
+ * for keys that are not registered, lookups fall back to the namespaced ID.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @param <E> the type of the counterparts
+ */
+public class NamespacedCounterparts<E extends Namespaced> {
+
+	private final NamespacedInstanceRegistry<?> keys;
+	private final NamespacedInstanceRegistry<E> counterparts;
+
+	/**
+	 * Counterparts indexed by numeric IDs of the keys, or {@code null} if
+	 * either registry is not frozen yet
+	 */
+	private volatile Namespaced[] table = null;
+
+	public NamespacedCounterparts(
+		NamespacedInstanceRegistry<?> keys,
+		NamespacedInstanceRegistry<E> counterparts
+	) {
+		this.keys = Objects.requireNonNull(keys, "keys");
+		this.counterparts = Objects.requireNonNull(counterparts, "counterparts");
+	}
+
+	/**
+	 * Returns the counterpart of the provided element of the key registry.
+	 * 
+	 * @param key the element to look up
+	 * @return the element with the same namespaced ID or {@code null} if there
+	 *         is none
+	 */
+	@SuppressWarnings("unchecked")
+	public E get(Namespaced key) {
+		Namespaced[] table = this.table;
+
+		if (table == null) {
+			table = buildTable();
+		}
+
+		int numericId = key.getNumericId();
+
+		if (table != null && numericId >= 0 && numericId < table.length) {
+			return (E) table[numericId];
+		}
+
+		return counterparts.get(key.getId());
+	}
+
+	private Namespaced[] buildTable() {
+		if (!keys.isFrozen() || !counterparts.isFrozen())
+			return null;
+
+		synchronized (this) {
+			if (table == null) {
+				Namespaced[] result = new Namespaced[keys.size()];
+
+				for (int i = 0; i < result.length; ++i) {
+					result[i] = counterparts.get(keys.getByNumericId(i).getId());
+				}
+
+				table = result;
+			}
+
+			return table;
+		}
+	}
+
+}
@@ -18,25 +18,51 @@
  
 package ru.windcorp.progressia.common.util.namespaces;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.google.errorprone.annotations.DoNotCall;
 
+/**
+ * A registry of {@link Namespaced} instances.
+ * <p>
+ * Once all content has been registered the registry should be
+ * {@linkplain #freeze() frozen}. Frozen registries reject modifications, serve
+ * lookups without locking and assign dense {@linkplain Namespaced#getNumericId()
+ * numeric IDs} to their elements, which allows other code to associate data
+ * with the elements using plain arrays.
+ */
 public class NamespacedInstanceRegistry<E extends Namespaced>
 	implements Map<String, E> {
 
-	private final Map<String, E> backingMap = Collections.synchronizedMap(new HashMap<>());
+	private volatile Map<String, E> backingMap = Collections.synchronizedMap(new HashMap<>());
+
+	/**
+	 * Elements indexed by their numeric IDs, or {@code null} if this registry
+	 * is not frozen yet
+	 */
+	private volatile Namespaced[] byNumericId = null;
+
+	/**
+	 * Identifies the contents of this registry; computed when it is frozen
+	 */
+	private volatile long fingerprint = 0;
 
 	private final Logger logger = LogManager.getLogger(getClass());
 
-	public void register(E element) {
+	public synchronized void register(E element) {
+		checkNotFrozen(element.getId());
 		logger.debug("Registering {} in {}", element.getId(), getClass().getSimpleName());
 		backingMap.put(element.getId(), element);
 	}
@@ -93,7 +119,8 @@ public class NamespacedInstanceRegistry<E extends Namespaced>
 	}
 
 	@Override
-	public E remove(Object key) {
+	public synchronized E remove(Object key) {
+		checkNotFrozen(key);
 		return backingMap.remove(key);
 	}
 
@@ -110,7 +137,8 @@ public class NamespacedInstanceRegistry<E extends Namespaced>
 	}
 
 	@Override
-	public void clear() {
+	public synchronized void clear() {
+		checkNotFrozen("all elements");
 		backingMap.clear();
 	}
 
@@ -129,4 +157,84 @@ public class NamespacedInstanceRegistry<E extends Namespaced>
 		return backingMap.entrySet();
 	}
 
+	/**
+	 * Freezes this registry. Elements are assigned numeric IDs in the order of
+	 * their namespaced IDs, so registries with equal contents assign equal
+	 * numeric IDs. Afterwards no elements may be registered or removed. Calling
+	 * this method on a frozen registry has no effect.
+	 * 
+	 * @throws IllegalStateException if an element already has a numeric ID
+	 *                               assigned by another registry
+	 */
+	public synchronized void freeze() {
+		if (isFrozen())
+			return;
+
+		List<E> elements = new ArrayList<>(backingMap.values());
+		elements.sort(Comparator.comparing(Namespaced::getId));
+
+		Namespaced[] array = new Namespaced[elements.size()];
+		CRC32 crc = new CRC32();
+
+		for (int i = 0; i < array.length; ++i) {
+			E element = elements.get(i);
+			element.setNumericId(i);
+			array[i] = element;
+
+			crc.update(element.getId().getBytes(StandardCharsets.UTF_8));
+			crc.update('\n');
+		}
+
+		backingMap = Collections.unmodifiableMap(new HashMap<>(backingMap));
+		fingerprint = ((long) array.length << 32) | crc.getValue();
+		byNumericId = array;
+
+		logger.debug("Froze {} with {} elements", getClass().getSimpleName(), array.length);
+	}
+
+	public boolean isFrozen() {
+		return byNumericId != null;
+	}
+
+	/**
+	 * Returns a value that identifies the contents of this registry. Frozen
+	 * registries with equal fingerprints assign the same numeric IDs to the
+	 * same elements.
+	 * 
+	 * @return the fingerprint, or 0 if this registry is not frozen
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the element with the provided numeric ID.
+	 * 
+	 * @param numericId the numeric ID of the element
+	 * @return the element or {@code null} if no element has this ID
+	 * @throws IllegalStateException if this registry is not frozen
+	 */
+	@SuppressWarnings("unchecked")
+	public E getByNumericId(int numericId) {
+		Namespaced[] array = byNumericId;
+
+		if (array == null) {
+			throw new IllegalStateException(
+				getClass().getSimpleName() + " is not frozen, numeric IDs are not assigned"
+			);
+		}
+
+		if (numericId < 0 || numericId >= array.length)
+			return null;
+		return (E) array[numericId];
+	}
+
+	private void checkNotFrozen(Object what) {
+		if (isFrozen()) {
+			throw new IllegalStateException(
+				"Cannot modify " + what + " in " + getClass().getSimpleName() + ": registry is frozen"
+			);
+		}
+	}
+
 }
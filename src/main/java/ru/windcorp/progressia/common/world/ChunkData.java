@@ -29,6 +29,8 @@ import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.util.IntObjectOpenHashMap;
+import ru.windcorp.progressia.common.util.PalettedArray;
 import ru.windcorp.progressia.common.util.VectorUtil;
 import ru.windcorp.progressia.common.world.block.BlockData;
 import ru.windcorp.progressia.common.world.block.BlockFace;
@@ -46,10 +48,17 @@ public class ChunkData
 	private final Vec3i position = new Vec3i();
 	private final WorldData world;
 
-	private final BlockData[] blocks = new BlockData[BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK];
+	private final PalettedArray<BlockData> blocks = new PalettedArray<>(
+		BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK,
+		null
+	);
 
-	private final TileDataStack[] tiles = new TileDataStack[BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK *
-		BLOCK_FACE_COUNT];
+	/**
+	 * Tile stacks that have been created in this chunk, keyed by
+	 * {@link #getTileIndex(Vec3i, BlockFace)}. Most blocks never have tiles,
+	 * so only stacks that were actually requested are stored.
+	 */
+	private final IntObjectOpenHashMap<TileDataStackImpl> tiles = new IntObjectOpenHashMap<>();
 
 	private Object generationHint = null;
 
@@ -67,12 +76,11 @@ public class ChunkData
 
 	@Override
 	public BlockData getBlock(Vec3i posInChunk) {
-		return blocks[getBlockIndex(posInChunk)];
+		return blocks.get(getBlockIndex(posInChunk));
 	}
 
 	public void setBlock(Vec3i posInChunk, BlockData block, boolean notify) {
-		BlockData previous = blocks[getBlockIndex(posInChunk)];
-		blocks[getBlockIndex(posInChunk)] = block;
+		BlockData previous = blocks.set(getBlockIndex(posInChunk), block);
 
 		if (notify) {
 			getListeners().forEach(l -> {
@@ -84,21 +92,7 @@ public class ChunkData
 
 	@Override
 	public TileDataStack getTilesOrNull(Vec3i blockInChunk, BlockFace face) {
-		return tiles[getTileIndex(blockInChunk, face)];
-	}
-
-	/**
-	 * Internal use only. Modify a list returned by
-	 * {@link #getTiles(Vec3i, BlockFace)} or
-	 * {@link #getTilesOrNull(Vec3i, BlockFace)}
-	 * to change tiles.
-	 */
-	protected void setTiles(
-		Vec3i blockInChunk,
-		BlockFace face,
-		TileDataStack tiles
-	) {
-		this.tiles[getTileIndex(blockInChunk, face)] = tiles;
+		return tiles.get(getTileIndex(blockInChunk, face));
 	}
 
 	@Override
@@ -109,29 +103,14 @@ public class ChunkData
 	@Override
 	public TileDataStack getTiles(Vec3i blockInChunk, BlockFace face) {
 		int index = getTileIndex(blockInChunk, face);
+		TileDataStackImpl stack = tiles.get(index);
 
-		if (tiles[index] == null) {
-			createTileStack(blockInChunk, face);
-		}
-
-		return tiles[index];
-	}
-
-	private void createTileStack(Vec3i blockInChunk, BlockFace face) {
-		Vec3i independentBlockInChunk = conjureIndependentBlockInChunkVec3i(blockInChunk);
-		TileDataStackImpl stack = new TileDataStackImpl(independentBlockInChunk, face);
-		setTiles(blockInChunk, face, stack);
-	}
-
-	private Vec3i conjureIndependentBlockInChunkVec3i(Vec3i blockInChunk) {
-		for (int i = 0; i < BlockFace.BLOCK_FACE_COUNT; ++i) {
-			TileDataStack stack = getTilesOrNull(blockInChunk, BlockFace.getFaces().get(i));
-			if (stack instanceof TileDataStackImpl) {
-				return ((TileDataStackImpl) stack).blockInChunk;
-			}
+		if (stack == null) {
+			stack = new TileDataStackImpl(index, face);
+			tiles.put(index, stack);
 		}
 
-		return new Vec3i(blockInChunk);
+		return stack;
 	}
 
 	private static int getBlockIndex(Vec3i posInChunk) {
@@ -147,6 +126,21 @@ public class ChunkData
 			face.getId();
 	}
 
+	private static Vec3i getBlockInChunkByTileIndex(int tileIndex, Vec3i output) {
+		if (output == null)
+			output = new Vec3i();
+
+		int blockIndex = tileIndex / BLOCK_FACE_COUNT;
+
+		output.set(
+			blockIndex % BLOCKS_PER_CHUNK,
+			(blockIndex / BLOCKS_PER_CHUNK) % BLOCKS_PER_CHUNK,
+			blockIndex / (BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK)
+		);
+
+		return output;
+	}
+
 	private static void checkLocalCoordinates(Vec3i posInChunk) {
 		if (!isInBounds(posInChunk)) {
 			throw new IllegalCoordinatesException(
@@ -184,15 +178,14 @@ public class ChunkData
 		);
 	}
 
+	/**
+	 * Iterates over all tile stacks that have been created in this chunk.
+	 * Stacks are visited in no particular order; some of them may be empty.
+	 * 
+	 * @param action the action to perform
+	 */
 	public void forEachTileStack(Consumer<TileDataStack> action) {
-		forEachBlock(blockInChunk -> {
-			for (BlockFace face : BlockFace.getFaces()) {
-				TileDataStack stack = getTilesOrNull(blockInChunk, face);
-				if (stack == null)
-					continue;
-				action.accept(stack);
-			}
-		});
+		tiles.forEachValue(action);
 	}
 
 	/**
@@ -225,7 +218,19 @@ public class ChunkData
 		return "(" + v.x + "; " + v.y + "; " + v.z + ")";
 	}
 
+	/**
+	 * Discards unused entries of the block palette and shrinks block storage
+	 * to the minimum necessary. Chunks that consist of a single block type
+	 * end up using no per-block storage at all.
+	 * <p>
+	 * This is done automatically when the chunk is loaded into a world.
+	 */
+	public void compactBlocks() {
+		blocks.compact();
+	}
+
 	protected void onLoaded() {
+		compactBlocks();
 		getListeners().forEach(l -> l.onChunkLoaded(this));
 	}
 
@@ -247,6 +252,10 @@ public class ChunkData
 	 * actually store the tiles. This is basically an array wrapper with
 	 * reporting
 	 * capabilities.
+	 * <p>
+	 * Storage grows on demand: a stack starts with room for
+	 * {@link #INITIAL_CAPACITY} tiles, and the reference array is only
+	 * allocated when a {@link TileReference} is first requested.
 	 * 
 	 * @author javapony
 	 */
@@ -267,7 +276,7 @@ public class ChunkData
 			}
 
 			public void invalidate() {
-				this.index = 0;
+				this.index = -1;
 			}
 
 			@Override
@@ -293,35 +302,32 @@ public class ChunkData
 			}
 		}
 
-		private final TileData[] tiles = new TileData[TILES_PER_FACE];
-		private int size = 0;
+		private static final int INITIAL_CAPACITY = 2;
 
-		private final TileReferenceImpl[] references = new TileReferenceImpl[tiles.length];
-		private final int[] indicesByTag = new int[tiles.length];
-		private final int[] tagsByIndex = new int[tiles.length];
+		private TileData[] tiles = new TileData[INITIAL_CAPACITY];
+		private byte[] tagsByIndex = new byte[INITIAL_CAPACITY];
+		private int size = 0;
 
-		{
-			Arrays.fill(indicesByTag, -1);
-			Arrays.fill(tagsByIndex, -1);
-		}
+		/**
+		 * Lazily allocated with length {@link #TILES_PER_FACE}
+		 */
+		private TileReferenceImpl[] references = null;
 
-		/*
-		 * Potentially shared
+		/**
+		 * Index of this stack as computed by
+		 * {@link ChunkData#getTileIndex(Vec3i, BlockFace)}
 		 */
-		private final Vec3i blockInChunk;
+		private final int tileIndex;
 		private final BlockFace face;
 
-		public TileDataStackImpl(Vec3i blockInChunk, BlockFace face) {
-			this.blockInChunk = blockInChunk;
+		public TileDataStackImpl(int tileIndex, BlockFace face) {
+			this.tileIndex = tileIndex;
 			this.face = face;
 		}
 
 		@Override
 		public Vec3i getBlockInChunk(Vec3i output) {
-			if (output == null)
-				output = new Vec3i();
-			output.set(blockInChunk.x, blockInChunk.y, blockInChunk.z);
-			return output;
+			return getBlockInChunkByTileIndex(tileIndex, output);
 		}
 
 		@Override
@@ -353,7 +359,7 @@ public class ChunkData
 
 			tiles[index] = tile;
 
-			if (references[index] != null) {
+			if (references != null && references[index] != null) {
 				references[index].invalidate();
 				references[index] = null;
 			}
@@ -369,32 +375,33 @@ public class ChunkData
 			Objects.requireNonNull(tile, "tile");
 			checkIndex(index, true);
 
-			if (index != size()) {
-				System.arraycopy(tiles, index + 1, tiles, index + 2, size - index);
+			if (isFull()) {
+				throw new TileStackIsFullException(
+					"Cannot add tile: maximum tile stack size is " + TILES_PER_FACE
+				);
+			}
 
-				for (int i = index; i < size; ++i) {
-					if (references[i] != null) {
-						references[i].incrementIndex();
+			ensureCapacity(size + 1);
+
+			if (index != size) {
+				System.arraycopy(tiles, index, tiles, index + 1, size - index);
+				System.arraycopy(tagsByIndex, index, tagsByIndex, index + 1, size - index);
+
+				if (references != null) {
+					for (int i = index; i < size; ++i) {
+						if (references[i] != null) {
+							references[i].incrementIndex();
+						}
 					}
 
-					indicesByTag[tagsByIndex[i]]++;
+					System.arraycopy(references, index, references, index + 1, size - index);
+					references[index] = null;
 				}
-
-				System.arraycopy(references, index + 1, references, index + 2, size - index);
-				System.arraycopy(tagsByIndex, index + 1, tagsByIndex, index + 2, size - index);
 			}
 
-			size++;
 			tiles[index] = tile;
-			references[index] = null;
-
-			for (int tag = 0; tag < indicesByTag.length; ++tag) {
-				if (tagsByIndex[tag] == -1) {
-					indicesByTag[tag] = index;
-					tagsByIndex[index] = tag;
-					break;
-				}
-			}
+			tagsByIndex[index] = (byte) findFreeTag();
+			size++;
 
 			modCount++;
 			assert checkConsistency();
@@ -404,21 +411,19 @@ public class ChunkData
 
 		@Override
 		public void load(TileData tile, int tag) {
-			addFarthest(tile);
-
-			int assignedTag = getIndexByTag(tag);
+			if (tag < 0 || tag >= TILES_PER_FACE) {
+				throw new IllegalArgumentException("Tag " + tag + " is out of bounds");
+			}
 
-			if (assignedTag == tag)
-				return;
-			if (assignedTag == -1) {
+			int previousIndex = getIndexByTag(tag);
+			if (previousIndex != -1) {
 				throw new IllegalArgumentException(
-					"Tag " + tag + " already used by tile at index " + getIndexByTag(tag)
+					"Tag " + tag + " already used by tile at index " + previousIndex
 				);
 			}
 
-			indicesByTag[tagsByIndex[size() - 1]] = -1;
-			tagsByIndex[size() - 1] = tag;
-			indicesByTag[tag] = size() - 1;
+			addFarthest(tile);
+			tagsByIndex[size - 1] = (byte) tag;
 
 			assert checkConsistency();
 		}
@@ -427,31 +432,26 @@ public class ChunkData
 		public TileData remove(int index) {
 			TileData previous = get(index); // checks index
 
-			if (references[index] != null) {
-				references[index].invalidate();
-			}
-
-			indicesByTag[tagsByIndex[index]] = -1;
-
-			if (index != size() - 1) {
-				System.arraycopy(tiles, index + 1, tiles, index, size - index - 1);
+			if (references != null) {
+				if (references[index] != null) {
+					references[index].invalidate();
+				}
 
 				for (int i = index + 1; i < size; ++i) {
 					if (references[i] != null) {
 						references[i].decrementIndex();
 					}
-
-					indicesByTag[tagsByIndex[i]]--;
 				}
 
 				System.arraycopy(references, index + 1, references, index, size - index - 1);
-				System.arraycopy(tagsByIndex, index + 1, tagsByIndex, index, size - index - 1);
+				references[size - 1] = null;
 			}
 
+			System.arraycopy(tiles, index + 1, tiles, index, size - index - 1);
+			System.arraycopy(tagsByIndex, index + 1, tagsByIndex, index, size - index - 1);
+
 			size--;
 			tiles[size] = null;
-			references[size] = null;
-			tagsByIndex[size] = -1;
 
 			modCount++;
 			assert checkConsistency();
@@ -464,6 +464,10 @@ public class ChunkData
 		public TileReference getReference(int index) {
 			checkIndex(index, false);
 
+			if (references == null) {
+				references = new TileReferenceImpl[TILES_PER_FACE];
+			}
+
 			if (references[index] == null) {
 				references[index] = new TileReferenceImpl(index);
 			}
@@ -473,7 +477,13 @@ public class ChunkData
 
 		@Override
 		public int getIndexByTag(int tag) {
-			return indicesByTag[tag];
+			for (int index = 0; index < size; ++index) {
+				if (tagsByIndex[index] == tag) {
+					return index;
+				}
+			}
+
+			return -1;
 		}
 
 		@Override
@@ -489,6 +499,25 @@ public class ChunkData
 			}
 		}
 
+		private void ensureCapacity(int capacity) {
+			if (capacity <= tiles.length)
+				return;
+
+			int newCapacity = Math.min(Math.max(tiles.length * 2, capacity), TILES_PER_FACE);
+			tiles = Arrays.copyOf(tiles, newCapacity);
+			tagsByIndex = Arrays.copyOf(tagsByIndex, newCapacity);
+		}
+
+		private int findFreeTag() {
+			for (int tag = 0; tag < TILES_PER_FACE; ++tag) {
+				if (getIndexByTag(tag) == -1) {
+					return tag;
+				}
+			}
+
+			throw new IllegalStateException("No free tags left; stack size is " + size);
+		}
+
 		private void checkIndex(int index, boolean isSizeAllowed) {
 			if (isSizeAllowed ? (index > size()) : (index >= size()))
 				throw new IndexOutOfBoundsException("Index " + index + " is out of bounds: size is " + size);
@@ -503,6 +532,8 @@ public class ChunkData
 		}
 
 		private void report(TileData previous, TileData current) {
+			Vec3i blockInChunk = getBlockInChunk(null);
+
 			ChunkData.this.getListeners().forEach(l -> {
 				if (previous != null) {
 					l.onChunkTilesChanged(ChunkData.this, blockInChunk, face, previous, false);
@@ -523,7 +554,7 @@ public class ChunkData
 				if (get(index) == null)
 					throw new AssertionError("get(index) is null");
 
-				if (references[index] != null) {
+				if (references != null && references[index] != null) {
 					TileReference ref = getReference(index);
 					if (ref == null)
 						throw new AssertionError("references[index] is not null but getReference(index) is");
@@ -537,19 +568,18 @@ public class ChunkData
 						throw new AssertionError("Reference has invalid TDS");
 				}
 
-				if (index != indicesByTag[tagsByIndex[index]])
-					throw new AssertionError("Tag mapping is inconsistent");
-				if (index != getIndexByTag(getTagByIndex(index)))
+				int tag = getTagByIndex(index);
+				if (tag < 0 || tag >= TILES_PER_FACE)
+					throw new AssertionError("Tag is out of bounds");
+				if (index != getIndexByTag(tag))
 					throw new AssertionError("Tag methods are inconsistent with tag mapping");
 			}
 
 			for (; index < tiles.length; ++index) {
 				if (tiles[index] != null)
 					throw new AssertionError("Leftover tile detected");
-				if (references[index] != null)
+				if (references != null && references[index] != null)
 					throw new AssertionError("Leftover reference detected");
-				if (tagsByIndex[index] != -1)
-					throw new AssertionError("Leftover tags detected");
 			}
 
 			return true;
@@ -0,0 +1,139 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.state.IOContext;
+import ru.windcorp.progressia.common.util.crash.CrashReports;
+import ru.windcorp.progressia.common.world.io.ChunkIO;
+
+/**
+ * The {@link IOContext#COMMS COMMS} encoding of a chunk.
+ * <p>
+ * Instances are immutable and may be shared between any number of packets and
+ * threads without copying.
+ */
+public final class EncodedChunk {
+
+	private final int x;
+	private final int y;
+	private final int z;
+
+	private final byte[] payload;
+
+	private EncodedChunk(int x, int y, int z, byte[] payload) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.payload = payload;
+	}
+
+	/**
+	 * Encodes the current state of the provided chunk.
+	 *
+	 * @param chunk the chunk to encode
+	 * @return the encoded chunk
+	 */
+	public static EncodedChunk encode(ChunkData chunk) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(4 * 1024);
+
+		try {
+			ChunkIO.save(chunk, new DataOutputStream(buffer), IOContext.COMMS);
+		} catch (IOException e) {
+			throw CrashReports.report(e, "Could not encode chunk %s", chunk);
+		}
+
+		Vec3i position = chunk.getPosition();
+		return new EncodedChunk(position.x, position.y, position.z, buffer.toByteArray());
+	}
+
+	/**
+	 * Reads an encoded chunk of the provided size.
+	 *
+	 * @param position the position of the chunk
+	 * @param input    the input to read the payload from
+	 * @param size     the size of the payload in bytes
+	 * @return the encoded chunk
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static EncodedChunk read(Vec3i position, DataInput input, int size) throws IOException {
+		if (size < 0) {
+			throw new IOException("Negative chunk payload size " + size);
+		}
+
+		byte[] payload = new byte[size];
+		input.readFully(payload);
+		return new EncodedChunk(position.x, position.y, position.z, payload);
+	}
+
+	public Vec3i getPosition(Vec3i output) {
+		if (output == null)
+			output = new Vec3i();
+		output.set(x, y, z);
+		return output;
+	}
+
+	/**
+	 * @return the size of the payload in bytes
+	 */
+	public int getSize() {
+		return payload.length;
+	}
+
+	/**
+	 * Writes the payload without its size.
+	 *
+	 * @param output the output to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(DataOutput output) throws IOException {
+		output.write(payload);
+	}
+
+	/**
+	 * Decodes a new chunk from the payload.
+	 *
+	 * @param world the world of the chunk
+	 * @return the decoded chunk
+	 * @throws DecodingException if the payload is invalid
+	 * @throws IOException       if the payload is truncated
+	 */
+	public ChunkData decode(WorldData world) throws DecodingException, IOException {
+		return ChunkIO.load(
+			world,
+			getPosition(null),
+			new DataInputStream(new ByteArrayInputStream(payload)),
+			IOContext.COMMS
+		);
+	}
+
+	@Override
+	public String toString() {
+		return "EncodedChunk (" + x + "; " + y + "; " + z + "), " + payload.length + " bytes";
+	}
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import glm.vec._3.i.Vec3i;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import ru.windcorp.progressia.common.util.VarInts;
+import ru.windcorp.progressia.common.util.crash.CrashReports;
+import ru.windcorp.progressia.common.world.block.BlockData;
+import ru.windcorp.progressia.common.world.block.BlockDataRegistry;
+import ru.windcorp.progressia.common.world.block.BlockFace;
+import ru.windcorp.progressia.common.world.tile.TileData;
+import ru.windcorp.progressia.common.world.tile.TileDataRegistry;
+import ru.windcorp.progressia.common.world.tile.TileDataStack;
+
+/**
+ * A sequence of block and tile changes in a single chunk, applied in order.
+ * This packet is equivalent to a series of {@code PacketSetBlock},
+ * {@code PacketAddTile} and {@code PacketRemoveTile} packets in the same
+ * chunk. Blocks are identified by their index in the chunk, and block and tile
+ * IDs are sent once per packet.
+ */
+public class PacketChunkChanges extends PacketAffectChunk {
+
+	private static final int SET_BLOCK = 0;
+	private static final int ADD_TILE = 1;
+	private static final int REMOVE_TILE = 2;
+
+	private static final int BPC = ChunkData.BLOCKS_PER_CHUNK;
+	private static final int BLOCK_COUNT = BPC * BPC * BPC;
+
+	private final Vec3i position = new Vec3i();
+
+	private final Palette blockPalette = new Palette();
+	private final Palette tilePalette = new Palette();
+
+	/**
+	 * Two ints per change: the type, face and block index packed by
+	 * {@link #packHeader(int, BlockFace, Vec3i)}, followed by a palette index
+	 * or a tag
+	 */
+	private final TIntArrayList changes = new TIntArrayList();
+
+	private final Vec3i blockInWorld = new Vec3i();
+
+	public PacketChunkChanges() {
+		this("Core:ChunkChanges");
+	}
+
+	protected PacketChunkChanges(String id) {
+		super(id);
+	}
+
+	/**
+	 * Removes all changes and sets the affected chunk.
+	 *
+	 * @param chunkPos the position of the affected chunk
+	 */
+	public void set(Vec3i chunkPos) {
+		this.position.set(chunkPos.x, chunkPos.y, chunkPos.z);
+		clear();
+	}
+
+	private void clear() {
+		this.blockPalette.clear();
+		this.tilePalette.clear();
+		this.changes.resetQuick();
+	}
+
+	public void addSetBlock(Vec3i blockInChunk, String blockId) {
+		changes.add(packHeader(SET_BLOCK, null, blockInChunk));
+		changes.add(blockPalette.add(blockId));
+	}
+
+	public void addAddTile(Vec3i blockInChunk, BlockFace face, String tileId) {
+		changes.add(packHeader(ADD_TILE, face, blockInChunk));
+		changes.add(tilePalette.add(tileId));
+	}
+
+	public void addRemoveTile(Vec3i blockInChunk, BlockFace face, int tag) {
+		changes.add(packHeader(REMOVE_TILE, face, blockInChunk));
+		changes.add(tag);
+	}
+
+	public int getChangeCount() {
+		return changes.size() / 2;
+	}
+
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	public Vec3i getPosition() {
+		return position;
+	}
+
+	private static int packHeader(int type, BlockFace face, Vec3i blockInChunk) {
+		int faceId = face == null ? 0 : face.getId();
+		int blockIndex = (blockInChunk.z * BPC + blockInChunk.y) * BPC + blockInChunk.x;
+		return type | (faceId << 2) | (blockIndex << 8);
+	}
+
+	@Override
+	public void read(DataInput input) throws IOException, DecodingException {
+		clear();
+		this.position.set(input.readInt(), input.readInt(), input.readInt());
+
+		blockPalette.read(input);
+		tilePalette.read(input);
+
+		int count = VarInts.read(input);
+		if (count < 0) {
+			throw new DecodingException("Negative change count " + count);
+		}
+
+		changes.ensureCapacity(count * 2);
+
+		for (int i = 0; i < count; ++i) {
+			int typeAndFace = input.readUnsignedByte();
+			int blockIndex = input.readUnsignedShort();
+			int argument = VarInts.read(input);
+
+			int type = typeAndFace & 0x3;
+			int faceId = typeAndFace >> 2;
+
+			if (blockIndex >= BLOCK_COUNT || faceId >= BlockFace.BLOCK_FACE_COUNT) {
+				throw new DecodingException("Invalid change location " + blockIndex + ", face " + faceId);
+			}
+
+			switch (type) {
+			case SET_BLOCK:
+				blockPalette.check(argument);
+				break;
+			case ADD_TILE:
+				tilePalette.check(argument);
+				break;
+			case REMOVE_TILE:
+				break;
+			default:
+				throw new DecodingException("Unknown change type " + type);
+			}
+
+			changes.add(typeAndFace | (blockIndex << 8));
+			changes.add(argument);
+		}
+	}
+
+	@Override
+	public void write(DataOutput output) throws IOException {
+		output.writeInt(position.x);
+		output.writeInt(position.y);
+		output.writeInt(position.z);
+
+		blockPalette.write(output);
+		tilePalette.write(output);
+
+		VarInts.write(output, getChangeCount());
+
+		for (int i = 0; i < changes.size(); i += 2) {
+			int header = changes.getQuick(i);
+			output.writeByte(header & 0xFF);
+			output.writeShort(header >>> 8);
+			VarInts.write(output, changes.getQuick(i + 1));
+		}
+	}
+
+	@Override
+	public void apply(WorldData world) {
+		for (int i = 0; i < changes.size(); i += 2) {
+			int header = changes.getQuick(i);
+			int argument = changes.getQuick(i + 1);
+
+			int blockIndex = header >>> 8;
+			blockInWorld.set(
+				position.x * BPC + blockIndex % BPC,
+				position.y * BPC + (blockIndex / BPC) % BPC,
+				position.z * BPC + blockIndex / (BPC * BPC)
+			);
+			BlockFace face = BlockFace.getFaces().get((header >> 2) & 0x3F);
+
+			switch (header & 0x3) {
+			case SET_BLOCK:
+				BlockData block = BlockDataRegistry.getInstance().get(blockPalette.get(argument));
+				world.setBlock(blockInWorld, block, true);
+				break;
+
+			case ADD_TILE:
+				TileData tile = TileDataRegistry.getInstance().get(tilePalette.get(argument));
+				world.getTiles(blockInWorld, face).add(tile);
+				break;
+
+			case REMOVE_TILE:
+				TileDataStack stack = world.getTiles(blockInWorld, face);
+				int index = stack.getIndexByTag(argument);
+
+				if (index < 0) {
+					throw CrashReports.report(
+						null,
+						"Could not find tile with tag %d at (%d; %d; %d; %s)",
+						argument,
+						blockInWorld.x,
+						blockInWorld.y,
+						blockInWorld.z,
+						face
+					);
+				}
+
+				stack.remove(index);
+				break;
+			}
+		}
+	}
+
+	@Override
+	public void getAffectedChunk(Vec3i output) {
+		output.set(position.x, position.y, position.z);
+	}
+
+	private static class Palette {
+
+		private final List<String> ids = new ArrayList<>();
+		private final TObjectIntMap<String> nids = new TObjectIntHashMap<>(8, 0.5f, -1);
+
+		public int add(String id) {
+			int nid = nids.get(id);
+
+			if (nid < 0) {
+				nid = ids.size();
+				ids.add(id);
+				nids.put(id, nid);
+			}
+
+			return nid;
+		}
+
+		public String get(int nid) {
+			return ids.get(nid);
+		}
+
+		public void check(int nid) throws DecodingException {
+			if (nid < 0 || nid >= ids.size()) {
+				throw new DecodingException("Palette index " + nid + " is out of bounds");
+			}
+		}
+
+		public void clear() {
+			ids.clear();
+			nids.clear();
+		}
+
+		public void read(DataInput input) throws IOException, DecodingException {
+			int size = VarInts.read(input);
+			if (size < 0) {
+				throw new DecodingException("Negative palette size " + size);
+			}
+
+			for (int i = 0; i < size; ++i) {
+				add(input.readUTF());
+			}
+		}
+
+		public void write(DataOutput output) throws IOException {
+			VarInts.write(output, ids.size());
+			for (String id : ids) {
+				output.writeUTF(id);
+			}
+		}
+
+	}
+
+}
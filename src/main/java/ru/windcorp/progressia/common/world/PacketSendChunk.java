@@ -23,14 +23,11 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import glm.vec._3.i.Vec3i;
-import ru.windcorp.progressia.common.state.IOContext;
-import ru.windcorp.progressia.common.util.DataBuffer;
 import ru.windcorp.progressia.common.util.crash.CrashReports;
-import ru.windcorp.progressia.common.world.io.ChunkIO;
 
 public class PacketSendChunk extends PacketAffectChunk {
 
-	private final DataBuffer data = new DataBuffer();
+	private EncodedChunk chunk;
 	private final Vec3i position = new Vec3i();
 
 	public PacketSendChunk() {
@@ -42,19 +39,23 @@ public class PacketSendChunk extends PacketAffectChunk {
 	}
 
 	public void set(ChunkData chunk) {
-		this.position.set(chunk.getX(), chunk.getY(), chunk.getZ());
+		set(EncodedChunk.encode(chunk));
+	}
 
-		try {
-			ChunkIO.save(chunk, this.data.getWriter(), IOContext.COMMS);
-		} catch (IOException e) {
-			// Impossible
-		}
+	/**
+	 * Sets the chunk to send. The encoded chunk is not copied.
+	 *
+	 * @param chunk the encoded chunk
+	 */
+	public void set(EncodedChunk chunk) {
+		this.chunk = chunk;
+		chunk.getPosition(this.position);
 	}
 
 	@Override
 	public void read(DataInput input) throws IOException {
 		this.position.set(input.readInt(), input.readInt(), input.readInt());
-		this.data.fill(input, input.readInt());
+		this.chunk = EncodedChunk.read(position, input, input.readInt());
 	}
 
 	@Override
@@ -62,14 +63,14 @@ public class PacketSendChunk extends PacketAffectChunk {
 		output.writeInt(this.position.x);
 		output.writeInt(this.position.y);
 		output.writeInt(this.position.z);
-		output.writeInt(this.data.getSize());
-		this.data.flush(output);
+		output.writeInt(this.chunk.getSize());
+		this.chunk.write(output);
 	}
 
 	@Override
 	public void apply(WorldData world) {
 		try {
-			world.addChunk(ChunkIO.load(world, position, data.getReader(), IOContext.COMMS));
+			world.addChunk(chunk.decode(world));
 		} catch (DecodingException | IOException e) {
 			throw CrashReports.report(e, "Could not load chunk");
 		}
@@ -84,8 +85,8 @@ public class PacketSendChunk extends PacketAffectChunk {
 		return position;
 	}
 
-	public DataBuffer getData() {
-		return data;
+	public EncodedChunk getChunk() {
+		return chunk;
 	}
 
 }
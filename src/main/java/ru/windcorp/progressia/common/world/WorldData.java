@@ -123,6 +123,10 @@ public class WorldData
 		chunk.beforeUnloaded();
 
 		chunksByPos.remove(chunk);
+
+		// Listeners are attached by addChunk; detach them so that the chunk
+		// may be added again
+		chunk.getListeners().clear();
 	}
 
 	public void setBlock(Vec3i blockInWorld, BlockData block, boolean notify) {
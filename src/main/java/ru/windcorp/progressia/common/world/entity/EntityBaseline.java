@@ -0,0 +1,202 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world.entity;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import glm.vec._2.Vec2;
+import glm.vec._3.Vec3;
+import ru.windcorp.progressia.common.state.IOContext;
+import ru.windcorp.progressia.common.util.VarInts;
+
+/**
+ * The quantized kinematic state of an entity as last synchronized between the
+ * server and one client. Both sides keep a baseline for each entity that the
+ * client can see, so {@link PacketChangeEntity} only carries the differences
+ * between the quantized values, encoded as zigzag varints.
+ * <p>
+ * Positions and velocities are quantized to 1/{@value #POSITION_SCALE} and
+ * 1/{@value #VELOCITY_SCALE} of a block (per second); angles are quantized to
+ * 1/{@value #ANGLE_STEPS} of a turn. Since both sides compute the same
+ * quantized values from the same full state, the baselines never drift apart.
+ */
+public class EntityBaseline {
+
+	public static final float POSITION_SCALE = 1024;
+	public static final float VELOCITY_SCALE = 256;
+	public static final int ANGLE_STEPS = 1 << 16;
+
+	private static final float ANGLE_SCALE = (float) (ANGLE_STEPS / (2 * Math.PI));
+
+	static final int FLAG_POSITION = 1 << 0;
+	static final int FLAG_VELOCITY = 1 << 1;
+	static final int FLAG_DIRECTION = 1 << 2;
+	static final int FLAG_STATE = 1 << 3;
+
+	private final int[] position = new int[3];
+	private final int[] velocity = new int[3];
+	private final int[] direction = new int[2];
+
+	/*
+	 * Scratch space for writeChanges
+	 */
+	private final int[] newPosition = new int[3];
+	private final int[] newVelocity = new int[3];
+	private final int[] newDirection = new int[2];
+
+	/**
+	 * Creates a baseline that matches the current state of the provided
+	 * entity, as sent in full by {@link PacketSendEntity}.
+	 * 
+	 * @param entity the entity
+	 */
+	public EntityBaseline(EntityData entity) {
+		quantize(entity.getPosition(), POSITION_SCALE, position);
+		quantize(entity.getVelocity(), VELOCITY_SCALE, velocity);
+		quantize(entity.getDirection(), direction);
+	}
+
+	/**
+	 * Writes the differences between the entity and this baseline and updates
+	 * the baseline to match the entity.
+	 * 
+	 * @param entity       the entity
+	 * @param includeState whether the
+	 *                     {@linkplain EntityData#hasChangedFields() changed
+	 *                     state fields} should be written
+	 * @param output       the output
+	 * @return {@code true} if anything has been written, {@code false} if the
+	 *         entity matches the baseline and no data has been written
+	 * @throws IOException if an error occurs in {@code output}
+	 */
+	public boolean writeChanges(EntityData entity, boolean includeState, DataOutput output) throws IOException {
+		int flags = 0;
+
+		quantize(entity.getPosition(), POSITION_SCALE, newPosition);
+		if (!equal(newPosition, position, 3))
+			flags |= FLAG_POSITION;
+
+		quantize(entity.getVelocity(), VELOCITY_SCALE, newVelocity);
+		if (!equal(newVelocity, velocity, 3))
+			flags |= FLAG_VELOCITY;
+
+		quantize(entity.getDirection(), newDirection);
+		if (!equal(newDirection, direction, 2))
+			flags |= FLAG_DIRECTION;
+
+		if (includeState && entity.hasChangedFields())
+			flags |= FLAG_STATE;
+
+		if (flags == 0)
+			return false;
+
+		output.writeByte(flags);
+
+		if ((flags & FLAG_POSITION) != 0)
+			writeDelta(output, newPosition, position, 3);
+		if ((flags & FLAG_VELOCITY) != 0)
+			writeDelta(output, newVelocity, velocity, 3);
+		if ((flags & FLAG_DIRECTION) != 0)
+			writeDelta(output, newDirection, direction, 2);
+		if ((flags & FLAG_STATE) != 0)
+			entity.writeChanges(output, IOContext.COMMS);
+
+		return true;
+	}
+
+	/**
+	 * Reads the differences written by
+	 * {@link #writeChanges(EntityData, boolean, DataOutput)}, updates this
+	 * baseline and applies the changes to the entity. Values that have not
+	 * changed are left intact.
+	 * 
+	 * @param entity the entity
+	 * @param input  the input
+	 * @throws IOException if the data is encoded poorly or an error occurs in
+	 *                     {@code input}
+	 */
+	public void readChanges(EntityData entity, DataInput input) throws IOException {
+		int flags = input.readUnsignedByte();
+
+		if ((flags & FLAG_POSITION) != 0) {
+			readDelta(input, position, 3);
+			entity.setPosition(new Vec3(
+				position[0] / POSITION_SCALE,
+				position[1] / POSITION_SCALE,
+				position[2] / POSITION_SCALE
+			));
+		}
+
+		if ((flags & FLAG_VELOCITY) != 0) {
+			readDelta(input, velocity, 3);
+			entity.getVelocity().set(
+				velocity[0] / VELOCITY_SCALE,
+				velocity[1] / VELOCITY_SCALE,
+				velocity[2] / VELOCITY_SCALE
+			);
+		}
+
+		if ((flags & FLAG_DIRECTION) != 0) {
+			readDelta(input, direction, 2);
+			entity.getDirection().set(
+				direction[0] / ANGLE_SCALE,
+				direction[1] / ANGLE_SCALE
+			);
+		}
+
+		if ((flags & FLAG_STATE) != 0) {
+			entity.readChanges(input, IOContext.COMMS);
+		}
+	}
+
+	private static void quantize(Vec3 v, float scale, int[] output) {
+		output[0] = Math.round(v.x * scale);
+		output[1] = Math.round(v.y * scale);
+		output[2] = Math.round(v.z * scale);
+	}
+
+	private static void quantize(Vec2 angles, int[] output) {
+		output[0] = Math.round(angles.x * ANGLE_SCALE);
+		output[1] = Math.round(angles.y * ANGLE_SCALE);
+	}
+
+	private static boolean equal(int[] a, int[] b, int length) {
+		for (int i = 0; i < length; ++i) {
+			if (a[i] != b[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static void writeDelta(DataOutput output, int[] values, int[] baseline, int length) throws IOException {
+		for (int i = 0; i < length; ++i) {
+			VarInts.writeSigned(output, values[i] - baseline[i]);
+			baseline[i] = values[i];
+		}
+	}
+
+	private static void readDelta(DataInput input, int[] baseline, int length) throws IOException {
+		for (int i = 0; i < length; ++i) {
+			baseline[i] += VarInts.readSigned(input);
+		}
+	}
+
+}
@@ -51,6 +51,11 @@ public class EntityData extends StatefulObject implements Collideable, GenericEn
 
 	private double age = 0;
 
+	/**
+	 * The state last received from the server; only used by clients
+	 */
+	private EntityBaseline syncBaseline = null;
+
 	public EntityData(String id) {
 		super(EntityDataRegistry.getInstance(), id);
 	}
@@ -118,6 +123,14 @@ public class EntityData extends StatefulObject implements Collideable, GenericEn
 		this.age += increment;
 	}
 
+	public EntityBaseline getSyncBaseline() {
+		return syncBaseline;
+	}
+
+	public void setSyncBaseline(EntityBaseline syncBaseline) {
+		this.syncBaseline = syncBaseline;
+	}
+
 	@Override
 	public CollisionModel getCollisionModel() {
 		return collisionModel;
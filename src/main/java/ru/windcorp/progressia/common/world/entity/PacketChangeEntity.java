@@ -22,12 +22,16 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import ru.windcorp.progressia.common.state.IOContext;
 import ru.windcorp.progressia.common.util.DataBuffer;
 import ru.windcorp.progressia.common.util.crash.CrashReports;
 import ru.windcorp.progressia.common.world.DecodingException;
 import ru.windcorp.progressia.common.world.WorldData;
 
+/**
+ * Updates an entity that the client already knows about. The packet only
+ * carries the quantized differences from the {@link EntityBaseline} shared by
+ * the server and the client, along with the state fields that have changed.
+ */
 public class PacketChangeEntity extends PacketAffectEntity {
 
 	private final DataBuffer buffer = new DataBuffer();
@@ -44,11 +48,21 @@ public class PacketChangeEntity extends PacketAffectEntity {
 		return buffer;
 	}
 
-	public void set(EntityData entity) {
+	/**
+	 * Encodes the changes of the entity relative to the provided baseline and
+	 * updates the baseline.
+	 * 
+	 * @param entity       the entity to send
+	 * @param baseline     the baseline of the recipient
+	 * @param includeState whether changed state fields should be sent
+	 * @return {@code true} if the packet needs to be sent, {@code false} if
+	 *         the recipient is up to date
+	 */
+	public boolean set(EntityData entity, EntityBaseline baseline, boolean includeState) {
 		super.set(entity.getEntityId());
 
 		try {
-			entity.write(this.buffer.getWriter(), IOContext.COMMS);
+			return baseline.writeChanges(entity, includeState, this.buffer.getWriter());
 		} catch (IOException e) {
 			throw CrashReports.report(e, "Entity could not be written");
 		}
@@ -67,6 +81,11 @@ public class PacketChangeEntity extends PacketAffectEntity {
 		this.buffer.flush(output);
 	}
 
+	@Override
+	public void release() {
+		buffer.release();
+	}
+
 	@Override
 	public void apply(WorldData world) {
 		EntityData entity = world.getEntity(getEntityId());
@@ -75,8 +94,14 @@ public class PacketChangeEntity extends PacketAffectEntity {
 			throw CrashReports.report(null, "Entity with ID %d not found", getEntityId());
 		}
 
+		EntityBaseline baseline = entity.getSyncBaseline();
+
+		if (baseline == null) {
+			throw CrashReports.report(null, "Entity with ID %d has no baseline", getEntityId());
+		}
+
 		try {
-			entity.read(getBuffer().getReader(), IOContext.COMMS);
+			baseline.readChanges(entity, getBuffer().getReader());
 		} catch (IOException e) {
 			throw CrashReports.report(e, "Entity could not be read");
 		}
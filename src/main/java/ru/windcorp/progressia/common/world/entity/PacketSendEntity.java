@@ -84,6 +84,11 @@ public class PacketSendEntity extends PacketAffectEntity {
 		this.buffer.flush(output);
 	}
 
+	@Override
+	public void release() {
+		buffer.release();
+	}
+
 	@Override
 	public void apply(WorldData world) {
 		EntityData entity = EntityDataRegistry.getInstance().create(getEntityTypeId());
@@ -95,6 +100,7 @@ public class PacketSendEntity extends PacketAffectEntity {
 			throw CrashReports.report(e, "Could not read an entity from an internal buffer");
 		}
 
+		entity.setSyncBaseline(new EntityBaseline(entity));
 		world.addEntity(entity);
 	}
 
@@ -0,0 +1,713 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import glm.vec._3.i.Vec3i;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import ru.windcorp.progressia.common.state.IOContext;
+import ru.windcorp.progressia.common.util.VarInts;
+import ru.windcorp.progressia.common.util.namespaces.Namespaced;
+import ru.windcorp.progressia.common.util.namespaces.NamespacedInstanceRegistry;
+import ru.windcorp.progressia.common.world.ChunkData;
+import ru.windcorp.progressia.common.world.DecodingException;
+import ru.windcorp.progressia.common.world.WorldData;
+import ru.windcorp.progressia.common.world.block.BlockData;
+import ru.windcorp.progressia.common.world.block.BlockDataRegistry;
+import ru.windcorp.progressia.common.world.block.BlockFace;
+import ru.windcorp.progressia.common.world.tile.TileData;
+import ru.windcorp.progressia.common.world.tile.TileDataRegistry;
+import ru.windcorp.progressia.common.world.tile.TileDataStack;
+
+/**
+ * A compact general-purpose chunk codec.
+ * <p>
+ * The encoding starts with a header byte that holds the compression and
+ * palette format. The rest of the encoding, the body, is either stored as is
+ * or deflated and prefixed with its uncompressed and compressed sizes. The
+ * body contains:
+ * <ol>
+ * <li>the block palette: the number of distinct blocks followed by their
+ * IDs;</li>
+ * <li>the blocks in one of three layouts, whichever is the smallest:
+ * nothing for uniform chunks, palette indices packed into the minimal number
+ * of bits, or runs of equal blocks;</li>
+ * <li>the tile palette;</li>
+ * <li>the number of non-empty tile stacks followed by the location, size,
+ * tiles and tags of each stack.</li>
+ * </ol>
+ * All integers other than the header byte and packed indices are
+ * {@link VarInts}.
+ * <p>
+ * Palettes list the {@linkplain Namespaced#getNumericId() numeric IDs} of
+ * their elements when the block and tile registries are frozen. Numeric IDs
+ * depend on the registered content, so {@link IOContext#SAVE SAVE} encodings,
+ * which must outlive content changes, list text IDs instead.
+ * <p>
+ * The compression level is chosen per {@link IOContext}. By default
+ * {@link IOContext#COMMS COMMS} encodings are deflated with
+ * {@link Deflater#BEST_SPEED}, and other encodings are not compressed because
+ * region files deflate their contents anyway.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class PalettedChunkCodec extends ChunkCodec {
+
+	private static final int BPC = ChunkData.BLOCKS_PER_CHUNK;
+	private static final int BLOCK_COUNT = BPC * BPC * BPC;
+
+	private static final int COMPRESSION_MASK = 0x0F;
+	private static final int COMPRESSION_NONE = 0;
+	private static final int COMPRESSION_DEFLATE = 1;
+
+	/**
+	 * Header flag set when palettes list numeric IDs rather than text IDs
+	 */
+	private static final int FLAG_NUMERIC_IDS = 0x10;
+
+	/**
+	 * The largest body that is inflated. Valid bodies are far smaller: even a
+	 * chunk with a distinct tile in every slot of every face takes a few
+	 * megabytes.
+	 */
+	private static final int MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+	private static final int BLOCKS_UNIFORM = 0;
+	private static final int BLOCKS_PACKED = 1;
+	private static final int BLOCKS_RUNS = 2;
+
+	/**
+	 * Deflater levels indexed by {@link IOContext#ordinal()}
+	 */
+	private static final int[] COMPRESSION_LEVELS = new int[IOContext.values().length];
+
+	static {
+		setCompressionLevel(IOContext.COMMS, Deflater.BEST_SPEED);
+		setCompressionLevel(IOContext.SAVE, Deflater.NO_COMPRESSION);
+		setCompressionLevel(IOContext.INTERNAL, Deflater.NO_COMPRESSION);
+	}
+
+	private final ThreadLocal<Scratch> scratches = ThreadLocal.withInitial(Scratch::new);
+
+	public PalettedChunkCodec() {
+		super("Core:PalettedChunkCodec", 0x01);
+	}
+
+	/**
+	 * Sets the compression level of encodings in the provided context.
+	 *
+	 * @param context the context to configure
+	 * @param level   a {@link Deflater} compression level;
+	 *                {@link Deflater#NO_COMPRESSION} disables compression
+	 */
+	public static void setCompressionLevel(IOContext context, int level) {
+		if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		}
+
+		synchronized (COMPRESSION_LEVELS) {
+			COMPRESSION_LEVELS[context.ordinal()] = level;
+		}
+	}
+
+	public static int getCompressionLevel(IOContext context) {
+		synchronized (COMPRESSION_LEVELS) {
+			return COMPRESSION_LEVELS[context.ordinal()];
+		}
+	}
+
+	@Override
+	public boolean shouldEncode(ChunkData chunk, IOContext context) {
+		return true;
+	}
+
+	/*
+	 * Decoding
+	 */
+
+	@Override
+	public ChunkData decode(WorldData world, Vec3i position, DataInputStream input, IOContext context)
+		throws DecodingException,
+		IOException {
+
+		Scratch scratch = scratches.get();
+		int header = input.readUnsignedByte();
+		int compression = header & COMPRESSION_MASK;
+		boolean numericIds = (header & FLAG_NUMERIC_IDS) != 0;
+
+		if ((header & ~(COMPRESSION_MASK | FLAG_NUMERIC_IDS)) != 0) {
+			throw new DecodingException("Unknown header flags " + header);
+		}
+
+		switch (compression) {
+		case COMPRESSION_NONE:
+			return readBody(world, position, input, numericIds, scratch);
+		case COMPRESSION_DEFLATE:
+			return readBody(world, position, inflate(input, scratch), numericIds, scratch);
+		default:
+			throw new DecodingException("Unknown compression " + compression);
+		}
+	}
+
+	private DataInput inflate(DataInput input, Scratch scratch) throws IOException, DecodingException {
+		int size = VarInts.read(input);
+		int compressedSize = VarInts.read(input);
+
+		if (size < 0 || size > MAX_BODY_SIZE || compressedSize < 0 || compressedSize > getMaxCompressedSize(size)) {
+			throw new DecodingException("Invalid compressed sizes " + size + ", " + compressedSize);
+		}
+
+		byte[] compressed = scratch.getCompressed(compressedSize);
+		input.readFully(compressed, 0, compressedSize);
+
+		byte[] body = new byte[size];
+
+		Inflater inflater = scratch.inflater;
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedSize);
+
+		try {
+			int length = 0;
+			while (length < size) {
+				int inflated = inflater.inflate(body, length, size - length);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DecodingException("Compressed body is truncated");
+				}
+				length += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new DecodingException("Compressed body is corrupted", e);
+		}
+
+		return new DataInputStream(new ByteArrayInputStream(body));
+	}
+
+	/**
+	 * Returns an upper bound of the size of a deflated body, following the
+	 * bound used by zlib with some room for the stream header.
+	 */
+	private static int getMaxCompressedSize(int size) {
+		return size + (size >>> 12) + (size >>> 14) + (size >>> 25) + 64;
+	}
+
+	private ChunkData readBody(WorldData world, Vec3i position, DataInput input, boolean numericIds, Scratch scratch)
+		throws IOException,
+		DecodingException {
+
+		BlockData[] blockPalette = readPalette(input, BlockDataRegistry.getInstance(), numericIds, BlockData[]::new);
+		ChunkData chunk = new ChunkData(position, world);
+		readBlocks(input, blockPalette, chunk, scratch);
+
+		TileData[] tilePalette = readPalette(input, TileDataRegistry.getInstance(), numericIds, TileData[]::new);
+		readTiles(input, tilePalette, chunk, scratch);
+
+		return chunk;
+	}
+
+	@FunctionalInterface
+	private interface ArrayFactory<E> {
+		E[] create(int size);
+	}
+
+	private static <E extends Namespaced> E[] readPalette(
+		DataInput input,
+		NamespacedInstanceRegistry<E> registry,
+		boolean numericIds,
+		ArrayFactory<E> factory
+	)
+		throws IOException,
+		DecodingException {
+
+		int size = VarInts.read(input);
+		if (size < 0 || size > BLOCK_COUNT * BlockFace.BLOCK_FACE_COUNT) {
+			throw new DecodingException("Invalid palette size " + size);
+		}
+
+		if (numericIds && !registry.isFrozen()) {
+			throw new DecodingException("Palette lists numeric IDs but " + registry + " is not frozen");
+		}
+
+		E[] palette = factory.create(size);
+
+		for (int nid = 0; nid < size; ++nid) {
+			E element;
+
+			if (numericIds) {
+				int numericId = VarInts.read(input);
+				element = registry.getByNumericId(numericId);
+
+				if (element == null) {
+					throw new DecodingException("Unknown numeric ID " + numericId + " in palette");
+				}
+			} else {
+				String id = input.readUTF();
+				element = registry.get(id);
+
+				if (element == null) {
+					throw new DecodingException("Unknown ID " + id + " in palette");
+				}
+			}
+
+			palette[nid] = element;
+		}
+
+		return palette;
+	}
+
+	private void readBlocks(DataInput input, BlockData[] palette, ChunkData chunk, Scratch scratch)
+		throws IOException,
+		DecodingException {
+
+		int[] indices = scratch.indices;
+		int layout = input.readUnsignedByte();
+
+		switch (layout) {
+		case BLOCKS_UNIFORM:
+			if (palette.length != 1) {
+				throw new DecodingException("Uniform chunk has " + palette.length + " blocks in its palette");
+			}
+			Arrays.fill(indices, 0);
+			break;
+
+		case BLOCKS_PACKED:
+			readPacked(input, indices, getBitsPerIndex(palette.length));
+			break;
+
+		case BLOCKS_RUNS:
+			readRuns(input, indices);
+			break;
+
+		default:
+			throw new DecodingException("Unknown block layout " + layout);
+		}
+
+		Vec3i pos = scratch.pos;
+		int index = 0;
+
+		for (pos.z = 0; pos.z < BPC; ++pos.z) {
+			for (pos.y = 0; pos.y < BPC; ++pos.y) {
+				for (pos.x = 0; pos.x < BPC; ++pos.x) {
+					int nid = indices[index++];
+
+					if (nid < 0 || nid >= palette.length) {
+						throw new DecodingException("Block palette index " + nid + " is out of bounds");
+					}
+
+					chunk.setBlock(pos, palette[nid], false);
+				}
+			}
+		}
+	}
+
+	private static void readPacked(DataInput input, int[] indices, int bits) throws IOException {
+		int mask = (1 << bits) - 1;
+		long buffer = 0;
+		int buffered = 0;
+
+		for (int i = 0; i < BLOCK_COUNT; ++i) {
+			while (buffered < bits) {
+				buffer |= ((long) input.readUnsignedByte()) << buffered;
+				buffered += 8;
+			}
+
+			indices[i] = (int) (buffer & mask);
+			buffer >>>= bits;
+			buffered -= bits;
+		}
+	}
+
+	private static void readRuns(DataInput input, int[] indices) throws IOException, DecodingException {
+		int index = 0;
+
+		while (index < BLOCK_COUNT) {
+			int nid = VarInts.read(input);
+			int length = VarInts.read(input) + 1;
+
+			if (length <= 0 || length > BLOCK_COUNT - index) {
+				throw new DecodingException("Block run of length " + length + " overflows the chunk");
+			}
+
+			Arrays.fill(indices, index, index + length, nid);
+			index += length;
+		}
+	}
+
+	private void readTiles(DataInput input, TileData[] palette, ChunkData chunk, Scratch scratch)
+		throws IOException,
+		DecodingException {
+
+		Vec3i bic = scratch.pos;
+		int stacks = VarInts.read(input);
+
+		for (int i = 0; i < stacks; ++i) {
+			int location = VarInts.read(input);
+			int blockIndex = location / BlockFace.BLOCK_FACE_COUNT;
+
+			if (location < 0 || blockIndex >= BLOCK_COUNT) {
+				throw new DecodingException("Tile stack location " + location + " is out of bounds");
+			}
+
+			bic.set(blockIndex % BPC, (blockIndex / BPC) % BPC, blockIndex / (BPC * BPC));
+			BlockFace face = BlockFace.getFaces().get(location % BlockFace.BLOCK_FACE_COUNT);
+			TileDataStack stack = chunk.getTiles(bic, face);
+
+			int size = VarInts.read(input);
+			for (int j = 0; j < size; ++j) {
+				int nid = VarInts.read(input);
+
+				if (nid < 0 || nid >= palette.length) {
+					throw new DecodingException("Tile palette index " + nid + " is out of bounds");
+				}
+
+				stack.load(palette[nid], VarInts.read(input));
+			}
+		}
+	}
+
+	/*
+	 * Encoding
+	 */
+
+	@Override
+	public void encode(ChunkData chunk, DataOutputStream output, IOContext context) throws IOException {
+		Scratch scratch = scratches.get();
+		int level = getCompressionLevel(context);
+
+		boolean numericIds = context != IOContext.SAVE
+			&& BlockDataRegistry.getInstance().isFrozen()
+			&& TileDataRegistry.getInstance().isFrozen();
+		int flags = numericIds ? FLAG_NUMERIC_IDS : 0;
+
+		if (level == Deflater.NO_COMPRESSION) {
+			output.writeByte(COMPRESSION_NONE | flags);
+			writeBody(chunk, output, numericIds, scratch);
+			return;
+		}
+
+		Buffer body = scratch.body;
+		body.reset();
+		writeBody(chunk, scratch.bodyOutput, numericIds, scratch);
+		scratch.bodyOutput.flush();
+
+		if (body.size() > MAX_BODY_SIZE) {
+			throw new IOException("Chunk body is too large: " + body.size() + " bytes");
+		}
+
+		Deflater deflater = scratch.deflater;
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setInput(body.getBuffer(), 0, body.size());
+		deflater.finish();
+
+		Buffer compressed = scratch.compressed;
+		compressed.reset();
+		byte[] block = scratch.getCompressed(8 * 1024);
+
+		while (!deflater.finished()) {
+			int length = deflater.deflate(block);
+			compressed.write(block, 0, length);
+		}
+
+		output.writeByte(COMPRESSION_DEFLATE | flags);
+		VarInts.write(output, body.size());
+		VarInts.write(output, compressed.size());
+		output.write(compressed.getBuffer(), 0, compressed.size());
+	}
+
+	private void writeBody(ChunkData chunk, DataOutput output, boolean numericIds, Scratch scratch)
+		throws IOException {
+		Palette<BlockData> blockPalette = scratch.blockPalette;
+		Palette<TileData> tilePalette = scratch.tilePalette;
+
+		try {
+			int runsSize = collectBlocks(chunk, scratch);
+			writePalette(blockPalette, output, numericIds);
+			writeBlocks(scratch.indices, blockPalette.size(), runsSize, output);
+
+			int stacks = collectTiles(chunk, scratch);
+			writePalette(tilePalette, output, numericIds);
+			writeTiles(chunk, stacks, output, scratch);
+		} finally {
+			blockPalette.clear();
+			tilePalette.clear();
+		}
+	}
+
+	/**
+	 * Fills the block palette and indices.
+	 *
+	 * @return the size of the blocks in the runs layout in bytes
+	 */
+	private int collectBlocks(ChunkData chunk, Scratch scratch) {
+		Palette<BlockData> palette = scratch.blockPalette;
+		int[] indices = scratch.indices;
+		Vec3i pos = scratch.pos;
+
+		int index = 0;
+		int runsSize = 0;
+		int runStart = 0;
+		BlockData previous = null;
+		int previousNid = -1;
+
+		for (pos.z = 0; pos.z < BPC; ++pos.z) {
+			for (pos.y = 0; pos.y < BPC; ++pos.y) {
+				for (pos.x = 0; pos.x < BPC; ++pos.x) {
+					BlockData block = chunk.getBlock(pos);
+
+					if (block != previous || index == 0) {
+						if (index != 0) {
+							runsSize += getRunSize(previousNid, index - runStart);
+						}
+
+						previous = block;
+						previousNid = palette.add(block);
+						runStart = index;
+					}
+
+					indices[index++] = previousNid;
+				}
+			}
+		}
+
+		return runsSize + getRunSize(previousNid, index - runStart);
+	}
+
+	/**
+	 * Returns the size of a run as written by
+	 * {@link #writeRuns(int[], DataOutput)}.
+	 */
+	private static int getRunSize(int nid, int length) {
+		return VarInts.getSize(nid) + VarInts.getSize(length - 1);
+	}
+
+	private static <E extends Namespaced> void writePalette(Palette<E> palette, DataOutput output, boolean numericIds)
+		throws IOException {
+		VarInts.write(output, palette.size());
+		for (int nid = 0; nid < palette.size(); ++nid) {
+			if (numericIds) {
+				VarInts.write(output, palette.get(nid).getNumericId());
+			} else {
+				output.writeUTF(palette.get(nid).getId());
+			}
+		}
+	}
+
+	private static void writeBlocks(int[] indices, int paletteSize, int runsSize, DataOutput output)
+		throws IOException {
+		if (paletteSize == 1) {
+			output.writeByte(BLOCKS_UNIFORM);
+			return;
+		}
+
+		int bits = getBitsPerIndex(paletteSize);
+		long packedSize = ((long) BLOCK_COUNT * bits + 7) / 8;
+
+		if (runsSize < packedSize) {
+			output.writeByte(BLOCKS_RUNS);
+			writeRuns(indices, output);
+		} else {
+			output.writeByte(BLOCKS_PACKED);
+			writePacked(indices, bits, output);
+		}
+	}
+
+	private static void writePacked(int[] indices, int bits, DataOutput output) throws IOException {
+		long buffer = 0;
+		int buffered = 0;
+
+		for (int i = 0; i < BLOCK_COUNT; ++i) {
+			buffer |= ((long) indices[i]) << buffered;
+			buffered += bits;
+
+			while (buffered >= 8) {
+				output.writeByte((int) buffer);
+				buffer >>>= 8;
+				buffered -= 8;
+			}
+		}
+
+		if (buffered > 0) {
+			output.writeByte((int) buffer);
+		}
+	}
+
+	private static void writeRuns(int[] indices, DataOutput output) throws IOException {
+		int start = 0;
+
+		while (start < BLOCK_COUNT) {
+			int nid = indices[start];
+			int end = start + 1;
+
+			while (end < BLOCK_COUNT && indices[end] == nid) {
+				end++;
+			}
+
+			VarInts.write(output, nid);
+			VarInts.write(output, end - start - 1);
+			start = end;
+		}
+	}
+
+	/**
+	 * Fills the tile palette.
+	 *
+	 * @return the number of non-empty tile stacks
+	 */
+	private int collectTiles(ChunkData chunk, Scratch scratch) {
+		Palette<TileData> palette = scratch.tilePalette;
+		int[] stacks = new int[1];
+
+		chunk.forEachTileStack(stack -> {
+			if (stack.isEmpty())
+				return;
+
+			stacks[0]++;
+			stack.forEach(palette::add);
+		});
+
+		return stacks[0];
+	}
+
+	private void writeTiles(ChunkData chunk, int stacks, DataOutput output, Scratch scratch) throws IOException {
+		Palette<TileData> palette = scratch.tilePalette;
+		Vec3i bic = scratch.pos;
+
+		VarInts.write(output, stacks);
+
+		try {
+			chunk.forEachTileStack(stack -> {
+				if (stack.isEmpty())
+					return;
+
+				stack.getBlockInChunk(bic);
+				int blockIndex = bic.z * BPC * BPC + bic.y * BPC + bic.x;
+
+				try {
+					VarInts.write(output, blockIndex * BlockFace.BLOCK_FACE_COUNT + stack.getFace().getId());
+					VarInts.write(output, stack.size());
+
+					for (int index = 0; index < stack.size(); ++index) {
+						VarInts.write(output, palette.getNid(stack.get(index)));
+						VarInts.write(output, stack.getTagByIndex(index));
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static int getBitsPerIndex(int paletteSize) {
+		return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(paletteSize - 1));
+	}
+
+	/*
+	 * Scratch state
+	 */
+
+	private static class Palette<E> {
+
+		private final List<E> elements = new ArrayList<>();
+		private final TObjectIntMap<E> nids = new TObjectIntHashMap<>(16, 0.5f, -1);
+
+		public int add(E element) {
+			int nid = nids.get(element);
+
+			if (nid < 0) {
+				nid = elements.size();
+				elements.add(element);
+				nids.put(element, nid);
+			}
+
+			return nid;
+		}
+
+		public int getNid(E element) {
+			return nids.get(element);
+		}
+
+		public E get(int nid) {
+			return elements.get(nid);
+		}
+
+		public int size() {
+			return elements.size();
+		}
+
+		public void clear() {
+			elements.clear();
+			nids.clear();
+		}
+
+	}
+
+	private static class Buffer extends ByteArrayOutputStream {
+
+		public Buffer() {
+			super(8 * 1024);
+		}
+
+		public byte[] getBuffer() {
+			return buf;
+		}
+
+	}
+
+	private static class Scratch {
+		final int[] indices = new int[BLOCK_COUNT];
+		final Vec3i pos = new Vec3i();
+
+		final Palette<BlockData> blockPalette = new Palette<>();
+		final Palette<TileData> tilePalette = new Palette<>();
+
+		final Buffer body = new Buffer();
+		final DataOutputStream bodyOutput = new DataOutputStream(body);
+		final Buffer compressed = new Buffer();
+
+		final Deflater deflater = new Deflater();
+		final Inflater inflater = new Inflater();
+
+		private byte[] compressedArray = new byte[8 * 1024];
+
+		byte[] getCompressed(int size) {
+			if (compressedArray.length < size) {
+				compressedArray = new byte[Math.max(size, compressedArray.length * 2)];
+			}
+			return compressedArray;
+		}
+	}
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import ru.windcorp.progressia.common.world.DecodingException;
+
+/**
+ * A single file that stores opaque payloads of up to {@link #ENTRY_COUNT}
+ * chunks.
+ * <p>
+ * The file starts with a header that contains a magic number, a format version
+ * and an offset table. Each entry of the table holds the index of the first
+ * sector and the length in bytes of the corresponding payload, or zeros if the
+ * payload is absent. Payloads occupy contiguous runs of {@link #SECTOR_SIZE}
+ * -byte sectors. Payloads are copied on write: a new payload always goes to
+ * free sectors and the sectors of the old payload are freed once the offset
+ * table points at the new one, so an interrupted write never damages the
+ * stored payload. Freed sectors are reused.
+ * <p>
+ * All access goes through positional {@link FileChannel} operations. Instances
+ * are thread-safe.
+ */
+public class RegionFile implements Closeable {
+
+	public static final int REGION_BITS = 3;
+	public static final int REGION_SIZE = 1 << REGION_BITS;
+	public static final int REGION_MASK = REGION_SIZE - 1;
+
+	public static final int ENTRY_COUNT = REGION_SIZE * REGION_SIZE * REGION_SIZE;
+
+	public static final int SECTOR_SIZE = 512;
+
+	private static final int MAGIC = 0x50524731; // "PRG1"
+	private static final int VERSION = 1;
+
+	private static final int TABLE_OFFSET = 2 * Integer.BYTES;
+	private static final int ENTRY_SIZE = 2 * Integer.BYTES;
+	private static final int HEADER_SIZE = TABLE_OFFSET + ENTRY_COUNT * ENTRY_SIZE;
+	private static final int HEADER_SECTORS = sectorsFor(HEADER_SIZE);
+
+	private final Path path;
+	private final FileChannel channel;
+
+	private final int[] sectorOffsets = new int[ENTRY_COUNT];
+	private final int[] lengths = new int[ENTRY_COUNT];
+
+	private final BitSet usedSectors = new BitSet();
+
+	private final ByteBuffer entryBuffer = ByteBuffer.allocate(ENTRY_SIZE);
+
+	/**
+	 * Opens or creates the region file at the provided path.
+	 *
+	 * @param path the file to open
+	 * @throws IOException       if the file could not be opened
+	 * @throws DecodingException if the file exists but its header is invalid
+	 */
+	public RegionFile(Path path) throws IOException, DecodingException {
+		this.path = path;
+		this.channel = FileChannel.open(
+			path,
+			StandardOpenOption.CREATE,
+			StandardOpenOption.READ,
+			StandardOpenOption.WRITE
+		);
+
+		try {
+			if (channel.size() == 0) {
+				writeEmptyHeader();
+			} else {
+				readHeader();
+			}
+		} catch (IOException | DecodingException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Computes the index of the entry that stores the chunk with the provided
+	 * coordinates.
+	 *
+	 * @param chunkX X coordinate of the chunk
+	 * @param chunkY Y coordinate of the chunk
+	 * @param chunkZ Z coordinate of the chunk
+	 * @return entry index in {@code [0; ENTRY_COUNT)}
+	 */
+	public static int getEntryIndex(int chunkX, int chunkY, int chunkZ) {
+		return ((chunkZ & REGION_MASK) << (2 * REGION_BITS)) |
+			((chunkY & REGION_MASK) << REGION_BITS) |
+			(chunkX & REGION_MASK);
+	}
+
+	/**
+	 * Computes the coordinate of the region that contains the chunk with the
+	 * provided coordinate.
+	 *
+	 * @param chunk chunk coordinate
+	 * @return region coordinate
+	 */
+	public static int getRegion(int chunk) {
+		return chunk >> REGION_BITS;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public synchronized boolean has(int index) {
+		checkIndex(index);
+		return lengths[index] != 0;
+	}
+
+	/**
+	 * Reads the payload stored at the provided index.
+	 *
+	 * @param index the entry index
+	 * @return the payload or {@code null} if no payload is stored
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized byte[] read(int index) throws IOException {
+		checkIndex(index);
+
+		int length = lengths[index];
+		if (length == 0)
+			return null;
+
+		byte[] result = new byte[length];
+		readFully(ByteBuffer.wrap(result), (long) sectorOffsets[index] * SECTOR_SIZE);
+		return result;
+	}
+
+	/**
+	 * Stores the provided payload at the provided index, replacing the previous
+	 * payload, if any. The payload is written to free sectors before the offset
+	 * table is updated, and the sectors of the previous payload are only
+	 * freed afterwards.
+	 *
+	 * @param index  the entry index
+	 * @param data   the array containing the payload
+	 * @param offset offset of the payload in {@code data}
+	 * @param length length of the payload, or 0 to remove the entry
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void write(int index, byte[] data, int offset, int length) throws IOException {
+		checkIndex(index);
+
+		int oldStart = sectorOffsets[index];
+		int oldSectors = sectorsFor(lengths[index]);
+		int newSectors = sectorsFor(length);
+
+		int newStart = 0;
+
+		if (length != 0) {
+			// The old sectors are still marked used, so the new run never
+			// overlaps them
+			newStart = allocate(newSectors);
+			writeFully(ByteBuffer.wrap(data, offset, length), (long) newStart * SECTOR_SIZE);
+			usedSectors.set(newStart, newStart + newSectors);
+		}
+
+		writeEntry(index, newStart, length);
+
+		if (oldSectors != 0) {
+			usedSectors.clear(oldStart, oldStart + oldSectors);
+		}
+	}
+
+	public synchronized void remove(int index) throws IOException {
+		write(index, null, 0, 0);
+	}
+
+	/**
+	 * Forces all written data to the storage device.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void flush() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	/*
+	 * Internals
+	 */
+
+	private int allocate(int sectors) {
+		int start = usedSectors.nextClearBit(HEADER_SECTORS);
+
+		while (true) {
+			int end = usedSectors.nextSetBit(start);
+			if (end < 0 || end - start >= sectors) {
+				return start;
+			}
+			start = usedSectors.nextClearBit(end);
+		}
+	}
+
+	private void writeEmptyHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_SIZE);
+		header.putInt(MAGIC).putInt(VERSION);
+		header.rewind();
+		writeFully(header, 0);
+
+		usedSectors.set(0, HEADER_SECTORS);
+	}
+
+	private void readHeader() throws IOException, DecodingException {
+		long fileSize = channel.size();
+		if (fileSize < HEADER_SIZE) {
+			throw new DecodingException("Region file " + path + " is truncated");
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(header, 0);
+		header.flip();
+
+		int magic = header.getInt();
+		if (magic != MAGIC) {
+			throw new DecodingException(
+				"Region file " + path + " has invalid signature " + Integer.toHexString(magic)
+			);
+		}
+
+		int version = header.getInt();
+		if (version != VERSION) {
+			throw new DecodingException(
+				"Region file " + path + " has unsupported version " + version + "; is it from the future?"
+			);
+		}
+
+		usedSectors.set(0, HEADER_SECTORS);
+
+		for (int index = 0; index < ENTRY_COUNT; ++index) {
+			int start = header.getInt();
+			int length = header.getInt();
+
+			if (length == 0)
+				continue;
+
+			if (
+				length < 0 || start < HEADER_SECTORS
+					|| (long) start * SECTOR_SIZE + length > fileSize
+			) {
+				throw new DecodingException(
+					"Region file " + path + " has invalid entry " + index + ": "
+						+ "sector " + start + ", length " + length
+				);
+			}
+
+			sectorOffsets[index] = start;
+			lengths[index] = length;
+			usedSectors.set(start, start + sectorsFor(length));
+		}
+	}
+
+	private void writeEntry(int index, int start, int length) throws IOException {
+		entryBuffer.clear();
+		entryBuffer.putInt(start).putInt(length);
+		entryBuffer.flip();
+		writeFully(entryBuffer, TABLE_OFFSET + (long) index * ENTRY_SIZE);
+
+		sectorOffsets[index] = start;
+		lengths[index] = length;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of region file " + path);
+			}
+			position += read;
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static int sectorsFor(int bytes) {
+		return (bytes + SECTOR_SIZE - 1) / SECTOR_SIZE;
+	}
+
+	private static void checkIndex(int index) {
+		if (index < 0 || index >= ENTRY_COUNT) {
+			throw new IndexOutOfBoundsException("Entry index " + index + " is out of bounds");
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import glm.vec._3.i.Vec3i;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
+import ru.windcorp.progressia.common.world.Coordinates;
+import ru.windcorp.progressia.common.world.PacketChunkChanges;
+import ru.windcorp.progressia.common.world.block.BlockFace;
+
+/**
+ * Collects the block and tile changes applied during a tick and sends them to
+ * the clients once per chunk as a {@link PacketChunkChanges}. Chunks that have
+ * received more than {@link #FULL_RESEND_THRESHOLD} changes during a tick are
+ * {@linkplain ChunkManager#resendChunk(Vec3i) sent again} instead.
+ * <p>
+ * Changes may be recorded from any thread; {@link #flush()} must be called in
+ * the server thread while the world is not being ticked.
+ */
+public class ChunkChangeBatcher {
+
+	/**
+	 * The number of changes in a single chunk during a single tick after which
+	 * the chunk is sent again in its entirety
+	 */
+	public static final int FULL_RESEND_THRESHOLD = 512;
+
+	private final Server server;
+
+	/**
+	 * Batches of the current tick, keyed by packed chunk position
+	 */
+	private final TLongObjectMap<PacketChunkChanges> batches = new TLongObjectHashMap<>();
+
+	/**
+	 * Batches that have been sent and may be reused
+	 */
+	private final List<PacketChunkChanges> spareBatches = new ArrayList<>();
+
+	private final List<PacketChunkChanges> toSend = new ArrayList<>();
+
+	/**
+	 * Chunks that have exceeded {@link #FULL_RESEND_THRESHOLD} during the
+	 * current tick
+	 */
+	private final TLongSet overflowed = new TLongHashSet();
+
+	private final Vec3i chunkPos = new Vec3i();
+	private final Vec3i blockInChunk = new Vec3i();
+
+	public ChunkChangeBatcher(Server server) {
+		this.server = server;
+	}
+
+	public synchronized void setBlock(Vec3i blockInWorld, String blockId) {
+		PacketChunkChanges batch = getBatch(blockInWorld);
+		if (batch != null) {
+			batch.addSetBlock(blockInChunk, blockId);
+			checkOverflow(batch);
+		}
+	}
+
+	public synchronized void addTile(Vec3i blockInWorld, BlockFace face, String tileId) {
+		PacketChunkChanges batch = getBatch(blockInWorld);
+		if (batch != null) {
+			batch.addAddTile(blockInChunk, face, tileId);
+			checkOverflow(batch);
+		}
+	}
+
+	public synchronized void removeTile(Vec3i blockInWorld, BlockFace face, int tag) {
+		PacketChunkChanges batch = getBatch(blockInWorld);
+		if (batch != null) {
+			batch.addRemoveTile(blockInChunk, face, tag);
+			checkOverflow(batch);
+		}
+	}
+
+	/**
+	 * Returns the batch of the chunk that contains the block and sets
+	 * {@link #blockInChunk}.
+	 *
+	 * @return the batch or {@code null} if the chunk will be sent again
+	 */
+	private PacketChunkChanges getBatch(Vec3i blockInWorld) {
+		Coordinates.convertInWorldToChunk(blockInWorld, chunkPos);
+		Coordinates.convertInWorldToInChunk(blockInWorld, blockInChunk);
+
+		long key = CoordinatePacker.pack3IntsIntoLong(chunkPos);
+
+		if (overflowed.contains(key))
+			return null;
+
+		PacketChunkChanges batch = batches.get(key);
+
+		if (batch == null) {
+			if (spareBatches.isEmpty()) {
+				batch = new PacketChunkChanges();
+			} else {
+				batch = spareBatches.remove(spareBatches.size() - 1);
+			}
+
+			batch.set(chunkPos);
+			batches.put(key, batch);
+		}
+
+		return batch;
+	}
+
+	private void checkOverflow(PacketChunkChanges batch) {
+		if (batch.getChangeCount() > FULL_RESEND_THRESHOLD) {
+			long key = CoordinatePacker.pack3IntsIntoLong(batch.getPosition());
+			batches.remove(key);
+			overflowed.add(key);
+		}
+	}
+
+	/**
+	 * Sends all changes recorded since the last flush.
+	 */
+	public void flush() {
+		long[] toResend;
+
+		synchronized (this) {
+			if (batches.isEmpty() && overflowed.isEmpty())
+				return;
+
+			toSend.addAll(batches.valueCollection());
+			batches.clear();
+
+			toResend = overflowed.toArray();
+			overflowed.clear();
+		}
+
+		for (PacketChunkChanges batch : toSend) {
+			server.getClientManager().broadcastLocal(batch, batch.getPosition());
+		}
+
+		Vec3i pos = new Vec3i();
+		for (long key : toResend) {
+			server.getChunkManager().resendChunk(CoordinatePacker.unpack3IntsFromLong(key, pos));
+		}
+
+		// Packets are encoded or applied when they are sent, so the batches
+		// may be reused
+		synchronized (this) {
+			spareBatches.addAll(toSend);
+		}
+		toSend.clear();
+	}
+
+}
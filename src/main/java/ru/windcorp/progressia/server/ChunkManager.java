@@ -18,70 +18,280 @@
  
 package ru.windcorp.progressia.server;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import glm.vec._3.Vec3;
 import glm.vec._3.i.Vec3i;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
 import ru.windcorp.progressia.common.world.ChunkData;
+import ru.windcorp.progressia.common.world.EncodedChunk;
 import ru.windcorp.progressia.common.world.PacketRevokeChunk;
 import ru.windcorp.progressia.common.world.PacketSendChunk;
 import ru.windcorp.progressia.common.world.WorldData;
 import ru.windcorp.progressia.common.world.generic.ChunkSet;
 import ru.windcorp.progressia.common.world.generic.ChunkSets;
-import ru.windcorp.progressia.test.TestWorldDiskIO;
+import ru.windcorp.progressia.server.world.ChunkLogic;
+import ru.windcorp.progressia.server.world.generation.WorldGenerator;
+import ru.windcorp.progressia.server.world.io.AsyncChunkStorage;
 
 public class ChunkManager {
 
+	private static final Logger LOG = LogManager.getLogger("ChunkManager");
+
 	private class PlayerVision {
 
 		private final ChunkSet visible = ChunkSets.newSyncHashSet();
-		private final ChunkSet requested = ChunkSets.newHashSet();
-		private final ChunkSet toSend = ChunkSets.newHashSet();
+
+		/**
+		 * Requested chunks that have not been sent yet
+		 */
+		private final ChunkSet pending = ChunkSets.newHashSet();
 		private final ChunkSet toRevoke = ChunkSets.newHashSet();
 
+		/**
+		 * The sphere of chunks requested by the player, or {@code null} if no
+		 * chunks are requested
+		 */
+		private ChunkSphere sphere = null;
+		private final Vec3i center = new Vec3i();
+
+		private final Vec3i newCenter = new Vec3i();
+
+		private boolean hasNewRequests = false;
+		private int lastSeenTick = 0;
+
+		/**
+		 * Whether some ready chunks were left pending because the send budget
+		 * ran out
+		 */
+		private boolean hasBacklog = false;
+
+		/**
+		 * Ready pending chunks of the current tick, packed with
+		 * {@link CoordinatePacker}
+		 */
+		private final TLongArrayList candidates = new TLongArrayList();
+
+		/**
+		 * Send order of {@link #candidates}: the float bits of the priority in
+		 * the high half, the index of the candidate in the low half
+		 */
+		private long[] order = new long[64];
+
+		private final Vec3 look = new Vec3();
+		private final Vec3i chunkPos = new Vec3i();
+
 		public boolean isChunkVisible(Vec3i chunkPos) {
 			return visible.contains(chunkPos);
 		}
 
-		public void gatherRequests(Player player) {
-			requested.clear();
-			player.requestChunksToLoad(requested::add);
+		/**
+		 * Updates the tickets of this player. Chunks are only examined when
+		 * the player crosses a chunk border or its load distance changes.
+		 */
+		public void updateRequests(Player player) {
+			ChunkSphere newSphere = player.getLoadSphere();
+			player.getChunkPos(newCenter);
+
+			if (newSphere == sphere && newCenter.x == center.x && newCenter.y == center.y && newCenter.z == center.z)
+				return;
+
+			setRequests(newSphere, newCenter);
 		}
 
-		public void updateQueues(Player player) {
-			toSend.clear();
+		/**
+		 * Releases all tickets of this player.
+		 */
+		public void releaseRequests() {
+			setRequests(null, center);
+			pending.clear();
+		}
 
-			requested.forEachIn(server.getWorld(), chunk -> {
-				if (!chunk.isReady())
-					return;
-				if (visible.contains(chunk))
-					return;
-				toSend.add(chunk);
-			});
+		private void setRequests(ChunkSphere newSphere, Vec3i newCenter) {
+			if (sphere != null) {
+				sphere.forEachNotIn(center, newSphere, newCenter, chunkPos -> {
+					releaseTicket(chunkPos);
 
-			toRevoke.clear();
-			toRevoke.addAll(visible);
-			toRevoke.removeIf(v -> loaded.contains(v) && requested.contains(v));
+					if (!pending.remove(chunkPos)) {
+						toRevoke.add(chunkPos);
+					}
+				});
+			}
+
+			if (newSphere != null) {
+				newSphere.forEachNotIn(newCenter, sphere, center, chunkPos -> {
+					acquireTicket(chunkPos);
+
+					toRevoke.remove(chunkPos);
+					if (!visible.contains(chunkPos)) {
+						pending.add(chunkPos);
+						hasNewRequests = true;
+					}
+				});
+			}
+
+			sphere = newSphere;
+			center.set(newCenter.x, newCenter.y, newCenter.z);
 		}
 
 		public void processQueues(Player player) {
-			toRevoke.forEach(chunkPos -> revokeChunk(player, chunkPos));
+			toRevoke.forEach(chunkPos -> {
+				if (visible.contains(chunkPos)) {
+					revokeChunk(player, chunkPos);
+				}
+			});
 			toRevoke.clear();
 
-			toSend.forEach(chunkPos -> sendChunk(player, chunkPos));
-			toSend.clear();
+			if (!hasNewRequests && !chunksCommitted && !hasBacklog)
+				return;
+
+			hasNewRequests = false;
+			hasBacklog = false;
+
+			int count = collectCandidates(player);
+			Arrays.sort(order, 0, count);
+
+			int chunksLeft = MAX_CHUNKS_SENT_PER_TICK;
+			int bytesLeft = MAX_CHUNK_BYTES_SENT_PER_TICK;
+
+			for (int i = 0; i < count; ++i) {
+				if (chunksLeft <= 0 || bytesLeft <= 0) {
+					hasBacklog = true;
+					break;
+				}
+
+				CoordinatePacker.unpack3IntsFromLong(candidates.get((int) order[i]), chunkPos);
+				pending.remove(chunkPos);
+
+				bytesLeft -= sendChunk(player, chunkPos);
+				chunksLeft--;
+			}
+		}
+
+		/**
+		 * Fills {@link #candidates} and {@link #order} with the pending chunks
+		 * that can be sent.
+		 *
+		 * @return the number of candidates
+		 */
+		private int collectCandidates(Player player) {
+			candidates.resetQuick();
+			player.getEntity().getLookingAtVector(look);
+
+			pending.forEach(pos -> {
+				ChunkLogic chunk = server.getWorld().getChunk(pos);
+				if (chunk == null || !chunk.isReady())
+					return;
+
+				int index = candidates.size();
+				candidates.add(CoordinatePacker.pack3IntsIntoLong(pos));
+
+				if (index == order.length) {
+					order = Arrays.copyOf(order, index * 2);
+				}
+
+				// Priorities are non-negative, so their bits sort like the
+				// floats themselves
+				order[index] = ((long) Float.floatToIntBits(getPriority(pos)) << Integer.SIZE) | index;
+			});
+
+			return candidates.size();
+		}
+
+		/**
+		 * Computes the send priority of a chunk; lower values are sent first.
+		 * Chunks straight ahead of the player are prioritized as if they were
+		 * twice as close as chunks behind the player.
+		 */
+		private float getPriority(Vec3i pos) {
+			// Same metric as ChunkSphere
+			float dx = pos.x - center.x;
+			float dy = pos.y - center.y;
+			float dz = 2 * (pos.z - center.z);
+
+			float distanceSq = dx * dx + dy * dy + dz * dz;
+			if (distanceSq == 0)
+				return 0;
+
+			float cos = (dx * look.x + dy * look.y + dz * look.z) / (float) Math.sqrt(distanceSq);
+			return distanceSq * (1.5f - 0.5f * cos);
 		}
 
 	}
 
+	/**
+	 * The maximum number of chunks sent to a single player per tick
+	 */
+	private static final int MAX_CHUNKS_SENT_PER_TICK = 32;
+
+	/**
+	 * The number of bytes of chunk data sent to a single player per tick
+	 * after which no more chunks are sent until the next tick
+	 */
+	private static final int MAX_CHUNK_BYTES_SENT_PER_TICK = 192 * 1024;
+
 	private final Server server;
 
 	private final ChunkSet loaded;
-	private final ChunkSet requested = ChunkSets.newHashSet();
+
+	/**
+	 * Tickets of the chunks requested by players
+	 */
+	private final ChunkTickets tickets = new ChunkTickets();
+
+	/**
+	 * Chunks that have gained their first ticket but have not been requested
+	 * from the storage yet
+	 */
 	private final ChunkSet toLoad = ChunkSets.newHashSet();
+
+	/**
+	 * Chunks that have lost their last ticket
+	 */
 	private final ChunkSet toUnload = ChunkSets.newHashSet();
 
+	/**
+	 * Whether any chunks have been added to the world during this tick, which
+	 * may have made some pending chunks ready
+	 */
+	private boolean chunksCommitted = false;
+
+	private int tickCount = 0;
+
+	/**
+	 * Produces unpopulated chunks for positions that have not been saved
+	 */
+	private final ForkJoinPool generationPool;
+
+	/**
+	 * Loads and generations that have not been committed yet, keyed by packed
+	 * chunk position
+	 */
+	private final TLongObjectMap<CompletableFuture<ChunkData>> pendingLoads = new TLongObjectHashMap<>();
+
+	/**
+	 * Keys of {@link #pendingLoads} that have been reacquired from the
+	 * storage before they were written. Such chunks have changes that are not
+	 * on disk, so they must be saved again if they are not committed.
+	 */
+	private final TLongSet unsavedLoads = new TLongHashSet();
+
 	// TODO replace with a normal Map managed by some sort of PlayerListener,
 	// weak maps are weak
 	private final Map<Player, PlayerVision> visions = Collections.synchronizedMap(new WeakHashMap<>());
@@ -89,68 +299,238 @@ public class ChunkManager {
 	public ChunkManager(Server server) {
 		this.server = server;
 		this.loaded = server.getWorld().getData().getLoadedChunks();
+		this.generationPool = new ForkJoinPool(server.getTickingSettings().getGenerationThreadCount());
 	}
 
 	public void tick() {
 		synchronized (getServer().getWorld().getData()) {
 			synchronized (visions) {
-				gatherRequests();
-				updateQueues();
+				tickCount++;
+				chunksCommitted = false;
+
+				if (getServer().getStorage() != null) {
+					getServer().getStorage().retryRejectedSaves();
+				}
+
+				commitLoads();
+				updateRequests();
 				processQueues();
 			}
 		}
 	}
 
-	private void gatherRequests() {
-		requested.clear();
-
+	private void updateRequests() {
 		server.getPlayerManager().getPlayers().forEach(p -> {
 			PlayerVision vision = getVision(p, true);
-			vision.gatherRequests(p);
-			requested.addAll(vision.requested);
+			vision.lastSeenTick = tickCount;
+			vision.updateRequests(p);
 		});
-	}
 
-	private void updateQueues() {
-		toLoad.clear();
-		toLoad.addAll(requested);
-		toLoad.removeAll(loaded);
+		visions.values().removeIf(v -> {
+			if (v.lastSeenTick == tickCount)
+				return false;
 
-		toUnload.clear();
-		toUnload.addAll(loaded);
-		toUnload.removeAll(requested);
-
-		visions.forEach((p, v) -> {
-			v.updateQueues(p);
+			// The player has left
+			v.releaseRequests();
+			return true;
 		});
 	}
 
+	private void acquireTicket(Vec3i chunkPos) {
+		if (tickets.acquire(chunkPos)) {
+			toUnload.remove(chunkPos);
+			if (!loaded.contains(chunkPos)) {
+				toLoad.add(chunkPos);
+			}
+		}
+	}
+
+	private void releaseTicket(Vec3i chunkPos) {
+		if (tickets.release(chunkPos)) {
+			toLoad.remove(chunkPos);
+			if (loaded.contains(chunkPos)) {
+				toUnload.add(chunkPos);
+			}
+		}
+	}
+
 	private void processQueues() {
-		toUnload.forEach(this::unloadChunk);
-		toUnload.clear();
-		toLoad.forEach(this::loadChunk);
-		toLoad.clear();
+		if (!toUnload.isEmpty()) {
+			toUnload.forEach(this::unloadChunk);
+			toUnload.clear();
+		}
+
+		if (!toLoad.isEmpty()) {
+			toLoad.removeIf(chunkPos -> {
+				loadChunk(chunkPos);
+				// Retry on the next tick if the storage is busy
+				return pendingLoads.containsKey(CoordinatePacker.pack3IntsIntoLong(chunkPos));
+			});
+		}
 
 		visions.forEach((p, v) -> {
 			v.processQueues(p);
 		});
 	}
 
+	/**
+	 * Keeps the provided chunk loaded until {@link #unpinChunk(Vec3i)} is
+	 * invoked, regardless of players. Only chunks that hold tickets are ever
+	 * unloaded, so other chunks are not pinned. Must be invoked in the server
+	 * thread.
+	 * 
+	 * @param chunkPos the position of the chunk
+	 * @return {@code true} if the chunk has been pinned, {@code false} if it
+	 *         needs no pin
+	 */
+	public boolean pinChunk(Vec3i chunkPos) {
+		if (!tickets.contains(chunkPos) || !loaded.contains(chunkPos))
+			return false;
+
+		acquireTicket(chunkPos);
+		return true;
+	}
+
+	/**
+	 * Releases a pin added by {@link #pinChunk(Vec3i)}. Must be invoked in
+	 * the server thread.
+	 * 
+	 * @param chunkPos the position of the chunk
+	 */
+	public void unpinChunk(Vec3i chunkPos) {
+		releaseTicket(chunkPos);
+	}
+
 	private PlayerVision getVision(Player player, boolean createIfMissing) {
 		return createIfMissing ? visions.computeIfAbsent(player, k -> new PlayerVision()) : visions.get(player);
 	}
 
+	/**
+	 * Requests that the chunk at the provided position is loaded from the
+	 * storage or, if it has not been saved, generated. Both happen outside of
+	 * the server thread. The chunk is added to the world by
+	 * {@link #commitLoads()} during one of the following ticks; population
+	 * happens at that point. If the storage is busy, this method does
+	 * nothing and the request is repeated on the next tick. If the world is
+	 * not saved, the chunk is always generated.
+	 * 
+	 * @param chunkPos the position of the chunk to load
+	 */
 	public void loadChunk(Vec3i chunkPos) {
 
+		long key = CoordinatePacker.pack3IntsIntoLong(chunkPos);
+		if (pendingLoads.containsKey(key))
+			return;
+
 		WorldData world = getServer().getWorld().getData();
+		AsyncChunkStorage storage = getServer().getStorage();
+
+		Vec3i position = new Vec3i(chunkPos.x, chunkPos.y, chunkPos.z);
+		WorldGenerator generator = getServer().getWorld().getGenerator();
 
-		ChunkData chunk = TestWorldDiskIO.tryToLoad(chunkPos, world, getServer());
-		if (chunk != null) {
-			world.addChunk(chunk);
-		} else {
-			getServer().getWorld().generate(chunkPos);
+		if (storage == null) {
+			pendingLoads.put(
+				key,
+				CompletableFuture.supplyAsync(() -> generator.generateUnpopulated(position, world), generationPool)
+			);
+			return;
+		}
+
+		ChunkData unsaved = storage.takePendingSave(chunkPos);
+		if (unsaved != null) {
+			pendingLoads.put(key, CompletableFuture.completedFuture(unsaved));
+			unsavedLoads.add(key);
+			return;
 		}
 
+		CompletableFuture<ChunkData> future = storage.requestLoad(chunkPos, world);
+		if (future == null)
+			return;
+
+		pendingLoads.put(key, future.thenComposeAsync(chunk -> {
+			if (chunk != null) {
+				return CompletableFuture.completedFuture(chunk);
+			}
+			return CompletableFuture.supplyAsync(() -> generator.generateUnpopulated(position, world), generationPool);
+		}, generationPool));
+
+	}
+
+	/**
+	 * Adds the chunks that have finished loading or generating to the world.
+	 * Chunks that are no longer requested are discarded unless they have
+	 * changes that are not on disk; see {@link #discardLoad(long, ChunkData)}.
+	 * <p>
+	 * Chunks are populated by world listeners in the server thread as they are
+	 * added. Since population only depends on the blocks of the populated
+	 * chunk and its neighbours, the world does not depend on the order in
+	 * which chunks are committed.
+	 */
+	private void commitLoads() {
+		if (pendingLoads.isEmpty())
+			return;
+
+		WorldData world = getServer().getWorld().getData();
+		Vec3i chunkPos = new Vec3i();
+
+		for (TLongObjectIterator<CompletableFuture<ChunkData>> it = pendingLoads.iterator(); it.hasNext();) {
+			it.advance();
+
+			CompletableFuture<ChunkData> future = it.value();
+			if (!future.isDone())
+				continue;
+
+			long key = it.key();
+			CoordinatePacker.unpack3IntsFromLong(key, chunkPos);
+			it.remove();
+
+			ChunkData chunk = null;
+
+			try {
+				chunk = future.get();
+			} catch (ExecutionException e) {
+				LOG.error(
+					String.format(
+						"Could not load chunk (%d; %d; %d), generating it in the server thread",
+						chunkPos.x,
+						chunkPos.y,
+						chunkPos.z
+					),
+					e.getCause()
+				);
+			} catch (InterruptedException e) {
+				// Cannot happen: the future is done
+				Thread.currentThread().interrupt();
+			}
+
+			if (!tickets.contains(chunkPos)) {
+				discardLoad(key, chunk);
+				continue;
+			}
+
+			unsavedLoads.remove(key);
+
+			if (chunk != null) {
+				world.addChunk(chunk);
+			} else {
+				getServer().getWorld().generate(chunkPos);
+			}
+
+			chunksCommitted = true;
+		}
+	}
+
+	/**
+	 * Disposes of a loaded or generated chunk that is no longer requested.
+	 * Chunks read from disk are dropped since they are unmodified, and so are
+	 * generated chunks since they are unpopulated and will be generated again.
+	 * Only chunks reacquired from the storage before they were written have
+	 * changes that would be lost; these are saved again.
+	 */
+	private void discardLoad(long key, ChunkData chunk) {
+		if (unsavedLoads.remove(key) && chunk != null) {
+			getServer().getStorage().requestSave(chunk);
+		}
 	}
 
 	public void unloadChunk(Vec3i chunkPos) {
@@ -171,12 +551,94 @@ public class ChunkManager {
 
 		world.removeChunk(chunk);
 
-		TestWorldDiskIO.saveChunk(chunk, getServer());
+		if (getServer().getStorage() != null) {
+			getServer().getStorage().requestSave(chunk);
+		}
+
+	}
+
+	/**
+	 * Passes every loaded chunk, as well as every pending load with unsaved
+	 * changes, to the storage, if any, so that the world is persisted when
+	 * the server stops, then stops chunk generation. The chunks stay in the world. Must
+	 * be invoked after the server thread has stopped and before the storage
+	 * is closed.
+	 */
+	public void shutdown() {
+		WorldData world = getServer().getWorld().getData();
+
+		synchronized (world) {
+			if (getServer().getStorage() != null) {
+				world.getChunks().forEach(getServer().getStorage()::requestSave);
+			}
+
+			// Pending loads with unsaved changes are already complete
+			pendingLoads.forEachEntry((key, future) -> {
+				if (unsavedLoads.contains(key)) {
+					discardLoad(key, future.getNow(null));
+				}
+				return true;
+			});
+		}
+
+		generationPool.shutdownNow();
 
+		try {
+			if (!generationPool.awaitTermination(10, TimeUnit.SECONDS)) {
+				LOG.warn("Chunk generation did not stop in time");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while waiting for chunk generation to stop");
+		}
 	}
 
-	public void sendChunk(Player player, Vec3i chunkPos) {
-		ChunkData chunk = server.getWorld().getData().getChunk(chunkPos);
+	/**
+	 * Sends the provided chunk to the player. The chunk is only encoded if it
+	 * has changed since it was last sent to any player.
+	 *
+	 * @return the size of the encoded chunk in bytes
+	 */
+	public int sendChunk(Player player, Vec3i chunkPos) {
+		EncodedChunk encoded = getChunkOrCrash(chunkPos).getEncoded();
+
+		PacketSendChunk packet = new PacketSendChunk();
+		packet.set(encoded);
+		player.getClient().sendPacket(packet);
+
+		getVision(player, true).visible.add(chunkPos);
+		server.getEntityManager().onChunkShown(player, chunkPos);
+
+		return encoded.getSize();
+	}
+
+	/**
+	 * Replaces the copies of the chunk held by all players that see it with
+	 * its current state.
+	 */
+	public void resendChunk(Vec3i chunkPos) {
+		ChunkLogic chunk = server.getWorld().getChunk(chunkPos);
+		if (chunk == null)
+			return;
+
+		PacketRevokeChunk revoke = new PacketRevokeChunk();
+		revoke.set(chunkPos);
+
+		PacketSendChunk send = new PacketSendChunk();
+		send.set(chunk.getEncoded());
+
+		synchronized (visions) {
+			visions.forEach((p, v) -> {
+				if (v.isChunkVisible(chunkPos)) {
+					p.getClient().sendPacket(revoke);
+					p.getClient().sendPacket(send);
+				}
+			});
+		}
+	}
+
+	private ChunkLogic getChunkOrCrash(Vec3i chunkPos) {
+		ChunkLogic chunk = server.getWorld().getChunk(chunkPos);
 
 		if (chunk == null) {
 			throw new IllegalStateException(
@@ -189,11 +651,7 @@ public class ChunkManager {
 			);
 		}
 
-		PacketSendChunk packet = new PacketSendChunk();
-		packet.set(chunk);
-		player.getClient().sendPacket(packet);
-
-		getVision(player, true).visible.add(chunkPos);
+		return chunk;
 	}
 
 	public void revokeChunk(Player player, Vec3i chunkPos) {
@@ -205,6 +663,8 @@ public class ChunkManager {
 		if (vision != null) {
 			vision.visible.remove(chunkPos);
 		}
+
+		server.getEntityManager().onChunkHidden(player, chunkPos);
 	}
 
 	public boolean isChunkVisible(Vec3i chunkPos, Player player) {
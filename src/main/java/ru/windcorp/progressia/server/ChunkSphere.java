@@ -0,0 +1,188 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import glm.vec._3.i.Vec3i;
+
+/**
+ * A precomputed table of chunk offsets that lie within a given distance of a
+ * center chunk. The vertical axis counts double, so the region is an ellipsoid
+ * flattened along Z.
+ * <p>
+ * Offsets are sorted by increasing distance from the center. Instances are
+ * immutable and shared; use {@link #get(float)} to obtain one. Since squared
+ * distances between chunks are integers, radii whose squares have the same
+ * integer part produce the same table, and tables are cached by that integer.
+ */
+public class ChunkSphere {
+
+	private static final Map<Integer, ChunkSphere> CACHE = new ConcurrentHashMap<>();
+
+	private final int radiusSq;
+
+	/**
+	 * X, Y and Z of each offset, in order
+	 */
+	private final int[] offsets;
+
+	private ChunkSphere(int radiusSq) {
+		this.radiusSq = radiusSq;
+
+		int iRadius = (int) Math.sqrt(radiusSq);
+		int side = 2 * iRadius + 1;
+
+		long[] keyed = new long[side * side * side];
+		int count = 0;
+
+		for (int x = -iRadius; x <= +iRadius; ++x) {
+			for (int y = -iRadius; y <= +iRadius; ++y) {
+				for (int z = -iRadius; z <= +iRadius; ++z) {
+					if (!contains(x, y, z))
+						continue;
+
+					// Distance in the high bits, index in the low bits
+					int index = ((x + iRadius) * side + (y + iRadius)) * side + (z + iRadius);
+					keyed[count++] = ((long) getDistanceSq(x, y, z) << 32) | index;
+				}
+			}
+		}
+
+		Arrays.sort(keyed, 0, count);
+
+		this.offsets = new int[count * 3];
+
+		for (int i = 0; i < count; ++i) {
+			int index = (int) keyed[i];
+
+			offsets[3 * i + 0] = index / (side * side) - iRadius;
+			offsets[3 * i + 1] = index / side % side - iRadius;
+			offsets[3 * i + 2] = index % side - iRadius;
+		}
+	}
+
+	/**
+	 * Returns the table for the provided radius.
+	 * 
+	 * @param radius the radius in chunks
+	 * @return the shared table
+	 */
+	public static ChunkSphere get(float radius) {
+		int radiusSq = (int) Math.floor((double) radius * radius);
+		return CACHE.computeIfAbsent(radiusSq, ChunkSphere::new);
+	}
+
+	private static int getDistanceSq(int dx, int dy, int dz) {
+		return dx * dx + dy * dy + (dz * 2) * (dz * 2);
+	}
+
+	/**
+	 * Returns the largest squared distance from the center, with the vertical
+	 * axis counting double, of the offsets in this sphere.
+	 * 
+	 * @return the squared radius in chunks
+	 */
+	public int getRadiusSq() {
+		return radiusSq;
+	}
+
+	/**
+	 * Checks whether the provided offset lies within this sphere.
+	 * 
+	 * @param dx X offset in chunks
+	 * @param dy Y offset in chunks
+	 * @param dz Z offset in chunks
+	 * @return {@code true} iff the offset belongs to this sphere
+	 */
+	public boolean contains(int dx, int dy, int dz) {
+		return getDistanceSq(dx, dy, dz) <= radiusSq;
+	}
+
+	public int size() {
+		return offsets.length / 3;
+	}
+
+	public int getX(int index) {
+		return offsets[3 * index + 0];
+	}
+
+	public int getY(int index) {
+		return offsets[3 * index + 1];
+	}
+
+	public int getZ(int index) {
+		return offsets[3 * index + 2];
+	}
+
+	/**
+	 * Invokes the action for each chunk of this sphere placed at the provided
+	 * center, nearest chunks first. The action receives the same mutable
+	 * vector every time.
+	 * 
+	 * @param center the center chunk
+	 * @param action the action to invoke
+	 */
+	public void forEach(Vec3i center, Consumer<Vec3i> action) {
+		Vec3i cursor = new Vec3i();
+
+		for (int i = 0; i < offsets.length; i += 3) {
+			cursor.set(center.x + offsets[i], center.y + offsets[i + 1], center.z + offsets[i + 2]);
+			action.accept(cursor);
+		}
+	}
+
+	/**
+	 * Invokes the action for each chunk of this sphere placed at
+	 * {@code center} that does not belong to {@code other} placed at
+	 * {@code otherCenter}. The action receives the same mutable vector every
+	 * time.
+	 * 
+	 * @param center      the center of this sphere
+	 * @param other       the other sphere or {@code null} if it is empty
+	 * @param otherCenter the center of the other sphere
+	 * @param action      the action to invoke
+	 */
+	public void forEachNotIn(Vec3i center, ChunkSphere other, Vec3i otherCenter, Consumer<Vec3i> action) {
+		if (other == null) {
+			forEach(center, action);
+			return;
+		}
+
+		Vec3i cursor = new Vec3i();
+
+		int shiftX = center.x - otherCenter.x;
+		int shiftY = center.y - otherCenter.y;
+		int shiftZ = center.z - otherCenter.z;
+
+		for (int i = 0; i < offsets.length; i += 3) {
+			int x = offsets[i], y = offsets[i + 1], z = offsets[i + 2];
+
+			if (other.contains(x + shiftX, y + shiftY, z + shiftZ))
+				continue;
+
+			cursor.set(center.x + x, center.y + y, center.z + z);
+			action.accept(cursor);
+		}
+	}
+
+}
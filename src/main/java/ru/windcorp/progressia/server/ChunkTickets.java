@@ -0,0 +1,88 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server;
+
+import glm.vec._3.i.Vec3i;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
+
+/**
+ * Reference counts of the chunks that must stay loaded. Each chunk loader
+ * holds one ticket for each chunk it needs; a chunk may be unloaded once its
+ * last ticket is released. Instances are not thread-safe.
+ */
+public class ChunkTickets {
+
+	private final TLongIntMap counts = new TLongIntHashMap();
+
+	/**
+	 * Adds a ticket for the provided chunk.
+	 * 
+	 * @param chunkPos the position of the chunk
+	 * @return {@code true} if this is the first ticket of the chunk
+	 */
+	public boolean acquire(Vec3i chunkPos) {
+		return counts.adjustOrPutValue(CoordinatePacker.pack3IntsIntoLong(chunkPos), 1, 1) == 1;
+	}
+
+	/**
+	 * Removes a ticket from the provided chunk.
+	 * 
+	 * @param chunkPos the position of the chunk
+	 * @return {@code true} if this was the last ticket of the chunk
+	 * @throws IllegalStateException if the chunk has no tickets
+	 */
+	public boolean release(Vec3i chunkPos) {
+		long key = CoordinatePacker.pack3IntsIntoLong(chunkPos);
+		int count = counts.get(key);
+
+		if (count <= 0) {
+			throw new IllegalStateException(
+				String.format("Chunk (%d; %d; %d) has no tickets", chunkPos.x, chunkPos.y, chunkPos.z)
+			);
+		}
+
+		if (count == 1) {
+			counts.remove(key);
+			return true;
+		}
+
+		counts.put(key, count - 1);
+		return false;
+	}
+
+	public boolean contains(Vec3i chunkPos) {
+		return counts.containsKey(CoordinatePacker.pack3IntsIntoLong(chunkPos));
+	}
+
+	public int getTickets(Vec3i chunkPos) {
+		return counts.get(CoordinatePacker.pack3IntsIntoLong(chunkPos));
+	}
+
+	/**
+	 * Returns the number of chunks that have at least one ticket.
+	 * 
+	 * @return the number of requested chunks
+	 */
+	public int size() {
+		return counts.size();
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server;
+
+import glm.vec._3.i.Vec3i;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TLongProcedure;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
+import ru.windcorp.progressia.common.util.Vectors;
+import ru.windcorp.progressia.common.world.WorldData;
+
+/**
+ * A spatial index that groups entity IDs into buckets by the chunk that
+ * contains them. Chunk positions are packed with {@link CoordinatePacker}.
+ * <p>
+ * The index is brought up to date by {@link #update(WorldData, Listener)},
+ * which reports every entity that has entered or left a bucket since the
+ * previous update. Instances are not thread-safe.
+ */
+public class EntityChunkIndex {
+
+	public static interface Listener {
+
+		/**
+		 * Invoked when an entity has been added to the bucket of a chunk,
+		 * either because it has moved there or because it has appeared in the
+		 * world.
+		 * 
+		 * @param entityId the ID of the entity
+		 * @param chunk    the packed position of the chunk
+		 */
+		void onEntered(long entityId, long chunk);
+
+		/**
+		 * Invoked when an entity has been removed from the bucket of a chunk,
+		 * either because it has moved away or because it has been removed
+		 * from the world. When an entity moves, this method is invoked before
+		 * {@link #onEntered(long, long)}.
+		 * 
+		 * @param entityId the ID of the entity
+		 * @param chunk    the packed position of the chunk
+		 */
+		void onLeft(long entityId, long chunk);
+
+	}
+
+	private static class Entry {
+		long chunk;
+		int stamp;
+	}
+
+	private final TLongObjectMap<TLongSet> buckets = new TLongObjectHashMap<>();
+	private final TLongObjectMap<Entry> entries = new TLongObjectHashMap<>();
+
+	private int stamp = 0;
+	private int seen = 0;
+
+	/**
+	 * Synchronizes this index with the entities of the world. Each entity is
+	 * examined once; listeners are only notified about entities that have
+	 * changed their chunk, appeared or disappeared.
+	 * 
+	 * @param world    the world to index
+	 * @param listener the listener to notify about the changes
+	 */
+	public void update(WorldData world, Listener listener) {
+		int currentStamp = ++stamp;
+		seen = 0;
+
+		Vec3i v = Vectors.grab3i();
+
+		world.forEachEntity(entity -> {
+			long chunk = CoordinatePacker.pack3IntsIntoLong(entity.getChunkCoords(v));
+			putEntry(entity.getEntityId(), chunk, listener).stamp = currentStamp;
+			seen++;
+		});
+
+		Vectors.release(v);
+
+		if (seen != entries.size()) {
+			// Some entities have been removed from the world
+			for (TLongObjectIterator<Entry> it = entries.iterator(); it.hasNext();) {
+				it.advance();
+
+				Entry entry = it.value();
+				if (entry.stamp == currentStamp)
+					continue;
+
+				long entityId = it.key();
+				it.remove();
+				removeFromBucket(entityId, entry.chunk);
+				listener.onLeft(entityId, entry.chunk);
+			}
+		}
+	}
+
+	private Entry putEntry(long entityId, long chunk, Listener listener) {
+		Entry entry = entries.get(entityId);
+
+		if (entry == null) {
+			entry = new Entry();
+			entry.chunk = chunk;
+			entries.put(entityId, entry);
+
+			addToBucket(entityId, chunk);
+			listener.onEntered(entityId, chunk);
+		} else if (entry.chunk != chunk) {
+			long previous = entry.chunk;
+			entry.chunk = chunk;
+
+			removeFromBucket(entityId, previous);
+			listener.onLeft(entityId, previous);
+
+			addToBucket(entityId, chunk);
+			listener.onEntered(entityId, chunk);
+		}
+
+		return entry;
+	}
+
+	private void addToBucket(long entityId, long chunk) {
+		TLongSet bucket = buckets.get(chunk);
+
+		if (bucket == null) {
+			bucket = new TLongHashSet();
+			buckets.put(chunk, bucket);
+		}
+
+		bucket.add(entityId);
+	}
+
+	private void removeFromBucket(long entityId, long chunk) {
+		TLongSet bucket = buckets.get(chunk);
+		if (bucket == null)
+			return;
+
+		bucket.remove(entityId);
+
+		if (bucket.isEmpty()) {
+			buckets.remove(chunk);
+		}
+	}
+
+	/**
+	 * Invokes the procedure for each entity in the bucket of the chunk.
+	 * 
+	 * @param chunk     the packed position of the chunk
+	 * @param procedure the procedure to invoke
+	 */
+	public void forEachEntityIn(long chunk, TLongProcedure procedure) {
+		TLongSet bucket = buckets.get(chunk);
+		if (bucket != null) {
+			bucket.forEach(procedure);
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+}
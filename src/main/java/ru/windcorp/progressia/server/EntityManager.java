@@ -24,110 +24,237 @@ import java.util.WeakHashMap;
 
 import glm.vec._3.i.Vec3i;
 import gnu.trove.TCollections;
-import gnu.trove.iterator.TLongIterator;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
 import ru.windcorp.jputil.chars.StringUtil;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
 import ru.windcorp.progressia.common.util.Vectors;
+import ru.windcorp.progressia.common.world.entity.EntityBaseline;
 import ru.windcorp.progressia.common.world.entity.EntityData;
+import ru.windcorp.progressia.common.world.entity.PacketChangeEntity;
 import ru.windcorp.progressia.common.world.entity.PacketRevokeEntity;
 import ru.windcorp.progressia.common.world.entity.PacketSendEntity;
-import ru.windcorp.progressia.common.world.generic.ChunkSet;
 
 public class EntityManager {
 
 	private class PlayerVision {
 
 		private final TLongSet visible = TCollections.synchronizedSet(new TLongHashSet());
-		private final TLongSet requested = new TLongHashSet();
 		private final TLongSet toSend = new TLongHashSet();
 		private final TLongSet toRevoke = new TLongHashSet();
 
+		/**
+		 * The state of each visible entity as known to the client
+		 */
+		private final TLongObjectMap<EntityBaseline> baselines = new TLongObjectHashMap<>();
+
 		public boolean isEntityVisible(long entityId) {
 			return visible.contains(entityId);
 		}
 
-		public void gatherRequests(Player player) {
-			requested.clear();
-
-			ChunkSet visibleChunks = player.getClient().getVisibleChunks();
-			Vec3i v = Vectors.grab3i();
-
-			getServer().getWorld().forEachEntity(entity -> {
-				if (visibleChunks.contains(entity.getChunkCoords(v))) {
-					requested.add(entity.getEntityId());
-				}
-			});
-
-			Vectors.release(v);
+		public void queueSend(long entityId) {
+			toRevoke.remove(entityId);
+			toSend.add(entityId);
 		}
 
-		public void updateQueues(Player player) {
-			toSend.clear();
-			toSend.addAll(requested);
-			toSend.removeAll(visible);
-			toSend.retainAll(loaded);
-
-			toRevoke.clear();
+		public void queueRevoke(long entityId) {
+			toSend.remove(entityId);
+			toRevoke.add(entityId);
+		}
 
-			for (TLongIterator it = visible.iterator(); it.hasNext();) {
-				long entityId = it.next();
-				if (!loaded.contains(entityId) || !requested.contains(entityId)) {
-					toRevoke.add(entityId);
-				}
-			}
+		public boolean isKnown(long entityId) {
+			return visible.contains(entityId) || toSend.contains(entityId);
 		}
 
 		public void processQueues(Player player) {
 			toRevoke.forEach(entityId -> {
-				revokeEntity(player, entityId);
+				if (visible.contains(entityId)) {
+					revokeEntity(player, entityId);
+				}
 				return true;
 			});
 			toRevoke.clear();
 
 			toSend.forEach(entityId -> {
-				sendEntity(player, entityId);
+				if (!visible.contains(entityId) && loaded.contains(entityId)) {
+					sendEntity(player, entityId);
+				}
 				return true;
 			});
 			toSend.clear();
 		}
 
+		public void syncEntity(Player player, EntityData entity) {
+			EntityBaseline baseline = baselines.get(entity.getEntityId());
+			if (baseline == null)
+				return;
+
+			if (syncPacket.set(entity, baseline, true)) {
+				player.getClient().sendPacket(syncPacket);
+			}
+		}
+
 	}
 
 	private final Server server;
 
 	private final TLongSet loaded;
 
+	/**
+	 * Buckets loaded entities by chunk so that entity visibility only needs
+	 * to be reconsidered when an entity crosses a chunk border or a chunk is
+	 * shown to or hidden from a player
+	 */
+	private final EntityChunkIndex index = new EntityChunkIndex();
+
+	private final EntityChunkIndex.Listener indexListener = new EntityChunkIndex.Listener() {
+		@Override
+		public void onEntered(long entityId, long chunk) {
+			visions.forEach((p, v) -> {
+				if (isChunkVisible(p, chunk)) {
+					v.queueSend(entityId);
+				}
+			});
+		}
+
+		@Override
+		public void onLeft(long entityId, long chunk) {
+			visions.forEach((p, v) -> {
+				if (v.isKnown(entityId)) {
+					v.queueRevoke(entityId);
+				}
+			});
+		}
+	};
+
 	// TODO replace with a normal Map managed by some sort of PlayerListener,
 	// weak maps are weak
 	private final Map<Player, PlayerVision> visions = Collections.synchronizedMap(new WeakHashMap<>());
 
+	/**
+	 * IDs of the entities changed by {@code WorldAccessor.changeEntity} since
+	 * the last tick
+	 */
+	private final TLongSet changed = TCollections.synchronizedSet(new TLongHashSet());
+
+	/**
+	 * Reused for all entity updates; packets are encoded or applied as soon as
+	 * they are sent
+	 */
+	private final PacketChangeEntity syncPacket = new PacketChangeEntity();
+
+	/**
+	 * The number of consecutive ticks skipped due to server overload
+	 */
+	private int shedTicks = 0;
+
 	public EntityManager(Server server) {
 		this.server = server;
 		this.loaded = server.getWorld().getData().getLoadedEntities();
 	}
 
 	public void tick() {
+		boolean updateVisibility;
+
+		if (server.isOverloaded() && shedTicks < server.getTickingSettings().getMaxShedTicks()) {
+			// Entity visibility can lag behind a little
+			shedTicks++;
+			updateVisibility = false;
+		} else {
+			shedTicks = 0;
+			updateVisibility = true;
+		}
+
 		synchronized (getServer().getWorld().getData()) {
 			synchronized (visions) {
-				gatherRequests();
-				updateQueues();
-				processQueues();
+				if (updateVisibility) {
+					index.update(getServer().getWorld().getData(), indexListener);
+					processQueues();
+				}
+
+				syncChangedEntities();
 			}
 		}
 	}
 
-	private void gatherRequests() {
-		server.getPlayerManager().getPlayers().forEach(p -> {
-			PlayerVision vision = getVision(p, true);
-			vision.gatherRequests(p);
-		});
+	/**
+	 * Schedules the provided entity to be sent to the clients that can see it.
+	 * Only the data that differs from what each client has is sent, and all
+	 * changes made within one tick are merged into a single update. May be
+	 * invoked from any thread.
+	 * 
+	 * @param entity the entity that has changed
+	 */
+	public void markChanged(EntityData entity) {
+		changed.add(entity.getEntityId());
 	}
 
-	private void updateQueues() {
-		visions.forEach((p, v) -> {
-			v.updateQueues(p);
+	private void syncChangedEntities() {
+		if (changed.isEmpty())
+			return;
+
+		changed.forEach(entityId -> {
+			EntityData entity = server.getWorld().getData().getEntity(entityId);
+			if (entity == null)
+				return true;
+
+			visions.forEach((p, v) -> {
+				if (v.isEntityVisible(entityId)) {
+					v.syncEntity(p, entity);
+				}
+			});
+
+			entity.clearChangedFields();
+			return true;
 		});
+
+		changed.clear();
+	}
+
+	/**
+	 * Schedules the entities in the provided chunk to be sent to the player.
+	 * Invoked by {@link ChunkManager} when it sends the chunk.
+	 * 
+	 * @param player   the player
+	 * @param chunkPos the position of the chunk
+	 */
+	public void onChunkShown(Player player, Vec3i chunkPos) {
+		synchronized (visions) {
+			PlayerVision vision = getVision(player, true);
+			index.forEachEntityIn(CoordinatePacker.pack3IntsIntoLong(chunkPos), entityId -> {
+				vision.queueSend(entityId);
+				return true;
+			});
+		}
+	}
+
+	/**
+	 * Schedules the entities in the provided chunk to be revoked from the
+	 * player. Invoked by {@link ChunkManager} when it revokes the chunk.
+	 * 
+	 * @param player   the player
+	 * @param chunkPos the position of the chunk
+	 */
+	public void onChunkHidden(Player player, Vec3i chunkPos) {
+		synchronized (visions) {
+			PlayerVision vision = getVision(player, false);
+			if (vision == null)
+				return;
+
+			index.forEachEntityIn(CoordinatePacker.pack3IntsIntoLong(chunkPos), entityId -> {
+				vision.queueRevoke(entityId);
+				return true;
+			});
+		}
+	}
+
+	private boolean isChunkVisible(Player player, long chunk) {
+		Vec3i v = Vectors.grab3i();
+		boolean result = server.getChunkManager().isChunkVisible(CoordinatePacker.unpack3IntsFromLong(chunk, v), player);
+		Vectors.release(v);
+		return result;
 	}
 
 	private void processQueues() {
@@ -153,8 +280,11 @@ public class EntityManager {
 		PacketSendEntity packet = new PacketSendEntity();
 		packet.set(entity);
 		player.getClient().sendPacket(packet);
+		packet.release();
 
-		getVision(player, true).visible.add(entityId);
+		PlayerVision vision = getVision(player, true);
+		vision.visible.add(entityId);
+		vision.baselines.put(entityId, new EntityBaseline(entity));
 	}
 
 	public void revokeEntity(Player player, long entityId) {
@@ -165,6 +295,7 @@ public class EntityManager {
 		PlayerVision vision = getVision(player, false);
 		if (vision != null) {
 			vision.visible.remove(entityId);
+			vision.baselines.remove(entityId);
 		}
 	}
 
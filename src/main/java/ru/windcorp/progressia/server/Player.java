@@ -51,28 +51,31 @@ public class Player extends PlayerData implements ChunkLoader {
 
 	@Override
 	public void requestChunksToLoad(Consumer<Vec3i> chunkConsumer) {
-		Vec3i start = getEntity().getPosition().round_();
-		Coordinates.convertInWorldToChunk(start, start);
-
-		Vec3i cursor = new Vec3i();
-		float radius = getServer().getLoadDistance(this) / Units.get(ChunkData.BLOCKS_PER_CHUNK, "m");
-
-		float radiusSq = radius * radius;
-		int iRadius = (int) Math.ceil(radius);
-
-		for (cursor.x = -iRadius; cursor.x <= +iRadius; ++cursor.x) {
-			for (cursor.y = -iRadius; cursor.y <= +iRadius; ++cursor.y) {
-				for (cursor.z = -iRadius; cursor.z <= +iRadius; ++cursor.z) {
-					if (cursor.x * cursor.x + cursor.y * cursor.y + (cursor.z * 2) * (cursor.z * 2) <= radiusSq) {
+		getLoadSphere().forEach(getChunkPos(null), chunkConsumer);
+	}
 
-						cursor.add(start);
-						chunkConsumer.accept(cursor);
-						cursor.sub(start);
+	/**
+	 * Returns the position of the chunk that contains this player.
+	 * 
+	 * @param output the vector to store the result in, or {@code null}
+	 * @return the chunk position
+	 */
+	public Vec3i getChunkPos(Vec3i output) {
+		if (output == null)
+			output = new Vec3i();
+
+		getEntity().getPosition().round(output);
+		return Coordinates.convertInWorldToChunk(output, output);
+	}
 
-					}
-				}
-			}
-		}
+	/**
+	 * Returns the chunks around {@link #getChunkPos(Vec3i)} that this player
+	 * needs loaded.
+	 * 
+	 * @return the load sphere
+	 */
+	public ChunkSphere getLoadSphere() {
+		return ChunkSphere.get(getServer().getLoadDistance(this) / Units.get(ChunkData.BLOCKS_PER_CHUNK, "m"));
 	}
 
 	public String getLogin() {
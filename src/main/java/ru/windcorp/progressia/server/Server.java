@@ -18,6 +18,10 @@
 
 package ru.windcorp.progressia.server;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.function.Consumer;
 
 import org.apache.logging.log4j.LogManager;
@@ -25,9 +29,14 @@ import org.apache.logging.log4j.LogManager;
 import ru.windcorp.jputil.functions.ThrowingRunnable;
 import ru.windcorp.progressia.common.Units;
 import ru.windcorp.progressia.common.util.TaskQueue;
+import ru.windcorp.progressia.common.util.crash.CrashReports;
 import ru.windcorp.progressia.common.world.WorldData;
 import ru.windcorp.progressia.server.comms.ClientManager;
+import ru.windcorp.progressia.server.comms.net.NetServer;
+import ru.windcorp.progressia.server.profiling.TickProfiler;
 import ru.windcorp.progressia.server.world.WorldLogic;
+import ru.windcorp.progressia.server.world.io.AsyncChunkStorage;
+import ru.windcorp.progressia.server.world.io.RegionStorage;
 import ru.windcorp.progressia.server.world.tasks.WorldAccessor;
 import ru.windcorp.progressia.server.world.ticking.Change;
 import ru.windcorp.progressia.server.world.ticking.Evaluation;
@@ -48,31 +57,80 @@ public class Server {
 	private final WorldLogic world;
 	private final WorldAccessor worldAccessor = new WorldAccessor(this);
 
+	/**
+	 * Persists the chunks of the world; {@code null} if the world is not
+	 * saved
+	 */
+	private final AsyncChunkStorage storage;
+
 	private final ServerThread serverThread;
 
+	/**
+	 * Accepts network clients; {@code null} unless the
+	 * {@code progressia.port} system property is set
+	 */
+	private NetServer netServer = null;
+
 	private final ClientManager clientManager;
 	private final PlayerManager playerManager;
 	private final ChunkManager chunkManager;
 	private final EntityManager entityManager;
+	private final ChunkChangeBatcher chunkChangeBatcher;
 
 	private final TaskQueue taskQueue = new TaskQueue(this::isServerThread);
 
 	private final TickingSettings tickingSettings = new TickingSettings();
+	private final TickProfiler tickProfiler = new TickProfiler(tickingSettings.getTickPeriod());
 
+	/**
+	 * Creates a server that saves its world into the directory named by the
+	 * {@code progressia.world} system property, or does not save the world
+	 * if the property is not set.
+	 * 
+	 * @param world the world to operate on
+	 */
 	public Server(WorldData world) {
+		this(world, getDefaultWorldDirectory());
+	}
+
+	/**
+	 * Creates a server.
+	 * 
+	 * @param world          the world to operate on
+	 * @param worldDirectory the directory to save the world into, or
+	 *                       {@code null} if the world should not be saved
+	 */
+	public Server(WorldData world, Path worldDirectory) {
 		this.world = new WorldLogic(world, this, TestWorldGenerator::new);
+
+		if (worldDirectory == null) {
+			this.storage = null;
+		} else {
+			this.storage = new AsyncChunkStorage(
+				new RegionStorage(worldDirectory, this.world.getGenerator()),
+				tickingSettings.getIoThreadCount(),
+				AsyncChunkStorage.DEFAULT_QUEUE_CAPACITY
+			);
+		}
+
 		this.serverThread = new ServerThread(this);
 
 		this.clientManager = new ClientManager(this);
 		this.playerManager = new PlayerManager(this);
 		this.chunkManager = new ChunkManager(this);
 		this.entityManager = new EntityManager(this);
+		this.chunkChangeBatcher = new ChunkChangeBatcher(this);
 
 		schedule(this::scheduleWorldTicks);
 		schedule(chunkManager::tick);
 		schedule(entityManager::tick);
 	}
 
+	private static Path getDefaultWorldDirectory() {
+		String directory = System.getProperty("progressia.world");
+		return directory == null ? null : Paths.get(directory);
+	}
+
 	/**
 	 * Returns this server's world.
 	 * 
@@ -100,6 +158,24 @@ public class Server {
 		return chunkManager;
 	}
 
+	public EntityManager getEntityManager() {
+		return entityManager;
+	}
+
+	public ChunkChangeBatcher getChunkChangeBatcher() {
+		return chunkChangeBatcher;
+	}
+
+	/**
+	 * Returns the storage that persists this server's chunks.
+	 * 
+	 * @return the {@link AsyncChunkStorage} of this server, or {@code null} if
+	 *         the world is not saved
+	 */
+	public AsyncChunkStorage getStorage() {
+		return storage;
+	}
+
 	/**
 	 * Checks if this thread is the main thread of this server.
 	 * 
@@ -170,15 +246,50 @@ public class Server {
 	}
 
 	/**
-	 * Returns the duration of the last server tick. Server logic should assume
-	 * that this much in-world time has passed.
+	 * Requests an evaluation unless an equivalent one is already pending.
 	 * 
-	 * @return the length of the last server tick
+	 * @param evaluation    the evaluation to request
+	 * @param coalescingKey the key that identifies equivalent evaluations
+	 * @see ru.windcorp.progressia.server.world.ticking.TickerCoordinator#requestEvaluation(Evaluation,
+	 *      long)
+	 */
+	public void requestEvaluation(Evaluation evaluation, long coalescingKey) {
+		serverThread.getTicker().requestEvaluation(evaluation, coalescingKey);
+	}
+
+	/**
+	 * Returns the in-world duration of a server tick. Server logic should
+	 * assume that this much in-world time has passed since the previous tick.
+	 * This is a fixed timestep that does not depend on how long ticks take.
+	 * 
+	 * @return the length of a server tick
 	 */
 	public double getTickLength() {
 		return this.serverThread.getTicker().getTickLength();
 	}
 
+	/**
+	 * Returns how late the last server tick started relative to its schedule.
+	 * 
+	 * @return the tick lag in nanoseconds
+	 * @see TickScheduler#getLag()
+	 */
+	public long getTickLag() {
+		return this.serverThread.getScheduler().getLag();
+	}
+
+	/**
+	 * Checks whether the server is falling behind its tick schedule. Periodic
+	 * work that can be postponed without consequence, such as random ticks,
+	 * should be skipped while this method returns {@code true}.
+	 * 
+	 * @return {@code true} iff the server is overloaded
+	 * @see TickScheduler#isOverloaded()
+	 */
+	public boolean isOverloaded() {
+		return this.serverThread.getScheduler().isOverloaded();
+	}
+
 	public double getTPS() {
 		return this.serverThread.getTicker().getTPS();
 	}
@@ -217,6 +328,15 @@ public class Server {
 		return tickingSettings;
 	}
 
+	/**
+	 * Returns the profiler that records the timings of this server's ticks.
+	 * 
+	 * @return the {@link TickProfiler} of this server
+	 */
+	public TickProfiler getTickProfiler() {
+		return tickProfiler;
+	}
+
 	public float getLoadDistance(Player player) {
 		return Units.get(150.0f, "m");
 	}
@@ -227,13 +347,25 @@ public class Server {
 	 */
 	public void start() {
 		this.serverThread.start();
+
+		Integer port = Integer.getInteger("progressia.port");
+		if (port != null) {
+			try {
+				this.netServer = new NetServer(this);
+				this.netServer.bind(new InetSocketAddress(port));
+			} catch (IOException e) {
+				throw CrashReports.report(e, "Could not listen at port %d", port);
+			}
+		}
 	}
 
 	/**
 	 * Performs the tasks from tasks queues and repeating tasks.
 	 */
 	public void tick() {
-		taskQueue.runTasks();
+		long start = System.nanoTime();
+		int tasks = taskQueue.runTasks();
+		tickProfiler.recordServerTasks(System.nanoTime() - start, tasks);
 	}
 
 	/**
@@ -247,6 +379,20 @@ public class Server {
 	public void shutdown(String message) {
 		LogManager.getLogger().warn("Server.shutdown() is not yet implemented");
 		serverThread.stop();
+
+		if (netServer != null) {
+			netServer.close();
+		}
+
+		chunkManager.shutdown();
+
+		if (storage != null) {
+			try {
+				storage.close();
+			} catch (IOException e) {
+				LogManager.getLogger().error("Could not close world storage", e);
+			}
+		}
 	}
 
 	private void scheduleWorldTicks(Server server) {
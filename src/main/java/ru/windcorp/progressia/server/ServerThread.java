@@ -19,6 +19,7 @@
 package ru.windcorp.progressia.server;
 
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
@@ -56,28 +57,62 @@ public class ServerThread implements Runnable {
 	);
 
 	private final TickerCoordinator ticker;
+	private final TickScheduler scheduler;
 
 	public ServerThread(Server server) {
 		this.server = server;
-		this.ticker = new TickerCoordinator(server, 1);
+		this.ticker = new TickerCoordinator(server, server.getTickingSettings().getTickerCount());
+		this.scheduler = new TickScheduler(server.getTickingSettings());
 	}
 
 	public void start() {
 		ticker.start();
-		executor.scheduleAtFixedRate(this, 0, 1000 / 20, TimeUnit.MILLISECONDS);
+		executor.execute(this);
 	}
 
 	@Override
 	public void run() {
 		try {
+			long start = System.nanoTime();
+
+			long dropped = scheduler.onTickStart(start);
+			if (dropped != 0) {
+				LogManager.getLogger().warn(
+					"Server is overloaded: dropped {} ticks ({} ms behind)",
+					dropped,
+					dropped * scheduler.getPeriod() / 1_000_000
+				);
+			}
+			server.getTickProfiler().recordLag(scheduler.getLag());
+
 			server.tick();
 			ticker.runOneTick();
+			server.getChunkChangeBatcher().flush();
+			server.getClientManager().flushClients();
+
+			long end = System.nanoTime();
+			server.getTickProfiler().recordTick(end - start);
+
+			scheduleNextTick(end);
 		} catch (Throwable e) {
 			CrashReports.crash(e, "Got a throwable in the server thread");
 		}
 	}
 
+	private void scheduleNextTick(long now) {
+		if (executor.isShutdown())
+			return;
+
+		try {
+			executor.schedule(this, scheduler.getDelay(now), TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shut down concurrently; do nothing
+		}
+	}
+
 	public void stop() {
+		executor.shutdown();
+
 		try {
 			executor.awaitTermination(10, TimeUnit.MINUTES);
 		} catch (InterruptedException e) {
@@ -95,4 +130,8 @@ public class ServerThread implements Runnable {
 		return ticker;
 	}
 
+	public TickScheduler getScheduler() {
+		return scheduler;
+	}
+
 }
@@ -0,0 +1,153 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server;
+
+/**
+ * Decides when server ticks should start. Ticks are scheduled on a fixed
+ * grid of {@linkplain TickingSettings#getTickPeriod() tick periods}: a tick
+ * that overruns delays the following ticks, which then run back to back until
+ * the server catches up with the grid.
+ * <p>
+ * Catching up is bounded. When the server falls behind by more than
+ * {@link TickingSettings#getMaxCatchUpTicks()} ticks, the excess ticks are
+ * dropped so that a single slow tick cannot cause an ever-growing backlog.
+ * While the server is behind by at least a whole tick it is considered
+ * {@linkplain #isOverloaded() overloaded}, and non-essential work may be shed.
+ * <p>
+ * All times are {@link System#nanoTime()} values. This class is not
+ * thread-safe; it is used by the server thread only, except for the
+ * volatile metrics.
+ */
+public class TickScheduler {
+
+	private final long period;
+	private final int maxCatchUpTicks;
+
+	private boolean started = false;
+
+	/**
+	 * The time the next tick is scheduled to start at
+	 */
+	private long nextTick;
+
+	private volatile long lag = 0;
+	private volatile long droppedTicks = 0;
+
+	public TickScheduler(long period, int maxCatchUpTicks) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive, got " + period);
+		}
+
+		if (maxCatchUpTicks < 0) {
+			throw new IllegalArgumentException("maxCatchUpTicks must not be negative, got " + maxCatchUpTicks);
+		}
+
+		this.period = period;
+		this.maxCatchUpTicks = maxCatchUpTicks;
+	}
+
+	public TickScheduler(TickingSettings settings) {
+		this(settings.getTickPeriod(), settings.getMaxCatchUpTicks());
+	}
+
+	/**
+	 * Registers the start of a tick and advances the schedule.
+	 * 
+	 * @param now the current time
+	 * @return the number of ticks dropped to limit catch-up
+	 */
+	public long onTickStart(long now) {
+		if (!started) {
+			started = true;
+			nextTick = now;
+		}
+
+		long currentLag = now - nextTick;
+		long dropped = 0;
+
+		if (currentLag > 0) {
+			long behind = currentLag / period;
+			if (behind > maxCatchUpTicks) {
+				dropped = behind - maxCatchUpTicks;
+				nextTick += dropped * period;
+				currentLag -= dropped * period;
+				droppedTicks += dropped;
+			}
+		} else {
+			currentLag = 0;
+		}
+
+		this.lag = currentLag;
+		nextTick += period;
+
+		return dropped;
+	}
+
+	/**
+	 * Computes how long to wait before starting the next tick.
+	 * 
+	 * @param now the current time
+	 * @return the delay in nanoseconds, or 0 if the next tick is due
+	 */
+	public long getDelay(long now) {
+		if (!started)
+			return 0;
+
+		return Math.max(0, nextTick - now);
+	}
+
+	public long getPeriod() {
+		return period;
+	}
+
+	public int getMaxCatchUpTicks() {
+		return maxCatchUpTicks;
+	}
+
+	/**
+	 * Returns how late the current or last tick started relative to its
+	 * scheduled time, after dropped ticks are accounted for.
+	 * 
+	 * @return the tick lag in nanoseconds
+	 */
+	public long getLag() {
+		return lag;
+	}
+
+	/**
+	 * Checks whether the server is behind the schedule by at least one whole
+	 * tick. Work that can be postponed without breaking the game should be
+	 * skipped while this is the case.
+	 * 
+	 * @return {@code true} iff non-essential work should be shed
+	 */
+	public boolean isOverloaded() {
+		return lag >= period;
+	}
+
+	/**
+	 * Returns the total number of ticks that were dropped to limit catch-up.
+	 * 
+	 * @return dropped tick count
+	 */
+	public long getDroppedTicks() {
+		return droppedTicks;
+	}
+
+}
@@ -18,12 +18,48 @@
  
 package ru.windcorp.progressia.server;
 
+import java.util.concurrent.TimeUnit;
+
 import ru.windcorp.progressia.common.Units;
 
 public class TickingSettings {
 
 	private float randomTickFrequency = Units.get("1 min^-1");
 
+	private final long randomTickSeed = Long.getLong("progressia.seed", 0);
+
+	/*
+	 * Tickers, world generation and chunk I/O all run at the same time, so
+	 * they share the processors instead of each sizing itself to all of them
+	 */
+	private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+	private final int generationThreadCount = Math.max(
+		1,
+		Integer.getInteger("progressia.generationThreads", PROCESSORS / 4)
+	);
+
+	private final int ioThreadCount = Math.max(
+		1,
+		Integer.getInteger("progressia.ioThreads", Math.min(2, PROCESSORS / 8))
+	);
+
+	private final int tickerCount = Math.max(
+		1,
+		Math.min(
+			PROCESSORS,
+			Integer.getInteger("progressia.tickers", PROCESSORS - generationThreadCount - ioThreadCount)
+		)
+	);
+
+	private final long tickPeriod = TimeUnit.MILLISECONDS.toNanos(1000 / 20);
+
+	private final int maxCatchUpTicks = 4;
+
+	private final int maxShedTicks = 10;
+
+	private final int maxPassesPerTick = Math.max(1, Integer.getInteger("progressia.maxPasses", 32));
+
 	/**
 	 * Returns the average rate of random ticks in a single block.
 	 * 
@@ -33,4 +69,111 @@ public class TickingSettings {
 		return randomTickFrequency;
 	}
 
+	/**
+	 * Returns the seed of the random tick streams. Random ticks depend only
+	 * on this seed, the chunk, the tick number and the state of the world.
+	 * The tick number counts ticks since the server started and is not
+	 * persisted, so random ticks are reproducible only within a single
+	 * session: a server started with the same seed from the same world
+	 * replays the same ticks, but a restarted server does not continue the
+	 * previous streams. Set with the {@code progressia.seed} system property;
+	 * defaults to 0.
+	 * 
+	 * @return random tick seed
+	 */
+	public long getRandomTickSeed() {
+		return randomTickSeed;
+	}
+
+	/**
+	 * Returns the number of ticker threads that execute world tasks in
+	 * parallel. Set with the {@code progressia.tickers} system property;
+	 * defaults to the processors that are not used by
+	 * {@linkplain #getGenerationThreadCount() generation} and
+	 * {@linkplain #getIoThreadCount() I/O} threads. Never exceeds the number
+	 * of available processors.
+	 * 
+	 * @return ticker count, at least 1
+	 */
+	public int getTickerCount() {
+		return tickerCount;
+	}
+
+	/**
+	 * Returns the number of threads that generate chunks. Set with the
+	 * {@code progressia.generationThreads} system property; defaults to a
+	 * quarter of the available processors.
+	 * 
+	 * @return generation thread count, at least 1
+	 */
+	public int getGenerationThreadCount() {
+		return generationThreadCount;
+	}
+
+	/**
+	 * Returns the number of threads that load and save chunks. Set with the
+	 * {@code progressia.ioThreads} system property; defaults to one thread per
+	 * eight available processors, but no more than two.
+	 * 
+	 * @return chunk I/O thread count, at least 1
+	 */
+	public int getIoThreadCount() {
+		return ioThreadCount;
+	}
+
+	/**
+	 * Returns the intended interval between the starts of consecutive server
+	 * ticks. A tick that takes longer than this is an overrun.
+	 * 
+	 * @return tick period in nanoseconds
+	 */
+	public long getTickPeriod() {
+		return tickPeriod;
+	}
+
+	/**
+	 * Returns the duration of in-world time that passes during a single
+	 * tick. This is the {@linkplain #getTickPeriod() tick period} regardless
+	 * of how long ticks actually take.
+	 * 
+	 * @return simulation timestep
+	 */
+	public double getTickLength() {
+		return tickPeriod / 1e9 * Units.SECONDS;
+	}
+
+	/**
+	 * Returns the maximum number of overdue ticks the server runs back to
+	 * back to catch up with the schedule. Ticks beyond this are dropped.
+	 * 
+	 * @return maximum catch-up ticks
+	 * @see TickScheduler
+	 */
+	public int getMaxCatchUpTicks() {
+		return maxCatchUpTicks;
+	}
+
+	/**
+	 * Returns the maximum number of consecutive ticks during which deferrable
+	 * periodic work, such as entity visibility updates, may be skipped while
+	 * the server is {@linkplain TickScheduler#isOverloaded() overloaded}.
+	 * 
+	 * @return maximum consecutive shed ticks
+	 */
+	public int getMaxShedTicks() {
+		return maxShedTicks;
+	}
+
+	/**
+	 * Returns the maximum number of evaluation and change passes in a single
+	 * tick. Evaluations that are still pending once this limit is reached
+	 * are deferred to the next tick. Set with the {@code progressia.maxPasses}
+	 * system property; defaults to 32.
+	 * 
+	 * @return maximum passes per tick, at least 1
+	 */
+	public int getMaxPassesPerTick() {
+		return maxPassesPerTick;
+	}
+
 }
@@ -32,6 +32,54 @@ public abstract class Client extends CommsChannel {
 		return id;
 	}
 
+	/**
+	 * Writes out the packets that have been queued for this client since the
+	 * last invocation. Invoked in the server thread once per tick by
+	 * {@link ClientManager#flushClients()}.
+	 * <p>
+	 * Clients that deliver packets immediately do not queue anything; the
+	 * default implementation does nothing.
+	 */
+	public void flushPackets() {
+		// Do nothing
+	}
+
+	/**
+	 * Returns the number of packets queued for this client.
+	 * 
+	 * @return queue depth in packets
+	 */
+	public int getQueuedPackets() {
+		return 0;
+	}
+
+	/**
+	 * Returns the total size of packets queued for this client.
+	 * 
+	 * @return queue depth in bytes
+	 */
+	public long getQueuedBytes() {
+		return 0;
+	}
+
+	/**
+	 * Returns the number of packets that have been flushed to this client.
+	 * 
+	 * @return total packet count
+	 */
+	public long getPacketsSent() {
+		return 0;
+	}
+
+	/**
+	 * Returns the number of bytes that have been flushed to this client.
+	 * 
+	 * @return total byte count
+	 */
+	public long getBytesSent() {
+		return 0;
+	}
+
 	@Override
 	public String toString() {
 		return getClass().getSimpleName() + " " + id;
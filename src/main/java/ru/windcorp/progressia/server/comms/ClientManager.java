@@ -88,6 +88,16 @@ public class ClientManager {
 		clientsById.remove(client.getId());
 	}
 
+	/**
+	 * Flushes the outbound packet queues of all clients. Invoked in the server
+	 * thread at the end of each tick.
+	 * 
+	 * @see Client#flushPackets()
+	 */
+	public void flushClients() {
+		getClients().forEach(Client::flushPackets);
+	}
+
 	/**
 	 * Sends the provided packet to all connected player clients.
 	 * 
@@ -0,0 +1,283 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.comms.net;
+
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ru.windcorp.progressia.common.comms.net.NetConnection;
+import ru.windcorp.progressia.common.comms.net.PacketHandshake;
+import ru.windcorp.progressia.common.comms.packets.Packet;
+import ru.windcorp.progressia.common.comms.packets.PacketRegistry;
+import ru.windcorp.progressia.server.Server;
+import ru.windcorp.progressia.server.comms.ClientPlayer;
+
+/**
+ * A player client connected over the network. The client stays
+ * {@linkplain State#CONNECTING connecting} until it sends a valid
+ * {@link PacketHandshake}; it is then added to the
+ * {@link ru.windcorp.progressia.server.comms.ClientManager ClientManager}.
+ * <p>
+ * Received packets are relayed to the listeners in the server thread.
+ * <p>
+ * Outbound packets are encoded in the sending thread and appended to a
+ * lock-free {@link OutboundQueue}, which the server drains into the connection
+ * once per tick. At most {@link #getByteBudget() byte budget} bytes are
+ * drained per tick, and nothing is drained while the socket backlog of the
+ * connection exceeds twice the budget, so a slow client is throttled without
+ * blocking the server. A client that stays throttled for
+ * {@link #MAX_THROTTLED_TICKS} ticks or lets its queue overflow is
+ * disconnected.
+ */
+public class NetClient extends ClientPlayer {
+
+	private static final Logger LOG = LogManager.getLogger("Net Client");
+
+	/**
+	 * 256 KiB per tick, or 5 MiB/s at 20 TPS
+	 */
+	public static final int DEFAULT_BYTE_BUDGET = 256 * 1024;
+
+	public static final long QUEUE_CAPACITY = 64 * 1024 * 1024;
+
+	/**
+	 * 30 seconds at 20 TPS
+	 */
+	public static final int MAX_THROTTLED_TICKS = 600;
+
+	private final Server server;
+	private NetConnection connection;
+
+	private volatile String login = null;
+	private boolean added = false;
+
+	private final OutboundQueue outbound = new OutboundQueue(QUEUE_CAPACITY);
+	private volatile int byteBudget = DEFAULT_BYTE_BUDGET;
+	private int throttledTicks = 0;
+
+	private final NetConnection.Handler handler = new NetConnection.Handler() {
+		@Override
+		public void onPacketReceived(Packet packet) {
+			onNetPacketReceived(packet);
+		}
+
+		@Override
+		public void onClosed(IOException reason) {
+			onConnectionClosed(reason);
+		}
+	};
+
+	public NetClient(int id, Server server) {
+		super(id);
+		this.server = server;
+	}
+
+	NetConnection.Handler getHandler() {
+		return handler;
+	}
+
+	void setConnection(NetConnection connection) {
+		this.connection = connection;
+	}
+
+	public NetConnection getConnection() {
+		return connection;
+	}
+
+	@Override
+	public String getLogin() {
+		return login;
+	}
+
+	public int getByteBudget() {
+		return byteBudget;
+	}
+
+	/**
+	 * Sets the maximum number of bytes sent to this client per tick.
+	 * 
+	 * @param byteBudget the budget in bytes
+	 */
+	public void setByteBudget(int byteBudget) {
+		if (byteBudget <= 0) {
+			throw new IllegalArgumentException("byteBudget must be positive, got " + byteBudget);
+		}
+		this.byteBudget = byteBudget;
+	}
+
+	@Override
+	protected void doSendPacket(Packet packet) throws IOException {
+		if (connection.isClosed())
+			return;
+
+		// Overflow is handled in flushPackets()
+		outbound.add(NetConnection.encodeFrame(packet, connection.getRegistry()));
+	}
+
+	@Override
+	public void flushPackets() {
+		if (connection.isClosed())
+			return;
+
+		if (outbound.isOverflowed()) {
+			LOG.warn(
+				"{} could not keep up: more than {} bytes queued, disconnecting",
+				this,
+				outbound.getCapacity()
+			);
+			connection.close();
+			return;
+		}
+
+		int budget = byteBudget;
+
+		if (connection.getPendingBytes() > 2L * budget) {
+			throttledTicks++;
+
+			if (throttledTicks >= MAX_THROTTLED_TICKS) {
+				LOG.warn(
+					"{} has not accepted data for {} ticks ({} bytes pending), disconnecting",
+					this,
+					throttledTicks,
+					connection.getPendingBytes()
+				);
+				connection.close();
+			}
+
+			return;
+		}
+
+		throttledTicks = 0;
+
+		try {
+			if (outbound.drain(connection::sendFrame, budget) != 0) {
+				connection.requestFlush();
+			}
+		} catch (IOException e) {
+			// Connection closed concurrently; handled by onConnectionClosed
+		}
+	}
+
+	/**
+	 * Returns the number of consecutive ticks for which this client has been
+	 * throttled because its socket backlog was too large.
+	 * 
+	 * @return throttled tick count
+	 */
+	public int getThrottledTicks() {
+		return throttledTicks;
+	}
+
+	@Override
+	public int getQueuedPackets() {
+		return outbound.getQueuedFrames();
+	}
+
+	@Override
+	public long getQueuedBytes() {
+		return outbound.getQueuedBytes();
+	}
+
+	@Override
+	public long getPacketsSent() {
+		return outbound.getFramesSent();
+	}
+
+	@Override
+	public long getBytesSent() {
+		return outbound.getBytesSent();
+	}
+
+	@Override
+	public void disconnect() {
+		connection.close();
+	}
+
+	private void onNetPacketReceived(Packet packet) {
+		if (getState() == State.CONNECTING) {
+			onHandshake(packet);
+			return;
+		}
+
+		server.invokeLater(() -> {
+			onPacketReceived(packet);
+			packet.release();
+		});
+	}
+
+	private void onHandshake(Packet packet) {
+		if (!(packet instanceof PacketHandshake)) {
+			LOG.warn("{} sent {} instead of a handshake, disconnecting", this, packet.getId());
+			connection.close();
+			return;
+		}
+
+		PacketHandshake handshake = (PacketHandshake) packet;
+
+		if (handshake.getFingerprint() != PacketRegistry.getInstance().getFingerprint()) {
+			LOG.warn("{} has incompatible packets, disconnecting", this);
+			connection.close();
+			return;
+		}
+
+		if (handshake.getContentFingerprint() != PacketHandshake.getLocalContentFingerprint()) {
+			LOG.warn("{} has incompatible blocks or tiles, disconnecting", this);
+			connection.close();
+			return;
+		}
+
+		if (handshake.getLogin().isEmpty()) {
+			LOG.warn("{} sent an empty login, disconnecting", this);
+			connection.close();
+			return;
+		}
+
+		this.login = handshake.getLogin();
+		setState(State.CONNECTED);
+
+		LOG.info("{} has connected as {}", this, login);
+
+		server.invokeLater(() -> {
+			if (getState() != State.CONNECTED)
+				return;
+			added = true;
+			server.getClientManager().addClient(this);
+		});
+	}
+
+	private void onConnectionClosed(IOException reason) {
+		setState(State.DISCONNECTED);
+		outbound.clear();
+
+		if (reason != null) {
+			LOG.warn("{} has been disconnected due to an error", this, reason);
+		} else {
+			LOG.info("{} has disconnected", this);
+		}
+
+		server.invokeLater(() -> {
+			if (added) {
+				server.getClientManager().disconnectClient(this);
+			}
+		});
+	}
+
+}
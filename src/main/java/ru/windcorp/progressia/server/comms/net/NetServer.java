@@ -0,0 +1,103 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.comms.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ru.windcorp.progressia.common.comms.net.NetConnection;
+import ru.windcorp.progressia.common.comms.net.NetEventLoop;
+import ru.windcorp.progressia.common.comms.packets.PacketRegistry;
+import ru.windcorp.progressia.server.Server;
+
+/**
+ * Accepts network clients of a {@link Server}. All connections are served by
+ * a single {@link NetEventLoop}.
+ */
+public class NetServer implements Closeable {
+
+	private static final Logger LOG = LogManager.getLogger("Net Server");
+
+	private final Server server;
+	private final NetEventLoop loop;
+
+	private ServerSocketChannel socket = null;
+
+	public NetServer(Server server) throws IOException {
+		this.server = server;
+		this.loop = new NetEventLoop("Server network loop");
+	}
+
+	/**
+	 * Starts accepting clients at the provided address.
+	 * 
+	 * @param address the local address to listen at
+	 * @throws IOException if the socket could not be bound
+	 */
+	public synchronized void bind(SocketAddress address) throws IOException {
+		if (socket != null)
+			throw new IllegalStateException("Already bound to " + socket.getLocalAddress());
+
+		socket = ServerSocketChannel.open();
+		socket.bind(address);
+
+		loop.start();
+		loop.listen(socket, this::accept);
+
+		LOG.info("Listening at {}", socket.getLocalAddress());
+	}
+
+	public synchronized SocketAddress getAddress() throws IOException {
+		return socket == null ? null : socket.getLocalAddress();
+	}
+
+	public NetEventLoop getLoop() {
+		return loop;
+	}
+
+	private void accept(SocketChannel channel) throws IOException {
+		NetClient client = new NetClient(server.getClientManager().grabClientId(), server);
+		NetConnection connection = new NetConnection(
+			channel,
+			loop,
+			PacketRegistry.getInstance(),
+			client.getHandler()
+		);
+
+		client.setConnection(connection);
+		connection.start();
+
+		LOG.debug("Accepted {}", connection);
+	}
+
+	/**
+	 * Stops accepting clients and closes all connections.
+	 */
+	@Override
+	public void close() {
+		loop.close();
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.comms.net;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free queue of encoded frames bound for a single client.
+ * <p>
+ * Frames may be {@linkplain #add(byte[]) added} from any thread. A single
+ * consumer {@linkplain #drain(FrameSink, long) drains} the queue, normally once
+ * per tick, subject to a byte budget; frames that do not fit into the budget
+ * stay queued in order. When the queued frames exceed the capacity of the
+ * queue, further frames are rejected and the queue is marked as
+ * {@linkplain #isOverflowed() overflowed}.
+ */
+public class OutboundQueue {
+
+	@FunctionalInterface
+	public static interface FrameSink {
+		void write(byte[] frame) throws IOException;
+	}
+
+	private final Queue<byte[]> frames = new ConcurrentLinkedQueue<>();
+
+	private final long capacity;
+
+	private final AtomicInteger queuedFrames = new AtomicInteger(0);
+	private final AtomicLong queuedBytes = new AtomicLong(0);
+
+	private volatile boolean overflowed = false;
+
+	/*
+	 * Written by the consumer only
+	 */
+	private volatile long framesSent = 0;
+	private volatile long bytesSent = 0;
+
+	/**
+	 * Creates a new queue.
+	 * 
+	 * @param capacity the maximum total size of queued frames in bytes
+	 */
+	public OutboundQueue(long capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+		}
+
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Enqueues the provided frame unless the queue is full.
+	 * 
+	 * @param frame the frame to enqueue; must not be modified afterwards
+	 * @return {@code true} if the frame has been enqueued, {@code false} if it
+	 *         has been rejected because the queue has overflowed
+	 */
+	public boolean add(byte[] frame) {
+		if (overflowed)
+			return false;
+
+		if (queuedBytes.addAndGet(frame.length) > capacity) {
+			queuedBytes.addAndGet(-frame.length);
+			overflowed = true;
+			return false;
+		}
+
+		queuedFrames.incrementAndGet();
+		frames.add(frame);
+		return true;
+	}
+
+	/**
+	 * Passes queued frames to the sink in order until the queue is empty or
+	 * the budget is exhausted. At least one frame is drained if the queue is
+	 * not empty, so frames larger than the budget are not stuck forever.
+	 * 
+	 * @param sink   the consumer of the frames
+	 * @param budget the maximum number of bytes to drain
+	 * @return the number of bytes drained
+	 * @throws IOException if the sink throws; the frame that caused the
+	 *                     exception is discarded
+	 */
+	public long drain(FrameSink sink, long budget) throws IOException {
+		long drained = 0;
+		long count = 0;
+
+		try {
+			byte[] frame;
+			while ((frame = frames.peek()) != null) {
+				if (drained != 0 && drained + frame.length > budget)
+					break;
+
+				frames.poll();
+				queuedFrames.decrementAndGet();
+				queuedBytes.addAndGet(-frame.length);
+
+				drained += frame.length;
+				count++;
+
+				sink.write(frame);
+			}
+		} finally {
+			framesSent += count;
+			bytesSent += drained;
+		}
+
+		return drained;
+	}
+
+	/**
+	 * Discards all queued frames.
+	 */
+	public void clear() {
+		while (frames.poll() != null) {
+			queuedFrames.decrementAndGet();
+		}
+		queuedBytes.set(0);
+	}
+
+	public boolean isOverflowed() {
+		return overflowed;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public int getQueuedFrames() {
+		return queuedFrames.get();
+	}
+
+	public long getQueuedBytes() {
+		return queuedBytes.get();
+	}
+
+	public long getFramesSent() {
+		return framesSent;
+	}
+
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+}
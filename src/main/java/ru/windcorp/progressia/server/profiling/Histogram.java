@@ -0,0 +1,188 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.profiling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative {@code long} values, such as durations
+ * in nanoseconds.
+ * <p>
+ * Values are counted in buckets of exponentially increasing width: each power
+ * of two is split into {@link #SUB_BUCKETS} buckets, so percentiles are
+ * reported with a relative error under {@code 1 / SUB_BUCKETS}. Values below
+ * {@code SUB_BUCKETS} are counted exactly.
+ * <p>
+ * {@link #record(long)} may be called concurrently from any thread. Queries
+ * are not atomic with respect to concurrent recording and may reflect some of
+ * the values being recorded.
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final String name;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public Histogram(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Records the provided value. Negative values are recorded as zero.
+	 * 
+	 * @param value the value to record
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+
+		buckets.incrementAndGet(getBucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax;
+		while (value > (currentMax = max.get())) {
+			if (max.compareAndSet(currentMax, value))
+				break;
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = getCount();
+		return n == 0 ? 0 : (double) getSum() / n;
+	}
+
+	/**
+	 * Returns an upper estimate of the value below which the provided fraction
+	 * of recorded values lie.
+	 * 
+	 * @param fraction the fraction in {@code [0; 1]}, e.g. {@code 0.99} for the
+	 *                 99th percentile
+	 * @return the upper bound of the bucket that contains the requested
+	 *         percentile, but no more than {@link #getMax()}; 0 if no values
+	 *         have been recorded
+	 */
+	public long getPercentile(double fraction) {
+		if (fraction < 0 || fraction > 1) {
+			throw new IllegalArgumentException("fraction must be in [0; 1], got " + fraction);
+		}
+
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			total += buckets.get(i);
+		}
+
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(getBucketUpperBound(i), getMax());
+			}
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Discards all recorded values. Values recorded concurrently with this
+	 * call may be partially discarded.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			buckets.set(i, 0);
+		}
+
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int getBucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long getBucketLowerBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int shift = bucket / SUB_BUCKETS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+
+		return (SUB_BUCKETS + subBucket) << shift;
+	}
+
+	static long getBucketUpperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int shift = bucket / SUB_BUCKETS - 1;
+		return getBucketLowerBound(bucket) + (1L << shift) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"%s: n=%d, mean=%.1f, p50=%d, p99=%d, max=%d",
+			name,
+			getCount(),
+			getMean(),
+			getPercentile(0.5),
+			getPercentile(0.99),
+			getMax()
+		);
+	}
+
+}
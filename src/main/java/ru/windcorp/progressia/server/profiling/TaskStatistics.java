@@ -0,0 +1,88 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.profiling;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a single class of tasks. Instances are thread-safe.
+ */
+public class TaskStatistics {
+
+	private final Class<?> taskClass;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder timedCount = new LongAdder();
+	private final LongAdder time = new LongAdder();
+
+	TaskStatistics(Class<?> taskClass) {
+		this.taskClass = taskClass;
+	}
+
+	public Class<?> getTaskClass() {
+		return taskClass;
+	}
+
+	public void recordRun() {
+		count.increment();
+	}
+
+	public void recordRun(long nanos) {
+		count.increment();
+		timedCount.increment();
+		time.add(nanos);
+	}
+
+	/**
+	 * Returns the number of times tasks of this class have run.
+	 * 
+	 * @return the run count
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the total time that timed runs of tasks of this class have
+	 * taken. Runs are only timed while
+	 * {@linkplain TickProfiler#isTaskTimingEnabled() task timing} is enabled.
+	 * 
+	 * @return the duration in nanoseconds
+	 */
+	public long getTime() {
+		return time.sum();
+	}
+
+	/**
+	 * Returns the average duration of a timed run.
+	 * 
+	 * @return the duration in nanoseconds or 0 if no runs have been timed
+	 */
+	public double getMeanTime() {
+		long n = timedCount.sum();
+		return n == 0 ? 0 : (double) time.sum() / n;
+	}
+
+	void reset() {
+		count.reset();
+		timedCount.reset();
+		time.reset();
+	}
+
+}
@@ -0,0 +1,339 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.profiling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableList;
+
+import ru.windcorp.jputil.CSVWriter;
+
+/**
+ * Collects timings of the server tick loop. All durations are measured with
+ * {@link System#nanoTime()} and recorded in nanoseconds into lock-free
+ * {@link Histogram}s, so recording is cheap and safe from any thread.
+ * <p>
+ * Per-task timing costs two clock reads per task and is disabled by default;
+ * enable it with {@link #setTaskTimingEnabled(boolean)} or the
+ * {@code progressia.profileTasks} system property. Tasks are counted by class
+ * regardless.
+ */
+public class TickProfiler {
+
+	private final long tickBudget;
+
+	private final Histogram tick = new Histogram("tick");
+	private final Histogram lag = new Histogram("tick_lag");
+	private final Histogram serverTasks = new Histogram("server_tasks");
+	private final Histogram serverTaskCount = new Histogram("server_tasks_per_tick");
+	private final Histogram evaluationStage = new Histogram("evaluation_stage");
+	private final Histogram changeStage = new Histogram("change_stage");
+	private final Histogram tickerStage = new Histogram("ticker_stage");
+	private final Histogram passes = new Histogram("passes_per_tick");
+
+	private final List<Histogram> histograms = ImmutableList.of(
+		tick,
+		lag,
+		serverTasks,
+		serverTaskCount,
+		evaluationStage,
+		changeStage,
+		tickerStage,
+		passes
+	);
+
+	private final AtomicLong overruns = new AtomicLong();
+
+	private final ConcurrentMap<Class<?>, TaskStatistics> taskStatisticsMap = new ConcurrentHashMap<>();
+
+	private final ClassValue<TaskStatistics> taskStatistics = new ClassValue<TaskStatistics>() {
+		@Override
+		protected TaskStatistics computeValue(Class<?> type) {
+			return taskStatisticsMap.computeIfAbsent(type, TaskStatistics::new);
+		}
+	};
+
+	private volatile boolean taskTimingEnabled = Boolean.getBoolean("progressia.profileTasks");
+
+	/**
+	 * Creates a new profiler.
+	 * 
+	 * @param tickBudget the duration of a tick in nanoseconds above which the
+	 *                   tick is counted as an overrun
+	 */
+	public TickProfiler(long tickBudget) {
+		this.tickBudget = tickBudget;
+	}
+
+	/*
+	 * Recording
+	 */
+
+	/**
+	 * Records the duration of a whole server tick.
+	 * 
+	 * @param nanos the duration of the tick
+	 */
+	public void recordTick(long nanos) {
+		tick.record(nanos);
+		if (nanos > tickBudget) {
+			overruns.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records how late a tick started relative to its schedule.
+	 * 
+	 * @param nanos the lag of the tick
+	 */
+	public void recordLag(long nanos) {
+		lag.record(nanos);
+	}
+
+	/**
+	 * Records the execution of the server thread task queue.
+	 * 
+	 * @param nanos     the time it took to run the tasks
+	 * @param taskCount the number of tasks run
+	 */
+	public void recordServerTasks(long nanos, int taskCount) {
+		serverTasks.record(nanos);
+		serverTaskCount.record(taskCount);
+	}
+
+	public void recordEvaluationStage(long nanos) {
+		evaluationStage.record(nanos);
+	}
+
+	public void recordChangeStage(long nanos) {
+		changeStage.record(nanos);
+	}
+
+	/**
+	 * Records the time a single ticker has spent working during a stage.
+	 * 
+	 * @param nanos the duration of the work
+	 */
+	public void recordTickerStage(long nanos) {
+		tickerStage.record(nanos);
+	}
+
+	public void recordPasses(int passCount) {
+		passes.record(passCount);
+	}
+
+	public TaskStatistics getTaskStatistics(Class<?> taskClass) {
+		return taskStatistics.get(taskClass);
+	}
+
+	public boolean isTaskTimingEnabled() {
+		return taskTimingEnabled;
+	}
+
+	public void setTaskTimingEnabled(boolean taskTimingEnabled) {
+		this.taskTimingEnabled = taskTimingEnabled;
+	}
+
+	/*
+	 * Queries
+	 */
+
+	public long getTickBudget() {
+		return tickBudget;
+	}
+
+	/**
+	 * Returns the histogram of whole tick durations, in nanoseconds.
+	 * 
+	 * @return tick duration histogram
+	 */
+	public Histogram getTickHistogram() {
+		return tick;
+	}
+
+	/**
+	 * Returns the histogram of tick start delays relative to the schedule, in
+	 * nanoseconds.
+	 * 
+	 * @return tick lag histogram
+	 * @see ru.windcorp.progressia.server.TickScheduler#getLag()
+	 */
+	public Histogram getLagHistogram() {
+		return lag;
+	}
+
+	/**
+	 * Returns the histogram of time spent running the server thread task
+	 * queue each tick, in nanoseconds.
+	 * 
+	 * @return server task duration histogram
+	 */
+	public Histogram getServerTasksHistogram() {
+		return serverTasks;
+	}
+
+	/**
+	 * Returns the histogram of the number of server thread tasks run each
+	 * tick.
+	 * 
+	 * @return server task count histogram
+	 */
+	public Histogram getServerTaskCountHistogram() {
+		return serverTaskCount;
+	}
+
+	/**
+	 * Returns the histogram of evaluation stage wall times, in nanoseconds.
+	 * 
+	 * @return evaluation stage duration histogram
+	 */
+	public Histogram getEvaluationStageHistogram() {
+		return evaluationStage;
+	}
+
+	/**
+	 * Returns the histogram of change stage wall times, in nanoseconds.
+	 * 
+	 * @return change stage duration histogram
+	 */
+	public Histogram getChangeStageHistogram() {
+		return changeStage;
+	}
+
+	/**
+	 * Returns the histogram of time individual tickers spent working during
+	 * a stage, in nanoseconds.
+	 * 
+	 * @return ticker work duration histogram
+	 */
+	public Histogram getTickerStageHistogram() {
+		return tickerStage;
+	}
+
+	/**
+	 * Returns the histogram of the number of passes per tick.
+	 * 
+	 * @return pass count histogram
+	 */
+	public Histogram getPassesHistogram() {
+		return passes;
+	}
+
+	public List<Histogram> getHistograms() {
+		return histograms;
+	}
+
+	/**
+	 * Returns the number of ticks that took longer than the
+	 * {@linkplain #getTickBudget() tick budget}.
+	 * 
+	 * @return overrun count
+	 */
+	public long getOverrunCount() {
+		return overruns.get();
+	}
+
+	/**
+	 * Returns the statistics of all task classes that have run, most frequent
+	 * first.
+	 * 
+	 * @return a new list of task statistics
+	 */
+	public List<TaskStatistics> getAllTaskStatistics() {
+		List<TaskStatistics> result = new ArrayList<>(taskStatisticsMap.values());
+		Collections.sort(result, Comparator.comparingLong(TaskStatistics::getCount).reversed());
+		return result;
+	}
+
+	/**
+	 * Discards all recorded data.
+	 */
+	public void reset() {
+		histograms.forEach(Histogram::reset);
+		overruns.set(0);
+		taskStatisticsMap.values().forEach(TaskStatistics::reset);
+	}
+
+	/*
+	 * Output
+	 */
+
+	/**
+	 * Writes all recorded data as two tables separated by an empty row: the
+	 * histograms with the overrun count, then the task statistics.
+	 * 
+	 * @param output the writer to use
+	 */
+	public void writeCSV(CSVWriter output) {
+		writeHistogramsCSV(output);
+		output.endRow();
+		writeTasksCSV(output);
+		output.flush();
+	}
+
+	public void writeHistogramsCSV(CSVWriter output) {
+		output.print("metric");
+		output.print("count");
+		output.print("mean");
+		output.print("p50");
+		output.print("p90");
+		output.print("p99");
+		output.endRow("max");
+
+		for (Histogram histogram : histograms) {
+			output.print(histogram.getName());
+			output.print(histogram.getCount());
+			output.print(String.format(Locale.ROOT, "%.1f", histogram.getMean()));
+			output.print(histogram.getPercentile(0.5));
+			output.print(histogram.getPercentile(0.9));
+			output.print(histogram.getPercentile(0.99));
+			output.endRow(histogram.getMax());
+		}
+
+		output.print("tick_overruns");
+		output.print(getOverrunCount());
+		output.skip(5);
+		output.endRow();
+	}
+
+	public void writeTasksCSV(CSVWriter output) {
+		output.print("task");
+		output.print("count");
+		output.print("time");
+		output.endRow("mean_time");
+
+		Collection<TaskStatistics> tasks = getAllTaskStatistics();
+
+		for (TaskStatistics task : tasks) {
+			output.print(task.getTaskClass().getName());
+			output.print(task.getCount());
+			output.print(task.getTime());
+			output.endRow(String.format(Locale.ROOT, "%.1f", task.getMeanTime()));
+		}
+	}
+
+}
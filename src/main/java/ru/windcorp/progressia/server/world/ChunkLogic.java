@@ -18,18 +18,20 @@
  
 package ru.windcorp.progressia.server.world;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.function.BiConsumer;
 
+import gnu.trove.procedure.TIntProcedure;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
 import glm.vec._3.i.Vec3i;
 import ru.windcorp.progressia.common.world.ChunkData;
-import ru.windcorp.progressia.common.world.Coordinates;
+import ru.windcorp.progressia.common.world.EncodedChunk;
 import ru.windcorp.progressia.common.world.block.BlockFace;
 import ru.windcorp.progressia.common.world.generic.GenericChunk;
+import ru.windcorp.progressia.common.world.generic.GenericTileStack;
 import ru.windcorp.progressia.common.world.tile.TileDataStack;
 import ru.windcorp.progressia.common.world.tile.TileReference;
 import ru.windcorp.progressia.server.world.block.BlockLogic;
@@ -37,6 +39,7 @@ import ru.windcorp.progressia.server.world.block.BlockLogicRegistry;
 import ru.windcorp.progressia.server.world.block.TickableBlock;
 import ru.windcorp.progressia.server.world.tasks.TickChunk;
 import ru.windcorp.progressia.server.world.ticking.TickingPolicy;
+import ru.windcorp.progressia.server.world.tile.TSTickContext;
 import ru.windcorp.progressia.server.world.tile.TickableTile;
 import ru.windcorp.progressia.server.world.tile.TileLogic;
 import ru.windcorp.progressia.server.world.tile.TileLogicRegistry;
@@ -47,19 +50,58 @@ public class ChunkLogic implements GenericChunk<ChunkLogic, BlockLogic, TileLogi
 	private final WorldLogic world;
 	private final ChunkData data;
 
-	private final Collection<Vec3i> tickingBlocks = new ArrayList<>();
-	private final Collection<TileReference> tickingTiles = new ArrayList<>();
+	private static final int BLOCKS_PER_CHUNK = ChunkData.BLOCKS_PER_CHUNK;
+	private static final int TILES_PER_FACE = GenericTileStack.TILES_PER_FACE;
+
+	/*
+	 * Ticking indices. These are built lazily on first use and are kept
+	 * current by onBlockChanged and onTilesChanged afterwards.
+	 */
+
+	private volatile boolean tickIndicesBuilt = false;
+
+	/**
+	 * Block indices (see getBlockIndex) of blocks with REGULAR ticking policy
+	 */
+	private final TIntSet tickingBlocks = new TIntHashSet();
+
+	/**
+	 * Tile keys (see getTileKey) of tiles with REGULAR ticking policy
+	 */
+	private final TIntSet tickingTiles = new TIntHashSet();
+
+	/**
+	 * Block indices of blocks with RANDOM ticking policy
+	 */
+	private final TIntSet randomTickingBlocks = new TIntHashSet();
+
+	/**
+	 * Tile keys of tiles with RANDOM ticking policy
+	 */
+	private final TIntSet randomTickingTiles = new TIntHashSet();
 
 	private final TickChunk tickTask = new TickChunk(this);
 
+	/*
+	 * Reused by forEachTickingBlock and forEachTickingTile so that regular
+	 * ticks do not allocate. Only the thread that ticks this chunk uses them.
+	 */
+
+	private final TickingBlockVisitor tickingBlockVisitor = new TickingBlockVisitor();
+	private final TickingTileVisitor tickingTileVisitor = new TickingTileVisitor();
+
+	/**
+	 * The cached encoding of the current state of this chunk, or {@code null}
+	 * if the chunk has changed since it was last encoded
+	 */
+	private volatile EncodedChunk encoded = null;
+
 	private final Map<TileDataStack, TileLogicStackImpl> tileLogicLists = Collections
 		.synchronizedMap(new WeakHashMap<>());
 
 	public ChunkLogic(WorldLogic world, ChunkData data) {
 		this.world = world;
 		this.data = data;
-
-		tmp_generateTickLists();
 	}
 
 	@Override
@@ -69,9 +111,7 @@ public class ChunkLogic implements GenericChunk<ChunkLogic, BlockLogic, TileLogi
 
 	@Override
 	public BlockLogic getBlock(Vec3i blockInChunk) {
-		return BlockLogicRegistry.getInstance().get(
-			getData().getBlock(blockInChunk).getId()
-		);
+		return BlockLogicRegistry.getInstance().get(getData().getBlock(blockInChunk));
 	}
 
 	@Override
@@ -103,33 +143,291 @@ public class ChunkLogic implements GenericChunk<ChunkLogic, BlockLogic, TileLogi
 		return getWorld().getGenerator().isChunkReady(getData().getGenerationHint());
 	}
 
+	/**
+	 * Returns the {@link EncodedChunk encoding} of the current state of this
+	 * chunk, encoding it if it has changed since the last call.
+	 * <p>
+	 * This method must not be called while the chunk may be modified
+	 * concurrently, e.g. while the world is being ticked.
+	 *
+	 * @return the encoded chunk
+	 */
+	public EncodedChunk getEncoded() {
+		EncodedChunk result = encoded;
+
+		if (result == null) {
+			result = EncodedChunk.encode(getData());
+			encoded = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Discards the cached encoding of this chunk.
+	 */
+	public void invalidateEncoded() {
+		encoded = null;
+	}
+
 	public boolean hasTickingBlocks() {
+		ensureTickIndicesBuilt();
 		return !tickingBlocks.isEmpty();
 	}
 
 	public boolean hasTickingTiles() {
+		ensureTickIndicesBuilt();
 		return !tickingTiles.isEmpty();
 	}
 
+	/**
+	 * Determines whether this chunk contains any blocks or tiles with
+	 * {@link TickingPolicy#RANDOM RANDOM} ticking policy. Random ticks in
+	 * chunks without such content have no effect.
+	 * 
+	 * @return {@code true} if random ticks may affect this chunk
+	 */
+	public boolean hasRandomTickingContent() {
+		ensureTickIndicesBuilt();
+		return !randomTickingBlocks.isEmpty() || !randomTickingTiles.isEmpty();
+	}
+
+	public boolean isRandomTickingBlock(Vec3i blockInChunk) {
+		ensureTickIndicesBuilt();
+		return randomTickingBlocks.contains(getBlockIndex(blockInChunk));
+	}
+
+	/**
+	 * Determines whether the tile with the provided tag has
+	 * {@link TickingPolicy#RANDOM RANDOM} ticking policy.
+	 * 
+	 * @param blockInChunk the position of the block that hosts the tile
+	 * @param face         the face of the tile
+	 * @param tag          the {@linkplain TileDataStack#getTagByIndex(int) tag}
+	 *                     of the tile
+	 * @return {@code true} if the tile exists and ticks randomly
+	 */
+	public boolean isRandomTickingTile(Vec3i blockInChunk, BlockFace face, int tag) {
+		ensureTickIndicesBuilt();
+		return randomTickingTiles.contains(getTileKey(blockInChunk, face, tag));
+	}
+
+	/**
+	 * Invokes the action for each block with {@link TickingPolicy#REGULAR
+	 * REGULAR} ticking policy. The {@code Vec3i} passed to the action is
+	 * reused between invocations.
+	 * <p>
+	 * This method must not be called while the chunk may be modified
+	 * concurrently.
+	 * 
+	 * @param action the action to run
+	 */
 	public void forEachTickingBlock(BiConsumer<Vec3i, BlockLogic> action) {
-		tickingBlocks.forEach(blockInChunk -> {
-			action.accept(blockInChunk, getBlock(blockInChunk));
-		});
+		ensureTickIndicesBuilt();
+
+		tickingBlockVisitor.action = action;
+		try {
+			tickingBlocks.forEach(tickingBlockVisitor);
+		} finally {
+			tickingBlockVisitor.action = null;
+		}
 	}
 
+	/**
+	 * Invokes the action for each tile with {@link TickingPolicy#REGULAR
+	 * REGULAR} ticking policy.
+	 * <p>
+	 * This method must not be called while the chunk may be modified
+	 * concurrently.
+	 * 
+	 * @param action the action to run
+	 */
 	public void forEachTickingTile(BiConsumer<TileReference, TileLogic> action) {
-		tickingTiles.forEach(ref -> {
-			action.accept(
-				ref,
-				TileLogicRegistry.getInstance().get(ref.get().getId())
-			);
+		ensureTickIndicesBuilt();
+
+		tickingTileVisitor.action = action;
+		try {
+			tickingTiles.forEach(tickingTileVisitor);
+		} finally {
+			tickingTileVisitor.action = null;
+		}
+	}
+
+	/**
+	 * Updates the ticking indices after a block has changed.
+	 * 
+	 * @param blockInChunk the position of the changed block
+	 */
+	public synchronized void onBlockChanged(Vec3i blockInChunk) {
+		if (!tickIndicesBuilt)
+			return;
+
+		indexBlock(blockInChunk);
+	}
+
+	/**
+	 * Updates the ticking indices after a tile stack has changed.
+	 * 
+	 * @param blockInChunk the position of the block that hosts the stack
+	 * @param face         the face of the stack
+	 */
+	public synchronized void onTilesChanged(Vec3i blockInChunk, BlockFace face) {
+		if (!tickIndicesBuilt)
+			return;
+
+		TileDataStack stack = getData().getTilesOrNull(blockInChunk, face);
+		int firstKey = getTileKey(blockInChunk, face, 0);
+
+		for (int tag = 0; tag < TILES_PER_FACE; ++tag) {
+			tickingTiles.remove(firstKey + tag);
+			randomTickingTiles.remove(firstKey + tag);
+		}
+
+		if (stack != null) {
+			indexTiles(stack);
+		}
+	}
+
+	private void ensureTickIndicesBuilt() {
+		if (tickIndicesBuilt)
+			return;
+
+		synchronized (this) {
+			if (tickIndicesBuilt)
+				return;
+
+			Vec3i blockInChunk = new Vec3i();
+			int blockCount = BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK;
+
+			for (int blockIndex = 0; blockIndex < blockCount; ++blockIndex) {
+				getBlockInChunk(blockIndex, blockInChunk);
+				indexBlock(blockInChunk);
+			}
+
+			getData().forEachTileStack(this::indexTiles);
+
+			tickIndicesBuilt = true;
+		}
+	}
+
+	private void indexBlock(Vec3i blockInChunk) {
+		int blockIndex = getBlockIndex(blockInChunk);
+		BlockLogic block = getBlock(blockInChunk);
+
+		TickingPolicy policy = TickingPolicy.NONE;
+
+		if (block instanceof TickableBlock) {
+			TickContextMutable context = TickContextMutable.acquire();
+			try {
+				context.rebuild().withChunk(this).withBlockInChunk(blockInChunk).build();
+				policy = ((TickableBlock) block).getTickingPolicy(context);
+			} finally {
+				TickContextMutable.release(context);
+			}
+		}
+
+		updateIndex(tickingBlocks, blockIndex, policy == TickingPolicy.REGULAR);
+		updateIndex(randomTickingBlocks, blockIndex, policy == TickingPolicy.RANDOM);
+	}
+
+	private void indexTiles(TileDataStack stack) {
+		if (stack.isEmpty())
+			return;
+
+		TickContextMutable context = TickContextMutable.acquire();
+		try {
+			context.rebuild().withServer(getWorld().getServer()).withTS(stack).build();
+			indexTiles(stack, context);
+		} finally {
+			TickContextMutable.release(context);
+		}
+	}
+
+	private void indexTiles(TileDataStack stack, TSTickContext context) {
+		Vec3i blockInChunk = stack.getBlockInChunk(null);
+
+		context.forEachTile(tctxt -> {
+			TileLogic tile = tctxt.getTile();
+
+			if (!(tile instanceof TickableTile))
+				return;
+
+			TickingPolicy policy = ((TickableTile) tile).getTickingPolicy(tctxt);
+
+			if (policy == TickingPolicy.REGULAR || policy == TickingPolicy.RANDOM) {
+				int tag = stack.getTagByIndex(tctxt.getReference().getIndex());
+				int key = getTileKey(blockInChunk, stack.getFace(), tag);
+				(policy == TickingPolicy.REGULAR ? tickingTiles : randomTickingTiles).add(key);
+			}
 		});
 	}
 
+	private static void updateIndex(TIntSet index, int key, boolean present) {
+		if (present) {
+			index.add(key);
+		} else {
+			index.remove(key);
+		}
+	}
+
+	private static int getBlockIndex(Vec3i blockInChunk) {
+		return (blockInChunk.z * BLOCKS_PER_CHUNK + blockInChunk.y) * BLOCKS_PER_CHUNK + blockInChunk.x;
+	}
+
+	private static void getBlockInChunk(int blockIndex, Vec3i output) {
+		output.set(
+			blockIndex % BLOCKS_PER_CHUNK,
+			(blockIndex / BLOCKS_PER_CHUNK) % BLOCKS_PER_CHUNK,
+			blockIndex / (BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK)
+		);
+	}
+
+	private static int getTileKey(Vec3i blockInChunk, BlockFace face, int tag) {
+		return (getBlockIndex(blockInChunk) * BlockFace.BLOCK_FACE_COUNT + face.getId()) * TILES_PER_FACE + tag;
+	}
+
 	public TickChunk getTickTask() {
 		return tickTask;
 	}
 
+	private class TickingBlockVisitor implements TIntProcedure {
+
+		private final Vec3i blockInChunk = new Vec3i();
+		private BiConsumer<Vec3i, BlockLogic> action;
+
+		@Override
+		public boolean execute(int blockIndex) {
+			getBlockInChunk(blockIndex, blockInChunk);
+			action.accept(blockInChunk, getBlock(blockInChunk));
+			return true;
+		}
+
+	}
+
+	private class TickingTileVisitor implements TIntProcedure {
+
+		private final Vec3i blockInChunk = new Vec3i();
+		private BiConsumer<TileReference, TileLogic> action;
+
+		@Override
+		public boolean execute(int tileKey) {
+			int blockIndex = tileKey / (BlockFace.BLOCK_FACE_COUNT * TILES_PER_FACE);
+			BlockFace face = BlockFace.getFaces().get((tileKey / TILES_PER_FACE) % BlockFace.BLOCK_FACE_COUNT);
+
+			getBlockInChunk(blockIndex, blockInChunk);
+			TileDataStack stack = getData().getTilesOrNull(blockInChunk, face);
+
+			int index = stack.getIndexByTag(tileKey % TILES_PER_FACE);
+
+			action.accept(
+				stack.getReference(index),
+				TileLogicRegistry.getInstance().get(stack.get(index))
+			);
+			return true;
+		}
+
+	}
+
 	private class TileLogicStackImpl extends TileLogicStack {
 
 		private final TileDataStack parent;
@@ -155,7 +453,7 @@ public class ChunkLogic implements GenericChunk<ChunkLogic, BlockLogic, TileLogi
 
 		@Override
 		public TileLogic get(int index) {
-			return TileLogicRegistry.getInstance().get(parent.get(index).getId());
+			return TileLogicRegistry.getInstance().get(parent.get(index));
 		}
 
 		@Override
@@ -170,30 +468,4 @@ public class ChunkLogic implements GenericChunk<ChunkLogic, BlockLogic, TileLogi
 
 	}
 
-	private void tmp_generateTickLists() {
-		ChunkTickContext context = TickContextMutable.start().withChunk(this).build();
-
-		context.forEachBlock(bctxt -> {
-			BlockLogic block = bctxt.getBlock();
-
-			if (!(block instanceof TickableBlock))
-				return;
-
-			if (((TickableBlock) block).getTickingPolicy(bctxt) == TickingPolicy.REGULAR) {
-				tickingBlocks.add(Coordinates.convertInWorldToInChunk(bctxt.getBlockInWorld(), null));
-			}
-
-			bctxt.forEachFace(fctxt -> fctxt.forEachTile(tctxt -> {
-				TileLogic tile = tctxt.getTile();
-
-				if (!(tile instanceof TickableTile))
-					return;
-
-				if (((TickableTile) tile).getTickingPolicy(tctxt) == TickingPolicy.REGULAR) {
-					tickingTiles.add(tctxt.getReference());
-				}
-			}));
-		});
-	}
-
 }
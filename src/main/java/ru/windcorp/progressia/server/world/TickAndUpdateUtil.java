@@ -49,8 +49,12 @@ public class TickAndUpdateUtil {
 		if (!(block instanceof TickableBlock))
 			return; // also checks nulls
 
-		BlockTickContext tickContext = TickContextMutable.start().withWorld(world).withBlock(blockInWorld).build();
-		tickBlock((TickableBlock) block, tickContext);
+		TickContextMutable context = TickContextMutable.acquire();
+		try {
+			tickBlock((TickableBlock) block, context.rebuild().withWorld(world).withBlock(blockInWorld).build());
+		} finally {
+			TickContextMutable.release(context);
+		}
 	}
 
 	public static void tickTile(TickableTile tile, TileTickContext context) {
@@ -66,19 +70,32 @@ public class TickAndUpdateUtil {
 		if (!(tile instanceof TickableTile))
 			return;
 
-		TileTickContext tickContext = TickContextMutable.start().withWorld(world).withBlock(blockInWorld).withFace(face)
-			.withLayer(layer);
-		tickTile((TickableTile) tile, tickContext);
+		TickContextMutable context = TickContextMutable.acquire();
+		try {
+			tickTile(
+				(TickableTile) tile,
+				context.rebuild().withWorld(world).withBlock(blockInWorld).withFace(face).withLayer(layer)
+			);
+		} finally {
+			TickContextMutable.release(context);
+		}
 	}
 
 	public static void tickTiles(WorldLogic world, Vec3i blockInWorld, BlockFace face) {
-		TickContextMutable.start().withWorld(world).withBlock(blockInWorld).withFace(face).build()
-			.forEachTile(context -> {
-				TileLogic tile = context.getTile();
-				if (tile instanceof TickableTile) {
-					tickTile((TickableTile) tile, context);
-				}
-			});
+		TickContextMutable context = TickContextMutable.acquire();
+		try {
+			context.rebuild().withWorld(world).withBlock(blockInWorld).withFace(face).build()
+				.forEachTile(TickAndUpdateUtil::tickTileIfTickable);
+		} finally {
+			TickContextMutable.release(context);
+		}
+	}
+
+	private static void tickTileIfTickable(TileTickContext context) {
+		TileLogic tile = context.getTile();
+		if (tile instanceof TickableTile) {
+			tickTile((TickableTile) tile, context);
+		}
 	}
 
 	public static void updateBlock(UpdateableBlock block, BlockTickContext context) {
@@ -94,8 +111,12 @@ public class TickAndUpdateUtil {
 		if (!(block instanceof UpdateableBlock))
 			return; // also checks nulls
 
-		BlockTickContext tickContext = TickContextMutable.start().withWorld(world).withBlock(blockInWorld).build();
-		updateBlock((UpdateableBlock) block, tickContext);
+		TickContextMutable context = TickContextMutable.acquire();
+		try {
+			updateBlock((UpdateableBlock) block, context.rebuild().withWorld(world).withBlock(blockInWorld).build());
+		} finally {
+			TickContextMutable.release(context);
+		}
 	}
 
 	public static void updateTile(UpdateableTile tile, TileTickContext context) {
@@ -111,19 +132,32 @@ public class TickAndUpdateUtil {
 		if (!(tile instanceof UpdateableTile))
 			return;
 
-		TileTickContext tickContext = TickContextMutable.start().withWorld(world).withBlock(blockInWorld).withFace(face)
-			.withLayer(layer);
-		updateTile((UpdateableTile) tile, tickContext);
+		TickContextMutable context = TickContextMutable.acquire();
+		try {
+			updateTile(
+				(UpdateableTile) tile,
+				context.rebuild().withWorld(world).withBlock(blockInWorld).withFace(face).withLayer(layer)
+			);
+		} finally {
+			TickContextMutable.release(context);
+		}
 	}
 
 	public static void updateTiles(WorldLogic world, Vec3i blockInWorld, BlockFace face) {
-		TickContextMutable.start().withWorld(world).withBlock(blockInWorld).withFace(face).build()
-			.forEachTile(context -> {
-				TileLogic tile = context.getTile();
-				if (tile instanceof UpdateableTile) {
-					updateTile((UpdateableTile) tile, context);
-				}
-			});
+		TickContextMutable context = TickContextMutable.acquire();
+		try {
+			context.rebuild().withWorld(world).withBlock(blockInWorld).withFace(face).build()
+				.forEachTile(TickAndUpdateUtil::updateTileIfUpdateable);
+		} finally {
+			TickContextMutable.release(context);
+		}
+	}
+
+	private static void updateTileIfUpdateable(TileTickContext context) {
+		TileLogic tile = context.getTile();
+		if (tile instanceof UpdateableTile) {
+			updateTile((UpdateableTile) tile, context);
+		}
 	}
 
 	public static void tickEntity(EntityLogic logic, EntityData data, TickContext context) {
@@ -135,11 +169,16 @@ public class TickAndUpdateUtil {
 	}
 
 	public static void tickEntity(EntityData data, Server server) {
-		tickEntity(
-			EntityLogicRegistry.getInstance().get(data.getId()),
-			data,
-			TickContextMutable.start().withServer(server).build()
-		);
+		TickContextMutable context = TickContextMutable.acquire();
+		try {
+			tickEntity(
+				EntityLogicRegistry.getInstance().get(data.getId()),
+				data,
+				context.rebuild().withServer(server).build()
+			);
+		} finally {
+			TickContextMutable.release(context);
+		}
 	}
 
 	private TickAndUpdateUtil() {
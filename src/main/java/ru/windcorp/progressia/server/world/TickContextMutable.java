@@ -23,6 +23,7 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 
 import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.util.StashingStack;
 import ru.windcorp.progressia.common.world.ChunkData;
 import ru.windcorp.progressia.common.world.Coordinates;
 import ru.windcorp.progressia.common.world.block.BlockFace;
@@ -62,6 +63,74 @@ public abstract class TickContextMutable implements BlockTickContext, TSTickCont
 		return uninitialized().rebuild();
 	}
 
+	/*
+	 * Pooling
+	 */
+
+	/**
+	 * Maximum nesting depth of pooled contexts in a single thread. Deeper
+	 * acquisitions allocate new contexts.
+	 */
+	private static final int POOL_CAPACITY = 16;
+
+	private static final ThreadLocal<StashingStack<TickContextMutable>> POOL = ThreadLocal.withInitial(
+		() -> new StashingStack<>(POOL_CAPACITY, () -> {
+			Impl context = new Impl();
+			context.isPooled = true;
+			return context;
+		})
+	);
+
+	/**
+	 * Takes an uninitialized context from the pool of the current thread.
+	 * The context must be returned with {@link #release(TickContextMutable)}
+	 * by the same thread once it is no longer used, and contexts must be
+	 * released in the reverse order of acquisition. Typical usage:
+	 * 
+	 * <pre>
+	 * TickContextMutable context = TickContextMutable.acquire();
+	 * try {
+	 * 	block.tick(context.rebuild().withWorld(world).withBlock(pos).build());
+	 * } finally {
+	 * 	TickContextMutable.release(context);
+	 * }
+	 * </pre>
+	 * 
+	 * Ticked and updated objects must not retain the contexts they receive;
+	 * pooled contexts are rebuilt for other targets after release.
+	 * 
+	 * @return a context that is not used elsewhere
+	 */
+	public static TickContextMutable acquire() {
+		StashingStack<TickContextMutable> pool = POOL.get();
+
+		if (pool.isFull()) {
+			return uninitialized();
+		}
+
+		return pool.push();
+	}
+
+	/**
+	 * Returns a context obtained with {@link #acquire()} to the pool.
+	 * 
+	 * @param context the context to release
+	 * @throws IllegalStateException if the context is not the most recently
+	 *                               acquired pooled context of this thread
+	 */
+	public static void release(TickContextMutable context) {
+		if (!((Impl) context).isPooled)
+			return;
+
+		StashingStack<TickContextMutable> pool = POOL.get();
+
+		if (pool.peek() != context) {
+			throw new IllegalStateException("Tick contexts must be released in reverse order of acquisition");
+		}
+
+		pool.pop();
+	}
+
 	public static Builder.World copyWorld(TickContext context) {
 		return start().withServer(context.getServer());
 	}
@@ -154,6 +223,11 @@ public abstract class TickContextMutable implements BlockTickContext, TSTickCont
 		protected Role role = Role.NONE;
 		protected boolean isBeingBuilt = false;
 
+		/**
+		 * Whether this context belongs to a thread's pool
+		 */
+		private boolean isPooled = false;
+
 		/**
 		 * Updated lazily
 		 */
@@ -289,7 +363,7 @@ public abstract class TickContextMutable implements BlockTickContext, TSTickCont
 
 		@Override
 		public TickContextMutable withLayer(int layer) {
-			checkBuilderState(Role.TILE);
+			checkBuilderState(Role.TILE_STACK);
 
 			this.layer = layer;
 
@@ -374,11 +448,11 @@ public abstract class TickContextMutable implements BlockTickContext, TSTickCont
 			int previousLayer = this.layer;
 			Role previousRole = this.role;
 
-			this.role = Role.TILE;
 			TileDataStack stack = getTDSOrNull();
 			if (stack == null || stack.isEmpty())
 				return false;
 
+			this.role = Role.TILE;
 			for (this.layer = 0; this.layer < stack.size(); ++this.layer) {
 				action.accept(this);
 			}
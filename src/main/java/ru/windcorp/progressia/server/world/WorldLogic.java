@@ -25,11 +25,15 @@ import java.util.function.Function;
 
 import glm.vec._3.i.Vec3i;
 import ru.windcorp.progressia.common.world.ChunkData;
+import ru.windcorp.progressia.common.world.ChunkDataListener;
 import ru.windcorp.progressia.common.world.ChunkDataListeners;
 import ru.windcorp.progressia.common.world.WorldData;
 import ru.windcorp.progressia.common.world.WorldDataListener;
+import ru.windcorp.progressia.common.world.block.BlockData;
+import ru.windcorp.progressia.common.world.block.BlockFace;
 import ru.windcorp.progressia.common.world.entity.EntityData;
 import ru.windcorp.progressia.common.world.generic.GenericWorld;
+import ru.windcorp.progressia.common.world.tile.TileData;
 import ru.windcorp.progressia.server.Server;
 import ru.windcorp.progressia.server.world.block.BlockLogic;
 import ru.windcorp.progressia.server.world.generation.WorldGenerator;
@@ -75,6 +79,42 @@ public class WorldLogic
 		});
 
 		data.addListener(ChunkDataListeners.createAdder(new UpdateTriggerer(server)));
+		data.addListener(ChunkDataListeners.createAdder(new ChunkDataListener() {
+			@Override
+			public void onChunkBlockChanged(
+				ChunkData chunk,
+				Vec3i blockInChunk,
+				BlockData previous,
+				BlockData current
+			) {
+				ChunkLogic logic = getChunk(chunk);
+				if (logic != null) {
+					logic.onBlockChanged(blockInChunk);
+				}
+			}
+
+			@Override
+			public void onChunkTilesChanged(
+				ChunkData chunk,
+				Vec3i blockInChunk,
+				BlockFace face,
+				TileData tile,
+				boolean wasAdded
+			) {
+				ChunkLogic logic = getChunk(chunk);
+				if (logic != null) {
+					logic.onTilesChanged(blockInChunk, face);
+				}
+			}
+
+			@Override
+			public void onChunkChanged(ChunkData chunk) {
+				ChunkLogic logic = getChunk(chunk);
+				if (logic != null) {
+					logic.invalidateEncoded();
+				}
+			}
+		}));
 	}
 
 	@Override
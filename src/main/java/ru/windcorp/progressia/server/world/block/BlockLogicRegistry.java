@@ -18,14 +18,33 @@
  
 package ru.windcorp.progressia.server.world.block;
 
+import ru.windcorp.progressia.common.util.namespaces.NamespacedCounterparts;
 import ru.windcorp.progressia.common.util.namespaces.NamespacedInstanceRegistry;
+import ru.windcorp.progressia.common.world.block.BlockData;
+import ru.windcorp.progressia.common.world.block.BlockDataRegistry;
 
 public class BlockLogicRegistry extends NamespacedInstanceRegistry<BlockLogic> {
 
 	private static final BlockLogicRegistry INSTANCE = new BlockLogicRegistry();
 
+	private final NamespacedCounterparts<BlockLogic> byData = new NamespacedCounterparts<>(
+		BlockDataRegistry.getInstance(),
+		this
+	);
+
 	public static BlockLogicRegistry getInstance() {
 		return INSTANCE;
 	}
 
+	/**
+	 * Returns the BlockLogic with the same ID as the provided block data. This
+	 * does not lock once the registries have been frozen.
+	 * 
+	 * @param data the block data to look up
+	 * @return the corresponding BlockLogic or {@code null}
+	 */
+	public BlockLogic get(BlockData data) {
+		return byData.get(data);
+	}
+
 }
@@ -35,8 +35,28 @@ public abstract class WorldGenerator extends Namespaced {
 		// package-private constructor; extend AbstractWorldGeneration
 	}
 
+	/**
+	 * Generates the chunk at the provided position and adds it to the world.
+	 * 
+	 * @param chunkPos the position of the chunk
+	 * @param world    the world to add the chunk to
+	 * @return the new chunk
+	 */
 	public abstract ChunkData generate(Vec3i chunkPos, WorldData world);
 
+	/**
+	 * Generates the chunk at the provided position without adding it to the
+	 * world. Any work that depends on neighbouring chunks is deferred until
+	 * the chunk is added to the world.
+	 * <p>
+	 * This method may be invoked concurrently from any thread.
+	 * 
+	 * @param chunkPos the position of the chunk
+	 * @param world    the world that the chunk will be added to
+	 * @return the new chunk
+	 */
+	public abstract ChunkData generateUnpopulated(Vec3i chunkPos, WorldData world);
+
 	public abstract Object readGenerationHint(DataInputStream input) throws IOException, DecodingException;
 
 	public abstract void writeGenerationHint(DataOutputStream output, Object hint) throws IOException;
@@ -0,0 +1,351 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.world.io;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import glm.vec._3.i.Vec3i;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
+import ru.windcorp.progressia.common.world.ChunkData;
+import ru.windcorp.progressia.common.world.WorldData;
+
+/**
+ * Loads and saves chunks through a {@link RegionStorage} in a pool of worker
+ * threads.
+ * <p>
+ * Loads are requested with {@link #requestLoad(Vec3i, WorldData)}, which
+ * returns a future that completes in a worker thread with the decoded chunk,
+ * or with {@code null} if the chunk has never been saved. The decoded chunk is
+ * not added to the world; this is left to the caller.
+ * <p>
+ * Saves are write-behind: {@link #requestSave(ChunkData)} only records the
+ * chunk. Repeated saves of the same chunk position that happen before the
+ * chunk is written are coalesced into a single write, and a load of a chunk
+ * that is still waiting to be written returns that chunk immediately without
+ * touching the disk. If such a chunk is being written at that moment, the
+ * load waits for the write to finish so that the chunk is never modified while
+ * it is being encoded.
+ * <p>
+ * The amount of queued work is bounded. When the queue is full, loads are
+ * rejected and should be retried later. Saves are never rejected and never
+ * written in the requesting thread: a save that does not fit into the queue
+ * stays pending and is scheduled again by {@link #retryRejectedSaves()}.
+ */
+public class AsyncChunkStorage {
+
+	private static final Logger LOG = LogManager.getLogger("AsyncChunkStorage");
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+	private final RegionStorage storage;
+	private final ThreadPoolExecutor workers;
+
+	/**
+	 * Chunks that are waiting to be written, keyed by packed position. Guarded
+	 * by itself.
+	 */
+	private final TLongObjectMap<ChunkData> pendingSaves = new TLongObjectHashMap<>();
+
+	/**
+	 * Positions of the chunks that are being written by a worker right now.
+	 * Guarded by {@link #pendingSaves}.
+	 */
+	private final TLongSet writesInFlight = new TLongHashSet();
+
+	/**
+	 * Positions of the pending saves that have no write scheduled because the
+	 * queue was full. Guarded by {@link #pendingSaves}.
+	 */
+	private final TLongSet unscheduledSaves = new TLongHashSet();
+
+	public AsyncChunkStorage(RegionStorage storage, int threads, int queueCapacity) {
+		this.storage = Objects.requireNonNull(storage, "storage");
+
+		AtomicInteger threadCounter = new AtomicInteger();
+
+		this.workers = new ThreadPoolExecutor(
+			threads,
+			threads,
+			0,
+			TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(queueCapacity),
+			r -> {
+				Thread thread = new Thread(r, "Chunk I/O worker " + threadCounter.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		);
+	}
+
+	public AsyncChunkStorage(RegionStorage storage) {
+		this(storage, getDefaultThreadCount(), DEFAULT_QUEUE_CAPACITY);
+	}
+
+	private static int getDefaultThreadCount() {
+		return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+	}
+
+	public RegionStorage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Requests that the chunk at the provided position is loaded.
+	 *
+	 * @param chunkPos the position of the chunk; the object is not retained
+	 * @param world    the world to load the chunk for
+	 * @return a future that completes with the loaded chunk or {@code null} if
+	 *         the chunk is not saved, or {@code null} if the request has been
+	 *         rejected because the queue is full
+	 */
+	public CompletableFuture<ChunkData> requestLoad(Vec3i chunkPos, WorldData world) {
+		ChunkData pending = takePendingSave(chunkPos);
+		if (pending != null) {
+			return CompletableFuture.completedFuture(pending);
+		}
+
+		Vec3i position = new Vec3i(chunkPos.x, chunkPos.y, chunkPos.z);
+		CompletableFuture<ChunkData> future = new CompletableFuture<>();
+
+		try {
+			workers.execute(() -> {
+				try {
+					future.complete(storage.load(position, world));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+
+		return future;
+	}
+
+	/**
+	 * Reacquires the chunk at the provided position if it is waiting to be
+	 * written. The chunk will not be written unless it is saved again; it
+	 * differs from the chunk on disk, if any. If the chunk is being written
+	 * at the moment, this method waits for the write to finish.
+	 *
+	 * @param chunkPos the position of the chunk; the object is not retained
+	 * @return the chunk that has been waiting to be written, or {@code null}
+	 *         if there is no such chunk
+	 */
+	public ChunkData takePendingSave(Vec3i chunkPos) {
+		long key = CoordinatePacker.pack3IntsIntoLong(chunkPos);
+
+		synchronized (pendingSaves) {
+			waitForWrite(key);
+			unscheduledSaves.remove(key);
+			return pendingSaves.remove(key);
+		}
+	}
+
+	/**
+	 * Requests that the provided chunk is saved. The chunk must not be modified
+	 * after this method is invoked unless it is reacquired with
+	 * {@link #requestLoad(Vec3i, WorldData)}.
+	 *
+	 * @param chunk the chunk to save
+	 */
+	public void requestSave(ChunkData chunk) {
+		long key = CoordinatePacker.pack3IntsIntoLong(chunk.getPosition());
+
+		synchronized (pendingSaves) {
+			if (pendingSaves.put(key, chunk) != null) {
+				// A write of this position is already scheduled, or waits to be
+				// scheduled, and will pick up the new chunk
+				return;
+			}
+		}
+
+		if (!scheduleWrite(key)) {
+			// Never drop saves; keep the chunk pending until the queue has room
+			synchronized (pendingSaves) {
+				unscheduledSaves.add(key);
+			}
+		}
+	}
+
+	/**
+	 * Schedules the writes of the saves that did not fit into the queue when
+	 * they were requested, as far as the queue allows. Should be invoked
+	 * periodically, e.g. once per tick.
+	 */
+	public void retryRejectedSaves() {
+		long[] keys;
+
+		synchronized (pendingSaves) {
+			if (unscheduledSaves.isEmpty())
+				return;
+			keys = unscheduledSaves.toArray();
+		}
+
+		for (long key : keys) {
+			if (!scheduleWrite(key))
+				return;
+
+			synchronized (pendingSaves) {
+				unscheduledSaves.remove(key);
+			}
+		}
+	}
+
+	private boolean scheduleWrite(long key) {
+		try {
+			workers.execute(() -> writePending(key));
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Blocks until the chunk at the provided position is not being written.
+	 * Must be invoked while holding the monitor of {@link #pendingSaves}.
+	 */
+	private void waitForWrite(long key) {
+		boolean interrupted = false;
+
+		while (writesInFlight.contains(key)) {
+			try {
+				pendingSaves.wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writePending(long key) {
+		while (true) {
+			ChunkData chunk;
+
+			synchronized (pendingSaves) {
+				chunk = pendingSaves.get(key);
+
+				if (chunk == null) {
+					// The chunk has been reacquired by a load
+					return;
+				}
+
+				writesInFlight.add(key);
+			}
+
+			try {
+				storage.save(chunk);
+			} catch (IOException | RuntimeException e) {
+				LOG.error(
+					String.format(
+						"Could not save chunk (%d; %d; %d)",
+						chunk.getPosition().x,
+						chunk.getPosition().y,
+						chunk.getPosition().z
+					),
+					e
+				);
+			} finally {
+				synchronized (pendingSaves) {
+					writesInFlight.remove(key);
+					pendingSaves.notifyAll();
+				}
+			}
+
+			synchronized (pendingSaves) {
+				if (pendingSaves.get(key) == chunk) {
+					pendingSaves.remove(key);
+					return;
+				}
+			}
+
+			// A newer chunk has replaced the written one; write again
+		}
+	}
+
+	/**
+	 * Returns the number of chunks that are waiting to be written.
+	 *
+	 * @return pending save count
+	 */
+	public int getPendingSaveCount() {
+		synchronized (pendingSaves) {
+			return pendingSaves.size();
+		}
+	}
+
+	/**
+	 * Returns the number of load and save tasks that wait for a worker.
+	 *
+	 * @return queued task count
+	 */
+	public int getQueuedTaskCount() {
+		return workers.getQueue().size();
+	}
+
+	/**
+	 * Stops accepting new requests, waits for all pending saves to be written
+	 * and closes the underlying storage.
+	 *
+	 * @throws IOException if the storage could not be closed
+	 */
+	public void close() throws IOException {
+		workers.shutdown();
+
+		try {
+			while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+				LOG.info("Waiting for {} chunks to be saved", getPendingSaveCount());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while waiting for chunks to be saved; {} chunks lost", getPendingSaveCount());
+		}
+
+		// The workers are gone; write the saves that never got into the queue
+		long[] unscheduled;
+		synchronized (pendingSaves) {
+			unscheduled = unscheduledSaves.toArray();
+			unscheduledSaves.clear();
+		}
+
+		for (long key : unscheduled) {
+			writePending(key);
+		}
+
+		storage.close();
+	}
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.world.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.state.IOContext;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
+import ru.windcorp.progressia.common.world.ChunkData;
+import ru.windcorp.progressia.common.world.DecodingException;
+import ru.windcorp.progressia.common.world.WorldData;
+import ru.windcorp.progressia.common.world.io.ChunkIO;
+import ru.windcorp.progressia.common.world.io.RegionFile;
+import ru.windcorp.progressia.server.world.generation.WorldGenerator;
+
+/**
+ * Persists chunks in a directory of {@link RegionFile}s. Each chunk is stored
+ * as its deflated {@link IOContext#SAVE SAVE} encoding followed by its
+ * generation hint.
+ * <p>
+ * A bounded number of region files is kept open; the least recently used file
+ * is closed when the limit is exceeded.
+ * <p>
+ * Instances are thread-safe. Only region file access is serialized; chunks are
+ * encoded, decoded and (de)compressed concurrently in the calling threads.
+ */
+public class RegionStorage implements Closeable {
+
+	private static final int MAX_OPEN_REGIONS = 64;
+
+	private final Path directory;
+	private final WorldGenerator generator;
+
+	/**
+	 * Region coordinates packed with {@link CoordinatePacker} to open region
+	 * files, in access order
+	 */
+	private final Map<Long, RegionFile> openRegions = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final ThreadLocal<CodecState> codecStates = ThreadLocal.withInitial(CodecState::new);
+
+	private boolean directoryCreated = false;
+
+	public RegionStorage(Path directory, WorldGenerator generator) {
+		this.directory = Objects.requireNonNull(directory, "directory");
+		this.generator = Objects.requireNonNull(generator, "generator");
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Loads the chunk at the provided position.
+	 *
+	 * @param chunkPos the position of the chunk
+	 * @param world    the world to load the chunk into
+	 * @return the loaded chunk or {@code null} if the chunk has not been saved
+	 * @throws IOException       if an I/O error occurs
+	 * @throws DecodingException if the saved data is corrupted
+	 */
+	public ChunkData load(Vec3i chunkPos, WorldData world)
+		throws IOException,
+		DecodingException {
+
+		byte[] data;
+
+		synchronized (this) {
+			RegionFile region = getRegion(chunkPos, false);
+			if (region == null)
+				return null;
+
+			data = region.read(getIndex(chunkPos));
+		}
+
+		if (data == null)
+			return null;
+
+		Inflater inflater = codecStates.get().inflater;
+		inflater.reset();
+
+		DataInputStream input = new DataInputStream(
+			new InflaterInputStream(new ByteArrayInputStream(data), inflater)
+		);
+
+		ChunkData chunk = ChunkIO.load(world, chunkPos, input, IOContext.SAVE);
+		chunk.setGenerationHint(generator.readGenerationHint(input));
+		return chunk;
+	}
+
+	/**
+	 * Saves the provided chunk, overwriting the previously saved version, if
+	 * any.
+	 *
+	 * @param chunk the chunk to save
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void save(ChunkData chunk) throws IOException {
+		CodecState state = codecStates.get();
+		PayloadBuffer payload = state.payload;
+
+		payload.reset();
+		state.deflater.reset();
+
+		DeflaterOutputStream deflated = new DeflaterOutputStream(payload, state.deflater);
+		DataOutputStream output = new DataOutputStream(deflated);
+
+		ChunkIO.save(chunk, output, IOContext.SAVE);
+		generator.writeGenerationHint(output, chunk.getGenerationHint());
+		output.flush();
+		deflated.finish();
+
+		Vec3i chunkPos = chunk.getPosition();
+
+		synchronized (this) {
+			getRegion(chunkPos, true).write(getIndex(chunkPos), payload.getBuffer(), 0, payload.size());
+		}
+	}
+
+	/**
+	 * Closes all open region files. The storage may still be used afterwards;
+	 * region files will be reopened as necessary.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		IOException exception = null;
+
+		for (RegionFile region : openRegions.values()) {
+			try {
+				region.close();
+			} catch (IOException e) {
+				if (exception == null) {
+					exception = e;
+				} else {
+					exception.addSuppressed(e);
+				}
+			}
+		}
+
+		openRegions.clear();
+
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	private RegionFile getRegion(Vec3i chunkPos, boolean createIfMissing)
+		throws IOException {
+
+		int rx = RegionFile.getRegion(chunkPos.x);
+		int ry = RegionFile.getRegion(chunkPos.y);
+		int rz = RegionFile.getRegion(chunkPos.z);
+		Long key = CoordinatePacker.pack3IntsIntoLong(rx, ry, rz);
+
+		RegionFile region = openRegions.get(key);
+		if (region != null)
+			return region;
+
+		Path path = directory.resolve(
+			String.format(
+				"region_%+d_%+d_%+d.progressia_region",
+				rx,
+				ry,
+				rz
+			)
+		);
+
+		if (!createIfMissing && !Files.exists(path))
+			return null;
+
+		if (!directoryCreated) {
+			Files.createDirectories(directory);
+			directoryCreated = true;
+		}
+
+		try {
+			region = new RegionFile(path);
+		} catch (DecodingException e) {
+			throw new IOException("Could not open region file " + path, e);
+		}
+
+		openRegions.put(key, region);
+		evictRegions();
+
+		return region;
+	}
+
+	private void evictRegions() throws IOException {
+		Iterator<RegionFile> it = openRegions.values().iterator();
+
+		while (openRegions.size() > MAX_OPEN_REGIONS) {
+			RegionFile eldest = it.next();
+			it.remove();
+			eldest.close();
+		}
+	}
+
+	private static int getIndex(Vec3i chunkPos) {
+		return RegionFile.getEntryIndex(chunkPos.x, chunkPos.y, chunkPos.z);
+	}
+
+	private static class CodecState {
+		final Deflater deflater = new Deflater();
+		final Inflater inflater = new Inflater();
+		final PayloadBuffer payload = new PayloadBuffer();
+	}
+
+	private static class PayloadBuffer extends ByteArrayOutputStream {
+
+		public PayloadBuffer() {
+			super(8 * 1024);
+		}
+
+		public byte[] getBuffer() {
+			return buf;
+		}
+
+	}
+
+}
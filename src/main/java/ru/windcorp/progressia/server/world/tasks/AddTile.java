@@ -21,6 +21,7 @@ package ru.windcorp.progressia.server.world.tasks;
 import java.util.function.Consumer;
 
 import ru.windcorp.progressia.common.world.tile.PacketAddTile;
+import ru.windcorp.progressia.server.Server;
 
 class AddTile extends CachedTileChange<PacketAddTile> {
 
@@ -28,4 +29,9 @@ class AddTile extends CachedTileChange<PacketAddTile> {
 		super(disposer, new PacketAddTile());
 	}
 
+	@Override
+	protected void sendPacket(Server server) {
+		server.getChunkChangeBatcher().addTile(getPacket().getBlockInWorld(), getPacket().getFace(), getPacket().getTileId());
+	}
+
 }
@@ -22,7 +22,6 @@ import java.util.function.Consumer;
 
 import glm.vec._3.i.Vec3i;
 import ru.windcorp.progressia.common.world.entity.EntityData;
-import ru.windcorp.progressia.common.world.entity.PacketChangeEntity;
 import ru.windcorp.progressia.server.Server;
 
 class ChangeEntity extends CachedChange {
@@ -30,8 +29,6 @@ class ChangeEntity extends CachedChange {
 	private EntityData entity;
 	private StateChange<?> change;
 
-	private final PacketChangeEntity packet = new PacketChangeEntity();
-
 	public ChangeEntity(Consumer<? super CachedChange> disposer) {
 		super(disposer);
 	}
@@ -52,19 +49,20 @@ class ChangeEntity extends CachedChange {
 	@Override
 	public void affect(Server server) {
 		((StateChange<EntityData>) change).change(entity);
-		packet.set(entity);
 
-		server.getClientManager().broadcastLocal(packet, entity.getEntityId());
+		// Sent to the clients by EntityManager once per tick
+		server.getEntityManager().markChanged(entity);
 	}
 
-	@Override
-	public void getRelevantChunk(Vec3i output) {
-		// Do nothing
-	}
+	/*
+	 * Changes of one entity must not run concurrently: they mutate the entity
+	 * and its change tracking. Routing them by the entity's chunk keeps them
+	 * in one ticker.
+	 */
 
 	@Override
-	public boolean isThreadSensitive() {
-		return false;
+	public void getRelevantChunk(Vec3i output) {
+		entity.getChunkCoords(output);
 	}
 
 	@Override
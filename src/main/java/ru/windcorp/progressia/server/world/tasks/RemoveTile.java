@@ -21,6 +21,7 @@ package ru.windcorp.progressia.server.world.tasks;
 import java.util.function.Consumer;
 
 import ru.windcorp.progressia.common.world.tile.PacketRemoveTile;
+import ru.windcorp.progressia.server.Server;
 
 class RemoveTile extends CachedTileChange<PacketRemoveTile> {
 
@@ -28,4 +29,9 @@ class RemoveTile extends CachedTileChange<PacketRemoveTile> {
 		super(disposer, new PacketRemoveTile());
 	}
 
+	@Override
+	protected void sendPacket(Server server) {
+		server.getChunkChangeBatcher().removeTile(getPacket().getBlockInWorld(), getPacket().getFace(), getPacket().getTag());
+	}
+
 }
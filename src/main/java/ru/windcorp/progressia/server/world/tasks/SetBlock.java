@@ -21,6 +21,7 @@ package ru.windcorp.progressia.server.world.tasks;
 import java.util.function.Consumer;
 
 import ru.windcorp.progressia.common.world.block.PacketSetBlock;
+import ru.windcorp.progressia.server.Server;
 
 class SetBlock extends CachedBlockChange<PacketSetBlock> {
 
@@ -28,4 +29,9 @@ class SetBlock extends CachedBlockChange<PacketSetBlock> {
 		super(disposer, new PacketSetBlock());
 	}
 
+	@Override
+	protected void sendPacket(Server server) {
+		server.getChunkChangeBatcher().setBlock(getPacket().getBlockInWorld(), getPacket().getBlockId());
+	}
+
 }
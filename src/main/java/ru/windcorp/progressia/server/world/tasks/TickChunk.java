@@ -18,28 +18,25 @@
  
 package ru.windcorp.progressia.server.world.tasks;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
-import java.util.function.Consumer;
-
-import com.google.common.collect.ImmutableList;
+import java.util.function.BiConsumer;
 
 import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
 import ru.windcorp.progressia.common.util.FloatMathUtil;
+import ru.windcorp.progressia.common.util.SplitMix64;
 import ru.windcorp.progressia.common.world.ChunkData;
 import ru.windcorp.progressia.common.world.block.BlockFace;
 import ru.windcorp.progressia.common.world.tile.TileDataStack;
+import ru.windcorp.progressia.common.world.tile.TileReference;
 import ru.windcorp.progressia.server.Server;
 import ru.windcorp.progressia.server.world.ChunkLogic;
 import ru.windcorp.progressia.server.world.TickContextMutable;
 import ru.windcorp.progressia.server.world.block.BlockLogic;
 import ru.windcorp.progressia.server.world.block.TickableBlock;
 import ru.windcorp.progressia.server.world.ticking.Evaluation;
-import ru.windcorp.progressia.server.world.ticking.TickingPolicy;
-import ru.windcorp.progressia.server.world.tile.TSTickContext;
 import ru.windcorp.progressia.server.world.tile.TickableTile;
 import ru.windcorp.progressia.server.world.tile.TileLogic;
+import ru.windcorp.progressia.server.world.tile.TileLogicRegistry;
 import static ru.windcorp.progressia.common.world.ChunkData.BLOCKS_PER_CHUNK;
 
 public class TickChunk extends Evaluation {
@@ -48,20 +45,39 @@ public class TickChunk extends Evaluation {
 		ChunkData.BLOCKS_PER_CHUNK *
 		ChunkData.BLOCKS_PER_CHUNK;
 
-	private final List<Consumer<Server>> randomTickMethods;
+	/**
+	 * The number of things a random tick may target in each block: the block
+	 * itself or the tile stack on one of its faces
+	 */
+	private static final int RANDOM_TICK_TARGETS = 1 + BlockFace.BLOCK_FACE_COUNT;
 
-	{
-		List<Consumer<Server>> randomTickMethods = new ArrayList<>();
-		randomTickMethods.add(this::tickRandomBlock);
+	private final ChunkLogic chunk;
 
-		for (BlockFace face : BlockFace.getFaces()) {
-			randomTickMethods.add(s -> this.tickRandomTile(s, face));
-		}
+	/**
+	 * Random ticks postponed while the server was overloaded. These are run
+	 * in addition to regular random ticks once the load subsides, at most
+	 * doubling the random tick rate.
+	 */
+	private float deferredRandomTicks = 0;
 
-		this.randomTickMethods = ImmutableList.copyOf(randomTickMethods);
-	}
+	/*
+	 * Tick state, reused between ticks so that ticking a chunk does not
+	 * allocate. A chunk is never evaluated by several threads at once.
+	 */
 
-	private final ChunkLogic chunk;
+	private final TickContextMutable context = TickContextMutable.uninitialized();
+
+	private final BiConsumer<Vec3i, BlockLogic> regularBlockTicker = this::tickRegularBlock;
+	private final BiConsumer<TileReference, TileLogic> regularTileTicker = this::tickRegularTile;
+
+	private final SplitMix64 random = new SplitMix64(0);
+	private final Vec3i randomBlockInChunk = new Vec3i();
+
+	/**
+	 * Targets of the current batch of random ticks, encoded as
+	 * {@code blockIndex * RANDOM_TICK_TARGETS + target}
+	 */
+	private int[] randomTargets = new int[16];
 
 	public TickChunk(ChunkLogic chunk) {
 		this.chunk = chunk;
@@ -82,29 +98,56 @@ public class TickChunk extends Evaluation {
 		if (!chunk.hasTickingBlocks())
 			return;
 
-		TickContextMutable context = TickContextMutable.uninitialized();
+		chunk.forEachTickingBlock(regularBlockTicker);
+	}
 
-		chunk.forEachTickingBlock((blockInChunk, block) -> {
-			context.rebuild().withChunk(chunk).withBlockInChunk(blockInChunk).build();
-			((TickableBlock) block).tick(context);
-		});
+	private void tickRegularBlock(Vec3i blockInChunk, BlockLogic block) {
+		context.rebuild().withChunk(chunk).withBlockInChunk(blockInChunk).build();
+		((TickableBlock) block).tick(context);
 	}
 
 	private void tickRegularTiles(Server server) {
 		if (!chunk.hasTickingTiles())
 			return;
 
-		TickContextMutable context = TickContextMutable.uninitialized();
+		chunk.forEachTickingTile(regularTileTicker);
+	}
 
-		chunk.forEachTickingTile((ref, tile) -> {
-			context.rebuild().withServer(server).withTile(ref);
-			((TickableTile) tile).tick(context);
-		});
+	private void tickRegularTile(TileReference ref, TileLogic tile) {
+		context.rebuild().withWorld(chunk.getWorld()).withTile(ref);
+		((TickableTile) tile).tick(context);
 	}
 
 	private void tickRandom(Server server) {
 		float ticks = computeRandomTicks(server);
 
+		if (server.isOverloaded()) {
+			float maxDeferred = ticks * server.getTickingSettings().getMaxShedTicks();
+			deferredRandomTicks = Math.min(deferredRandomTicks + ticks, maxDeferred);
+			return;
+		}
+
+		if (deferredRandomTicks > 0) {
+			float catchUp = Math.min(deferredRandomTicks, ticks);
+			deferredRandomTicks -= catchUp;
+			ticks += catchUp;
+		}
+
+		if (!chunk.hasRandomTickingContent())
+			return;
+
+		/*
+		 * Each chunk draws from its own stream derived from the seed, the
+		 * position of the chunk and the tick number, so the outcome does not
+		 * depend on the order in which tickers evaluate chunks. The tick
+		 * number is the server uptime, which is not saved with the world:
+		 * streams are only reproducible within one session
+		 */
+		Vec3i chunkPos = chunk.getPosition();
+		long chunkSeed = SplitMix64.mix(server.getTickingSettings().getRandomTickSeed()) +
+			CoordinatePacker.pack3IntsIntoLong(chunkPos);
+		random.setSeed(SplitMix64.mix(chunkSeed) + server.getUptimeTicks());
+
 		/*
 		 * If we are expected to run 3.25 random ticks per tick
 		 * on average, then run 3 random ticks unconditionally
@@ -113,74 +156,72 @@ public class TickChunk extends Evaluation {
 		float unconditionalTicks = FloatMathUtil.floor(ticks);
 		float extraTickChance = ticks - unconditionalTicks;
 
-		for (int i = 0; i < unconditionalTicks; ++i) {
-			tickRandomOnce(server);
+		int count = (int) unconditionalTicks;
+		if (random.nextFloat() < extraTickChance) {
+			count++;
 		}
 
-		if (server.getAdHocRandom().nextFloat() < extraTickChance) {
-			tickRandomOnce(server);
+		// Draw the whole batch first so that ticks cannot affect the stream
+		if (randomTargets.length < count) {
+			randomTargets = new int[Math.max(count, 2 * randomTargets.length)];
+		}
+
+		for (int i = 0; i < count; ++i) {
+			randomTargets[i] = random.nextInt(CHUNK_VOLUME * RANDOM_TICK_TARGETS);
 		}
-	}
 
-	private void tickRandomOnce(Server server) {
-		// Pick a target at random: a block or one of 3 primary block faces
-		randomTickMethods.get(
-			server.getAdHocRandom().nextInt(randomTickMethods.size())
-		).accept(server);
+		for (int i = 0; i < count; ++i) {
+			tickRandomOnce(server, randomTargets[i]);
+		}
 	}
 
-	private void tickRandomBlock(Server server) {
-		Random random = server.getAdHocRandom();
+	private void tickRandomOnce(Server server, int encodedTarget) {
+		int target = encodedTarget % RANDOM_TICK_TARGETS;
+		int blockIndex = encodedTarget / RANDOM_TICK_TARGETS;
 
-		Vec3i blockInChunk = new Vec3i(
-			random.nextInt(BLOCKS_PER_CHUNK),
-			random.nextInt(BLOCKS_PER_CHUNK),
-			random.nextInt(BLOCKS_PER_CHUNK)
+		Vec3i blockInChunk = randomBlockInChunk;
+		blockInChunk.set(
+			blockIndex % BLOCKS_PER_CHUNK,
+			(blockIndex / BLOCKS_PER_CHUNK) % BLOCKS_PER_CHUNK,
+			blockIndex / (BLOCKS_PER_CHUNK * BLOCKS_PER_CHUNK)
 		);
 
-		BlockLogic block = this.chunk.getBlock(blockInChunk);
+		if (target == 0) {
+			tickRandomBlock(blockInChunk);
+		} else {
+			tickRandomTile(server, blockInChunk, BlockFace.getFaces().get(target - 1));
+		}
+	}
 
-		if (!(block instanceof TickableBlock))
+	private void tickRandomBlock(Vec3i blockInChunk) {
+		if (!chunk.isRandomTickingBlock(blockInChunk))
 			return;
-		TickableBlock tickable = (TickableBlock) block;
 
-		TickContextMutable context = TickContextMutable.start().withChunk(chunk).withBlockInChunk(blockInChunk).build();
+		TickableBlock block = (TickableBlock) chunk.getBlock(blockInChunk);
 
-		if (tickable.getTickingPolicy(context) != TickingPolicy.RANDOM)
-			return;
-		tickable.tick(context);
+		context.rebuild().withChunk(chunk).withBlockInChunk(blockInChunk).build();
+		block.tick(context);
 	}
 
-	private void tickRandomTile(Server server, BlockFace face) {
-		Random random = server.getAdHocRandom();
-
-		Vec3i blockInChunk = new Vec3i(
-			random.nextInt(BLOCKS_PER_CHUNK),
-			random.nextInt(BLOCKS_PER_CHUNK),
-			random.nextInt(BLOCKS_PER_CHUNK)
-		);
-
-		TileDataStack tiles = this.chunk.getData().getTilesOrNull(blockInChunk, face);
+	private void tickRandomTile(Server server, Vec3i blockInChunk, BlockFace face) {
+		TileDataStack tiles = chunk.getData().getTilesOrNull(blockInChunk, face);
 		if (tiles == null || tiles.isEmpty())
 			return;
 
-		TSTickContext context = TickContextMutable.start().withServer(server).withTS(tiles).build();
+		for (int index = 0; index < tiles.size(); ++index) {
+			if (!chunk.isRandomTickingTile(blockInChunk, face, tiles.getTagByIndex(index)))
+				continue;
 
-		context.forEachTile(tctxt -> {
-			TileLogic logic = tctxt.getTile();
-			if (!(logic instanceof TickableTile))
-				return;
-			TickableTile tickable = (TickableTile) logic;
+			TickableTile tile = (TickableTile) TileLogicRegistry.getInstance().get(tiles.get(index));
 
-			if (tickable.getTickingPolicy(tctxt) != TickingPolicy.RANDOM)
-				return;
-			tickable.tick(tctxt);
-		});
+			context.rebuild().withServer(server).withTile(tiles.getReference(index));
+			tile.tick(context);
+		}
 	}
 
 	private float computeRandomTicks(Server server) {
 		return (float) (server.getTickingSettings().getRandomTickFrequency() *
-			CHUNK_VOLUME * randomTickMethods.size() *
+			CHUNK_VOLUME * RANDOM_TICK_TARGETS *
 			server.getTickLength());
 	}
 
@@ -30,6 +30,7 @@ import ru.windcorp.progressia.server.world.WorldLogic;
 class TileTriggeredUpdate extends CachedEvaluation {
 
 	private final Vec3i blockInWorld = new Vec3i();
+	private final Vec3i cursor = new Vec3i();
 	private BlockFace face = null;
 
 	public TileTriggeredUpdate(Consumer<? super CachedEvaluation> disposer) {
@@ -38,7 +39,8 @@ class TileTriggeredUpdate extends CachedEvaluation {
 
 	@Override
 	public void evaluate(Server server) {
-		Vec3i cursor = new Vec3i(blockInWorld.x, blockInWorld.y, blockInWorld.z);
+		Vec3i cursor = this.cursor;
+		cursor.set(blockInWorld.x, blockInWorld.y, blockInWorld.z);
 
 		WorldLogic world = server.getWorld();
 
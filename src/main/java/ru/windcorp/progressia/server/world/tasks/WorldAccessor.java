@@ -33,6 +33,15 @@ import ru.windcorp.progressia.server.world.ticking.TickerTask;
 
 public class WorldAccessor {
 
+	/**
+	 * Trigger kind of block updates; tile updates use face ID + 1
+	 */
+	private static final int BLOCK_UPDATE = 0;
+	private static final int UPDATE_KIND_BITS = 3;
+	private static final int UPDATE_COORD_BITS = (Long.SIZE - UPDATE_KIND_BITS) / 3;
+	private static final int UPDATE_COORD_LIMIT = 1 << (UPDATE_COORD_BITS - 1);
+	private static final long UPDATE_COORD_MASK = (1L << UPDATE_COORD_BITS) - 1;
+
 	private final MultiLOC cache;
 	{
 		MultiLOC mloc = new MultiLOC();
@@ -102,7 +111,7 @@ public class WorldAccessor {
 	public void triggerUpdates(Vec3i blockInWorld) {
 		BlockTriggeredUpdate evaluation = cache.grab(BlockTriggeredUpdate.class);
 		evaluation.init(blockInWorld);
-		server.requestEvaluation(evaluation);
+		requestUpdate(evaluation, blockInWorld, BLOCK_UPDATE);
 	}
 
 	/**
@@ -115,7 +124,33 @@ public class WorldAccessor {
 	public void triggerUpdates(Vec3i blockInWorld, BlockFace face) {
 		TileTriggeredUpdate evaluation = cache.grab(TileTriggeredUpdate.class);
 		evaluation.init(blockInWorld, face);
-		server.requestEvaluation(evaluation);
+		requestUpdate(evaluation, blockInWorld, face.getId() + 1);
+	}
+
+	/**
+	 * Requests an update at most once per pass for each position and trigger
+	 * kind. The coalescing key packs the kind into the top
+	 * {@link #UPDATE_KIND_BITS} bits and the coordinates into the rest.
+	 */
+	private void requestUpdate(CachedEvaluation evaluation, Vec3i blockInWorld, int kind) {
+		if (
+			!fitsUpdateKey(blockInWorld.x) || !fitsUpdateKey(blockInWorld.y) || !fitsUpdateKey(blockInWorld.z)
+		) {
+			// Too far away to be packed; do not coalesce
+			server.requestEvaluation(evaluation);
+			return;
+		}
+
+		long key = ((long) kind << (3 * UPDATE_COORD_BITS)) |
+			((blockInWorld.z & UPDATE_COORD_MASK) << (2 * UPDATE_COORD_BITS)) |
+			((blockInWorld.y & UPDATE_COORD_MASK) << UPDATE_COORD_BITS) |
+			(blockInWorld.x & UPDATE_COORD_MASK);
+
+		server.requestEvaluation(evaluation, key);
+	}
+
+	private static boolean fitsUpdateKey(int coordinate) {
+		return coordinate >= -UPDATE_COORD_LIMIT && coordinate < UPDATE_COORD_LIMIT;
 	}
 
 }
@@ -0,0 +1,109 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.world.ticking;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded single-producer single-consumer queue of tasks. The server thread
+ * offers tasks to a {@link Ticker}, which polls them; neither side locks.
+ * <p>
+ * The producer publishes each task with a volatile write of the tail so that a
+ * consumer that is about to park either sees the task or is seen as parked by
+ * the producer (see {@link Ticker#offer(TickerTask)}).
+ */
+class TaskRing {
+
+	private final TickerTask[] buffer;
+	private final int mask;
+
+	/**
+	 * Index of the next task to poll. Written by the consumer only.
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * Index of the next free slot. Written by the producer only.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Producer-local copy of {@link #head} to avoid reading it on every offer.
+	 */
+	private long cachedHead = 0;
+
+	public TaskRing(int capacity) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity must be a power of two, got " + capacity);
+		}
+
+		this.buffer = new TickerTask[capacity];
+		this.mask = capacity - 1;
+	}
+
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Adds the task to the ring. This method must only be called by the
+	 * producer thread.
+	 * 
+	 * @param task the task to add
+	 * @return {@code false} if the ring is full
+	 */
+	public boolean offer(TickerTask task) {
+		long t = tail.get();
+
+		if (t - cachedHead >= buffer.length) {
+			cachedHead = head.get();
+			if (t - cachedHead >= buffer.length) {
+				return false;
+			}
+		}
+
+		buffer[(int) t & mask] = task;
+		tail.set(t + 1);
+		return true;
+	}
+
+	/**
+	 * Removes the oldest task from the ring. This method must only be called
+	 * by the consumer thread.
+	 * 
+	 * @return the task or {@code null} if the ring is empty
+	 */
+	public TickerTask poll() {
+		long h = head.get();
+		if (h == tail.get()) {
+			return null;
+		}
+
+		int index = (int) h & mask;
+		TickerTask task = buffer[index];
+		buffer[index] = null;
+		head.lazySet(h + 1);
+		return task;
+	}
+
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+}
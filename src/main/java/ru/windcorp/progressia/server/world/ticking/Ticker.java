@@ -18,18 +18,35 @@
  
 package ru.windcorp.progressia.server.world.ticking;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.locks.LockSupport;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import ru.windcorp.progressia.common.util.crash.CrashReports;
 import ru.windcorp.progressia.server.Server;
+import ru.windcorp.progressia.server.profiling.TaskStatistics;
+import ru.windcorp.progressia.server.profiling.TickProfiler;
 
 class Ticker {
 
+	/**
+	 * Capacity of the task ring. The coordinator waits for the ticker to make
+	 * room when a stage assigns more tasks than this to a single ticker.
+	 */
+	static final int RING_CAPACITY = 4096;
+
+	/**
+	 * Number of busy checks before an idle ticker starts yielding.
+	 */
+	static final int SPIN_ITERATIONS = 1 << 12;
+
+	/**
+	 * Number of yields before an idle ticker parks.
+	 */
+	static final int YIELD_ITERATIONS = 1 << 6;
+
 	private final String name;
 	private final int id;
 
@@ -38,8 +55,27 @@ class Ticker {
 
 	private volatile boolean shouldRun = true;
 
-	// Expected to implement RandomAccess
-	private final List<TickerTask> tasks = new ArrayList<>(TickerCoordinator.INITIAL_QUEUE_SIZE);
+	private final TaskRing ring = new TaskRing(RING_CAPACITY);
+
+	/**
+	 * Sequence number of the last stage for which all tasks have been
+	 * offered. Written by the coordinator only.
+	 */
+	private volatile long closedStage = 0;
+
+	/**
+	 * Sequence number of the last stage this ticker has completed. Accessed by
+	 * the ticker thread only.
+	 */
+	private long completedStage = 0;
+
+	/**
+	 * Set by the ticker thread immediately before it parks. The coordinator
+	 * unparks the ticker after publishing work only if this flag is set.
+	 */
+	private volatile boolean parked = false;
+
+	private volatile long lastWorkTime = 0;
 
 	private final Logger logger;
 
@@ -76,37 +112,75 @@ class Ticker {
 		return coordinator;
 	}
 
+	/**
+	 * Returns the time this ticker has spent running tasks during the last
+	 * stage.
+	 * 
+	 * @return the duration in nanoseconds
+	 */
+	public long getLastWorkTime() {
+		return lastWorkTime;
+	}
+
 	public synchronized void stop() {
 		if (thread == null)
 			return;
 
 		shouldRun = false;
 		thread.interrupt();
+		LockSupport.unpark(thread);
 
 		logger.debug("Stopping");
 	}
 
-	public synchronized void requestWork(Collection<TickerTask> tasks) {
-		int currentTaskCount = this.tasks.size();
-		if (currentTaskCount != 0) {
-			throw new IllegalStateException("Ticker already has " + currentTaskCount + " tasks");
+	/*
+	 * Interface for TickerCoordinator
+	 */
+
+	/**
+	 * Hands a task of the current stage to this ticker, waiting for the ticker
+	 * to make room if necessary. This method must only be called by the
+	 * coordinator.
+	 * 
+	 * @param task the task to run
+	 */
+	void offer(TickerTask task) {
+		while (!ring.offer(task)) {
+			wakeUp();
+			Thread.yield();
 		}
 
-		this.tasks.addAll(Objects.requireNonNull(tasks, "tasks"));
-		this.notifyAll();
+		wakeUp();
+	}
 
-		logger.debug("Work {} requested", tasks.size());
+	/**
+	 * Notifies this ticker that all tasks of the stage have been
+	 * {@linkplain #offer(TickerTask) offered}. The ticker reports completion
+	 * to the coordinator once it has run them and the shared tasks.
+	 * 
+	 * @param stage the sequence number of the stage
+	 */
+	void closeStage(long stage) {
+		closedStage = stage;
+		wakeUp();
 	}
 
+	private void wakeUp() {
+		if (parked) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/*
+	 * Ticker thread
+	 */
+
 	private void run() {
 		try {
 			logger.debug("Started");
 
-			while (!Thread.interrupted()) {
-				boolean shouldStop = sleep();
-				if (shouldStop)
-					break;
-				work();
+			while (shouldRun && !Thread.interrupted()) {
+				work(completedStage + 1);
 			}
 
 			logger.debug("Stopped");
@@ -117,67 +191,109 @@ class Ticker {
 		}
 	}
 
-	private synchronized boolean sleep() {
-		logger.debug("Entering sleep");
+	private void work(long stage) {
+		Server srv = getCoordinator().getServer();
+		TickProfiler profiler = srv.getTickProfiler();
+		boolean timeTasks = profiler.isTaskTimingEnabled();
 
-		try {
-			while (true) {
+		long start = 0;
+		int tasksCompleted = 0;
+		int idleIterations = 0;
 
-				if (!shouldRun) {
-					logger.debug("Exiting sleep: received stop request");
-					return true;
-				}
+		while (true) {
+			TickerTask task = ring.poll();
 
-				int taskCount = tasks.size();
-				if (taskCount > 0) {
-					logger.debug("Exiting sleep: received {} tasks", taskCount);
-					return false;
-				}
+			if (task == null && closedStage >= stage) {
+				// All tasks were offered before the stage was closed
+				task = ring.poll();
+				if (task == null)
+					break;
+			}
 
-				logger.debug("Waiting");
-				this.wait();
+			if (task != null) {
+				if (tasksCompleted == 0)
+					start = System.nanoTime();
 
+				runTask(task, srv, profiler, timeTasks);
+				tasksCompleted++;
+				idleIterations = 0;
+				continue;
 			}
-		} catch (InterruptedException e) {
-			logger.debug("Exiting sleep: interrupted");
-			return true;
+
+			if (!idle(idleIterations++, stage))
+				return;
 		}
-	}
 
-	private void work() {
-		logger.debug("Starting work");
+		if (tasksCompleted == 0)
+			start = System.nanoTime();
+
+		tasksCompleted += runSharedTasks(srv, profiler, timeTasks);
 
-		int tasksCompleted = runTasks();
-		resetState();
+		lastWorkTime = System.nanoTime() - start;
+		profiler.recordTickerStage(lastWorkTime);
+		completedStage = stage;
+		getCoordinator().reportWorkComplete();
 
-		logger.debug("Work complete; run {} tasks", tasksCompleted);
+		logger.debug("Stage {} complete; run {} tasks", stage, tasksCompleted);
 	}
 
-	private int runTasks() {
-		int tasksCompleted = 0;
+	/**
+	 * Waits for work: spins first, then yields, then parks.
+	 * 
+	 * @param iteration the number of consecutive idle iterations so far
+	 * @param stage     the stage this ticker is waiting for
+	 * @return {@code false} if the ticker has been requested to stop
+	 */
+	private boolean idle(int iteration, long stage) {
+		if (!shouldRun || Thread.currentThread().isInterrupted()) {
+			logger.debug("Exiting wait: received stop request");
+			return false;
+		}
 
-		Server srv = getCoordinator().getServer();
+		if (iteration < SPIN_ITERATIONS)
+			return true;
 
-		for (int i = 0; i < tasks.size(); ++i) {
-			TickerTask task = tasks.get(i);
+		if (iteration < SPIN_ITERATIONS + YIELD_ITERATIONS) {
+			Thread.yield();
+			return true;
+		}
 
-			assert task != null : "Encountered null task";
+		parked = true;
+		if (ring.isEmpty() && closedStage < stage && shouldRun) {
+			LockSupport.park(this);
+		}
+		parked = false;
 
-			try {
-				task.run(srv);
-			} catch (Exception e) {
-				throw CrashReports.report(e, "Could not run %s task %s", task.getClass().getSimpleName(), task);
-			}
+		return true;
+	}
+
+	private int runSharedTasks(Server srv, TickProfiler profiler, boolean timeTasks) {
+		int tasksCompleted = 0;
 
+		TickerTask task;
+		while ((task = getCoordinator().pollSharedTask()) != null) {
+			runTask(task, srv, profiler, timeTasks);
 			tasksCompleted++;
 		}
 
 		return tasksCompleted;
 	}
 
-	private void resetState() {
-		tasks.clear();
-		getCoordinator().reportWorkComplete();
+	private void runTask(TickerTask task, Server srv, TickProfiler profiler, boolean timeTasks) {
+		TaskStatistics statistics = profiler.getTaskStatistics(task.getClass());
+
+		try {
+			if (timeTasks) {
+				long start = System.nanoTime();
+				task.run(srv);
+				statistics.recordRun(System.nanoTime() - start);
+			} else {
+				task.run(srv);
+				statistics.recordRun();
+			}
+		} catch (Exception e) {
+			throw CrashReports.report(e, "Could not run %s task %s", task.getClass().getSimpleName(), task);
+		}
 	}
 
 }
@@ -22,9 +22,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -32,12 +35,17 @@ import org.apache.logging.log4j.Logger;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import glm.vec._3.i.Vec3i;
 import ru.windcorp.progressia.common.Units;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
 import ru.windcorp.progressia.common.util.crash.CrashReports;
 import ru.windcorp.progressia.common.world.ChunkData;
 import ru.windcorp.progressia.common.world.ChunkDataListener;
 import ru.windcorp.progressia.common.world.ChunkDataListeners;
 import ru.windcorp.progressia.server.Server;
+import ru.windcorp.progressia.server.profiling.TickProfiler;
 
 /**
  * Central control point for serverside ticking. This class provides an
@@ -50,45 +58,110 @@ public class TickerCoordinator {
 
 	static final int INITIAL_QUEUE_SIZE = 1024;
 
+	/**
+	 * Thread-sensitive tasks are assigned to tickers by cubic groups of
+	 * {@code 2^LOCALITY_BITS} chunks on each side, so that tasks of
+	 * neighbouring chunks usually run in the same ticker.
+	 */
+	private static final int LOCALITY_BITS = 2;
+
 	private final Server server;
 
-	// Synchronized manually
-	private final Collection<Change> pendingChanges = new HashSet<>(INITIAL_QUEUE_SIZE);
-	// Synchronized manually
-	private final Collection<Evaluation> pendingEvaluations = new ArrayList<>(INITIAL_QUEUE_SIZE);
+	/*
+	 * Pending and staged task collections are swapped at the start of each
+	 * stage so that tasks requested while a stage runs go into the next one
+	 * and are never copied.
+	 */
+
+	// Guarded by this
+	private Collection<Change> pendingChanges = new HashSet<>(INITIAL_QUEUE_SIZE);
+	// Guarded by this
+	private Collection<Evaluation> pendingEvaluations = new ArrayList<>(INITIAL_QUEUE_SIZE);
 
 	/**
-	 * A cached ArrayList used to transfer tasks from Coordinator to Tickers.
-	 * This list must be empty when not in
-	 * {@link #startPassStage(Collection, String)}.
+	 * Coalescing keys of the evaluations in {@link #pendingEvaluations}.
+	 * Cleared when the pending evaluations are taken.
 	 */
-	private final Collection<TickerTask> cachedTransferList = new ArrayList<>(INITIAL_QUEUE_SIZE);
+	// Guarded by this
+	private final TLongSet pendingEvaluationKeys = new TLongHashSet(INITIAL_QUEUE_SIZE);
 
 	/**
-	 * All tasks that must be {@linkplain TickerTask#dispose() disposed of} at
-	 * the end of the current
-	 * tick. This list must be empty when not in
-	 * {@link #runPassStage(Collection, String)}.
+	 * Evaluations rejected as duplicates. They are requested from any thread
+	 * but must be disposed in the server thread, so they are disposed with
+	 * the tasks of the current pass.
 	 */
-	private final Collection<TickerTask> toDispose = new ArrayList<>(INITIAL_QUEUE_SIZE);
+	// Guarded by this
+	private Collection<Evaluation> rejectedEvaluations = new ArrayList<>();
+	// Swapped under this; must be empty when not in disposeRejected
+	private Collection<Evaluation> disposedRejections = new ArrayList<>();
+
+	// Swapped under this; must be empty when not in runPassStage
+	private Collection<Change> stagedChanges = new HashSet<>(INITIAL_QUEUE_SIZE);
+	// Swapped under this; must be empty when not in runPassStage
+	private Collection<Evaluation> stagedEvaluations = new ArrayList<>(INITIAL_QUEUE_SIZE);
 
-	private final Collection<Ticker> tickers;
+	private final List<Ticker> tickers;
 	private final Collection<Thread> threads;
 
+	/**
+	 * Thread-insensitive tasks of the current stage. Tickers take tasks from
+	 * this list once they are done with their own tasks.
+	 */
+	private final List<TickerTask> sharedTasks = new ArrayList<>(INITIAL_QUEUE_SIZE);
+	private final AtomicInteger nextSharedTask = new AtomicInteger();
+
+	private final Vec3i relevantChunkCache = new Vec3i();
+
+	/**
+	 * Packed positions of the chunks pinned for the tasks deferred to the
+	 * next tick. Only accessed in the server thread.
+	 */
+	private TLongSet pinnedChunks = new TLongHashSet();
+	// Swapped in updatePins; empty otherwise
+	private TLongSet previousPins = new TLongHashSet();
+	private final Vec3i pinCursor = new Vec3i();
+
 	private final AtomicInteger workingTickers = new AtomicInteger();
 
+	/**
+	 * Sequence number of the current or last stage
+	 */
+	private long stage = 0;
+
+	/**
+	 * The thread waiting in {@link #sync()}, or {@code null}. The last ticker
+	 * to complete a stage unparks this thread.
+	 */
+	private volatile Thread syncThread = null;
+
 	private final AtomicBoolean canChange = new AtomicBoolean(true);
 
 	private boolean isTickStartSet = false;
 	private long tickStart = -1;
-	private double tickLength = 1.0 / 20; // Do something about it
+	private final double tickLength;
+	private double tickInterval;
 	private long ticks = 0;
 
+	private final StageTimer evaluationTimer;
+	private final StageTimer changeTimer;
+	private int lastTickPasses = 0;
+
 	private final Logger logger = LogManager.getLogger("Ticker Coordinator");
 
 	public TickerCoordinator(Server server, int tickers) {
 		this.server = Objects.requireNonNull(server, "server");
 
+		this.tickLength = server.getTickingSettings().getTickLength();
+		this.tickInterval = tickLength;
+
+		TickProfiler profiler = server.getTickProfiler();
+		this.evaluationTimer = new StageTimer(profiler::recordEvaluationStage);
+		this.changeTimer = new StageTimer(profiler::recordChangeStage);
+
+		if (tickers < 1) {
+			throw new IllegalArgumentException("tickers must be positive, got " + tickers);
+		}
+
 		Collection<Ticker> tickerCollection = new ArrayList<>();
 
 		for (int i = 0; i < tickers; ++i) {
@@ -137,6 +210,30 @@ public class TickerCoordinator {
 		pendingEvaluations.add(evaluation);
 	}
 
+	/**
+	 * Requests an evaluation unless an evaluation with the same coalescing key
+	 * is already pending for the next pass. Rejected evaluations are
+	 * {@linkplain TickerTask#dispose() disposed} in the server thread once the
+	 * current pass or tick ends.
+	 * <p>
+	 * Requesters choose the keys. Equal keys must denote equivalent
+	 * evaluations, e.g. updates at the same position.
+	 * 
+	 * @param evaluation    the evaluation to request
+	 * @param coalescingKey the key that identifies equivalent evaluations
+	 * @return {@code true} if the evaluation was requested, {@code false} if
+	 *         it was dropped as a duplicate
+	 */
+	public synchronized boolean requestEvaluation(Evaluation evaluation, long coalescingKey) {
+		if (pendingEvaluationKeys.add(coalescingKey)) {
+			pendingEvaluations.add(evaluation);
+			return true;
+		}
+
+		rejectedEvaluations.add(evaluation);
+		return false;
+	}
+
 	public Server getServer() {
 		return server;
 	}
@@ -149,28 +246,88 @@ public class TickerCoordinator {
 		return tickLength;
 	}
 
+	/**
+	 * Returns the actual tick rate measured from the interval between the
+	 * starts of the last two ticks.
+	 * 
+	 * @return ticks per second
+	 */
 	public double getTPS() {
-		return 1 / tickLength;
+		return 1 / tickInterval;
 	}
 	
 	public long getUptimeTicks() {
 		return ticks;
 	}
 
+	public int getTickerCount() {
+		return tickers.size();
+	}
+
+	/**
+	 * Returns the wall time that the evaluation stages of the last tick have
+	 * taken in total.
+	 * 
+	 * @return the duration in nanoseconds
+	 */
+	public long getLastEvaluationTime() {
+		return evaluationTimer.lastWallTime;
+	}
+
+	/**
+	 * Returns the wall time that the change stages of the last tick have taken
+	 * in total.
+	 * 
+	 * @return the duration in nanoseconds
+	 */
+	public long getLastChangeTime() {
+		return changeTimer.lastWallTime;
+	}
+
+	/**
+	 * Returns the ratio of the total time that the tickers spent running the
+	 * evaluations of the last tick to the wall time of the evaluation stages.
+	 * This approaches the ticker count when the work is evenly spread.
+	 * 
+	 * @return the average number of busy tickers during evaluation
+	 */
+	public double getLastEvaluationParallelism() {
+		return evaluationTimer.getLastParallelism();
+	}
+
+	/**
+	 * Returns the ratio of the total time that the tickers spent running the
+	 * changes of the last tick to the wall time of the change stages.
+	 * 
+	 * @return the average number of busy tickers during changes
+	 */
+	public double getLastChangeParallelism() {
+		return changeTimer.getLastParallelism();
+	}
+
+	public int getLastTickPasses() {
+		return lastTickPasses;
+	}
+
 	private void onTickStart() {
-		long now = System.currentTimeMillis();
+		long now = System.nanoTime();
 
 		if (isTickStartSet) {
-			tickLength = (now - tickStart) * Units.MILLISECONDS;
+			tickInterval = (now - tickStart) / 1e9 * Units.SECONDS;
 		} else {
 			isTickStartSet = true;
 		}
 
-		tickStart = System.currentTimeMillis();
+		tickStart = now;
 	}
 	
-	private void onTickEnd() {
+	private void onTickEnd(int passes) {
 		ticks++;
+
+		lastTickPasses = passes;
+		server.getTickProfiler().recordPasses(passes);
+		evaluationTimer.endTick();
+		changeTimer.endTick();
 	}
 
 	/*
@@ -182,19 +339,36 @@ public class TickerCoordinator {
 			onTickStart();
 
 			int passes = 0;
+			int maxPasses = server.getTickingSettings().getMaxPassesPerTick();
 
 			logger.debug("Beginning tick");
 
 			while (hasPending()) {
+				if (passes == maxPasses) {
+					deferPending();
+					break;
+				}
+
 				logger.debug("Starting pass");
 				runOnePass();
 				logger.debug("Pass complete");
 				passes++;
 			}
 			
-			onTickEnd();
-
-			logger.debug("Tick complete; run {} passes", passes);
+			updatePins();
+			disposeRejected();
+			onTickEnd(passes);
+
+			if (logger.isDebugEnabled()) {
+				logger.debug(
+					"Tick complete; run {} passes; evaluation {} us ({} busy), change {} us ({} busy)",
+					passes,
+					getLastEvaluationTime() / 1000,
+					String.format("%.2f", getLastEvaluationParallelism()),
+					getLastChangeTime() / 1000,
+					String.format("%.2f", getLastChangeParallelism())
+				);
+			}
 
 		} catch (InterruptedException e) {
 			// Exit silently
@@ -206,92 +380,234 @@ public class TickerCoordinator {
 		}
 	}
 
-	private boolean hasPending() {
-		// Race condition?
+	private synchronized boolean hasPending() {
 		return !(pendingChanges.isEmpty() && pendingEvaluations.isEmpty());
 	}
 
-	private synchronized void runOnePass() throws InterruptedException {
+	/**
+	 * Leaves pending evaluations to the next tick once the pass limit is
+	 * reached. Pending changes are still applied now so that the world does
+	 * not stay half-changed between ticks; this may request more
+	 * evaluations, which are deferred as well. The chunks of the deferred
+	 * tasks are pinned by {@link #updatePins()} so that they are not unloaded
+	 * before the tasks run.
+	 */
+	private void deferPending() throws InterruptedException {
+		runPassStage(takePendingChanges(), "CHANGE", changeTimer);
+
+		if (logger.isDebugEnabled()) {
+			synchronized (this) {
+				logger.debug("Pass limit reached; deferring {} evaluations", pendingEvaluations.size());
+			}
+		}
+	}
+
+	/**
+	 * Pins the loaded chunks of the tasks that are still pending at the end of
+	 * a tick and unpins the chunks pinned at the end of the previous tick,
+	 * whose tasks have run by now. The server ticks chunk unloading before
+	 * the ticker, so without a pin a deferred update could find its chunk
+	 * gone and be lost.
+	 */
+	private void updatePins() {
+		TLongSet previous = pinnedChunks;
+		TLongSet current = previousPins;
+
+		synchronized (this) {
+			pinChunks(pendingEvaluations, previous, current);
+			pinChunks(pendingChanges, previous, current);
+		}
+
+		previous.forEach(key -> {
+			CoordinatePacker.unpack3IntsFromLong(key, pinCursor);
+			server.getChunkManager().unpinChunk(pinCursor);
+			return true;
+		});
+		previous.clear();
+
+		pinnedChunks = current;
+		previousPins = previous;
+	}
+
+	private void pinChunks(Collection<? extends TickerTask> tasks, TLongSet previous, TLongSet current) {
+		for (TickerTask task : tasks) {
+			if (!task.isThreadSensitive())
+				continue;
+
+			task.getRelevantChunk(pinCursor);
+			long key = CoordinatePacker.pack3IntsIntoLong(pinCursor);
+
+			if (current.contains(key))
+				continue;
+
+			if (previous.remove(key) || server.getChunkManager().pinChunk(pinCursor)) {
+				current.add(key);
+			}
+		}
+	}
+
+	/*
+	 * Not synchronized: tickers request new tasks while the stages run
+	 */
+	private void runOnePass() throws InterruptedException {
 		canChange.set(false);
-		runPassStage(pendingEvaluations, "EVALUATION");
+		runPassStage(takePendingEvaluations(), "EVALUATION", evaluationTimer);
 		canChange.set(true);
-		runPassStage(pendingChanges, "CHANGE");
+		runPassStage(takePendingChanges(), "CHANGE", changeTimer);
+		disposeRejected();
 	}
 
-	private synchronized void runPassStage(
-		Collection<? extends TickerTask> tasks,
-		String stageName
-	)
-		throws InterruptedException {
-		if (!toDispose.isEmpty())
-			throw new IllegalStateException("toDispose is not empty: " + toDispose);
-
-		Collection<TickerTask> toDispose = this.toDispose;
+	private synchronized Collection<Evaluation> takePendingEvaluations() {
+		if (!stagedEvaluations.isEmpty())
+			throw new IllegalStateException("stagedEvaluations is not empty: " + stagedEvaluations);
 
-		startPassStage(tasks, toDispose, stageName);
-		sync();
-		dispose(toDispose);
+		Collection<Evaluation> result = pendingEvaluations;
+		pendingEvaluations = stagedEvaluations;
+		stagedEvaluations = result;
+		pendingEvaluationKeys.clear();
+		return result;
 	}
 
-	private void dispose(Collection<TickerTask> toDispose) {
-		toDispose.forEach(TickerTask::dispose);
-		toDispose.clear();
+	private synchronized Collection<Change> takePendingChanges() {
+		if (!stagedChanges.isEmpty())
+			throw new IllegalStateException("stagedChanges is not empty: " + stagedChanges);
+
+		Collection<Change> result = pendingChanges;
+		pendingChanges = stagedChanges;
+		stagedChanges = result;
+		return result;
 	}
 
-	private synchronized void startPassStage(
+	private void runPassStage(
 		Collection<? extends TickerTask> tasks,
-		Collection<TickerTask> toDispose,
-		String stageName
-	) {
+		String stageName,
+		StageTimer timer
+	)
+		throws InterruptedException {
+
 		if (tasks.isEmpty()) {
 			logger.debug("Skipping stage {}: tasks is empty", stageName);
 			return;
 		}
 
-		logger.debug("Starting stage {}", stageName);
+		long start = System.nanoTime();
 
-		if (!cachedTransferList.isEmpty())
-			throw new IllegalStateException("cachedTransferList is not empty: " + cachedTransferList);
-
-		workingTickers.set(0);
+		startPassStage(tasks, stageName);
+		sync();
 
+		timer.recordStage(System.nanoTime() - start);
 		for (Ticker ticker : tickers) {
-			workingTickers.incrementAndGet();
+			timer.busyTime += ticker.getLastWorkTime();
+		}
+
+		sharedTasks.clear();
+		dispose(tasks);
+	}
 
-			Collection<TickerTask> selectedTasks = cachedTransferList;
-			ticker.requestWork(selectTasks(ticker, tasks, selectedTasks));
-			selectedTasks.clear();
+	private void disposeRejected() {
+		Collection<Evaluation> rejected;
+
+		synchronized (this) {
+			if (rejectedEvaluations.isEmpty())
+				return;
+
+			rejected = rejectedEvaluations;
+			rejectedEvaluations = disposedRejections;
+			disposedRejections = rejected;
 		}
 
-		toDispose.addAll(tasks);
+		dispose(rejected);
+	}
+
+	private void dispose(Collection<? extends TickerTask> tasks) {
+		tasks.forEach(TickerTask::dispose);
 		tasks.clear();
+	}
+
+	private void startPassStage(Collection<? extends TickerTask> tasks, String stageName) {
+		logger.debug("Starting stage {}", stageName);
+
+		if (!sharedTasks.isEmpty())
+			throw new IllegalStateException("sharedTasks is not empty: " + sharedTasks);
+
+		stage++;
+		workingTickers.set(tickers.size());
+
+		distributeTasks(tasks);
+
+		for (Ticker ticker : tickers) {
+			ticker.closeStage(stage);
+		}
 
 		logger.debug("Stage started");
 	}
 
-	private Collection<TickerTask> selectTasks(
-		Ticker ticker,
-		Collection<? extends TickerTask> tasks,
-		Collection<TickerTask> output
-	) {
-		// TODO implement properly
+	/**
+	 * Hands the tasks to tickers. Thread-sensitive tasks are offered to the
+	 * ticker chosen by the locality group of their relevant chunk as soon as
+	 * they are distributed; all other tasks are placed into
+	 * {@link #sharedTasks}, which tickers drain after the stage is closed.
+	 * 
+	 * @param tasks the tasks to distribute
+	 */
+	private void distributeTasks(Collection<? extends TickerTask> tasks) {
+		int tickerCount = tickers.size();
+
+		nextSharedTask.set(0);
 
 		for (TickerTask task : tasks) {
-			// Assign to one ticker randomly
-			if (task.hashCode() % tickers.size() == ticker.getId()) {
-				output.add(task);
+			if (!task.isThreadSensitive()) {
+				sharedTasks.add(task);
+				continue;
 			}
+
+			task.getRelevantChunk(relevantChunkCache);
+			tickers.get(getTickerIndex(relevantChunkCache, tickerCount)).offer(task);
 		}
+	}
+
+	private static int getTickerIndex(Vec3i chunk, int tickerCount) {
+		if (tickerCount == 1)
+			return 0;
+
+		int x = chunk.x >> LOCALITY_BITS;
+		int y = chunk.y >> LOCALITY_BITS;
+		int z = chunk.z >> LOCALITY_BITS;
+
+		int hash = (x * 73856093) ^ (y * 19349663) ^ (z * 83492791);
+		hash ^= hash >>> 16;
 
-		return output;
+		return Math.floorMod(hash, tickerCount);
 	}
 
-	private synchronized void sync() throws InterruptedException {
+	/**
+	 * Waits until all tickers have completed the current stage: spins first,
+	 * then yields, then parks until the last ticker unparks this thread.
+	 * 
+	 * @throws InterruptedException if this thread is interrupted while parked
+	 */
+	private void sync() throws InterruptedException {
 		logger.debug("Starting sync wait");
-		while (workingTickers.get() > 0) {
-			this.wait();
-			logger.debug("Sync notification received");
+
+		for (int i = 0; workingTickers.get() > 0; ++i) {
+			if (i < Ticker.SPIN_ITERATIONS)
+				continue;
+
+			if (i < Ticker.SPIN_ITERATIONS + Ticker.YIELD_ITERATIONS) {
+				Thread.yield();
+				continue;
+			}
+
+			syncThread = Thread.currentThread();
+			if (workingTickers.get() > 0) {
+				LockSupport.park(this);
+			}
+			syncThread = null;
+
+			if (Thread.interrupted())
+				throw new InterruptedException();
 		}
+
 		logger.debug("Sync achieved");
 	}
 
@@ -299,7 +615,19 @@ public class TickerCoordinator {
 	 * Interface for Tickers
 	 */
 
-	synchronized void reportWorkComplete() {
+	/**
+	 * Takes the next thread-insensitive task of the current stage.
+	 * 
+	 * @return the task or {@code null} if all tasks have been taken
+	 */
+	TickerTask pollSharedTask() {
+		int index = nextSharedTask.getAndIncrement();
+		if (index >= sharedTasks.size())
+			return null;
+		return sharedTasks.get(index);
+	}
+
+	void reportWorkComplete() {
 		int stillWorking = workingTickers.decrementAndGet();
 		if (stillWorking < 0)
 			throw new IllegalStateException("stillWorking = " + stillWorking);
@@ -309,9 +637,11 @@ public class TickerCoordinator {
 			return;
 		}
 
-		logger.debug("All tickers reported completion, notifying sync");
-
-		this.notifyAll();
+		Thread waiting = syncThread;
+		if (waiting != null) {
+			logger.debug("All tickers reported completion, unparking sync");
+			LockSupport.unpark(waiting);
+		}
 	}
 
 	void crash(Throwable t, String thread) {
@@ -327,4 +657,34 @@ public class TickerCoordinator {
 		);
 	}
 
+	private static class StageTimer {
+		final LongConsumer stageRecorder;
+
+		long wallTime = 0;
+		long busyTime = 0;
+
+		long lastWallTime = 0;
+		long lastBusyTime = 0;
+
+		StageTimer(LongConsumer stageRecorder) {
+			this.stageRecorder = stageRecorder;
+		}
+
+		void recordStage(long duration) {
+			wallTime += duration;
+			stageRecorder.accept(duration);
+		}
+
+		void endTick() {
+			lastWallTime = wallTime;
+			lastBusyTime = busyTime;
+			wallTime = 0;
+			busyTime = 0;
+		}
+
+		double getLastParallelism() {
+			return lastWallTime == 0 ? 0 : (double) lastBusyTime / lastWallTime;
+		}
+	}
+
 }
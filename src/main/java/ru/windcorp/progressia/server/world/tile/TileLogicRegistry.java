@@ -18,14 +18,33 @@
  
 package ru.windcorp.progressia.server.world.tile;
 
+import ru.windcorp.progressia.common.util.namespaces.NamespacedCounterparts;
 import ru.windcorp.progressia.common.util.namespaces.NamespacedInstanceRegistry;
+import ru.windcorp.progressia.common.world.tile.TileData;
+import ru.windcorp.progressia.common.world.tile.TileDataRegistry;
 
 public class TileLogicRegistry extends NamespacedInstanceRegistry<TileLogic> {
 
 	private static final TileLogicRegistry INSTANCE = new TileLogicRegistry();
 
+	private final NamespacedCounterparts<TileLogic> byData = new NamespacedCounterparts<>(
+		TileDataRegistry.getInstance(),
+		this
+	);
+
 	public static TileLogicRegistry getInstance() {
 		return INSTANCE;
 	}
 
+	/**
+	 * Returns the TileLogic with the same ID as the provided tile data. This
+	 * does not lock once the registries have been frozen.
+	 * 
+	 * @param data the tile data to look up
+	 * @return the corresponding TileLogic or {@code null}
+	 */
+	public TileLogic get(TileData data) {
+		return byData.get(data);
+	}
+
 }
@@ -18,8 +18,13 @@
  
 package ru.windcorp.progressia.test;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import glm.vec._3.i.Vec3i;
 import ru.windcorp.progressia.common.comms.controls.ControlData;
+import ru.windcorp.progressia.common.world.DecodingException;
 
 public class ControlBreakBlockData extends ControlData {
 
@@ -37,4 +42,16 @@ public class ControlBreakBlockData extends ControlData {
 		this.blockInWorld.set(blockInWorld.x, blockInWorld.y, blockInWorld.z);
 	}
 
+	@Override
+	public void read(DataInput input) throws IOException, DecodingException {
+		this.blockInWorld.set(input.readInt(), input.readInt(), input.readInt());
+	}
+
+	@Override
+	public void write(DataOutput output) throws IOException {
+		output.writeInt(this.blockInWorld.x);
+		output.writeInt(this.blockInWorld.y);
+		output.writeInt(this.blockInWorld.z);
+	}
+
 }
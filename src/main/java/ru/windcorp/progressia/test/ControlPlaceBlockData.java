@@ -18,9 +18,15 @@
  
 package ru.windcorp.progressia.test;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import glm.vec._3.i.Vec3i;
 import ru.windcorp.progressia.common.comms.controls.ControlData;
+import ru.windcorp.progressia.common.world.DecodingException;
 import ru.windcorp.progressia.common.world.block.BlockData;
+import ru.windcorp.progressia.common.world.block.BlockDataRegistry;
 
 public class ControlPlaceBlockData extends ControlData {
 
@@ -44,4 +50,24 @@ public class ControlPlaceBlockData extends ControlData {
 		this.blockInWorld.set(blockInWorld.x, blockInWorld.y, blockInWorld.z);
 	}
 
+	@Override
+	public void read(DataInput input) throws IOException, DecodingException {
+		String blockId = input.readUTF();
+		this.block = BlockDataRegistry.getInstance().get(blockId);
+
+		if (this.block == null) {
+			throw new DecodingException("Unknown block " + blockId);
+		}
+
+		this.blockInWorld.set(input.readInt(), input.readInt(), input.readInt());
+	}
+
+	@Override
+	public void write(DataOutput output) throws IOException {
+		output.writeUTF(this.block.getId());
+		output.writeInt(this.blockInWorld.x);
+		output.writeInt(this.blockInWorld.y);
+		output.writeInt(this.blockInWorld.z);
+	}
+
 }
@@ -18,10 +18,16 @@
  
 package ru.windcorp.progressia.test;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import glm.vec._3.i.Vec3i;
 import ru.windcorp.progressia.common.comms.controls.ControlData;
+import ru.windcorp.progressia.common.world.DecodingException;
 import ru.windcorp.progressia.common.world.block.BlockFace;
 import ru.windcorp.progressia.common.world.tile.TileData;
+import ru.windcorp.progressia.common.world.tile.TileDataRegistry;
 
 public class ControlPlaceTileData extends ControlData {
 
@@ -51,4 +57,31 @@ public class ControlPlaceTileData extends ControlData {
 		this.face = face;
 	}
 
+	@Override
+	public void read(DataInput input) throws IOException, DecodingException {
+		String tileId = input.readUTF();
+		this.tile = TileDataRegistry.getInstance().get(tileId);
+
+		if (this.tile == null) {
+			throw new DecodingException("Unknown tile " + tileId);
+		}
+
+		this.blockInWorld.set(input.readInt(), input.readInt(), input.readInt());
+
+		int faceId = input.readByte();
+		if (faceId < 0 || faceId >= BlockFace.getFaces().size()) {
+			throw new DecodingException("Invalid face " + faceId);
+		}
+		this.face = BlockFace.getFaces().get(faceId);
+	}
+
+	@Override
+	public void write(DataOutput output) throws IOException {
+		output.writeUTF(this.tile.getId());
+		output.writeInt(this.blockInWorld.x);
+		output.writeInt(this.blockInWorld.y);
+		output.writeInt(this.blockInWorld.z);
+		output.writeByte(this.face.getId());
+	}
+
 }
@@ -46,10 +46,12 @@ import ru.windcorp.progressia.client.world.tile.*;
 import ru.windcorp.progressia.common.collision.AABB;
 import ru.windcorp.progressia.common.collision.CollisionModel;
 import ru.windcorp.progressia.common.comms.controls.*;
+import ru.windcorp.progressia.common.comms.packets.PacketRegistry;
 import ru.windcorp.progressia.common.state.StatefulObjectRegistry.Factory;
 import ru.windcorp.progressia.common.world.block.*;
 import ru.windcorp.progressia.common.world.entity.*;
 import ru.windcorp.progressia.common.world.io.ChunkIO;
+import ru.windcorp.progressia.common.world.io.PalettedChunkCodec;
 import ru.windcorp.progressia.common.world.tile.*;
 import ru.windcorp.progressia.server.Server;
 import ru.windcorp.progressia.server.comms.controls.*;
@@ -71,6 +73,7 @@ public class TestContent {
 		registerWorldContent();
 		regsiterControls();
 		registerMisc();
+		freezeRegistries();
 	}
 
 	private static void registerWorldContent() {
@@ -296,6 +299,14 @@ public class TestContent {
 				KeyMatcher.of(GLFW.GLFW_KEY_M).matcher()
 			)
 		);
+
+		// Controls are sent as PacketControls
+		for (String id : data.keySet()) {
+			PacketRegistry.getInstance().register(
+				PacketControl.getPacketId(id),
+				packetId -> new PacketControl(packetId, data.create(id))
+			);
+		}
 	}
 
 	private static void register(BlockData x) {
@@ -431,7 +442,17 @@ public class TestContent {
 
 	private static void registerMisc() {
 		ChunkIO.registerCodec(new TestChunkCodec());
+		ChunkIO.registerCodec(new PalettedChunkCodec());
 		ChunkRenderOptimizerRegistry.getInstance().register("Core:SurfaceOptimizer", ChunkRenderOptimizerSurface::new);
 	}
 
+	private static void freezeRegistries() {
+		BlockDataRegistry.getInstance().freeze();
+		TileDataRegistry.getInstance().freeze();
+		BlockLogicRegistry.getInstance().freeze();
+		TileLogicRegistry.getInstance().freeze();
+		BlockRenderRegistry.getInstance().freeze();
+		TileRenderRegistry.getInstance().freeze();
+	}
+
 }
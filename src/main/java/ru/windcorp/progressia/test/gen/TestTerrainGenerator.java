@@ -18,135 +18,311 @@
  
 package ru.windcorp.progressia.test.gen;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import kdotjpg.opensimplex2.areagen.OpenSimplex2S;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
+import ru.windcorp.progressia.common.world.ChunkData;
 import ru.windcorp.progressia.server.world.WorldLogic;
 
 class TestTerrainGenerator {
 
-	@FunctionalInterface
-	private interface Func2D {
-		double compute(double x, double y);
+	/**
+	 * Height and slope maps of a single chunk column. Instances are shared
+	 * between threads and must not be modified.
+	 */
+	static class Column {
+		private final double[][] heightMap;
+		private final double[][] slopeMap;
+
+		private Column(double[][] heightMap, double[][] slopeMap) {
+			this.heightMap = heightMap;
+			this.slopeMap = slopeMap;
+		}
+
+		public double getHeight(int xInChunk, int yInChunk) {
+			return heightMap[xInChunk][yInChunk];
+		}
+
+		public double getSlope(int xInChunk, int yInChunk) {
+			return slopeMap[xInChunk][yInChunk];
+		}
+	}
+
+	private static final int MAX_CACHED_COLUMNS = 1024;
+
+	/*
+	 * The terrain shape in world coordinates is
+	 * 
+	 * shape = 1000 * (squash(10 * mountainousity) * mountains + plains)
+	 * 
+	 * where, with u = 0.001 * (x; y) and N the noise,
+	 * 
+	 * plains = 0.2 * sum[i < 3] (0.5 * N(0.01 * 2^i * u) / 2^i) + 0.2
+	 * mountains = 3 * sum[i < 12] (ridge(N(0.01 * 2^i * u)) / 1.5^i)
+	 * mountainousity = sum[i < 3] (N(0.007 * 2^i * u) / 2^i) - 0.25
+	 * 
+	 * Each octave is evaluated for a whole grid at once, together with its
+	 * analytic gradient, which gives the slope.
+	 */
+
+	private static final double WORLD_SCALE = 0.001;
+
+	private static final double PLAINS_FREQUENCY = 0.01;
+	private static final int PLAINS_OCTAVES = 3;
+
+	private static final double MOUNTAINS_FREQUENCY = 0.01;
+	private static final int MOUNTAINS_OCTAVES = 12;
+
+	private static final double MOUNTAINOUSITY_FREQUENCY = 0.007;
+	private static final int MOUNTAINOUSITY_OCTAVES = 3;
+
+	/**
+	 * Per-thread scratch arrays for {@link TestTerrainGenerator#compute}
+	 */
+	private static class Buffers {
+		final int count;
+
+		final double[] baseX, baseY;
+		final double[] x, y;
+		final double[] value, ddx, ddy;
+
+		final double[] plains, plainsDx, plainsDy;
+		final double[] mountains, mountainsDx, mountainsDy;
+		final double[] mountainousity, mountainousityDx, mountainousityDy;
+
+		Buffers(int count) {
+			this.count = count;
+
+			baseX = new double[count];
+			baseY = new double[count];
+			x = new double[count];
+			y = new double[count];
+			value = new double[count];
+			ddx = new double[count];
+			ddy = new double[count];
+
+			plains = new double[count];
+			plainsDx = new double[count];
+			plainsDy = new double[count];
+			mountains = new double[count];
+			mountainsDx = new double[count];
+			mountainsDy = new double[count];
+			mountainousity = new double[count];
+			mountainousityDx = new double[count];
+			mountainousityDy = new double[count];
+		}
 	}
 
 	private final OpenSimplex2S noise;
-	private final Func2D shape;
+
+	private final ThreadLocal<Buffers> buffers = new ThreadLocal<>();
+
+	/**
+	 * Columns keyed by packed start coordinates, in access order. Guarded by
+	 * itself.
+	 */
+	private final Map<Long, Column> columns = new LinkedHashMap<Long, Column>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Column> eldest) {
+			return size() > MAX_CACHED_COLUMNS;
+		}
+	};
 
 	public TestTerrainGenerator(TestWorldGenerator testWorldGenerator, WorldLogic world) {
 		this.noise = new OpenSimplex2S("We're getting somewhere".hashCode());
-
-		Func2D plainsHeight = tweak(
-			octaves(
-				tweak(primitive(), 0.01, 0.5),
-				2,
-				3
-			),
-			1,
-			0.2,
-			0.2
-		);
-
-		Func2D mountainsHeight = tweak(
-			octaves(
-				ridge(tweak(primitive(), 0.01, 1)),
-				2,
-				1.5,
-				12
-			),
-			1,
-			3
-		);
-
-		Func2D mountainousity = tweak(
-			octaves(
-				tweak(primitive(), 0.007, 1),
-				2,
-				3
-			),
-			1,
-			1,
-			-0.25
-		);
-
-		shape = tweak(
-			add(multiply(squash(mountainousity, 10), mountainsHeight), plainsHeight),
-			0.001,
-			1000,
-			0
-		);
 	}
 
-	public void compute(int startX, int startY, double[][] heightMap, double[][] slopeMap) {
-		for (int x = 0; x < heightMap.length; ++x) {
-			for (int y = 0; y < heightMap.length; ++y) {
-				heightMap[x][y] = shape.compute(x + startX, y + startY);
-				slopeMap[x][y] = computeSlope(shape, x + startX, y + startY, heightMap[x][y]);
+	/**
+	 * Returns the height and slope maps of the chunk column that starts at the
+	 * provided block coordinates. Recently used columns are cached. This
+	 * method is thread-safe.
+	 * 
+	 * @param startX X coordinate of the first block of the column
+	 * @param startY Y coordinate of the first block of the column
+	 * @return the column
+	 */
+	public Column getColumn(int startX, int startY) {
+		Long key = CoordinatePacker.pack2IntsIntoLong(startX, startY);
+
+		synchronized (columns) {
+			Column column = columns.get(key);
+			if (column != null) {
+				return column;
 			}
 		}
-	}
 
-	private double computeSlope(Func2D f, double x0, double y0, double f0) {
-		double di = 0.5;
+		// Computed outside of the lock; racing threads produce equal columns
+		final int bpc = ChunkData.BLOCKS_PER_CHUNK;
+		double[][] heightMap = new double[bpc][bpc];
+		double[][] slopeMap = new double[bpc][bpc];
+		compute(startX, startY, heightMap, slopeMap);
 
-		double dfdx = (f.compute(x0 + di, y0) - f0) / di;
-		double dfdy = (f.compute(x0, y0 + di) - f0) / di;
+		Column column = new Column(heightMap, slopeMap);
 
-		return Math.hypot(dfdx, dfdy);
+		synchronized (columns) {
+			Column previous = columns.putIfAbsent(key, column);
+			return previous == null ? column : previous;
+		}
 	}
 
-	/*
-	 * Utility functions
-	 */
+	public void compute(int startX, int startY, double[][] heightMap, double[][] slopeMap) {
+		final int size = heightMap.length;
+		Buffers b = getBuffers(size * size);
 
-	private Func2D primitive() {
-		return noise::noise2;
-	}
+		computePlains(b, startX, startY, size);
+		computeMountains(b, startX, startY, size);
+		computeMountainousity(b, startX, startY, size);
+
+		for (int x = 0; x < size; ++x) {
+			for (int y = 0; y < size; ++y) {
+				int i = x * size + y;
+
+				double squash = 1 / (1 + Math.exp(-10 * b.mountainousity[i]));
+				double dSquash = 10 * squash * (1 - squash);
+
+				double mountains = b.mountains[i];
+				heightMap[x][y] = (squash * mountains + b.plains[i]) * 1000;
 
-	private Func2D add(Func2D a, Func2D b) {
-		return (x, y) -> a.compute(x, y) + b.compute(x, y);
+				double dfdx = dSquash * b.mountainousityDx[i] * mountains + squash * b.mountainsDx[i] + b.plainsDx[i];
+				double dfdy = dSquash * b.mountainousityDy[i] * mountains + squash * b.mountainsDy[i] + b.plainsDy[i];
+				slopeMap[x][y] = Math.sqrt(dfdx * dfdx + dfdy * dfdy) * 1000;
+			}
+		}
 	}
 
-	private Func2D multiply(Func2D a, Func2D b) {
-		return (x, y) -> a.compute(x, y) * b.compute(x, y);
+	private Buffers getBuffers(int count) {
+		Buffers result = buffers.get();
+		if (result == null || result.count != count) {
+			result = new Buffers(count);
+			buffers.set(result);
+		}
+		return result;
 	}
 
-	private Func2D tweak(Func2D f, double scale, double amplitude, double bias) {
-		return (x, y) -> f.compute(x * scale, y * scale) * amplitude + bias;
+	private void computePlains(Buffers b, int startX, int startY, int size) {
+		setBaseCoordinates(b, startX, startY, size, PLAINS_FREQUENCY);
+		clear(b.plains, b.plainsDx, b.plainsDy, b.count);
+
+		double scale = 1;
+		double amplitude = 1;
+
+		for (int octave = 0; octave < PLAINS_OCTAVES; ++octave) {
+			sample(b, scale);
+			double derivativeScale = WORLD_SCALE * PLAINS_FREQUENCY * scale * 0.5 * amplitude;
+
+			for (int i = 0; i < b.count; ++i) {
+				b.plains[i] += b.value[i] * 0.5 * amplitude;
+				b.plainsDx[i] += b.ddx[i] * derivativeScale;
+				b.plainsDy[i] += b.ddy[i] * derivativeScale;
+			}
+
+			scale *= 2;
+			amplitude /= 2;
+		}
+
+		for (int i = 0; i < b.count; ++i) {
+			b.plains[i] = b.plains[i] * 0.2 + 0.2;
+			b.plainsDx[i] *= 0.2;
+			b.plainsDy[i] *= 0.2;
+		}
 	}
 
-	private Func2D tweak(Func2D f, double scale, double amplitude) {
-		return tweak(f, scale, amplitude, 0);
+	private void computeMountains(Buffers b, int startX, int startY, int size) {
+		setBaseCoordinates(b, startX, startY, size, MOUNTAINS_FREQUENCY);
+		clear(b.mountains, b.mountainsDx, b.mountainsDy, b.count);
+
+		double scale = 1;
+		double amplitude = 1;
+
+		for (int octave = 0; octave < MOUNTAINS_OCTAVES; ++octave) {
+			sample(b, scale);
+			double derivativeScale = WORLD_SCALE * MOUNTAINS_FREQUENCY * scale * amplitude;
+
+			for (int i = 0; i < b.count; ++i) {
+				double n = b.value[i];
+				double ridge = 1 - Math.abs(n);
+
+				// d(ridge^2)/dn = -2 * ridge * sign(n)
+				double dRidge = (n < 0 ? 2 : -2) * ridge * derivativeScale;
+
+				b.mountains[i] += ridge * ridge * amplitude;
+				b.mountainsDx[i] += b.ddx[i] * dRidge;
+				b.mountainsDy[i] += b.ddy[i] * dRidge;
+			}
+
+			scale *= 2;
+			amplitude /= 1.5;
+		}
+
+		for (int i = 0; i < b.count; ++i) {
+			b.mountains[i] *= 3;
+			b.mountainsDx[i] *= 3;
+			b.mountainsDy[i] *= 3;
+		}
 	}
 
-	private Func2D octaves(Func2D f, double scaleFactor, double amplitudeFactor, int octaves) {
-		return (x, y) -> {
-			double result = 0;
+	private void computeMountainousity(Buffers b, int startX, int startY, int size) {
+		setBaseCoordinates(b, startX, startY, size, MOUNTAINOUSITY_FREQUENCY);
+		clear(b.mountainousity, b.mountainousityDx, b.mountainousityDy, b.count);
 
-			double scale = 1;
-			double amplitude = 1;
+		double scale = 1;
+		double amplitude = 1;
 
-			for (int i = 0; i < octaves; ++i) {
-				result += f.compute(x * scale, y * scale) * amplitude;
-				scale *= scaleFactor;
-				amplitude /= amplitudeFactor;
+		for (int octave = 0; octave < MOUNTAINOUSITY_OCTAVES; ++octave) {
+			sample(b, scale);
+			double derivativeScale = WORLD_SCALE * MOUNTAINOUSITY_FREQUENCY * scale * amplitude;
+
+			for (int i = 0; i < b.count; ++i) {
+				b.mountainousity[i] += b.value[i] * amplitude;
+				b.mountainousityDx[i] += b.ddx[i] * derivativeScale;
+				b.mountainousityDy[i] += b.ddy[i] * derivativeScale;
 			}
 
-			return result;
-		};
+			scale *= 2;
+			amplitude /= 2;
+		}
+
+		for (int i = 0; i < b.count; ++i) {
+			b.mountainousity[i] += -0.25;
+		}
 	}
 
-	private Func2D octaves(Func2D f, double factor, int octaves) {
-		return octaves(f, factor, factor, octaves);
+	private static void setBaseCoordinates(Buffers b, int startX, int startY, int size, double frequency) {
+		for (int x = 0; x < size; ++x) {
+			double baseX = (x + startX) * WORLD_SCALE * frequency;
+
+			for (int y = 0; y < size; ++y) {
+				int i = x * size + y;
+				b.baseX[i] = baseX;
+				b.baseY[i] = (y + startY) * WORLD_SCALE * frequency;
+			}
+		}
 	}
 
-	private Func2D squash(Func2D f, double slope) {
-		return (x, y) -> 1 / (1 + Math.exp(-slope * f.compute(x, y)));
+	/**
+	 * Samples the noise at base coordinates multiplied by {@code scale}.
+	 * Multiplication by a power of two is exact, so the results match the
+	 * point-by-point evaluation bit for bit.
+	 */
+	private void sample(Buffers b, double scale) {
+		for (int i = 0; i < b.count; ++i) {
+			b.x[i] = b.baseX[i] * scale;
+			b.y[i] = b.baseY[i] * scale;
+		}
+
+		noise.noise2WithDerivatives(b.x, b.y, b.count, b.value, b.ddx, b.ddy);
 	}
 
-	private Func2D ridge(Func2D f) {
-		return (x, y) -> {
-			double result = 1 - Math.abs(f.compute(x, y));
-			return result * result;
-		};
+	private static void clear(double[] a, double[] b, double[] c, int count) {
+		for (int i = 0; i < count; ++i) {
+			a[i] = 0;
+			b[i] = 0;
+			c[i] = 0;
+		}
 	}
 
 }
@@ -77,7 +77,8 @@ public class TestWorldGenerator extends AbstractWorldGenerator<Boolean> {
 		return chunk;
 	}
 
-	private ChunkData generateUnpopulated(Vec3i chunkPos, WorldData world) {
+	@Override
+	public ChunkData generateUnpopulated(Vec3i chunkPos, WorldData world) {
 		ChunkData chunk = new ChunkData(chunkPos, world);
 		chunk.setGenerationHint(false);
 
@@ -95,22 +96,19 @@ public class TestWorldGenerator extends AbstractWorldGenerator<Boolean> {
 			BlockDataRegistry.getInstance().get("Test:GraniteMonolith")
 		};
 
-		double[][] heightMap = new double[bpc][bpc];
-		double[][] gradMap = new double[bpc][bpc];
-
 		int startX = Coordinates.getInWorld(chunk.getX(), 0);
 		int startY = Coordinates.getInWorld(chunk.getY(), 0);
 		int startZ = Coordinates.getInWorld(chunk.getZ(), 0);
 
-		terrainGen.compute(startX, startY, heightMap, gradMap);
+		TestTerrainGenerator.Column column = terrainGen.getColumn(startX, startY);
 
 		VectorUtil.iterateCuboid(0, 0, 0, bpc, bpc, bpc, pos -> {
-			double layer = pos.z - heightMap[pos.x][pos.y] + startZ;
+			double layer = pos.z - column.getHeight(pos.x, pos.y) + startZ;
 
 			if (layer < -4) {
 				chunk.setBlock(pos, stone, false);
 			} else if (layer < 0) {
-				if (gradMap[pos.x][pos.y] > 0.5) {
+				if (column.getSlope(pos.x, pos.y) > 0.5) {
 					BlockData granite = granites[random.nextInt(4)];
 					chunk.setBlock(pos, granite, false);
 				} else {
@@ -182,11 +180,7 @@ public class TestWorldGenerator extends AbstractWorldGenerator<Boolean> {
 		int minZ = chunk.getMinZ();
 		int maxZ = chunk.getMaxZ() + 1;
 
-		final int bpc = ChunkData.BLOCKS_PER_CHUNK;
-		double[][] heightMap = new double[bpc][bpc];
-		double[][] gradMap = new double[bpc][bpc];
-
-		terrainGen.compute(minX, minY, heightMap, gradMap);
+		TestTerrainGenerator.Column column = terrainGen.getColumn(minX, minY);
 
 		for (biw.x = minX; biw.x < maxX; ++biw.x) {
 			for (biw.y = minY; biw.y < maxY; ++biw.y) {
@@ -209,8 +203,8 @@ public class TestWorldGenerator extends AbstractWorldGenerator<Boolean> {
 					world,
 					random,
 					world.getBlock(biw) == dirt,
-					heightMap[xic][yic],
-					gradMap[xic][yic]
+					column.getHeight(xic, yic),
+					column.getSlope(xic, yic)
 				);
 
 			}
@@ -0,0 +1,78 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.comms.controls;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import ru.windcorp.progressia.common.world.DecodingException;
+
+public class PacketControlTest {
+
+	private static class ControlCountData extends ControlData {
+
+		private int count;
+
+		public ControlCountData(String id) {
+			super(id);
+		}
+
+		@Override
+		public void read(DataInput input) throws IOException, DecodingException {
+			count = input.readInt();
+		}
+
+		@Override
+		public void write(DataOutput output) throws IOException {
+			output.writeInt(count);
+		}
+
+	}
+
+	@Test
+	public void packetIds() {
+		assertEquals("Test:ControlKeyPressBreakBlock", PacketControl.getPacketId("Test:BreakBlock"));
+	}
+
+	@Test
+	public void roundTrip() throws IOException, DecodingException {
+		ControlCountData sent = new ControlCountData("Test:Count");
+		sent.count = 42;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new PacketControl(PacketControl.getPacketId("Test:Count"), sent)
+			.write(new DataOutputStream(bytes));
+
+		ControlCountData received = new ControlCountData("Test:Count");
+		new PacketControl(PacketControl.getPacketId("Test:Count"), received)
+			.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(42, received.count);
+	}
+
+}
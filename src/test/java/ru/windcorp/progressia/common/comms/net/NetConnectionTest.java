@@ -0,0 +1,207 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.comms.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ru.windcorp.progressia.common.comms.packets.Packet;
+import ru.windcorp.progressia.common.comms.packets.PacketRegistry;
+
+public class NetConnectionTest {
+
+	private static class QueueHandler implements NetConnection.Handler {
+		final BlockingQueue<Packet> received = new LinkedBlockingQueue<>();
+		volatile IOException closeReason = null;
+		volatile boolean closed = false;
+
+		@Override
+		public void onPacketReceived(Packet packet) {
+			received.add(packet);
+		}
+
+		@Override
+		public void onClosed(IOException reason) {
+			closeReason = reason;
+			closed = true;
+		}
+
+		Packet take() throws InterruptedException {
+			Packet packet = received.poll(10, TimeUnit.SECONDS);
+			assertNotNull("no packet received", packet);
+			return packet;
+		}
+	}
+
+	private final PacketRegistry registry = PacketEcho.createRegistry();
+
+	private NetEventLoop serverLoop;
+	private NetEventLoop clientLoop;
+	private ServerSocketChannel serverSocket;
+
+	private final QueueHandler serverHandler = new QueueHandler();
+	private final QueueHandler clientHandler = new QueueHandler();
+
+	private NetConnection client;
+
+	@Before
+	public void connect() throws IOException, InterruptedException {
+		serverLoop = new NetEventLoop("Test server loop", 1024);
+		clientLoop = new NetEventLoop("Test client loop", 1024);
+		serverLoop.start();
+		clientLoop.start();
+
+		serverSocket = ServerSocketChannel.open();
+		serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+		// Echo everything back
+		serverLoop.listen(serverSocket, channel -> {
+			NetConnection[] connection = new NetConnection[1];
+			connection[0] = new NetConnection(channel, serverLoop, registry, new NetConnection.Handler() {
+				@Override
+				public void onPacketReceived(Packet packet) {
+					serverHandler.onPacketReceived(packet);
+					try {
+						connection[0].send(packet);
+					} catch (IOException e) {
+						throw new AssertionError(e);
+					}
+				}
+
+				@Override
+				public void onClosed(IOException reason) {
+					serverHandler.onClosed(reason);
+				}
+			});
+			connection[0].start();
+		});
+
+		client = new NetConnection(
+			SocketChannel.open(serverSocket.getLocalAddress()),
+			clientLoop,
+			registry,
+			clientHandler
+		);
+		client.start();
+	}
+
+	@After
+	public void disconnect() throws IOException {
+		client.close();
+		clientLoop.close();
+		serverLoop.close();
+		serverSocket.close();
+	}
+
+	@Test
+	public void smallPackets() throws IOException, InterruptedException {
+		for (int i = 0; i < 1000; ++i) {
+			client.send(new PacketEcho(i, new byte[] { (byte) i }));
+		}
+
+		for (int i = 0; i < 1000; ++i) {
+			PacketEcho echo = (PacketEcho) clientHandler.take();
+			assertEquals(i, echo.timestamp);
+			assertArrayEquals(new byte[] { (byte) i }, echo.payload);
+		}
+	}
+
+	@Test
+	public void largePackets() throws IOException, InterruptedException {
+		Random random = new Random(0);
+		byte[][] payloads = new byte[8][];
+
+		for (int i = 0; i < payloads.length; ++i) {
+			// Much larger than the 1 KiB buffers
+			payloads[i] = new byte[random.nextInt(100_000)];
+			random.nextBytes(payloads[i]);
+			client.send(new PacketEcho(i, payloads[i]));
+		}
+
+		for (int i = 0; i < payloads.length; ++i) {
+			PacketEcho echo = (PacketEcho) clientHandler.take();
+			assertEquals(i, echo.timestamp);
+			assertArrayEquals(payloads[i], echo.payload);
+		}
+	}
+
+	@Test
+	public void preencodedFrames() throws IOException, InterruptedException {
+		byte[] payload = new byte[5000];
+		new Random(1).nextBytes(payload);
+
+		for (int i = 0; i < 100; ++i) {
+			client.sendFrame(NetConnection.encodeFrame(new PacketEcho(i, payload), registry));
+		}
+		client.requestFlush();
+
+		for (int i = 0; i < 100; ++i) {
+			PacketEcho echo = (PacketEcho) clientHandler.take();
+			assertEquals(i, echo.timestamp);
+			assertArrayEquals(payload, echo.payload);
+		}
+	}
+
+	@Test
+	public void handshake() throws IOException, InterruptedException {
+		PacketHandshake handshake = new PacketHandshake();
+		handshake.set("Tester", registry);
+		client.send(handshake);
+
+		PacketHandshake received = (PacketHandshake) serverHandler.take();
+		assertEquals("Tester", received.getLogin());
+		assertEquals(registry.getFingerprint(), received.getFingerprint());
+	}
+
+	@Test
+	public void closeByPeer() throws IOException, InterruptedException {
+		// Make sure the server has accepted the connection
+		client.send(new PacketEcho(0, new byte[0]));
+		serverHandler.take();
+
+		client.close();
+		assertTrue(clientHandler.closed);
+
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!serverHandler.closed && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertTrue("server side not closed", serverHandler.closed);
+		assertNull(serverHandler.closeReason);
+	}
+
+}
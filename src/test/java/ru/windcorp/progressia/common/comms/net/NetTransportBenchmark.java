@@ -0,0 +1,191 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.comms.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ru.windcorp.progressia.common.comms.packets.Packet;
+import ru.windcorp.progressia.common.comms.packets.PacketRegistry;
+import ru.windcorp.progressia.server.profiling.Histogram;
+
+/**
+ * Measures packet throughput and round-trip latency of {@link NetConnection}s
+ * over loopback.
+ * <p>
+ * A server loop echoes every packet back. A single client loop serves all
+ * simulated connections, each of which keeps a fixed number of packets in
+ * flight and sends a new packet whenever an echo arrives.
+ * <p>
+ * Arguments: connection count, packets per connection, packets in flight per
+ * connection, payload size in bytes.
+ */
+public class NetTransportBenchmark {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int packetsPerConnection = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+		int inFlight = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int payloadSize = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+		PacketRegistry registry = PacketEcho.createRegistry();
+
+		NetEventLoop serverLoop = new NetEventLoop("Benchmark server loop");
+		NetEventLoop clientLoop = new NetEventLoop("Benchmark client loop");
+		serverLoop.start();
+		clientLoop.start();
+
+		ServerSocketChannel serverSocket = ServerSocketChannel.open();
+		serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), connections);
+
+		serverLoop.listen(serverSocket, channel -> {
+			NetConnection[] connection = new NetConnection[1];
+			connection[0] = new NetConnection(channel, serverLoop, registry, new NetConnection.Handler() {
+				@Override
+				public void onPacketReceived(Packet packet) {
+					try {
+						connection[0].send(packet);
+					} catch (IOException e) {
+						// Connection closed
+					}
+				}
+
+				@Override
+				public void onClosed(IOException reason) {
+					// Do nothing
+				}
+			});
+			connection[0].start();
+		});
+
+		for (int round = 0; round < 3; ++round) {
+			Histogram latency = new Histogram("rtt");
+			CountDownLatch done = new CountDownLatch(connections);
+			byte[] payload = new byte[payloadSize];
+
+			NetConnection[] clients = new NetConnection[connections];
+
+			for (int i = 0; i < connections; ++i) {
+				EchoClient handler = new EchoClient(packetsPerConnection, latency, done, payload);
+				clients[i] = new NetConnection(
+					SocketChannel.open(serverSocket.getLocalAddress()),
+					clientLoop,
+					registry,
+					handler
+				);
+				handler.connection = clients[i];
+				clients[i].start();
+			}
+
+			long start = System.nanoTime();
+
+			for (NetConnection client : clients) {
+				for (int j = 0; j < inFlight; ++j) {
+					client.send(new PacketEcho(System.nanoTime(), payload));
+				}
+			}
+
+			if (!done.await(5, TimeUnit.MINUTES)) {
+				System.out.println("Timed out");
+			}
+
+			long time = System.nanoTime() - start;
+
+			for (NetConnection client : clients) {
+				client.close();
+			}
+
+			long roundTrips = latency.getCount();
+
+			System.out.printf(
+				"Round %d: %d connections, %d round trips of %d bytes in %.2f s%n"
+					+ "  throughput: %.0f packets/s each way%n"
+					+ "  RTT: mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us%n",
+				round,
+				connections,
+				roundTrips,
+				payloadSize,
+				time / 1e9,
+				roundTrips / (time / 1e9),
+				latency.getMean() / 1e3,
+				latency.getPercentile(0.5) / 1e3,
+				latency.getPercentile(0.99) / 1e3,
+				latency.getMax() / 1e3
+			);
+		}
+
+		clientLoop.close();
+		serverLoop.close();
+		serverSocket.close();
+	}
+
+	private static class EchoClient implements NetConnection.Handler {
+
+		NetConnection connection;
+
+		private final Histogram latency;
+		private final CountDownLatch done;
+		private final byte[] payload;
+
+		private int remaining;
+
+		EchoClient(int packets, Histogram latency, CountDownLatch done, byte[] payload) {
+			this.remaining = packets;
+			this.latency = latency;
+			this.done = done;
+			this.payload = payload;
+		}
+
+		@Override
+		public void onPacketReceived(Packet packet) {
+			if (remaining <= 0) {
+				// Trailing packets that were in flight
+				return;
+			}
+
+			latency.record(System.nanoTime() - ((PacketEcho) packet).timestamp);
+
+			if (--remaining == 0) {
+				done.countDown();
+			}
+
+			if (remaining > 0) {
+				try {
+					connection.send(new PacketEcho(System.nanoTime(), payload));
+				} catch (IOException e) {
+					// Connection closed
+				}
+			}
+		}
+
+		@Override
+		public void onClosed(IOException reason) {
+			if (reason != null) {
+				reason.printStackTrace();
+			}
+		}
+
+	}
+
+}
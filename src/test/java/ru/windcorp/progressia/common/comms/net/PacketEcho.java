@@ -0,0 +1,69 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.comms.net;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ru.windcorp.progressia.common.comms.packets.Packet;
+import ru.windcorp.progressia.common.comms.packets.PacketRegistry;
+
+/**
+ * A packet with a timestamp and an opaque payload, used to test and benchmark
+ * network transport.
+ */
+class PacketEcho extends Packet {
+
+	static final String ID = "Test:Echo";
+
+	long timestamp;
+	byte[] payload = new byte[0];
+
+	PacketEcho() {
+		super(ID);
+	}
+
+	PacketEcho(long timestamp, byte[] payload) {
+		this();
+		this.timestamp = timestamp;
+		this.payload = payload;
+	}
+
+	static PacketRegistry createRegistry() {
+		PacketRegistry registry = new PacketRegistry();
+		registry.register(ID, id -> new PacketEcho());
+		return registry;
+	}
+
+	@Override
+	public void read(DataInput input) throws IOException {
+		timestamp = input.readLong();
+		payload = new byte[input.readInt()];
+		input.readFully(payload);
+	}
+
+	@Override
+	public void write(DataOutput output) throws IOException {
+		output.writeLong(timestamp);
+		output.writeInt(payload.length);
+		output.write(payload);
+	}
+
+}
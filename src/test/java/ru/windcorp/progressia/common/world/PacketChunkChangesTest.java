@@ -0,0 +1,124 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.world.block.BlockData;
+import ru.windcorp.progressia.common.world.block.BlockDataRegistry;
+import ru.windcorp.progressia.common.world.block.BlockFace;
+import ru.windcorp.progressia.common.world.block.PacketSetBlock;
+import ru.windcorp.progressia.common.world.tile.TileData;
+import ru.windcorp.progressia.common.world.tile.TileDataRegistry;
+import ru.windcorp.progressia.common.world.tile.TileDataStack;
+
+public class PacketChunkChangesTest {
+
+	private static final int BPC = ChunkData.BLOCKS_PER_CHUNK;
+
+	private static final BlockData AIR = new BlockData("Test:ChangesAir");
+	private static final BlockData STONE = new BlockData("Test:ChangesStone");
+	private static final TileData GRASS = new TileData("Test:ChangesGrass");
+
+	@BeforeClass
+	public static void register() {
+		BlockDataRegistry.getInstance().register(AIR);
+		BlockDataRegistry.getInstance().register(STONE);
+		TileDataRegistry.getInstance().register(GRASS);
+	}
+
+	@Test
+	public void appliesInOrder() throws IOException, DecodingException {
+		Vec3i chunkPos = new Vec3i(2, -1, 0);
+		WorldData world = new WorldData();
+		ChunkData chunk = new ChunkData(chunkPos, world);
+		Vec3i block = new Vec3i(1, 2, 3);
+		Vec3i corner = new Vec3i(BPC - 1, BPC - 1, BPC - 1);
+		chunk.forEachBiC(v -> chunk.setBlock(v, AIR, false));
+		world.addChunk(chunk);
+
+		PacketChunkChanges packet = new PacketChunkChanges();
+		packet.set(chunkPos);
+
+		packet.addSetBlock(block, STONE.getId());
+		packet.addAddTile(block, BlockFace.TOP, GRASS.getId());
+		packet.addAddTile(block, BlockFace.TOP, GRASS.getId());
+		packet.addRemoveTile(block, BlockFace.TOP, 0);
+		packet.addSetBlock(corner, STONE.getId());
+		packet.addSetBlock(block, AIR.getId());
+
+		PacketChunkChanges copy = roundTrip(packet);
+		assertEquals("change count", 6, copy.getChangeCount());
+
+		copy.apply(world);
+
+		assertSame(AIR, chunk.getBlock(block));
+		assertSame(STONE, chunk.getBlock(corner));
+
+		TileDataStack stack = chunk.getTiles(block, BlockFace.TOP);
+		assertEquals("tiles", 1, stack.size());
+		assertEquals("remaining tag", 1, stack.getTagByIndex(0));
+	}
+
+	@Test
+	public void smallerThanSeparatePackets() throws IOException, DecodingException {
+		PacketChunkChanges packet = new PacketChunkChanges();
+		packet.set(new Vec3i(0, 0, 0));
+
+		int separateSize = 0;
+		Vec3i pos = new Vec3i();
+
+		for (int i = 0; i < 100; ++i) {
+			pos.set(i % BPC, (i / BPC) % BPC, 0);
+			packet.addSetBlock(pos, STONE.getId());
+
+			PacketSetBlock single = new PacketSetBlock();
+			single.set(STONE, pos);
+			separateSize += encode(single).length;
+		}
+
+		int batchSize = encode(packet).length;
+		assertTrue("batch takes " + batchSize + " bytes, separate packets " + separateSize, batchSize * 4 < separateSize);
+	}
+
+	private static byte[] encode(PacketAffectChunk packet) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		packet.write(new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	private static PacketChunkChanges roundTrip(PacketChunkChanges packet) throws IOException, DecodingException {
+		PacketChunkChanges result = new PacketChunkChanges();
+		result.read(new DataInputStream(new ByteArrayInputStream(encode(packet))));
+		return result;
+	}
+
+}
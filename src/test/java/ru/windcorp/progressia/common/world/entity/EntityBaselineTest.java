@@ -0,0 +1,134 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import glm.vec._3.Vec3;
+import ru.windcorp.progressia.common.state.IntStateField;
+
+public class EntityBaselineTest {
+
+	private static class TestEntity extends EntityData {
+
+		final IntStateField shared = field("Test:Shared").setShared().ofInt().build();
+		final IntStateField local = field("Test:Local").setLocal().ofInt().build();
+
+		TestEntity() {
+			super("Test:BaselineEntity");
+		}
+
+	}
+
+	@BeforeClass
+	public static void register() {
+		EntityDataRegistry.getInstance().register("Test:BaselineEntity", TestEntity::new);
+	}
+
+	private static byte[] writeChanges(EntityBaseline baseline, EntityData entity) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		if (!baseline.writeChanges(entity, true, new DataOutputStream(bytes))) {
+			return null;
+		}
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		TestEntity server = new TestEntity();
+		server.setPosition(new Vec3(1000.25f, -3.5f, 64));
+
+		// As if sent in full
+		TestEntity client = new TestEntity();
+		client.setPosition(server.getPosition());
+
+		EntityBaseline serverBaseline = new EntityBaseline(server);
+		EntityBaseline clientBaseline = new EntityBaseline(client);
+
+		server.clearChangedFields();
+		assertNull(writeChanges(serverBaseline, server));
+
+		server.move(new Vec3(0.1f, 0, 0));
+		server.getVelocity().set(0, 0, -9.8f);
+		server.shared.setNow(server, 42);
+		server.local.setNow(server, 17);
+
+		byte[] changes = writeChanges(serverBaseline, server);
+		// Flags, 3 + 3 small deltas and one shared field; much smaller than
+		// the full state
+		assertTrue(changes.length + " bytes", changes.length < 20);
+
+		clientBaseline.readChanges(client, new DataInputStream(new ByteArrayInputStream(changes)));
+
+		assertEquals(server.getPosition().x, client.getPosition().x, 1 / EntityBaseline.POSITION_SCALE);
+		assertEquals(server.getPosition().y, client.getPosition().y, 1 / EntityBaseline.POSITION_SCALE);
+		assertEquals(-9.8f, client.getVelocity().z, 1 / EntityBaseline.VELOCITY_SCALE);
+		assertEquals(42, client.shared.get(client));
+		assertEquals(0, client.local.get(client));
+
+		server.clearChangedFields();
+		assertNull(writeChanges(serverBaseline, server));
+	}
+
+	@Test
+	public void noDrift() throws IOException {
+		TestEntity server = new TestEntity();
+		TestEntity client = new TestEntity();
+
+		EntityBaseline serverBaseline = new EntityBaseline(server);
+		EntityBaseline clientBaseline = new EntityBaseline(client);
+
+		Vec3 step = new Vec3(0.0003f, -0.0007f, 0.01f);
+
+		for (int i = 0; i < 10000; ++i) {
+			server.move(step);
+
+			byte[] changes = writeChanges(serverBaseline, server);
+			if (changes != null) {
+				clientBaseline.readChanges(client, new DataInputStream(new ByteArrayInputStream(changes)));
+			}
+		}
+
+		assertEquals(server.getPosition().x, client.getPosition().x, 1 / EntityBaseline.POSITION_SCALE);
+		assertEquals(server.getPosition().y, client.getPosition().y, 1 / EntityBaseline.POSITION_SCALE);
+		assertEquals(server.getPosition().z, client.getPosition().z, 1 / EntityBaseline.POSITION_SCALE);
+	}
+
+	@Test
+	public void smallChangesAreSuppressed() throws IOException {
+		TestEntity server = new TestEntity();
+		EntityBaseline baseline = new EntityBaseline(server);
+		server.clearChangedFields();
+
+		server.move(new Vec3(0.1f / EntityBaseline.POSITION_SCALE, 0, 0));
+		assertNull(writeChanges(baseline, server));
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.state.IOContext;
+import ru.windcorp.progressia.common.world.ChunkData;
+import ru.windcorp.progressia.common.world.DecodingException;
+import ru.windcorp.progressia.common.world.block.BlockData;
+import ru.windcorp.progressia.common.world.block.BlockDataRegistry;
+import ru.windcorp.progressia.common.world.block.BlockFace;
+import ru.windcorp.progressia.common.world.tile.TileData;
+import ru.windcorp.progressia.common.world.tile.TileDataRegistry;
+import ru.windcorp.progressia.test.TestChunkCodec;
+
+/**
+ * Compares the encoding size and the encode and decode throughput of
+ * {@link TestChunkCodec} and {@link PalettedChunkCodec} in every
+ * {@link IOContext}.
+ * <p>
+ * Chunks imitate the terrain of the test world generator: stone below, a few
+ * layers of dirt or mixed granite, air above, and grass tiles on the surface.
+ */
+public class PalettedChunkCodecBenchmark {
+
+	private static final int BPC = ChunkData.BLOCKS_PER_CHUNK;
+
+	private static final int CHUNK_COUNT = 512;
+	private static final int ROUNDS = 5;
+
+	private static final BlockData AIR = new BlockData("Test:BenchAir");
+	private static final BlockData STONE = new BlockData("Test:BenchStone");
+	private static final BlockData DIRT = new BlockData("Test:BenchDirt");
+	private static final BlockData[] GRANITES = {
+		new BlockData("Test:BenchGraniteGravel"),
+		new BlockData("Test:BenchGraniteCracked"),
+		new BlockData("Test:BenchGraniteMonolith")
+	};
+	private static final TileData GRASS = new TileData("Test:BenchGrass");
+
+	public static void main(String[] args) throws IOException, DecodingException {
+		BlockDataRegistry.getInstance().registerAll(Arrays.asList(AIR, STONE, DIRT));
+		BlockDataRegistry.getInstance().registerAll(Arrays.asList(GRANITES));
+		TileDataRegistry.getInstance().register(GRASS);
+
+		List<ChunkData> chunks = generateChunks();
+
+		ChunkCodec[] codecs = { new TestChunkCodec(), new PalettedChunkCodec() };
+
+		for (int round = 0; round < ROUNDS; ++round) {
+			System.out.printf("Round %d: %d chunks%n", round, CHUNK_COUNT);
+
+			for (ChunkCodec codec : codecs) {
+				for (IOContext context : new IOContext[] { IOContext.COMMS, IOContext.SAVE }) {
+					run(codec, context, chunks);
+				}
+			}
+		}
+	}
+
+	private static void run(ChunkCodec codec, IOContext context, List<ChunkData> chunks)
+		throws IOException,
+		DecodingException {
+
+		byte[][] encoded = new byte[chunks.size()][];
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < chunks.size(); ++i) {
+			buffer.reset();
+			codec.encode(chunks.get(i), new DataOutputStream(buffer), context);
+			encoded[i] = buffer.toByteArray();
+		}
+		long encodeTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < chunks.size(); ++i) {
+			codec.decode(
+				null,
+				chunks.get(i).getPosition(),
+				new DataInputStream(new ByteArrayInputStream(encoded[i])),
+				context
+			);
+		}
+		long decodeTime = System.nanoTime() - start;
+
+		long total = 0;
+		for (byte[] data : encoded) {
+			total += data.length;
+		}
+
+		System.out.printf(
+			"  %-24s %-6s %8d bytes/chunk, encode %8.1f chunks/s, decode %8.1f chunks/s%n",
+			codec.getId(),
+			context,
+			total / chunks.size(),
+			rate(encodeTime, chunks.size()),
+			rate(decodeTime, chunks.size())
+		);
+	}
+
+	private static List<ChunkData> generateChunks() {
+		Random random = new Random(0);
+		List<ChunkData> result = new ArrayList<>(CHUNK_COUNT);
+		Vec3i pos = new Vec3i();
+
+		for (int i = 0; i < CHUNK_COUNT; ++i) {
+			ChunkData chunk = new ChunkData(new Vec3i(i, 0, 0), null);
+			int surface = random.nextInt(3 * BPC) - BPC;
+			boolean granite = random.nextBoolean();
+
+			for (pos.x = 0; pos.x < BPC; ++pos.x) {
+				for (pos.y = 0; pos.y < BPC; ++pos.y) {
+					int height = surface + (pos.x + pos.y) / 4;
+
+					for (pos.z = 0; pos.z < BPC; ++pos.z) {
+						int layer = pos.z - height;
+						BlockData block;
+
+						if (layer < -4) {
+							block = STONE;
+						} else if (layer < 0) {
+							block = granite ? GRANITES[random.nextInt(GRANITES.length)] : DIRT;
+						} else {
+							block = AIR;
+						}
+
+						chunk.setBlock(pos, block, false);
+
+						if (layer == -1) {
+							chunk.getTiles(pos, BlockFace.TOP).addFarthest(GRASS);
+						}
+					}
+				}
+			}
+
+			result.add(chunk);
+		}
+
+		return result;
+	}
+
+	private static double rate(long nanos, int count) {
+		return count / (nanos / 1e9);
+	}
+
+}
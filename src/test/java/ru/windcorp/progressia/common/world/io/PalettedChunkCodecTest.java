@@ -0,0 +1,200 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.state.IOContext;
+import ru.windcorp.progressia.common.world.ChunkData;
+import ru.windcorp.progressia.common.world.DecodingException;
+import ru.windcorp.progressia.common.world.block.BlockData;
+import ru.windcorp.progressia.common.world.block.BlockDataRegistry;
+import ru.windcorp.progressia.common.world.block.BlockFace;
+import ru.windcorp.progressia.common.world.tile.TileData;
+import ru.windcorp.progressia.common.world.tile.TileDataRegistry;
+import ru.windcorp.progressia.common.world.tile.TileDataStack;
+
+public class PalettedChunkCodecTest {
+
+	private static final int BPC = ChunkData.BLOCKS_PER_CHUNK;
+
+	private static final BlockData[] BLOCKS = new BlockData[40];
+	private static final TileData[] TILES = new TileData[3];
+
+	private final PalettedChunkCodec codec = new PalettedChunkCodec();
+
+	@BeforeClass
+	public static void register() {
+		for (int i = 0; i < BLOCKS.length; ++i) {
+			BLOCKS[i] = new BlockData("Test:CodecBlock" + i);
+			BlockDataRegistry.getInstance().register(BLOCKS[i]);
+		}
+
+		for (int i = 0; i < TILES.length; ++i) {
+			TILES[i] = new TileData("Test:CodecTile" + i);
+			TileDataRegistry.getInstance().register(TILES[i]);
+		}
+	}
+
+	@Test
+	public void uniform() throws IOException, DecodingException {
+		ChunkData chunk = createChunk((x, y, z) -> BLOCKS[0]);
+
+		for (IOContext context : IOContext.values()) {
+			int size = roundTrip(chunk, context);
+			assertTrue("uniform chunk takes " + size + " bytes", size < 64);
+		}
+	}
+
+	@Test
+	public void layered() throws IOException, DecodingException {
+		ChunkData chunk = createChunk((x, y, z) -> BLOCKS[z / 4]);
+		addTiles(chunk, new Random(0));
+
+		for (IOContext context : IOContext.values()) {
+			int size = roundTrip(chunk, context);
+			assertTrue("layered chunk takes " + size + " bytes", size < 2048);
+		}
+	}
+
+	@Test
+	public void noise() throws IOException, DecodingException {
+		Random random = new Random(0);
+		ChunkData chunk = createChunk((x, y, z) -> BLOCKS[random.nextInt(BLOCKS.length)]);
+		addTiles(chunk, random);
+
+		for (IOContext context : IOContext.values()) {
+			// 40 blocks need 6 bits per block; palettes and tiles take the rest
+			int size = roundTrip(chunk, context);
+			assertTrue("noisy chunk takes " + size + " bytes", size < BPC * BPC * BPC * 6 / 8 + 4096);
+		}
+	}
+
+	@Test(expected = DecodingException.class)
+	public void unknownCompression() throws IOException, DecodingException {
+		byte[] data = { (byte) 0x7F };
+		codec.decode(null, new Vec3i(), new DataInputStream(new ByteArrayInputStream(data)), IOContext.COMMS);
+	}
+
+	@Test(expected = DecodingException.class)
+	public void oversizedBody() throws IOException, DecodingException {
+		// Deflated body that claims to inflate to 2 GiB
+		byte[] data = { 0x01, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0x00 };
+		codec.decode(null, new Vec3i(), new DataInputStream(new ByteArrayInputStream(data)), IOContext.COMMS);
+	}
+
+	@FunctionalInterface
+	private interface BlockFunction {
+		BlockData get(int x, int y, int z);
+	}
+
+	private static ChunkData createChunk(BlockFunction blocks) {
+		ChunkData chunk = new ChunkData(new Vec3i(1, -2, 3), null);
+		Vec3i pos = new Vec3i();
+
+		for (pos.z = 0; pos.z < BPC; ++pos.z) {
+			for (pos.y = 0; pos.y < BPC; ++pos.y) {
+				for (pos.x = 0; pos.x < BPC; ++pos.x) {
+					chunk.setBlock(pos, blocks.get(pos.x, pos.y, pos.z), false);
+				}
+			}
+		}
+
+		return chunk;
+	}
+
+	private static void addTiles(ChunkData chunk, Random random) {
+		Vec3i pos = new Vec3i();
+
+		for (int i = 0; i < 200; ++i) {
+			pos.set(random.nextInt(BPC), random.nextInt(BPC), random.nextInt(BPC));
+			BlockFace face = BlockFace.getFaces().get(random.nextInt(BlockFace.BLOCK_FACE_COUNT));
+			TileDataStack stack = chunk.getTiles(pos, face);
+
+			if (!stack.isFull()) {
+				stack.addFarthest(TILES[random.nextInt(TILES.length)]);
+			}
+		}
+	}
+
+	/**
+	 * Encodes and decodes the chunk and checks that the result is identical.
+	 *
+	 * @return the size of the encoding
+	 */
+	private int roundTrip(ChunkData chunk, IOContext context) throws IOException, DecodingException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(buffer);
+		codec.encode(chunk, output, context);
+		output.writeInt(0xCAFEBABE);
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+		ChunkData decoded = codec.decode(null, chunk.getPosition(), input, context);
+		assertEquals("trailing data", 0xCAFEBABE, input.readInt());
+
+		Vec3i pos = new Vec3i();
+		for (pos.z = 0; pos.z < BPC; ++pos.z) {
+			for (pos.y = 0; pos.y < BPC; ++pos.y) {
+				for (pos.x = 0; pos.x < BPC; ++pos.x) {
+					assertSame("block", chunk.getBlock(pos), decoded.getBlock(pos));
+				}
+			}
+		}
+
+		int[] stacks = new int[1];
+		chunk.forEachTileStack(stack -> {
+			if (stack.isEmpty())
+				return;
+
+			stacks[0]++;
+			stack.getBlockInChunk(pos);
+			TileDataStack other = decoded.getTiles(pos, stack.getFace());
+
+			assertEquals("stack size", stack.size(), other.size());
+			for (int i = 0; i < stack.size(); ++i) {
+				assertSame("tile", stack.get(i), other.get(i));
+				assertEquals("tag", stack.getTagByIndex(i), other.getTagByIndex(i));
+			}
+		});
+
+		int[] decodedStacks = new int[1];
+		decoded.forEachTileStack(stack -> {
+			if (!stack.isEmpty()) {
+				decodedStacks[0]++;
+			}
+		});
+		assertEquals("stack count", stacks[0], decodedStacks[0]);
+
+		return buffer.size() - Integer.BYTES;
+	}
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import ru.windcorp.progressia.common.world.DecodingException;
+
+/**
+ * Compares the save and cold-load throughput of the legacy layout, one
+ * deflated file per chunk, with {@link RegionFile}s.
+ * <p>
+ * Payloads imitate the output of the test chunk codec: a small palette of
+ * block IDs followed by per-block palette indices with long runs. Both layouts
+ * store the same deflated bytes; the region layout reuses its
+ * {@link Deflater} and {@link Inflater} like
+ * {@code ru.windcorp.progressia.server.world.io.RegionStorage} does.
+ * <p>
+ * Cold loads open every file anew. Drop the OS page cache between runs for
+ * truly cold numbers.
+ */
+public class RegionFileBenchmark {
+
+	private static final int CHUNKS_PER_AXIS = 16;
+	private static final int CHUNK_COUNT = CHUNKS_PER_AXIS * CHUNKS_PER_AXIS * CHUNKS_PER_AXIS;
+	private static final int BLOCKS = 16 * 16 * 16;
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException, DecodingException {
+		byte[][] payloads = generatePayloads();
+
+		for (int round = 0; round < ROUNDS; ++round) {
+			Path legacyDir = Files.createTempDirectory("progressia_legacy");
+			Path regionDir = Files.createTempDirectory("progressia_region");
+
+			try {
+				long legacySave = time(() -> saveLegacy(legacyDir, payloads));
+				long regionSave = time(() -> saveRegions(regionDir, payloads));
+				long legacyLoad = time(() -> loadLegacy(legacyDir));
+				long regionLoad = time(() -> loadRegions(regionDir));
+
+				System.out.printf(
+					"Round %d: %d chunks%n"
+						+ "  save: legacy %8.1f chunks/s, region %8.1f chunks/s%n"
+						+ "  load: legacy %8.1f chunks/s, region %8.1f chunks/s%n"
+						+ "  files: legacy %d, region %d%n",
+					round,
+					CHUNK_COUNT,
+					rate(legacySave),
+					rate(regionSave),
+					rate(legacyLoad),
+					rate(regionLoad),
+					countFiles(legacyDir),
+					countFiles(regionDir)
+				);
+			} finally {
+				delete(legacyDir);
+				delete(regionDir);
+			}
+		}
+	}
+
+	private static byte[][] generatePayloads() throws IOException {
+		Random random = new Random(0);
+		byte[][] result = new byte[CHUNK_COUNT][];
+
+		for (int i = 0; i < CHUNK_COUNT; ++i) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+
+			int paletteSize = 1 + random.nextInt(6);
+			output.writeInt(paletteSize);
+			for (int p = 0; p < paletteSize; ++p) {
+				output.writeUTF("Test:Block" + random.nextInt(20));
+			}
+
+			int current = random.nextInt(paletteSize);
+			for (int b = 0; b < BLOCKS; ++b) {
+				if (random.nextInt(64) == 0) {
+					current = random.nextInt(paletteSize);
+				}
+				output.writeInt(current);
+			}
+
+			output.writeByte(0xFF);
+			result[i] = bytes.toByteArray();
+		}
+
+		return result;
+	}
+
+	/*
+	 * Legacy layout
+	 */
+
+	private static Path getLegacyPath(Path dir, int x, int y, int z) {
+		return dir.resolve(String.format("chunk_%+d_%+d_%+d.progressia_chunk", x, y, z));
+	}
+
+	private static void saveLegacy(Path dir, byte[][] payloads) throws IOException {
+		int i = 0;
+		for (int z = 0; z < CHUNKS_PER_AXIS; ++z) {
+			for (int y = 0; y < CHUNKS_PER_AXIS; ++y) {
+				for (int x = 0; x < CHUNKS_PER_AXIS; ++x) {
+					Files.createDirectories(dir);
+					Path path = getLegacyPath(dir, x, y, z);
+
+					try (
+						OutputStream output = new DeflaterOutputStream(
+							new BufferedOutputStream(Files.newOutputStream(path))
+						)
+					) {
+						output.write(payloads[i++]);
+					}
+				}
+			}
+		}
+	}
+
+	private static void loadLegacy(Path dir) throws IOException {
+		byte[] sink = new byte[8 * 1024];
+
+		for (int z = 0; z < CHUNKS_PER_AXIS; ++z) {
+			for (int y = 0; y < CHUNKS_PER_AXIS; ++y) {
+				for (int x = 0; x < CHUNKS_PER_AXIS; ++x) {
+					Path path = getLegacyPath(dir, x, y, z);
+					if (!Files.exists(path)) {
+						throw new IOException("Missing " + path);
+					}
+
+					try (
+						InputStream input = new InflaterInputStream(
+							new BufferedInputStream(Files.newInputStream(path))
+						)
+					) {
+						drain(input, sink);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Region layout
+	 */
+
+	private static Path getRegionPath(Path dir, int rx, int ry, int rz) {
+		return dir.resolve(String.format("region_%+d_%+d_%+d.progressia_region", rx, ry, rz));
+	}
+
+	private static void saveRegions(Path dir, byte[][] payloads) throws IOException, DecodingException {
+		Deflater deflater = new Deflater();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(8 * 1024);
+
+		forEachRegion((rx, ry, rz) -> {
+			try (RegionFile region = new RegionFile(getRegionPath(dir, rx, ry, rz))) {
+				forEachChunkInRegion(rx, ry, rz, (x, y, z) -> {
+					buffer.reset();
+					deflater.reset();
+
+					DeflaterOutputStream output = new DeflaterOutputStream(buffer, deflater);
+					output.write(payloads[(z * CHUNKS_PER_AXIS + y) * CHUNKS_PER_AXIS + x]);
+					output.finish();
+
+					byte[] data = buffer.toByteArray();
+					region.write(RegionFile.getEntryIndex(x, y, z), data, 0, data.length);
+				});
+			}
+		});
+
+		deflater.end();
+	}
+
+	private static void loadRegions(Path dir) throws IOException, DecodingException {
+		Inflater inflater = new Inflater();
+		byte[] sink = new byte[8 * 1024];
+
+		forEachRegion((rx, ry, rz) -> {
+			try (RegionFile region = new RegionFile(getRegionPath(dir, rx, ry, rz))) {
+				forEachChunkInRegion(rx, ry, rz, (x, y, z) -> {
+					byte[] data = region.read(RegionFile.getEntryIndex(x, y, z));
+					if (data == null) {
+						throw new IOException("Missing chunk " + x + " " + y + " " + z);
+					}
+
+					inflater.reset();
+					drain(new InflaterInputStream(new ByteArrayInputStream(data), inflater), sink);
+				});
+			}
+		});
+
+		inflater.end();
+	}
+
+	/*
+	 * Utilities
+	 */
+
+	@FunctionalInterface
+	private interface CoordinateAction {
+		void run(int x, int y, int z) throws IOException, DecodingException;
+	}
+
+	@FunctionalInterface
+	private interface BenchmarkAction {
+		void run() throws IOException, DecodingException;
+	}
+
+	private static void forEachRegion(CoordinateAction action) throws IOException, DecodingException {
+		int regions = CHUNKS_PER_AXIS / RegionFile.REGION_SIZE;
+		for (int rz = 0; rz < regions; ++rz) {
+			for (int ry = 0; ry < regions; ++ry) {
+				for (int rx = 0; rx < regions; ++rx) {
+					action.run(rx, ry, rz);
+				}
+			}
+		}
+	}
+
+	private static void forEachChunkInRegion(int rx, int ry, int rz, CoordinateAction action)
+		throws IOException,
+		DecodingException {
+		int size = RegionFile.REGION_SIZE;
+		for (int z = rz * size; z < (rz + 1) * size; ++z) {
+			for (int y = ry * size; y < (ry + 1) * size; ++y) {
+				for (int x = rx * size; x < (rx + 1) * size; ++x) {
+					action.run(x, y, z);
+				}
+			}
+		}
+	}
+
+	private static void drain(InputStream input, byte[] sink) throws IOException {
+		while (input.read(sink) >= 0)
+			;
+	}
+
+	private static long time(BenchmarkAction action) throws IOException, DecodingException {
+		long start = System.nanoTime();
+		action.run();
+		return System.nanoTime() - start;
+	}
+
+	private static double rate(long nanos) {
+		return CHUNK_COUNT / (nanos / 1e9);
+	}
+
+	private static long countFiles(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.count();
+		}
+	}
+
+	private static void delete(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+}
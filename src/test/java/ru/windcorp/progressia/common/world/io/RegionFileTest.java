@@ -0,0 +1,123 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.common.world.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ru.windcorp.progressia.common.world.DecodingException;
+
+public class RegionFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void randomOperations() throws IOException, DecodingException {
+		Random random = new Random(0);
+		Path path = folder.getRoot().toPath().resolve("test.progressia_region");
+
+		byte[][] reference = new byte[RegionFile.ENTRY_COUNT][];
+		RegionFile region = new RegionFile(path);
+
+		for (int i = 0; i < 5000; ++i) {
+			int index = random.nextInt(RegionFile.ENTRY_COUNT);
+
+			if (random.nextInt(8) == 0) {
+				region.remove(index);
+				reference[index] = null;
+			} else {
+				byte[] data = new byte[1 + random.nextInt(4 * RegionFile.SECTOR_SIZE)];
+				random.nextBytes(data);
+				region.write(index, data, 0, data.length);
+				reference[index] = data;
+			}
+
+			if (random.nextInt(500) == 0) {
+				region.close();
+				region = new RegionFile(path);
+			}
+		}
+
+		for (int index = 0; index < RegionFile.ENTRY_COUNT; ++index) {
+			assertArrayEquals("read", reference[index], region.read(index));
+		}
+
+		region.close();
+
+		// Freed sectors must be reused: the file cannot grow beyond the live
+		// data plus a bounded amount of fragmentation
+		long liveBytes = 0;
+		for (byte[] data : reference) {
+			if (data != null) {
+				liveBytes += data.length;
+			}
+		}
+		assertTrue("file size", Files.size(path) < 2 * liveBytes + 64 * 1024);
+	}
+
+	@Test
+	public void emptyEntries() throws IOException, DecodingException {
+		Path path = folder.getRoot().toPath().resolve("empty.progressia_region");
+
+		try (RegionFile region = new RegionFile(path)) {
+			assertFalse(region.has(0));
+			assertNull(region.read(RegionFile.ENTRY_COUNT - 1));
+
+			region.write(0, new byte[] { 1, 2, 3 }, 1, 2);
+			assertTrue(region.has(0));
+			assertArrayEquals(new byte[] { 2, 3 }, region.read(0));
+		}
+	}
+
+	@Test(expected = DecodingException.class)
+	public void invalidSignature() throws IOException, DecodingException {
+		Path path = folder.getRoot().toPath().resolve("invalid.progressia_region");
+		Files.write(path, new byte[8 * 1024]);
+
+		new RegionFile(path).close();
+	}
+
+	@Test
+	public void entryIndices() {
+		boolean[] seen = new boolean[RegionFile.ENTRY_COUNT];
+
+		for (int z = -RegionFile.REGION_SIZE; z < 0; ++z) {
+			for (int y = 0; y < RegionFile.REGION_SIZE; ++y) {
+				for (int x = RegionFile.REGION_SIZE; x < 2 * RegionFile.REGION_SIZE; ++x) {
+					int index = RegionFile.getEntryIndex(x, y, z);
+					assertFalse("duplicate index", seen[index]);
+					seen[index] = true;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
+
+public class ChunkSphereTest {
+
+	private static Set<Long> collect(ChunkSphere sphere, Vec3i center) {
+		Set<Long> result = new HashSet<>();
+		sphere.forEach(center, v -> result.add(CoordinatePacker.pack3IntsIntoLong(v)));
+		return result;
+	}
+
+	@Test
+	public void matchesBruteForce() {
+		float radius = 9.375f;
+		ChunkSphere sphere = ChunkSphere.get(radius);
+
+		int expected = 0;
+		for (int x = -10; x <= 10; ++x) {
+			for (int y = -10; y <= 10; ++y) {
+				for (int z = -10; z <= 10; ++z) {
+					if (x * x + y * y + 4 * z * z <= radius * radius) {
+						expected++;
+					}
+				}
+			}
+		}
+
+		assertEquals(expected, sphere.size());
+
+		int previous = -1;
+		for (int i = 0; i < sphere.size(); ++i) {
+			int x = sphere.getX(i), y = sphere.getY(i), z = sphere.getZ(i);
+			int distance = x * x + y * y + 4 * z * z;
+
+			assertTrue("not sorted", distance >= previous);
+			previous = distance;
+		}
+	}
+
+	@Test
+	public void sharedByEquivalentRadii() {
+		assertSame(ChunkSphere.get(5.5f), ChunkSphere.get(5.52f));
+		assertEquals(30, ChunkSphere.get(5.5f).getRadiusSq());
+	}
+
+	@Test
+	public void differences() {
+		ChunkSphere a = ChunkSphere.get(5.5f);
+		ChunkSphere b = ChunkSphere.get(4.2f);
+
+		Vec3i centerA = new Vec3i(3, -2, 7);
+		Vec3i centerB = new Vec3i(4, -2, 6);
+
+		Set<Long> setA = collect(a, centerA);
+		Set<Long> setB = collect(b, centerB);
+
+		Set<Long> expected = new HashSet<>(setA);
+		expected.removeAll(setB);
+
+		Set<Long> actual = new HashSet<>();
+		a.forEachNotIn(centerA, b, centerB, v -> actual.add(CoordinatePacker.pack3IntsIntoLong(v)));
+
+		assertEquals(expected, actual);
+
+		actual.clear();
+		a.forEachNotIn(centerA, null, centerB, v -> actual.add(CoordinatePacker.pack3IntsIntoLong(v)));
+		assertEquals(setA, actual);
+
+		actual.clear();
+		a.forEachNotIn(centerA, a, centerA, v -> actual.add(CoordinatePacker.pack3IntsIntoLong(v)));
+		assertTrue(actual.isEmpty());
+	}
+
+	@Test
+	public void tickets() {
+		ChunkTickets tickets = new ChunkTickets();
+		Vec3i pos = new Vec3i(1, 2, 3);
+
+		assertTrue(tickets.acquire(pos));
+		assertFalse(tickets.acquire(pos));
+		assertFalse(tickets.release(pos));
+		assertTrue(tickets.contains(pos));
+		assertTrue(tickets.release(pos));
+		assertEquals(0, tickets.size());
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package ru.windcorp.progressia.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import glm.vec._3.Vec3;
+import glm.vec._3.i.Vec3i;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import ru.windcorp.progressia.common.util.CoordinatePacker;
+import ru.windcorp.progressia.common.world.WorldData;
+import ru.windcorp.progressia.common.world.entity.EntityData;
+import ru.windcorp.progressia.common.world.entity.EntityDataRegistry;
+
+public class EntityChunkIndexTest {
+
+	private static final String ENTITY_ID = "Test:IndexedEntity";
+
+	private static class RecordingListener implements EntityChunkIndex.Listener {
+		final List<String> events = new ArrayList<>();
+
+		@Override
+		public void onEntered(long entityId, long chunk) {
+			events.add("+" + entityId + "@" + chunk);
+		}
+
+		@Override
+		public void onLeft(long entityId, long chunk) {
+			events.add("-" + entityId + "@" + chunk);
+		}
+	}
+
+	@BeforeClass
+	public static void register() {
+		EntityDataRegistry.getInstance().register(ENTITY_ID, () -> new EntityData(ENTITY_ID));
+	}
+
+	private static EntityData spawn(WorldData world, long entityId, Vec3 position) {
+		EntityData entity = new EntityData(ENTITY_ID);
+		entity.setEntityId(entityId);
+		entity.setPosition(position);
+		world.addEntity(entity);
+		return entity;
+	}
+
+	private static long chunkOf(EntityData entity) {
+		return CoordinatePacker.pack3IntsIntoLong(entity.getChunkCoords(new Vec3i()));
+	}
+
+	private static TLongSet bucket(EntityChunkIndex index, long chunk) {
+		TLongSet result = new TLongHashSet();
+		index.forEachEntityIn(chunk, result::add);
+		return result;
+	}
+
+	@Test
+	public void moves() {
+		WorldData world = new WorldData();
+		EntityChunkIndex index = new EntityChunkIndex();
+		RecordingListener listener = new RecordingListener();
+
+		EntityData first = spawn(world, 1, new Vec3(0.5f, 0.5f, 0.5f));
+		spawn(world, 2, new Vec3(0.5f, 0.5f, 0.5f));
+		long origin = chunkOf(first);
+
+		index.update(world, listener);
+		assertEquals(2, listener.events.size());
+		listener.events.clear();
+
+		// Nothing has changed
+		index.update(world, listener);
+		assertEquals(0, listener.events.size());
+
+		first.setPosition(new Vec3(1000.5f, 0.5f, 0.5f));
+		long moved = chunkOf(first);
+		world.removeEntity(2);
+		index.update(world, listener);
+
+		assertEquals(
+			"[-1@" + origin + ", +1@" + moved + ", -2@" + origin + "]",
+			listener.events.toString()
+		);
+
+		assertEquals(0, bucket(index, origin).size());
+		assertEquals(new TLongHashSet(new long[] { 1 }), bucket(index, moved));
+		assertEquals(1, index.size());
+	}
+
+}
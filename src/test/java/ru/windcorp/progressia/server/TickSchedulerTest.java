@@ -0,0 +1,95 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TickSchedulerTest {
+
+	private static final long PERIOD = 50;
+
+	@Test
+	public void onSchedule() {
+		TickScheduler scheduler = new TickScheduler(PERIOD, 4);
+		long now = 1000;
+
+		for (int i = 0; i < 10; ++i) {
+			assertEquals(0, scheduler.onTickStart(now));
+			assertEquals(0, scheduler.getLag());
+			assertFalse(scheduler.isOverloaded());
+
+			now += 10; // tick takes 10 ns
+			assertEquals(PERIOD - 10, scheduler.getDelay(now));
+			now += scheduler.getDelay(now);
+		}
+	}
+
+	@Test
+	public void catchUp() {
+		TickScheduler scheduler = new TickScheduler(PERIOD, 4);
+		long now = 0;
+
+		scheduler.onTickStart(now);
+		now += 3 * PERIOD + 10; // Slow tick: 3 ticks behind
+
+		assertEquals(0, scheduler.getDelay(now));
+		assertEquals(0, scheduler.onTickStart(now));
+		assertEquals(2 * PERIOD + 10, scheduler.getLag());
+		assertTrue(scheduler.isOverloaded());
+
+		// Fast ticks run back to back until the schedule is met
+		int catchUpTicks = 0;
+		while (scheduler.getDelay(now) == 0) {
+			scheduler.onTickStart(now);
+			catchUpTicks++;
+		}
+
+		assertEquals(2, catchUpTicks);
+		assertEquals(10, scheduler.getLag());
+		assertFalse(scheduler.isOverloaded());
+		assertEquals(0, scheduler.getDroppedTicks());
+	}
+
+	@Test
+	public void boundedCatchUp() {
+		TickScheduler scheduler = new TickScheduler(PERIOD, 4);
+		long now = 0;
+
+		scheduler.onTickStart(now);
+		now += 100 * PERIOD + 10; // Very slow tick
+
+		long dropped = scheduler.onTickStart(now);
+		assertEquals(99 - 4, dropped);
+		assertEquals(dropped, scheduler.getDroppedTicks());
+		assertEquals(4 * PERIOD + 10, scheduler.getLag());
+
+		int catchUpTicks = 0;
+		while (scheduler.getDelay(now) == 0) {
+			scheduler.onTickStart(now);
+			catchUpTicks++;
+		}
+
+		assertEquals(4, catchUpTicks);
+	}
+
+}
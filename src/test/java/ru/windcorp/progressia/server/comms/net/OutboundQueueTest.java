@@ -0,0 +1,87 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.comms.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class OutboundQueueTest {
+
+	@Test
+	public void drainRespectsBudgetAndOrder() throws IOException {
+		OutboundQueue queue = new OutboundQueue(1024);
+
+		for (int i = 0; i < 10; ++i) {
+			assertTrue(queue.add(new byte[] { (byte) i, 0, 0, 0 }));
+		}
+
+		assertEquals(10, queue.getQueuedFrames());
+		assertEquals(40, queue.getQueuedBytes());
+
+		List<byte[]> drained = new ArrayList<>();
+
+		assertEquals(12, queue.drain(drained::add, 14));
+		assertEquals(3, drained.size());
+		assertEquals(7, queue.getQueuedFrames());
+
+		assertEquals(28, queue.drain(drained::add, 1000));
+		assertEquals(10, drained.size());
+
+		for (int i = 0; i < drained.size(); ++i) {
+			assertEquals(i, drained.get(i)[0]);
+		}
+
+		assertEquals(0, queue.getQueuedFrames());
+		assertEquals(0, queue.getQueuedBytes());
+		assertEquals(10, queue.getFramesSent());
+		assertEquals(40, queue.getBytesSent());
+	}
+
+	@Test
+	public void oversizedFrameIsDrained() throws IOException {
+		OutboundQueue queue = new OutboundQueue(1024);
+		queue.add(new byte[100]);
+		queue.add(new byte[100]);
+
+		assertEquals(100, queue.drain(frame -> {}, 10));
+		assertEquals(1, queue.getQueuedFrames());
+	}
+
+	@Test
+	public void overflow() {
+		OutboundQueue queue = new OutboundQueue(100);
+
+		assertTrue(queue.add(new byte[60]));
+		assertFalse(queue.add(new byte[60]));
+		assertTrue(queue.isOverflowed());
+
+		// Once overflowed, everything is rejected
+		assertFalse(queue.add(new byte[1]));
+		assertEquals(1, queue.getQueuedFrames());
+		assertEquals(60, queue.getQueuedBytes());
+	}
+
+}
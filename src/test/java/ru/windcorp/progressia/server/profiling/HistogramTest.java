@@ -0,0 +1,110 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.profiling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void bucketBounds() {
+		Random random = new Random(0);
+
+		for (int i = 0; i < 100000; ++i) {
+			long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+			int bucket = Histogram.getBucket(value);
+
+			assertTrue("bucket " + bucket + " of " + value, bucket >= 0 && bucket < Histogram.BUCKET_COUNT);
+			assertTrue("lower bound of " + value, Histogram.getBucketLowerBound(bucket) <= value);
+			assertTrue("upper bound of " + value, Histogram.getBucketUpperBound(bucket) >= value);
+		}
+
+		for (int bucket = 1; bucket < Histogram.BUCKET_COUNT; ++bucket) {
+			assertEquals(
+				"gap before bucket " + bucket,
+				Histogram.getBucketUpperBound(bucket - 1) + 1,
+				Histogram.getBucketLowerBound(bucket)
+			);
+		}
+
+		assertEquals(Long.MAX_VALUE, Histogram.getBucketUpperBound(Histogram.BUCKET_COUNT - 1));
+	}
+
+	@Test
+	public void percentiles() {
+		Random random = new Random(0);
+		Histogram histogram = new Histogram("test");
+
+		long[] values = new long[10000];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = (long) (random.nextDouble() * 50_000_000);
+			histogram.record(values[i]);
+		}
+
+		Arrays.sort(values);
+
+		assertEquals(values.length, histogram.getCount());
+		assertEquals(values[values.length - 1], histogram.getMax());
+
+		for (double fraction : new double[] { 0.1, 0.5, 0.9, 0.99 }) {
+			long exact = values[(int) Math.ceil(fraction * values.length) - 1];
+			long estimate = histogram.getPercentile(fraction);
+
+			assertTrue("percentile " + fraction + " underestimated", estimate >= exact);
+			assertTrue(
+				"percentile " + fraction + " is off by more than bucket width",
+				estimate - exact <= exact / Histogram.SUB_BUCKETS
+			);
+		}
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(0.5));
+	}
+
+	@Test
+	public void concurrentRecording() throws InterruptedException {
+		Histogram histogram = new Histogram("test");
+		Thread[] threads = new Thread[4];
+
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread(() -> {
+				for (int i = 1; i <= 100000; ++i) {
+					histogram.record(i);
+				}
+			});
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(4 * 100000, histogram.getCount());
+		assertEquals(4 * (100000L * 100001 / 2), histogram.getSum());
+		assertEquals(100000, histogram.getMax());
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.world.tasks;
+
+import java.lang.management.ManagementFactory;
+
+import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.world.ChunkData;
+import ru.windcorp.progressia.common.world.WorldData;
+import ru.windcorp.progressia.common.world.block.BlockData;
+import ru.windcorp.progressia.common.world.block.BlockDataRegistry;
+import ru.windcorp.progressia.common.world.block.BlockFace;
+import ru.windcorp.progressia.common.world.tile.TileData;
+import ru.windcorp.progressia.common.world.tile.TileDataRegistry;
+import ru.windcorp.progressia.server.Server;
+import ru.windcorp.progressia.server.world.ChunkLogic;
+import ru.windcorp.progressia.server.world.TickAndUpdateUtil;
+import ru.windcorp.progressia.server.world.block.BlockLogic;
+import ru.windcorp.progressia.server.world.block.BlockLogicRegistry;
+import ru.windcorp.progressia.server.world.block.BlockTickContext;
+import ru.windcorp.progressia.server.world.block.TickableBlock;
+import ru.windcorp.progressia.server.world.block.UpdateableBlock;
+import ru.windcorp.progressia.server.world.ticking.TickingPolicy;
+import ru.windcorp.progressia.server.world.tile.TickableTile;
+import ru.windcorp.progressia.server.world.tile.TileLogic;
+import ru.windcorp.progressia.server.world.tile.TileLogicRegistry;
+import ru.windcorp.progressia.server.world.tile.TileTickContext;
+import ru.windcorp.progressia.server.world.tile.UpdateableTile;
+
+/**
+ * Measures the number of bytes allocated by the ticking thread while ticking
+ * a chunk and while running block updates in it. In steady state both should
+ * allocate nothing.
+ * <p>
+ * The chunk contains regularly and randomly ticking blocks and regularly
+ * ticking tiles. Allocation is measured with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.
+ */
+public class TickChunkAllocationBenchmark {
+
+	private static final int BPC = ChunkData.BLOCKS_PER_CHUNK;
+
+	private static final int WARMUP_ITERATIONS = 20_000;
+	private static final int ITERATIONS = 20_000;
+	private static final int ROUNDS = 5;
+
+	private static long sink = 0;
+
+	private static class RegularBlock extends BlockLogic implements TickableBlock, UpdateableBlock {
+
+		public RegularBlock(String id) {
+			super(id);
+		}
+
+		@Override
+		public TickingPolicy getTickingPolicy(BlockTickContext context) {
+			return TickingPolicy.REGULAR;
+		}
+
+		@Override
+		public void tick(BlockTickContext context) {
+			sink += context.getBlockInWorld().x;
+			context.forEachFace(fctxt -> fctxt.forEachTile(tctxt -> sink++));
+		}
+
+		@Override
+		public void update(BlockTickContext context) {
+			sink += context.getBlockInWorld().y;
+		}
+
+	}
+
+	private static class RandomBlock extends BlockLogic implements TickableBlock {
+
+		public RandomBlock(String id) {
+			super(id);
+		}
+
+		@Override
+		public TickingPolicy getTickingPolicy(BlockTickContext context) {
+			return TickingPolicy.RANDOM;
+		}
+
+		@Override
+		public void tick(BlockTickContext context) {
+			sink += context.getBlockInWorld().z;
+		}
+
+	}
+
+	private static class RegularTile extends TileLogic implements TickableTile, UpdateableTile {
+
+		public RegularTile(String id) {
+			super(id);
+		}
+
+		@Override
+		public TickingPolicy getTickingPolicy(TileTickContext context) {
+			return TickingPolicy.REGULAR;
+		}
+
+		@Override
+		public void tick(TileTickContext context) {
+			sink += context.getLayer();
+		}
+
+		@Override
+		public void update(TileTickContext context) {
+			sink += context.getLayer();
+		}
+
+	}
+
+	public static void main(String[] args) {
+		BlockData air = new BlockData("Test:AllocAir");
+		BlockData regular = new BlockData("Test:AllocRegular");
+		BlockData random = new BlockData("Test:AllocRandom");
+		TileData tile = new TileData("Test:AllocTile");
+
+		BlockDataRegistry.getInstance().register(air);
+		BlockDataRegistry.getInstance().register(regular);
+		BlockDataRegistry.getInstance().register(random);
+		TileDataRegistry.getInstance().register(tile);
+
+		BlockLogicRegistry.getInstance().register(new BlockLogic("Test:AllocAir"));
+		BlockLogicRegistry.getInstance().register(new RegularBlock("Test:AllocRegular"));
+		BlockLogicRegistry.getInstance().register(new RandomBlock("Test:AllocRandom"));
+		TileLogicRegistry.getInstance().register(new RegularTile("Test:AllocTile"));
+
+		BlockDataRegistry.getInstance().freeze();
+		TileDataRegistry.getInstance().freeze();
+		BlockLogicRegistry.getInstance().freeze();
+		TileLogicRegistry.getInstance().freeze();
+
+		Server server = new Server(new WorldData());
+		WorldData world = server.getWorld().getData();
+
+		ChunkData chunk = new ChunkData(new Vec3i(0, 0, 0), world);
+		Vec3i bic = new Vec3i();
+
+		for (int i = 0; i < BPC * BPC * BPC; ++i) {
+			bic.set(i % BPC, (i / BPC) % BPC, i / (BPC * BPC));
+
+			BlockData block = (i % 61 == 0) ? regular : (i % 7 == 0) ? random : air;
+			chunk.setBlock(bic, block, false);
+
+			if (i % 17 == 0) {
+				chunk.getTiles(bic, BlockFace.TOP).addFarthest(tile);
+			}
+		}
+
+		// Mark the chunk as generated so that the world generator leaves it be
+		chunk.setGenerationHint(true);
+		world.addChunk(chunk);
+
+		ChunkLogic logic = server.getWorld().getChunk(chunk);
+		TickChunk task = logic.getTickTask();
+
+		Vec3i updated = new Vec3i(BPC / 2, BPC / 2, BPC / 2);
+
+		Runnable tickChunk = () -> task.evaluate(server);
+		Runnable updateBlocks = () -> {
+			TickAndUpdateUtil.updateBlock(server.getWorld(), updated);
+			TickAndUpdateUtil.updateTiles(server.getWorld(), updated, BlockFace.TOP);
+		};
+
+		for (int round = 0; round < ROUNDS; ++round) {
+			System.out.printf("Round %d%n", round);
+			measure("Tick chunk", tickChunk);
+			measure("Update block", updateBlocks);
+		}
+
+		System.out.println("(ignore) " + sink);
+		System.exit(0);
+	}
+
+	private static void measure(String name, Runnable action) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+			action.run();
+		}
+
+		long start = System.nanoTime();
+		long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+
+		for (int i = 0; i < ITERATIONS; ++i) {
+			action.run();
+		}
+
+		long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		long time = System.nanoTime() - start;
+
+		System.out.printf(
+			"  %-14s %8.1f bytes/op %10.0f ns/op%n",
+			name,
+			(double) allocated / ITERATIONS,
+			(double) time / ITERATIONS
+		);
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.world.ticking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.server.Server;
+
+public class TaskRingTest {
+
+	private static class IndexedTask extends TickerTask {
+		final int index;
+
+		IndexedTask(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public void getRelevantChunk(Vec3i output) {
+			output.set(0, 0, 0);
+		}
+
+		@Override
+		void run(Server server) {
+			// Do nothing
+		}
+	}
+
+	@Test
+	public void fillAndDrain() {
+		TaskRing ring = new TaskRing(4);
+		TickerTask[] tasks = new TickerTask[5];
+
+		for (int round = 0; round < 3; ++round) {
+			assertTrue(ring.isEmpty());
+			assertNull(ring.poll());
+
+			for (int i = 0; i < 4; ++i) {
+				tasks[i] = new IndexedTask(i);
+				assertTrue(ring.offer(tasks[i]));
+			}
+
+			assertFalse("offer into full ring", ring.offer(new IndexedTask(4)));
+
+			for (int i = 0; i < 4; ++i) {
+				assertSame(tasks[i], ring.poll());
+			}
+		}
+	}
+
+	@Test
+	public void concurrentTransfer() throws InterruptedException {
+		final int count = 1_000_000;
+		TaskRing ring = new TaskRing(64);
+
+		int[] received = new int[1];
+		boolean[] ordered = { true };
+
+		Thread consumer = new Thread(() -> {
+			for (int expected = 0; expected < count;) {
+				TickerTask task = ring.poll();
+				if (task == null) {
+					Thread.yield();
+					continue;
+				}
+
+				if (((IndexedTask) task).index != expected) {
+					ordered[0] = false;
+				}
+				expected++;
+			}
+			received[0] = count;
+		});
+		consumer.start();
+
+		for (int i = 0; i < count; ++i) {
+			TickerTask task = new IndexedTask(i);
+			while (!ring.offer(task)) {
+				Thread.yield();
+			}
+		}
+
+		consumer.join();
+
+		assertTrue("tasks received out of order", ordered[0]);
+		assertEquals(count, received[0]);
+		assertTrue(ring.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void capacityNotPowerOfTwo() {
+		new TaskRing(6);
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.server.world.ticking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import glm.vec._3.i.Vec3i;
+import ru.windcorp.progressia.common.world.WorldData;
+import ru.windcorp.progressia.server.Server;
+
+public class TickerCoordinatorTest {
+
+	private static class CountingEvaluation extends Evaluation {
+		final AtomicInteger evaluated;
+		final AtomicInteger disposed;
+
+		CountingEvaluation(AtomicInteger evaluated, AtomicInteger disposed) {
+			this.evaluated = evaluated;
+			this.disposed = disposed;
+		}
+
+		@Override
+		public void evaluate(Server server) {
+			evaluated.incrementAndGet();
+		}
+
+		@Override
+		public void getRelevantChunk(Vec3i output) {
+			output.set(0, 0, 0);
+		}
+
+		@Override
+		public void dispose() {
+			disposed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Requests its successor when evaluated until the chain reaches its
+	 * length, so every link takes one pass.
+	 */
+	private class ChainEvaluation extends Evaluation {
+		final int remaining;
+
+		ChainEvaluation(int remaining) {
+			this.remaining = remaining;
+		}
+
+		@Override
+		public void evaluate(Server server) {
+			chainEvaluated.incrementAndGet();
+			if (remaining > 1) {
+				coordinator.requestEvaluation(new ChainEvaluation(remaining - 1));
+			}
+		}
+
+		@Override
+		public void getRelevantChunk(Vec3i output) {
+			output.set(0, 0, 0);
+		}
+	}
+
+	private Server server;
+	private TickerCoordinator coordinator;
+	private final AtomicInteger chainEvaluated = new AtomicInteger();
+
+	@Before
+	public void setUp() {
+		server = new Server(new WorldData());
+		coordinator = new TickerCoordinator(server, 2);
+		coordinator.start();
+	}
+
+	@After
+	public void tearDown() {
+		coordinator.stop();
+	}
+
+	@Test
+	public void coalescing() {
+		AtomicInteger evaluated = new AtomicInteger();
+		AtomicInteger disposed = new AtomicInteger();
+
+		assertTrue(coordinator.requestEvaluation(new CountingEvaluation(evaluated, disposed), 42));
+		for (int i = 0; i < 9; ++i) {
+			assertFalse("duplicate accepted", coordinator.requestEvaluation(new CountingEvaluation(evaluated, disposed), 42));
+		}
+		assertTrue(coordinator.requestEvaluation(new CountingEvaluation(evaluated, disposed), 43));
+
+		assertEquals("duplicates disposed outside the server thread", 0, disposed.get());
+
+		coordinator.runOneTick();
+
+		assertEquals("one evaluation per key", 2, evaluated.get());
+		assertEquals("all evaluations disposed", 11, disposed.get());
+
+		// Keys are released once their pass has started
+		assertTrue(coordinator.requestEvaluation(new CountingEvaluation(evaluated, disposed), 42));
+		coordinator.runOneTick();
+		assertEquals(3, evaluated.get());
+	}
+
+	@Test
+	public void passCapCarriesOver() {
+		int maxPasses = server.getTickingSettings().getMaxPassesPerTick();
+		int length = maxPasses + 5;
+
+		coordinator.requestEvaluation(new ChainEvaluation(length));
+
+		coordinator.runOneTick();
+		assertEquals("passes in capped tick", maxPasses, coordinator.getLastTickPasses());
+		assertEquals("evaluations in capped tick", maxPasses, chainEvaluated.get());
+
+		coordinator.runOneTick();
+		assertEquals("passes in next tick", 5, coordinator.getLastTickPasses());
+		assertEquals("deferred evaluations dropped", length, chainEvaluated.get());
+
+		coordinator.runOneTick();
+		assertEquals("work left after the chain", 0, coordinator.getLastTickPasses());
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.test.gen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.windcorp.progressia.common.util.PalettedArray;
+import ru.windcorp.progressia.common.world.ChunkData;
+import ru.windcorp.progressia.common.world.block.BlockData;
+
+/**
+ * Compares the heap usage of the legacy {@code BlockData[]} chunk layout with
+ * the {@link PalettedArray} used by {@link ChunkData} for a region generated
+ * the same way {@link TestWorldGenerator} does it.
+ * <p>
+ * Run with a fixed heap, e.g. {@code -Xms1g -Xmx1g}, for stable results.
+ */
+public class BlockStorageBenchmark {
+
+	private static final int BPC = ChunkData.BLOCKS_PER_CHUNK;
+	private static final int BLOCKS = BPC * BPC * BPC;
+
+	private static final int REGION_SIZE_XY = 16;
+	private static final int REGION_SIZE_Z = 8;
+
+	private final TestTerrainGenerator terrain = new TestTerrainGenerator(null, null);
+
+	private final BlockData air = new BlockData("Test:Air");
+	private final BlockData dirt = new BlockData("Test:Dirt");
+	private final BlockData stone = new BlockData("Test:Stone");
+	private final BlockData[] granites = {
+		new BlockData("Test:GraniteGravel"),
+		new BlockData("Test:GraniteGravel"),
+		new BlockData("Test:GraniteCracked"),
+		new BlockData("Test:GraniteMonolith")
+	};
+
+	public static void main(String[] args) {
+		new BlockStorageBenchmark().run();
+	}
+
+	private void run() {
+		List<BlockData[]> region = generateRegion();
+		int chunks = region.size();
+
+		long legacy = measure(() -> {
+			List<Object> result = new ArrayList<>(chunks);
+			for (BlockData[] chunk : region) {
+				result.add(chunk.clone());
+			}
+			return result;
+		});
+
+		int[] uniform = new int[1];
+		long paletted = measure(() -> {
+			List<Object> result = new ArrayList<>(chunks);
+			uniform[0] = 0;
+			for (BlockData[] chunk : region) {
+				PalettedArray<BlockData> array = new PalettedArray<>(BLOCKS, null);
+				for (int i = 0; i < BLOCKS; ++i) {
+					array.set(i, chunk[i]);
+				}
+				array.compact();
+				if (array.isUniform()) {
+					uniform[0]++;
+				}
+				result.add(array);
+			}
+			return result;
+		});
+
+		System.out.printf("Region: %d chunks, %d uniform%n", chunks, uniform[0]);
+		System.out.printf("BlockData[]:   %10d bytes total, %8d bytes/chunk%n", legacy, legacy / chunks);
+		System.out.printf("PalettedArray: %10d bytes total, %8d bytes/chunk%n", paletted, paletted / chunks);
+		System.out.printf("Ratio: %.1fx%n", (double) legacy / paletted);
+	}
+
+	private List<BlockData[]> generateRegion() {
+		double[][] heightMap = new double[BPC][BPC];
+		double[][] gradMap = new double[BPC][BPC];
+
+		terrain.compute(0, 0, heightMap, gradMap);
+		int baseZ = (int) Math.floor(heightMap[0][0] / BPC) - REGION_SIZE_Z / 2;
+
+		List<BlockData[]> result = new ArrayList<>();
+
+		for (int cx = 0; cx < REGION_SIZE_XY; ++cx) {
+			for (int cy = 0; cy < REGION_SIZE_XY; ++cy) {
+				terrain.compute(cx * BPC, cy * BPC, heightMap, gradMap);
+
+				for (int cz = baseZ; cz < baseZ + REGION_SIZE_Z; ++cz) {
+					result.add(generateChunk(cx, cy, cz, heightMap, gradMap));
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/*
+	 * Mirrors TestWorldGenerator.generateUnpopulated
+	 */
+	private BlockData[] generateChunk(int cx, int cy, int cz, double[][] heightMap, double[][] gradMap) {
+		BlockData[] blocks = new BlockData[BLOCKS];
+		Random random = new Random(cx + cy + cz);
+		int startZ = cz * BPC;
+
+		for (int z = 0; z < BPC; ++z) {
+			for (int y = 0; y < BPC; ++y) {
+				for (int x = 0; x < BPC; ++x) {
+					double layer = z - heightMap[x][y] + startZ;
+					BlockData block;
+
+					if (layer < -4) {
+						block = stone;
+					} else if (layer < 0) {
+						if (gradMap[x][y] > 0.5) {
+							block = granites[random.nextInt(4)];
+						} else {
+							block = dirt;
+						}
+					} else {
+						block = air;
+					}
+
+					blocks[z * BPC * BPC + y * BPC + x] = block;
+				}
+			}
+		}
+
+		return blocks;
+	}
+
+	private static long measure(Supplier<Object> allocator) {
+		long before = usedMemory();
+		Object retained = allocator.get();
+		long after = usedMemory();
+
+		if (retained.hashCode() == 42) {
+			// Keep the result reachable until the measurement is done
+			System.out.print("");
+		}
+
+		return after - before;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; ++i) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.test.gen;
+
+import kdotjpg.opensimplex2.areagen.OpenSimplex2S;
+import ru.windcorp.progressia.common.world.ChunkData;
+
+/**
+ * Compares the batch terrain evaluation of {@link TestTerrainGenerator} with
+ * the point-by-point lambda tree it replaced, which is reproduced here
+ * verbatim, including its finite-difference slope.
+ * <p>
+ * Heights must match exactly; slopes are expected to differ slightly because
+ * the batch version uses analytic derivatives. The finite difference is
+ * least accurate next to the ridges of the mountains, where the slope is not
+ * continuous.
+ */
+public class TerrainNoiseBenchmark {
+
+	private static final int BPC = ChunkData.BLOCKS_PER_CHUNK;
+
+	private static final int WARMUP_COLUMNS = 2000;
+	private static final int MEASURED_COLUMNS = 4000;
+
+	public static void main(String[] args) {
+		TestTerrainGenerator batch = new TestTerrainGenerator(null, null);
+		LegacyTerrain legacy = new LegacyTerrain();
+
+		double[][] heightA = new double[BPC][BPC];
+		double[][] slopeA = new double[BPC][BPC];
+		double[][] heightB = new double[BPC][BPC];
+		double[][] slopeB = new double[BPC][BPC];
+
+		double maxHeightError = 0;
+		double totalSlopeError = 0;
+		double totalSlope = 0;
+
+		for (int column = 0; column < 500; ++column) {
+			int startX = (column * 7919) % 100000 - 50000;
+			int startY = (column * 104729) % 100000 - 50000;
+
+			legacy.compute(startX, startY, heightA, slopeA);
+			batch.compute(startX, startY, heightB, slopeB);
+
+			for (int x = 0; x < BPC; ++x) {
+				for (int y = 0; y < BPC; ++y) {
+					maxHeightError = Math.max(maxHeightError, Math.abs(heightA[x][y] - heightB[x][y]));
+					totalSlopeError += Math.abs(slopeA[x][y] - slopeB[x][y]);
+					totalSlope += slopeA[x][y];
+				}
+			}
+		}
+
+		System.out.printf("Max height difference: %g%n", maxHeightError);
+		System.out.printf("Mean relative slope difference: %.2f%%%n", 100 * totalSlopeError / totalSlope);
+
+		for (int round = 0; round < 5; ++round) {
+			run(legacy::compute, heightA, slopeA, WARMUP_COLUMNS);
+			long legacyTime = run(legacy::compute, heightA, slopeA, MEASURED_COLUMNS);
+
+			run(batch::compute, heightB, slopeB, WARMUP_COLUMNS);
+			long batchTime = run(batch::compute, heightB, slopeB, MEASURED_COLUMNS);
+
+			System.out.printf(
+				"Round %d: legacy %7.1f us/column, batch %7.1f us/column, %.1fx%n",
+				round,
+				legacyTime / 1e3 / MEASURED_COLUMNS,
+				batchTime / 1e3 / MEASURED_COLUMNS,
+				(double) legacyTime / batchTime
+			);
+		}
+	}
+
+	@FunctionalInterface
+	private interface ColumnComputer {
+		void compute(int startX, int startY, double[][] heightMap, double[][] slopeMap);
+	}
+
+	private static long run(ColumnComputer computer, double[][] heightMap, double[][] slopeMap, int columns) {
+		long start = System.nanoTime();
+
+		for (int column = 0; column < columns; ++column) {
+			computer.compute(column * BPC, (column % 37) * BPC, heightMap, slopeMap);
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * The lambda tree formerly used by {@link TestTerrainGenerator}
+	 */
+	private static class LegacyTerrain {
+
+		@FunctionalInterface
+		private interface Func2D {
+			double compute(double x, double y);
+		}
+
+		private final OpenSimplex2S noise = new OpenSimplex2S("We're getting somewhere".hashCode());
+		private final Func2D shape;
+
+		LegacyTerrain() {
+			Func2D plainsHeight = tweak(octaves(tweak(primitive(), 0.01, 0.5), 2, 3), 1, 0.2, 0.2);
+			Func2D mountainsHeight = tweak(octaves(ridge(tweak(primitive(), 0.01, 1)), 2, 1.5, 12), 1, 3);
+			Func2D mountainousity = tweak(octaves(tweak(primitive(), 0.007, 1), 2, 3), 1, 1, -0.25);
+
+			shape = tweak(
+				add(multiply(squash(mountainousity, 10), mountainsHeight), plainsHeight),
+				0.001,
+				1000,
+				0
+			);
+		}
+
+		void compute(int startX, int startY, double[][] heightMap, double[][] slopeMap) {
+			for (int x = 0; x < heightMap.length; ++x) {
+				for (int y = 0; y < heightMap.length; ++y) {
+					heightMap[x][y] = shape.compute(x + startX, y + startY);
+					slopeMap[x][y] = computeSlope(shape, x + startX, y + startY, heightMap[x][y]);
+				}
+			}
+		}
+
+		private double computeSlope(Func2D f, double x0, double y0, double f0) {
+			double di = 0.5;
+
+			double dfdx = (f.compute(x0 + di, y0) - f0) / di;
+			double dfdy = (f.compute(x0, y0 + di) - f0) / di;
+
+			return Math.hypot(dfdx, dfdy);
+		}
+
+		private Func2D primitive() {
+			return noise::noise2;
+		}
+
+		private Func2D add(Func2D a, Func2D b) {
+			return (x, y) -> a.compute(x, y) + b.compute(x, y);
+		}
+
+		private Func2D multiply(Func2D a, Func2D b) {
+			return (x, y) -> a.compute(x, y) * b.compute(x, y);
+		}
+
+		private Func2D tweak(Func2D f, double scale, double amplitude, double bias) {
+			return (x, y) -> f.compute(x * scale, y * scale) * amplitude + bias;
+		}
+
+		private Func2D tweak(Func2D f, double scale, double amplitude) {
+			return tweak(f, scale, amplitude, 0);
+		}
+
+		private Func2D octaves(Func2D f, double scaleFactor, double amplitudeFactor, int octaves) {
+			return (x, y) -> {
+				double result = 0;
+
+				double scale = 1;
+				double amplitude = 1;
+
+				for (int i = 0; i < octaves; ++i) {
+					result += f.compute(x * scale, y * scale) * amplitude;
+					scale *= scaleFactor;
+					amplitude /= amplitudeFactor;
+				}
+
+				return result;
+			};
+		}
+
+		private Func2D octaves(Func2D f, double factor, int octaves) {
+			return octaves(f, factor, factor, octaves);
+		}
+
+		private Func2D squash(Func2D f, double slope) {
+			return (x, y) -> 1 / (1 + Math.exp(-slope * f.compute(x, y)));
+		}
+
+		private Func2D ridge(Func2D f) {
+			return (x, y) -> {
+				double result = 1 - Math.abs(f.compute(x, y));
+				return result * result;
+			};
+		}
+
+	}
+
+}
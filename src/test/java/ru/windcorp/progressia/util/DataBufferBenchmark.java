@@ -0,0 +1,216 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import gnu.trove.list.array.TByteArrayList;
+import ru.windcorp.progressia.common.util.DataBuffer;
+
+/**
+ * Compares the legacy {@code TByteArrayList}-backed data buffer with
+ * {@link DataBuffer} on the life cycle of a packet payload: encoding, writing
+ * to a connection, reading from a connection and decoding.
+ * <p>
+ * Payloads imitate entity state (a few dozen primitives and IDs) and chunk
+ * data (mostly bulk bytes).
+ */
+public class DataBufferBenchmark {
+
+	private static final int ROUNDS = 5;
+	private static final int ITERATIONS = 20_000;
+
+	private static final byte[] CHUNK_BODY = new byte[16 * 1024];
+
+	public static void main(String[] args) throws IOException {
+		for (int i = 0; i < CHUNK_BODY.length; ++i) {
+			CHUNK_BODY[i] = (byte) (i * 31 / 97);
+		}
+
+		LegacyDataBuffer legacy = new LegacyDataBuffer();
+		DataBuffer heap = new DataBuffer(1024, false);
+		DataBuffer direct = new DataBuffer(1024, true);
+
+		ByteArrayOutputStream wire = new ByteArrayOutputStream(64 * 1024);
+
+		for (int round = 0; round < ROUNDS; ++round) {
+			System.out.printf("Round %d: %d payloads%n", round, ITERATIONS);
+
+			for (boolean chunk : new boolean[] { false, true }) {
+				String kind = chunk ? "chunk" : "entity";
+
+				long legacyTime = time(() -> {
+					for (int i = 0; i < ITERATIONS; ++i) {
+						writePayload(legacy.getWriter(), chunk);
+						wire.reset();
+						legacy.flush(new DataOutputStream(wire));
+						legacy.fill(input(wire), wire.size());
+						readPayload(legacy.getReader(), chunk);
+					}
+				});
+
+				long heapTime = time(() -> runDataBuffer(heap, wire, chunk));
+				long directTime = time(() -> runDataBuffer(direct, wire, chunk));
+
+				System.out.printf(
+					"  %-6s legacy %10.1f/s, heap %10.1f/s, direct %10.1f/s%n",
+					kind,
+					rate(legacyTime),
+					rate(heapTime),
+					rate(directTime)
+				);
+			}
+		}
+	}
+
+	private static void runDataBuffer(DataBuffer buffer, ByteArrayOutputStream wire, boolean chunk)
+		throws IOException {
+		for (int i = 0; i < ITERATIONS; ++i) {
+			writePayload(buffer.getWriter(), chunk);
+			wire.reset();
+			buffer.flush(new DataOutputStream(wire));
+			buffer.fill(input(wire), wire.size());
+			readPayload(buffer.getReader(), chunk);
+		}
+	}
+
+	private static DataInputStream input(ByteArrayOutputStream wire) {
+		return new DataInputStream(new ByteArrayInputStream(wire.toByteArray()));
+	}
+
+	private static void writePayload(DataOutput output, boolean chunk) throws IOException {
+		if (chunk) {
+			output.writeInt(3);
+			output.writeUTF("Test:Stone");
+			output.writeUTF("Test:Dirt");
+			output.writeUTF("Test:Air");
+			output.write(CHUNK_BODY);
+			return;
+		}
+
+		output.writeUTF("Test:Player");
+		for (int i = 0; i < 8; ++i) {
+			output.writeFloat(i * 0.5f);
+			output.writeInt(i);
+			output.writeLong(i * 1000L);
+		}
+	}
+
+	private static int readPayload(DataInput input, boolean chunk) throws IOException {
+		int result = 0;
+
+		if (chunk) {
+			int palette = input.readInt();
+			for (int i = 0; i < palette; ++i) {
+				result += input.readUTF().length();
+			}
+			byte[] body = new byte[CHUNK_BODY.length];
+			input.readFully(body);
+			return result + body[body.length - 1];
+		}
+
+		result += input.readUTF().length();
+		for (int i = 0; i < 8; ++i) {
+			result += (int) input.readFloat() + input.readInt() + (int) input.readLong();
+		}
+		return result;
+	}
+
+	@FunctionalInterface
+	private interface Task {
+		void run() throws IOException;
+	}
+
+	private static long time(Task task) throws IOException {
+		long start = System.nanoTime();
+		task.run();
+		return System.nanoTime() - start;
+	}
+
+	private static double rate(long nanos) {
+		return ITERATIONS / (nanos / 1e9);
+	}
+
+	/*
+	 * The implementation of DataBuffer before it was backed by ByteBuffers
+	 */
+	private static class LegacyDataBuffer {
+
+		private final TByteArrayList buffer = new TByteArrayList(1024);
+		private final byte[] transferBuffer = new byte[1024];
+		private int position;
+
+		private final DataInputStream reader = new DataInputStream(new InputStream() {
+			@Override
+			public int read() {
+				if (position >= buffer.size())
+					return -1;
+				return buffer.getQuick(position++) & 0xFF;
+			}
+		});
+
+		private final DataOutputStream writer = new DataOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				buffer.add((byte) b);
+			}
+		});
+
+		public DataInputStream getReader() {
+			position = 0;
+			return reader;
+		}
+
+		public DataOutputStream getWriter() {
+			buffer.resetQuick();
+			return writer;
+		}
+
+		public void fill(DataInput source, int length) throws IOException {
+			buffer.resetQuick();
+			while (length > 0) {
+				int currentLength = Math.min(transferBuffer.length, length);
+				source.readFully(transferBuffer, 0, currentLength);
+				buffer.add(transferBuffer, 0, currentLength);
+				length -= currentLength;
+			}
+		}
+
+		public void flush(DataOutput sink) throws IOException {
+			int position = 0;
+			int length = buffer.size();
+			while (position < length) {
+				int currentLength = Math.min(transferBuffer.length, length - position);
+				buffer.toArray(transferBuffer, position, 0, currentLength);
+				sink.write(transferBuffer, 0, currentLength);
+				position += currentLength;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import ru.windcorp.progressia.common.util.DataBuffer;
+
+public class DataBufferTest {
+
+	private static final String TEXT = "Progressia \u0000 \u00E9 \u0416 \u20AC \uD83D\uDE00";
+
+	@Test
+	public void matchesDataStreams() throws IOException {
+		for (boolean direct : new boolean[] { false, true }) {
+			DataBuffer buffer = new DataBuffer(16, direct);
+
+			ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+			writeSample(new DataOutputStream(expectedBytes));
+			writeSample(buffer.getWriter());
+
+			byte[] expected = expectedBytes.toByteArray();
+			byte[] actual = new byte[buffer.getSize()];
+			buffer.getContents().get(actual);
+			assertArrayEquals("encoding", expected, actual);
+
+			checkSample(buffer.getReader());
+			checkSample(new DataInputStream(new ByteArrayInputStream(actual)));
+		}
+	}
+
+	@Test
+	public void fillAndFlush() throws IOException {
+		for (boolean direct : new boolean[] { false, true }) {
+			byte[] data = new byte[100_000];
+			for (int i = 0; i < data.length; ++i) {
+				data[i] = (byte) (i * 31);
+			}
+
+			DataBuffer buffer = new DataBuffer(0, direct);
+			buffer.fill(new DataInputStream(new ByteArrayInputStream(data)), data.length);
+			assertEquals("size", data.length, buffer.getSize());
+
+			ByteArrayOutputStream sink = new ByteArrayOutputStream();
+			buffer.flush(new DataOutputStream(sink));
+			assertArrayEquals("flush", data, sink.toByteArray());
+
+			ByteBuffer slice = buffer.slice(10, 5);
+			assertTrue("read-only", slice.isReadOnly());
+			assertEquals("slice size", 5, slice.remaining());
+			assertEquals("slice contents", data[12], slice.get(2));
+
+			DataBuffer copy = new DataBuffer(buffer);
+			assertEquals("copy", buffer, copy);
+
+			buffer.release();
+			assertEquals("released", 0, buffer.getSize());
+			buffer.getWriter().writeInt(42);
+			assertEquals("reuse", 42, buffer.getReader().readInt());
+		}
+	}
+
+	@Test(expected = EOFException.class)
+	public void underflow() throws IOException {
+		DataBuffer buffer = new DataBuffer();
+		buffer.getWriter().writeShort(1);
+		buffer.getReader().readInt();
+	}
+
+	private static void writeSample(DataOutput output) throws IOException {
+		for (int i = 0; i < 300; ++i) {
+			output.writeBoolean(i % 3 == 0);
+			output.writeByte(i);
+			output.writeShort(i * 1000);
+			output.writeChar(i * 7);
+			output.writeInt(i * 123456789);
+			output.writeLong(i * 1234567890123L);
+			output.writeFloat(i / 3f);
+			output.writeDouble(i / 7.0);
+			output.writeUTF(TEXT);
+			output.write(new byte[] { 1, 2, (byte) i });
+		}
+		output.writeBytes("bytes");
+		output.writeChars("chars");
+	}
+
+	private static void checkSample(DataInput input) throws IOException {
+		for (int i = 0; i < 300; ++i) {
+			assertEquals(i % 3 == 0, input.readBoolean());
+			assertEquals((byte) i, input.readByte());
+			assertEquals((short) (i * 1000), input.readShort());
+			assertEquals((char) (i * 7), input.readChar());
+			assertEquals(i * 123456789, input.readInt());
+			assertEquals(i * 1234567890123L, input.readLong());
+			assertEquals(i / 3f, input.readFloat(), 0);
+			assertEquals(i / 7.0, input.readDouble(), 0);
+			assertEquals(TEXT, input.readUTF());
+
+			byte[] bytes = new byte[3];
+			input.readFully(bytes);
+			assertArrayEquals(new byte[] { 1, 2, (byte) i }, bytes);
+		}
+
+		byte[] bytes = new byte[5];
+		input.readFully(bytes);
+		assertEquals("bytes", new String(bytes, "US-ASCII"));
+
+		for (char c : "chars".toCharArray()) {
+			assertEquals(c, input.readChar());
+		}
+	}
+
+}
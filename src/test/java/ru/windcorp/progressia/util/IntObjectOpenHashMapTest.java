@@ -0,0 +1,92 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ru.windcorp.progressia.common.util.IntObjectOpenHashMap;
+
+public class IntObjectOpenHashMapTest {
+
+	@Test
+	public void randomOperations() {
+		Random random = new Random(0);
+
+		IntObjectOpenHashMap<String> map = new IntObjectOpenHashMap<>();
+		Map<Integer, String> reference = new HashMap<>();
+
+		for (int i = 0; i < 200000; ++i) {
+			// Small key range to provoke collisions and removals
+			int key = random.nextInt(4096) * (random.nextBoolean() ? 1 : -7);
+
+			switch (random.nextInt(3)) {
+			case 0:
+				String value = Integer.toString(random.nextInt());
+				assertEquals("put", reference.put(key, value), map.put(key, value));
+				break;
+			case 1:
+				assertEquals("remove", reference.remove(key), map.remove(key));
+				break;
+			default:
+				assertEquals("get", reference.get(key), map.get(key));
+				break;
+			}
+
+			assertEquals("size", reference.size(), map.size());
+		}
+
+		for (Map.Entry<Integer, String> entry : reference.entrySet()) {
+			assertEquals("final get", entry.getValue(), map.get(entry.getKey()));
+		}
+
+		Set<String> values = new HashSet<>();
+		map.forEachValue(values::add);
+		assertEquals("forEachValue", new HashSet<>(reference.values()), values);
+	}
+
+	@Test
+	public void empty() {
+		IntObjectOpenHashMap<Object> map = new IntObjectOpenHashMap<>();
+		assertNull(map.get(0));
+		assertNull(map.remove(0));
+		map.forEachValue(v -> {
+			throw new AssertionError();
+		});
+
+		map.put(0, "zero");
+		map.clear();
+		assertNull(map.get(0));
+		assertEquals(0, map.size());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void nullValues() {
+		new IntObjectOpenHashMap<>().put(0, null);
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import ru.windcorp.progressia.common.util.namespaces.Namespaced;
+import ru.windcorp.progressia.common.util.namespaces.NamespacedCounterparts;
+import ru.windcorp.progressia.common.util.namespaces.NamespacedInstanceRegistry;
+
+public class NamespacedInstanceRegistryTest {
+
+	static class TestNamespaced extends Namespaced {
+
+		public TestNamespaced(String id) {
+			super(id);
+		}
+
+	}
+
+	@Test
+	public void numericIdsAreDenseAndSorted() {
+		NamespacedInstanceRegistry<TestNamespaced> registry = new NamespacedInstanceRegistry<>();
+
+		TestNamespaced c = new TestNamespaced("Test:Gamma");
+		TestNamespaced a = new TestNamespaced("Test:Alpha");
+		TestNamespaced b = new TestNamespaced("Test:Beta");
+
+		registry.register(c);
+		registry.register(a);
+		registry.register(b);
+
+		assertEquals(-1, a.getNumericId());
+
+		registry.freeze();
+
+		assertEquals(0, a.getNumericId());
+		assertEquals(1, b.getNumericId());
+		assertEquals(2, c.getNumericId());
+
+		assertSame(b, registry.getByNumericId(1));
+		assertNull(registry.getByNumericId(3));
+		assertSame(c, registry.get("Test:Gamma"));
+	}
+
+	@Test
+	public void fingerprints() {
+		NamespacedInstanceRegistry<TestNamespaced> first = new NamespacedInstanceRegistry<>();
+		NamespacedInstanceRegistry<TestNamespaced> second = new NamespacedInstanceRegistry<>();
+		NamespacedInstanceRegistry<TestNamespaced> other = new NamespacedInstanceRegistry<>();
+
+		first.register(new TestNamespaced("Test:Alpha"));
+		first.register(new TestNamespaced("Test:Beta"));
+		second.register(new TestNamespaced("Test:Beta"));
+		second.register(new TestNamespaced("Test:Alpha"));
+		other.register(new TestNamespaced("Test:Alpha"));
+		other.register(new TestNamespaced("Test:Gamma"));
+
+		assertEquals("unfrozen", 0, first.getFingerprint());
+
+		first.freeze();
+		second.freeze();
+		other.freeze();
+
+		assertEquals("equal contents", first.getFingerprint(), second.getFingerprint());
+		assertNotEquals("different contents", first.getFingerprint(), other.getFingerprint());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void frozenRegistryRejectsRegistration() {
+		NamespacedInstanceRegistry<TestNamespaced> registry = new NamespacedInstanceRegistry<>();
+		registry.freeze();
+		registry.register(new TestNamespaced("Test:Late"));
+	}
+
+	@Test
+	public void counterparts() {
+		NamespacedInstanceRegistry<TestNamespaced> keys = new NamespacedInstanceRegistry<>();
+		NamespacedInstanceRegistry<TestNamespaced> values = new NamespacedInstanceRegistry<>();
+		NamespacedCounterparts<TestNamespaced> counterparts = new NamespacedCounterparts<>(keys, values);
+
+		TestNamespaced keyA = new TestNamespaced("Test:Alpha");
+		TestNamespaced keyB = new TestNamespaced("Test:Beta");
+		TestNamespaced keyC = new TestNamespaced("Test:Gamma");
+		TestNamespaced valueA = new TestNamespaced("Test:Alpha");
+		TestNamespaced valueC = new TestNamespaced("Test:Gamma");
+
+		keys.register(keyA);
+		keys.register(keyB);
+		keys.register(keyC);
+		values.register(valueC);
+		values.register(valueA);
+
+		// Before freezing lookups go through namespaced IDs
+		assertSame(valueA, counterparts.get(keyA));
+
+		keys.freeze();
+		values.freeze();
+
+		assertSame(valueA, counterparts.get(keyA));
+		assertNull(counterparts.get(keyB));
+		assertSame(valueC, counterparts.get(keyC));
+
+		// Unregistered keys still resolve by namespaced ID
+		assertSame(valueC, counterparts.get(new TestNamespaced("Test:Gamma")));
+		assertNull(counterparts.get(new TestNamespaced("Test:Delta")));
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ru.windcorp.progressia.common.util.PalettedArray;
+
+public class PalettedArrayTest {
+
+	private static final int SIZE = 32 * 32 * 32;
+
+	@Test
+	public void randomOperations() {
+		check(new Random(0), 3);
+		check(new Random(1), 17);
+		check(new Random(2), 300);
+	}
+
+	private void check(Random random, int distinctElements) {
+		String[] elements = new String[distinctElements];
+		for (int i = 0; i < elements.length; ++i) {
+			elements[i] = "Element " + i;
+		}
+
+		PalettedArray<String> array = new PalettedArray<>(SIZE, null);
+		String[] reference = new String[SIZE];
+
+		for (int i = 0; i < SIZE * 4; ++i) {
+			int index = random.nextInt(SIZE);
+			String element = elements[random.nextInt(elements.length)];
+
+			assertSame("set", reference[index], array.set(index, element));
+			reference[index] = element;
+
+			if (random.nextInt(SIZE) == 0) {
+				array.compact();
+			}
+		}
+
+		for (int i = 0; i < SIZE; ++i) {
+			assertSame("get", reference[i], array.get(i));
+		}
+
+		array.compact();
+
+		for (int i = 0; i < SIZE; ++i) {
+			assertSame("get after compact", reference[i], array.get(i));
+		}
+	}
+
+	@Test
+	public void uniform() {
+		PalettedArray<String> array = new PalettedArray<>(SIZE, null);
+		assertTrue(array.isUniform());
+		assertNull(array.get(SIZE - 1));
+
+		for (int i = 0; i < SIZE; ++i) {
+			array.set(i, "Air");
+		}
+
+		assertFalse(array.isUniform());
+		array.compact();
+		assertTrue(array.isUniform());
+		assertEquals(0, array.getBitsPerEntry());
+		assertEquals("Air", array.get(42));
+
+		array.set(42, "Stone");
+		assertEquals(1, array.getBitsPerEntry());
+		assertEquals("Stone", array.get(42));
+		assertEquals("Air", array.get(43));
+
+		array.fill("Dirt");
+		assertTrue(array.isUniform());
+		assertEquals("Dirt", array.get(42));
+	}
+
+	@Test
+	public void unusedEntriesAreReused() {
+		PalettedArray<String> array = new PalettedArray<>(SIZE, "Air");
+
+		for (int i = 0; i < 1000; ++i) {
+			array.set(0, "Element " + i);
+		}
+
+		assertTrue("palette size", array.getPaletteSize() <= 4);
+		assertTrue("bits per entry", array.getBitsPerEntry() <= 2);
+		assertEquals("Element 999", array.get(0));
+		assertEquals("Air", array.get(1));
+	}
+
+	@Test
+	public void allDistinct() {
+		PalettedArray<Integer> array = new PalettedArray<>(SIZE, null);
+
+		for (int i = 0; i < SIZE; ++i) {
+			array.set(i, i);
+		}
+
+		assertEquals(16, array.getBitsPerEntry());
+
+		for (int i = 0; i < SIZE; ++i) {
+			assertEquals(i, (int) array.get(i));
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void outOfBounds() {
+		new PalettedArray<>(SIZE, null).get(SIZE);
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Progressia
+ * Copyright (C)  2020-2021  Wind Corporation and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+ 
+package ru.windcorp.progressia.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ru.windcorp.progressia.common.util.SplitMix64;
+
+public class SplitMix64Test {
+
+	@Test
+	public void reproducible() {
+		SplitMix64 a = new SplitMix64(42);
+		SplitMix64 b = new SplitMix64(0);
+		b.setSeed(42);
+
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(a.nextLong(), b.nextLong());
+		}
+	}
+
+	@Test
+	public void referenceValues() {
+		// First outputs of the reference SplitMix64 implementation for seed 0
+		SplitMix64 random = new SplitMix64(0);
+		assertEquals(0xE220A8397B1DCDAFL, random.nextLong());
+		assertEquals(0x6E789E6AA1B965F4L, random.nextLong());
+		assertEquals(0x06C45D188009454FL, random.nextLong());
+	}
+
+	@Test
+	public void bounds() {
+		SplitMix64 random = new SplitMix64(1);
+		int[] histogram = new int[7];
+
+		for (int i = 0; i < 70000; ++i) {
+			int value = random.nextInt(7);
+			assertTrue(value >= 0 && value < 7);
+			histogram[value]++;
+
+			float f = random.nextFloat();
+			assertTrue(f >= 0 && f < 1);
+		}
+
+		for (int count : histogram) {
+			assertTrue("Skewed distribution: " + count, Math.abs(count - 10000) < 500);
+		}
+	}
+
+	@Test
+	public void split() {
+		SplitMix64 parent = new SplitMix64(7);
+		SplitMix64 child = parent.split();
+		assertNotEquals(parent.nextLong(), child.nextLong());
+	}
+
+}